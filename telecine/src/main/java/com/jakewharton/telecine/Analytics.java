@@ -11,19 +11,45 @@ interface Analytics {
   String ACTION_CAPTURE_INTENT_LAUNCH = "Launch Overlay Launch";
   String ACTION_CAPTURE_INTENT_RESULT = "Launch Overlay Result";
   String ACTION_CHANGE_VIDEO_SIZE = "Change Video Size";
+  String ACTION_CHANGE_VIDEO_FRAME_RATE = "Change Video Frame Rate";
+  String ACTION_CHANGE_PREFER_HEVC = "Prefer HEVC";
   String ACTION_CHANGE_SHOW_COUNTDOWN = "Show Countdown";
   String ACTION_CHANGE_HIDE_RECENTS = "Hide In Recents";
   String ACTION_CHANGE_RECORDING_NOTIFICATION = "Recording Notification";
   String ACTION_CHANGE_SHOW_TOUCHES = "Show Touches";
+  String ACTION_CHANGE_CRASH_SAFE_RECORDING = "Crash Safe Recording";
+  String ACTION_CHANGE_MULTI_TAKE = "Multi Take";
+  String ACTION_CHANGE_JOIN_TAKES = "Join Takes";
+  String ACTION_CHANGE_REPLAY_LENGTH = "Replay Length";
+  String ACTION_CHANGE_SEGMENT_LENGTH = "Segment Length";
+  String ACTION_CHANGE_KEEP_ALIVE_INTERVAL = "Keep Alive Interval";
+  String ACTION_CHANGE_TIME_LAPSE_INTERVAL = "Time Lapse Interval";
+  String ACTION_CHANGE_TIME_LAPSE_REAL_TIME = "Time Lapse Real Time";
+  String ACTION_CHANGE_RETENTION_MAX_SIZE = "Retention Max Size";
+  String ACTION_CHANGE_RETENTION_MAX_AGE = "Retention Max Age";
+  String ACTION_CHANGE_RETENTION_MAX_COUNT = "Retention Max Count";
   String ACTION_OVERLAY_SHOW = "Overlay Show";
   String ACTION_OVERLAY_HIDE = "Overlay Hide";
   String ACTION_OVERLAY_CANCEL = "Overlay Cancel";
   String ACTION_RECORDING_START = "Recording Start";
+  String ACTION_RECORDING_CODEC = "Recording Codec";
+  String ACTION_RECORDING_TIME_LAPSE = "Recording Time Lapse";
   String ACTION_RECORDING_STOP = "Recording Stop";
+  String ACTION_RECORDING_PAUSE = "Recording Pause";
+  String ACTION_RECORDING_RESUME = "Recording Resume";
+  String ACTION_RECORDING_REPAIR = "Recording Repair";
+  String ACTION_RECORDING_LOW_STORAGE = "Recording Low Storage";
+  String ACTION_RECORDING_EVICT = "Recording Evict";
+  String ACTION_RECORDING_BIT_RATE = "Recording Bit Rate";
+  String ACTION_RECORDING_JOIN = "Recording Join";
+  String ACTION_RECORDING_SHARE_SMALL = "Recording Share Small";
   String ACTION_SHORTCUT_ADDED = "Shortcut Added";
   String ACTION_SHORTCUT_LAUNCHED = "Shortcut Launched";
 
   String VARIABLE_RECORDING_LENGTH = "Recording Length";
+  String VARIABLE_TAP_TO_FIRST_FRAME = "Tap To First Frame";
+  String VARIABLE_START_TO_FIRST_FRAME = "Start To First Frame";
+  String VARIABLE_STOP_TO_NOTIFICATION = "Stop To Notification";
 
   /** @see {@link Tracker#send(Map)} for usage. */
   void send(Map<String, String> params);
@@ -0,0 +1,102 @@
+package com.jakewharton.telecine;
+
+/**
+ * Adjusts an encoder's bit rate while it runs based on how far behind its input it is. When the
+ * device is throttled the encoder cannot keep up with heavy animation at the target bit rate,
+ * frames queue up on its input surface, and the surface silently drops the oldest. Lowering the
+ * bit rate makes each frame cheaper to encode until the queue drains.
+ * <p>
+ * The queue itself cannot be observed. Its depth is estimated from the latency between a frame
+ * being captured and its encoded output arriving, divided by the frame interval. The bit rate is
+ * cut quickly when the queue is deep and restored slowly once it has stayed shallow, never leaving
+ * the range between {@link #MIN_FRACTION} of the target and the target itself.
+ * <p>
+ * Gaps between frames are not considered. A virtual display only produces frames when the screen
+ * changes, so gaps are normal whenever it is still.
+ */
+final class BitRateGovernor {
+  interface Listener {
+    /** Invoked each time the governor picks a new bit rate, at {@code timeUs}. */
+    void onBitRateChanged(long timeUs, int bitRate, long latencyUs);
+  }
+
+  static final float MIN_FRACTION = 0.25f;
+  static final float DECREASE = 0.75f;
+  static final float INCREASE = 1.1f;
+  /** Frames waiting for the encoder above which the bit rate is cut. */
+  static final float HIGH_WATER_FRAMES = 3;
+  /** Frames waiting for the encoder below which the encoder is considered to be keeping up. */
+  static final float LOW_WATER_FRAMES = 1;
+  /** Time for a change to take effect before the next cut. */
+  static final long COOLDOWN_US = 1000000;
+  /** Time the encoder must keep up before each increase. */
+  static final long RAISE_AFTER_US = 5000000;
+  /** Weight of each new latency sample. Smooths out single slow frames such as key frames. */
+  static final float SMOOTHING = 0.2f;
+
+  private static final long NONE = Long.MIN_VALUE;
+
+  private final int maxBitRate;
+  private final int minBitRate;
+  private final long frameIntervalUs;
+  private final Listener listener;
+
+  private int bitRate;
+  private float latencyUs = -1;
+  private long changedUs = NONE;
+  private long keepingUpSinceUs = NONE;
+
+  BitRateGovernor(int targetBitRate, int frameRate, Listener listener) {
+    if (targetBitRate <= 0 || frameRate <= 0) {
+      throw new IllegalArgumentException("Invalid target: " + targetBitRate + ", " + frameRate);
+    }
+    this.maxBitRate = targetBitRate;
+    this.minBitRate = (int) (targetBitRate * MIN_FRACTION);
+    this.frameIntervalUs = 1000000L / frameRate;
+    this.listener = listener;
+    bitRate = targetBitRate;
+  }
+
+  int bitRate() {
+    return bitRate;
+  }
+
+  /** The estimated number of frames waiting to be encoded. */
+  float queueDepth() {
+    return Math.max(0, latencyUs) / frameIntervalUs;
+  }
+
+  /**
+   * Record that the frame captured at {@code captureTimeUs} was output by the encoder at
+   * {@code nowUs}, both on the same clock. May pick and report a new bit rate.
+   */
+  void onFrameEncoded(long nowUs, long captureTimeUs) {
+    long sampleUs = Math.max(0, nowUs - captureTimeUs);
+    latencyUs = latencyUs < 0 ? sampleUs : latencyUs + SMOOTHING * (sampleUs - latencyUs);
+
+    float queueDepth = queueDepth();
+    if (queueDepth >= LOW_WATER_FRAMES) {
+      keepingUpSinceUs = NONE;
+    } else if (keepingUpSinceUs == NONE) {
+      keepingUpSinceUs = nowUs;
+    }
+
+    int newBitRate = bitRate;
+    if (queueDepth > HIGH_WATER_FRAMES) {
+      if (changedUs == NONE || nowUs - changedUs >= COOLDOWN_US) {
+        newBitRate = Math.max(minBitRate, (int) (bitRate * DECREASE));
+      }
+    } else if (keepingUpSinceUs != NONE && bitRate < maxBitRate) {
+      long sinceUs = changedUs == NONE ? keepingUpSinceUs : Math.max(keepingUpSinceUs, changedUs);
+      if (nowUs - sinceUs >= RAISE_AFTER_US) {
+        newBitRate = Math.min(maxBitRate, (int) (bitRate * INCREASE));
+      }
+    }
+
+    if (newBitRate != bitRate) {
+      bitRate = newBitRate;
+      changedUs = nowUs;
+      listener.onBitRateChanged(nowUs, bitRate, (long) latencyUs);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.jakewharton.telecine;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static android.graphics.Bitmap.Config.ARGB_8888;
+
+/**
+ * Holds a few {@link Bitmap#isMutable() mutable} ARGB bitmaps for reuse by later recordings so
+ * each thumbnail does not allocate its own. A pooled bitmap is reused for any size which fits
+ * within its allocation. Thread safe.
+ */
+final class BitmapPool {
+  private final int maxBitmaps;
+  private final Deque<Bitmap> bitmaps = new ArrayDeque<>();
+
+  BitmapPool(int maxBitmaps) {
+    this.maxBitmaps = maxBitmaps;
+  }
+
+  /** A cleared, mutable {@code width} x {@code height} bitmap, reused from the pool if possible. */
+  Bitmap get(int width, int height) {
+    Bitmap bitmap = take(width * height * 4);
+    if (bitmap == null) {
+      return Bitmap.createBitmap(width, height, ARGB_8888);
+    }
+    bitmap.reconfigure(width, height, ARGB_8888);
+    bitmap.eraseColor(Color.TRANSPARENT);
+    return bitmap;
+  }
+
+  /** The smallest pooled bitmap with at least {@code bytes} of allocation, or null. */
+  private synchronized Bitmap take(int bytes) {
+    Bitmap best = null;
+    for (Bitmap bitmap : bitmaps) {
+      int allocation = bitmap.getAllocationByteCount();
+      if (allocation >= bytes && (best == null || allocation < best.getAllocationByteCount())) {
+        best = bitmap;
+      }
+    }
+    if (best != null) {
+      bitmaps.remove(best);
+    }
+    return best;
+  }
+
+  /** Return {@code bitmap} for reuse. The caller must no longer use it. */
+  synchronized void put(Bitmap bitmap) {
+    if (bitmap.isRecycled() || !bitmap.isMutable() || bitmaps.contains(bitmap)) {
+      return;
+    }
+    if (bitmaps.size() == maxBitmaps) {
+      bitmaps.removeFirst().recycle();
+    }
+    bitmaps.addLast(bitmap);
+  }
+}
@@ -0,0 +1,148 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds ISO base media file format (MP4) boxes in a growable in-memory buffer. Boxes may nest;
+ * each box's size is filled in when it is {@linkplain #end() ended}.
+ */
+final class BoxWriter {
+  private byte[] data;
+  private int size;
+  private int[] openBoxes = new int[8];
+  private int depth;
+
+  BoxWriter() {
+    this(4096);
+  }
+
+  BoxWriter(int initialCapacity) {
+    data = new byte[initialCapacity];
+  }
+
+  /** Open a box of {@code type}. Its size is written by the matching {@link #end()}. */
+  BoxWriter begin(String type) {
+    if (depth == openBoxes.length) {
+      openBoxes = Arrays.copyOf(openBoxes, depth * 2);
+    }
+    openBoxes[depth++] = size;
+    u32(0);
+    return fourCc(type);
+  }
+
+  /** Open a "full" box of {@code type}, which carries a version and flags. */
+  BoxWriter beginFull(String type, int version, int flags) {
+    begin(type);
+    return u32((version << 24) | (flags & 0xffffff));
+  }
+
+  /** Close the most recently opened box. */
+  BoxWriter end() {
+    if (depth == 0) {
+      throw new IllegalStateException("No open box.");
+    }
+    int start = openBoxes[--depth];
+    setU32(start, size - start);
+    return this;
+  }
+
+  BoxWriter u8(int value) {
+    ensureCapacity(1);
+    data[size++] = (byte) value;
+    return this;
+  }
+
+  BoxWriter u16(int value) {
+    ensureCapacity(2);
+    data[size++] = (byte) (value >>> 8);
+    data[size++] = (byte) value;
+    return this;
+  }
+
+  BoxWriter u32(long value) {
+    ensureCapacity(4);
+    setU32(size, value);
+    size += 4;
+    return this;
+  }
+
+  BoxWriter u64(long value) {
+    u32(value >>> 32);
+    return u32(value);
+  }
+
+  /** Write {@code count} zero bytes. */
+  BoxWriter zeros(int count) {
+    ensureCapacity(count);
+    Arrays.fill(data, size, size + count, (byte) 0);
+    size += count;
+    return this;
+  }
+
+  BoxWriter fourCc(String type) {
+    if (type.length() != 4) {
+      throw new IllegalArgumentException("Box type must be four characters: " + type);
+    }
+    ensureCapacity(4);
+    for (int i = 0; i < 4; i++) {
+      data[size++] = (byte) type.charAt(i);
+    }
+    return this;
+  }
+
+  BoxWriter bytes(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, data, size, bytes.length);
+    size += bytes.length;
+    return this;
+  }
+
+  /** Write the remaining bytes of {@code buffer} without changing its position. */
+  BoxWriter bytes(ByteBuffer buffer) {
+    int length = buffer.remaining();
+    ensureCapacity(length);
+    buffer.duplicate().get(data, size, length);
+    size += length;
+    return this;
+  }
+
+  /** Overwrite the four bytes at {@code position}, e.g. an offset only known later. */
+  void setU32(int position, long value) {
+    data[position] = (byte) (value >>> 24);
+    data[position + 1] = (byte) (value >>> 16);
+    data[position + 2] = (byte) (value >>> 8);
+    data[position + 3] = (byte) value;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /** Discard everything written, keeping the buffer for reuse. */
+  void reset() {
+    if (depth != 0) {
+      throw new IllegalStateException("Boxes still open: " + depth);
+    }
+    size = 0;
+  }
+
+  void writeTo(OutputStream out) throws IOException {
+    if (depth != 0) {
+      throw new IllegalStateException("Boxes still open: " + depth);
+    }
+    out.write(data, 0, size);
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(data, size);
+  }
+
+  private void ensureCapacity(int count) {
+    if (size + count > data.length) {
+      data = Arrays.copyOf(data, Math.max(data.length * 2, size + count));
+    }
+  }
+}
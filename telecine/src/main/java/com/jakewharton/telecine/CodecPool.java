@@ -0,0 +1,50 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaCodec;
+import java.io.IOException;
+import timber.log.Timber;
+
+/**
+ * Keeps the encoder of a finished recording so that the next recording can reconfigure it rather
+ * than allocate a new one. Creating a hardware codec takes hundreds of milliseconds; resetting
+ * one takes a few. At most one idle codec is kept.
+ */
+final class CodecPool {
+  private MediaCodec idle;
+  private String idleMimeType;
+
+  /** An encoder for {@code mimeType} in the uninitialized state, ready to be configured. */
+  synchronized MediaCodec acquire(String mimeType) throws IOException {
+    if (idle != null && idleMimeType.equals(mimeType)) {
+      Timber.d("Reusing %s encoder.", mimeType);
+      MediaCodec codec = idle;
+      idle = null;
+      return codec;
+    }
+    clear();
+    return MediaCodec.createEncoderByType(mimeType);
+  }
+
+  /** Return {@code codec}, acquired for {@code mimeType} and in any state, for reuse. */
+  synchronized void recycle(MediaCodec codec, String mimeType) {
+    try {
+      codec.reset();
+    } catch (IllegalStateException e) {
+      Timber.w(e, "Unable to reset encoder. Releasing.");
+      codec.release();
+      return;
+    }
+    clear();
+    idle = codec;
+    idleMimeType = mimeType;
+  }
+
+  /** Release the idle encoder, if any. */
+  synchronized void clear() {
+    if (idle != null) {
+      idle.release();
+      idle = null;
+      idleMimeType = null;
+    }
+  }
+}
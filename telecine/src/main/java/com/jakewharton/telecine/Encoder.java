@@ -0,0 +1,86 @@
+package com.jakewharton.telecine;
+
+import android.view.Surface;
+import com.jakewharton.telecine.RecordingSession.RecordingInfo;
+import java.io.IOException;
+
+/**
+ * Turns the frames drawn into {@link #getInputSurface() its surface} into a video file.
+ * <p>
+ * Instances move through {@link #prepare}, {@link #start}, {@link #stop}, and {@link #release} in
+ * that order. Calls outside of that order throw {@link IllegalStateException}.
+ */
+interface Encoder {
+  int FRAME_RATE = 30;
+
+  interface Listener {
+    Listener NONE = new Listener() {
+      @Override public void onFrameEncoded(long presentationTimeUs, int size, boolean keyFrame) {
+      }
+    };
+
+    /**
+     * Invoked on the encoder's thread after each frame has been written to the output file. Not
+     * all implementations are able to report frames.
+     */
+    void onFrameEncoded(long presentationTimeUs, int size, boolean keyFrame);
+  }
+
+  /** Creates the encoders which a {@link RecordingSession} records with. */
+  interface Factory {
+    Factory DEFAULT = new Factory() {
+      @Override public Encoder create(Listener listener, BitRateGovernor.Listener bitRateListener,
+          SampleWriter.Factory writers, CodecPool codecPool, long keepAliveUs) {
+        return new MediaCodecEncoder(listener, bitRateListener, writers, codecPool, keepAliveUs);
+      }
+
+      @Override public Encoder createFallback() {
+        return new MediaRecorderEncoder();
+      }
+    };
+
+    /**
+     * An encoder which writes through {@code writers}. See {@link MediaCodecEncoder} for the
+     * meaning of each argument.
+     */
+    Encoder create(Listener listener, BitRateGovernor.Listener bitRateListener,
+        SampleWriter.Factory writers, CodecPool codecPool, long keepAliveUs);
+
+    /**
+     * An encoder to record with when none from {@link #create} can be prepared. It writes its own
+     * output file and may not report frames.
+     */
+    Encoder createFallback();
+  }
+
+  /** Configure the encoder to write {@code info}-sized frames to {@code outputFile}. */
+  void prepare(RecordingInfo info, String outputFile) throws IOException;
+
+  /** The surface to which frames should be drawn. Only valid after {@link #prepare}. */
+  Surface getInputSurface();
+
+  void start();
+
+  /** Stop encoding and block until the output file has been completely written. */
+  void stop();
+
+  void release();
+
+  /**
+   * Attempt to change the target bit rate while encoding.
+   *
+   * @return false if this encoder cannot be tuned at runtime.
+   */
+  boolean setVideoBitRate(int bitRate);
+
+  /**
+   * Stop keeping frames while encoding. Frames continue to be accepted from the input surface but
+   * are not written, and the time spent paused is removed from the recording on {@link #resume}.
+   *
+   * @return false if this encoder cannot pause. Frames are then written as usual.
+   */
+  boolean pause();
+
+  /** Keep frames again after {@link #pause}, continuing from the last frame which was kept. */
+  void resume();
+}
@@ -0,0 +1,113 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecInfo.CodecCapabilities;
+import android.media.MediaCodecInfo.VideoCapabilities;
+import android.media.MediaCodecList;
+import android.support.annotation.Nullable;
+import timber.log.Timber;
+
+/** The limits of the video encoder which will be used for a codec type. */
+final class EncoderCapabilities {
+  static final String MIME_TYPE_AVC = "video/avc";
+  static final String MIME_TYPE_HEVC = "video/hevc";
+
+  /** Both H.264 and HEVC encode in blocks of at least 16x16. Aligning to them avoids padding. */
+  private static final int BLOCK_SIZE = 16;
+
+  /** Probe the preferred encoder for {@code mimeType}, or null if no encoder supports it. */
+  @Nullable static EncoderCapabilities probe(String mimeType) {
+    MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+    for (MediaCodecInfo codecInfo : codecList.getCodecInfos()) {
+      if (!codecInfo.isEncoder() || !supportsType(codecInfo, mimeType)) {
+        continue;
+      }
+
+      CodecCapabilities codecCapabilities = codecInfo.getCapabilitiesForType(mimeType);
+      VideoCapabilities video = codecCapabilities.getVideoCapabilities();
+      int maxWidth = video.getSupportedWidths().getUpper();
+      int maxHeight = video.getSupportedHeights().getUpper();
+
+      // The widest frame bounds the area. Its height is the tallest allowed at that width.
+      int maxWidthHeight;
+      double maxAreaFrameRate;
+      try {
+        maxWidthHeight = video.getSupportedHeightsFor(maxWidth).getUpper();
+        maxAreaFrameRate = video.getSupportedFrameRatesFor(maxWidth, maxWidthHeight).getUpper();
+      } catch (IllegalArgumentException e) {
+        // Some codecs report a largest width which none of their supported sizes actually have.
+        Timber.w(e, "Inconsistent capabilities for %s. Skipping it.", codecInfo.getName());
+        continue;
+      }
+      int maxArea = maxWidth * maxWidthHeight;
+
+      return new EncoderCapabilities(mimeType, codecInfo.getName(), maxWidth, maxHeight, maxArea,
+          Math.max(BLOCK_SIZE, video.getWidthAlignment()),
+          Math.max(BLOCK_SIZE, video.getHeightAlignment()),
+          video.getSupportedFrameRates().getUpper(), (long) (maxArea * maxAreaFrameRate));
+    }
+    Timber.w("No encoder found for %s.", mimeType);
+    return null;
+  }
+
+  private static boolean supportsType(MediaCodecInfo codecInfo, String mimeType) {
+    for (String type : codecInfo.getSupportedTypes()) {
+      if (type.equalsIgnoreCase(mimeType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Round {@code edge} down to {@code alignment} so that the encoder does not pad each frame. */
+  static int align(int edge, int alignment) {
+    return edge - edge % alignment;
+  }
+
+  final String mimeType;
+  final String codecName;
+  /** Largest frame edges. Encoders are assumed to accept frames in either orientation. */
+  final int maxWidth;
+  final int maxHeight;
+  /** Largest number of pixels in a frame. */
+  final int maxArea;
+  final int widthAlignment;
+  final int heightAlignment;
+  final int maxFrameRate;
+  /** Largest number of pixels per second the encoder can sustain. */
+  final long maxPixelRate;
+
+  EncoderCapabilities(String mimeType, String codecName, int maxWidth, int maxHeight, int maxArea,
+      int widthAlignment, int heightAlignment, int maxFrameRate, long maxPixelRate) {
+    this.mimeType = mimeType;
+    this.codecName = codecName;
+    this.maxWidth = maxWidth;
+    this.maxHeight = maxHeight;
+    this.maxArea = maxArea;
+    this.widthAlignment = widthAlignment;
+    this.heightAlignment = heightAlignment;
+    this.maxFrameRate = maxFrameRate;
+    this.maxPixelRate = maxPixelRate;
+  }
+
+  /**
+   * True if this is one of the platform's software encoders. They are listed after any hardware
+   * encoder for the same type, so the preferred encoder is only software if there is no other.
+   */
+  boolean isSoftware() {
+    return codecName.startsWith("OMX.google.") || codecName.startsWith("c2.android.");
+  }
+
+  /** The highest frame rate at which {@code width} x {@code height} frames can be encoded. */
+  int maxFrameRate(int width, int height) {
+    long rate = maxPixelRate / ((long) width * height);
+    return (int) Math.max(1, Math.min(maxFrameRate, rate));
+  }
+
+  @Override public String toString() {
+    return codecName + " (" + mimeType + ") "
+        + maxWidth + " x " + maxHeight + " (max " + maxArea + "px)"
+        + " aligned " + widthAlignment + " x " + heightAlignment
+        + " @ " + maxFrameRate + "fps (max " + maxPixelRate + "px/s)";
+  }
+}
@@ -0,0 +1,126 @@
+package com.jakewharton.telecine;
+
+import android.support.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import timber.log.Timber;
+
+/**
+ * Remembers {@link EncoderCapabilities} on disk so that codecs are only enumerated once per OS
+ * build. The file is read on first use and discarded when it was written by a different build.
+ */
+final class EncoderCapabilitiesCache {
+  interface Prober {
+    Prober MEDIA_CODEC_LIST = new Prober() {
+      @Override public EncoderCapabilities probe(String mimeType) {
+        return EncoderCapabilities.probe(mimeType);
+      }
+    };
+
+    @Nullable EncoderCapabilities probe(String mimeType);
+  }
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String NONE = "none";
+
+  private final File file;
+  private final String fingerprint;
+  private final Prober prober;
+
+  /** Capabilities by MIME type. A null value means there is no encoder for that type. */
+  private Map<String, EncoderCapabilities> entries;
+
+  EncoderCapabilitiesCache(File file, String fingerprint, Prober prober) {
+    this.file = file;
+    this.fingerprint = fingerprint;
+    this.prober = prober;
+  }
+
+  /** Capabilities of the encoder for {@code mimeType}, or null if there is none. */
+  @Nullable synchronized EncoderCapabilities get(String mimeType) {
+    if (entries == null) {
+      entries = read();
+    }
+    if (entries.containsKey(mimeType)) {
+      return entries.get(mimeType);
+    }
+
+    Timber.d("Probing encoder capabilities for %s.", mimeType);
+    EncoderCapabilities capabilities = prober.probe(mimeType);
+    entries.put(mimeType, capabilities);
+    write();
+    return capabilities;
+  }
+
+  private Map<String, EncoderCapabilities> read() {
+    Map<String, EncoderCapabilities> entries = new LinkedHashMap<>();
+    if (!file.exists()) {
+      return entries;
+    }
+    try (BufferedReader reader =
+             new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+      String cachedFingerprint = reader.readLine();
+      if (!fingerprint.equals(cachedFingerprint)) {
+        Timber.d("Encoder capabilities were cached by build '%s'. Ignoring.", cachedFingerprint);
+        return entries;
+      }
+      for (String line; (line = reader.readLine()) != null; ) {
+        String[] fields = line.split("\t");
+        entries.put(fields[0], fields[1].equals(NONE) ? null : parse(fields));
+      }
+      Timber.d("Loaded encoder capabilities for %s.", entries.keySet());
+    } catch (IOException | RuntimeException e) {
+      Timber.w(e, "Unable to read encoder capabilities cache.");
+      entries.clear();
+    }
+    return entries;
+  }
+
+  private void write() {
+    File temp = new File(file.getPath() + ".tmp");
+    try (BufferedWriter writer =
+             new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF_8))) {
+      writer.write(fingerprint);
+      writer.write('\n');
+      for (Map.Entry<String, EncoderCapabilities> entry : entries.entrySet()) {
+        EncoderCapabilities value = entry.getValue();
+        writer.write(entry.getKey());
+        writer.write('\t');
+        writer.write(value == null ? NONE : format(value));
+        writer.write('\n');
+      }
+    } catch (IOException e) {
+      Timber.w(e, "Unable to write encoder capabilities cache.");
+      return;
+    }
+    if (!temp.renameTo(file)) {
+      Timber.w("Unable to replace encoder capabilities cache '%s'.", file);
+    }
+  }
+
+  private static String format(EncoderCapabilities capabilities) {
+    return capabilities.codecName
+        + '\t' + capabilities.maxWidth
+        + '\t' + capabilities.maxHeight
+        + '\t' + capabilities.maxArea
+        + '\t' + capabilities.widthAlignment
+        + '\t' + capabilities.heightAlignment
+        + '\t' + capabilities.maxFrameRate
+        + '\t' + capabilities.maxPixelRate;
+  }
+
+  private static EncoderCapabilities parse(String[] fields) {
+    return new EncoderCapabilities(fields[0], fields[1], Integer.parseInt(fields[2]),
+        Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), Integer.parseInt(fields[5]),
+        Integer.parseInt(fields[6]), Integer.parseInt(fields[7]), Long.parseLong(fields[8]));
+  }
+}
@@ -0,0 +1,69 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static android.media.MediaCodec.BUFFER_FLAG_CODEC_CONFIG;
+import static android.media.MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+import static android.media.MediaCodec.BUFFER_FLAG_KEY_FRAME;
+import static android.media.MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+
+/**
+ * Drains an encoder one output buffer at a time, passing its format and then each of its samples
+ * to a {@link Sink}. Recording and transcoding differ only in what they do with each sample.
+ */
+final class EncoderOutput {
+  interface Sink {
+    /** Called once with the encoder's output format, which carries its codec config. */
+    void onFormat(MediaFormat format) throws IOException;
+
+    /** Called with each sample, between the position and limit of {@code data}. */
+    void onSample(ByteBuffer data, long presentationTimeUs, boolean keyFrame) throws IOException;
+  }
+
+  private final MediaCodec codec;
+  private final Sink sink;
+  private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+  private boolean started;
+
+  EncoderOutput(MediaCodec codec, Sink sink) {
+    this.codec = codec;
+    this.sink = sink;
+  }
+
+  /** Whether the sink has been given the output format. */
+  boolean started() {
+    return started;
+  }
+
+  /**
+   * Handle the encoder's next output, waiting up to {@code timeoutUs} for it.
+   *
+   * @return true once the end of the stream has been reached.
+   */
+  boolean drain(long timeoutUs) throws IOException {
+    int index = codec.dequeueOutputBuffer(info, timeoutUs);
+    if (index == INFO_OUTPUT_FORMAT_CHANGED) {
+      sink.onFormat(codec.getOutputFormat());
+      started = true;
+      return false;
+    }
+    if (index < 0) {
+      return false; // INFO_TRY_AGAIN_LATER or a deprecated buffers-changed notice.
+    }
+
+    ByteBuffer buffer = codec.getOutputBuffer(index);
+    if ((info.flags & BUFFER_FLAG_CODEC_CONFIG) != 0) {
+      info.size = 0; // Codec config was delivered to the sink as part of the format.
+    }
+    if (info.size > 0 && started) {
+      buffer.position(info.offset);
+      buffer.limit(info.offset + info.size);
+      sink.onSample(buffer, info.presentationTimeUs, (info.flags & BUFFER_FLAG_KEY_FRAME) != 0);
+    }
+    codec.releaseOutputBuffer(index, false);
+    return (info.flags & BUFFER_FLAG_END_OF_STREAM) != 0;
+  }
+}
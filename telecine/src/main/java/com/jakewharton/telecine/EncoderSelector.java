@@ -0,0 +1,195 @@
+package com.jakewharton.telecine;
+
+import com.jakewharton.telecine.RecordingSession.RecordingInfo;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Provider;
+import timber.log.Timber;
+
+/**
+ * Creates and prepares the encoder for each take of a {@link RecordingSession}, along with the
+ * chain of {@link SampleWriter}s its options call for. A codec encoder for the chosen codec is
+ * tried first, then one for H.264, and then the {@linkplain Encoder.Factory#createFallback
+ * fallback} which supports none of the options.
+ */
+final class EncoderSelector {
+  /**
+   * Idle repeats and key frames are held off for this many time-lapse intervals. The gap between
+   * samples would otherwise look idle and turn every sample into a key frame.
+   */
+  private static final int TIME_LAPSE_KEEP_ALIVE_INTERVALS = 3;
+
+  /** Segments are split well before the 4GB file size limit of FAT32 storage. */
+  private static final long MAX_SEGMENT_BYTES = 1024L * 1024 * 1024;
+
+  private final Encoder.Factory encoderFactory;
+  private final CodecPool codecPool;
+  private final File journalDir;
+  private final SegmentingSampleWriter.Listener segmentListener;
+  private final Provider<Boolean> crashSafeRecording;
+  private final Provider<Integer> segmentLength;
+  private final Provider<Integer> keepAliveInterval;
+  private final Provider<Integer> timeLapseInterval;
+  private final Provider<Boolean> timeLapseRealTime;
+
+  // Describe the encoder most recently prepared.
+  private RecordingInfo recordingInfo;
+  private boolean codecFallback;
+  private boolean replay;
+  private boolean segmented;
+  private int timeLapseSeconds;
+  private long timeLapseSpeedup = 1;
+
+  EncoderSelector(Encoder.Factory encoderFactory, CodecPool codecPool, File journalDir,
+      SegmentingSampleWriter.Listener segmentListener, Provider<Boolean> crashSafeRecording,
+      Provider<Integer> segmentLength, Provider<Integer> keepAliveInterval,
+      Provider<Integer> timeLapseInterval, Provider<Boolean> timeLapseRealTime) {
+    this.encoderFactory = encoderFactory;
+    this.codecPool = codecPool;
+    this.journalDir = journalDir;
+    this.segmentListener = segmentListener;
+    this.crashSafeRecording = crashSafeRecording;
+    this.segmentLength = segmentLength;
+    this.keepAliveInterval = keepAliveInterval;
+    this.timeLapseInterval = timeLapseInterval;
+    this.timeLapseRealTime = timeLapseRealTime;
+  }
+
+  /**
+   * Prepare an encoder for {@code recordingInfo} which writes to {@code outputFile}, falling back
+   * to {@code avcInfo} if it is for another codec. Only the last {@code replaySeconds} are kept
+   * unless zero.
+   */
+  Encoder prepare(RecordingInfo recordingInfo, RecordingInfo avcInfo, int replaySeconds,
+      RecordingMetrics metrics, String outputFile) {
+    this.recordingInfo = recordingInfo;
+    codecFallback = false;
+    replay = false;
+    segmented = false;
+    timeLapseSeconds = 0;
+    timeLapseSpeedup = 1;
+
+    if (recordingInfo != avcInfo) {
+      try {
+        return prepare(recordingInfo, replaySeconds, metrics, outputFile);
+      } catch (IOException | RuntimeException e) {
+        Timber.w(e, "Unable to prepare %s. Falling back to H.264.", recordingInfo.mimeType);
+        this.recordingInfo = avcInfo;
+        codecFallback = true;
+      }
+    }
+    try {
+      return prepare(avcInfo, replaySeconds, metrics, outputFile);
+    } catch (IOException | RuntimeException e) {
+      Timber.w(e, "Unable to prepare MediaCodec. Falling back to MediaRecorder.");
+      if (crashSafeRecording.get()) {
+        Timber.w("MediaRecorder cannot write fragmented output. Recording will not be crash-safe.");
+      }
+      if (replaySeconds > 0) {
+        Timber.w("MediaRecorder cannot buffer a replay. The whole recording will be kept.");
+      }
+      if (replaySeconds == 0 && segmentLength.get() > 0) {
+        Timber.w("MediaRecorder cannot split recordings. Recording will be a single file.");
+      }
+      if (timeLapseInterval.get() > 0) {
+        Timber.w("MediaRecorder cannot sample a time-lapse. Every frame will be recorded.");
+      }
+    }
+
+    Encoder encoder = encoderFactory.createFallback();
+    try {
+      encoder.prepare(avcInfo, outputFile);
+    } catch (IOException e) {
+      throw new RuntimeException("Unable to prepare MediaRecorder.", e);
+    }
+    return encoder;
+  }
+
+  /** Prepare a codec encoder for {@code recordingInfo}, releasing it on failure. */
+  private Encoder prepare(RecordingInfo recordingInfo, int replaySeconds, RecordingMetrics metrics,
+      String outputFile) throws IOException {
+    boolean fragmented = crashSafeRecording.get();
+    int segmentMinutes = replaySeconds > 0 ? 0 : segmentLength.get();
+    SampleWriter.Factory writers;
+    if (replaySeconds > 0) {
+      // Nothing is written until the recording stops so there is nothing to journal.
+      SampleWriter.Factory output =
+          fragmented ? FragmentedMp4Writer.FACTORY : MuxerSampleWriter.FACTORY;
+      SampleRingBuffer buffer = createReplayBuffer(recordingInfo, replaySeconds);
+      writers = ReplaySampleWriter.factory(output, buffer);
+    } else if (fragmented) {
+      writers = FragmentedMp4Writer.FACTORY;
+    } else {
+      writers = JournalingSampleWriter.factory(MuxerSampleWriter.FACTORY, journalDir);
+    }
+    if (segmentMinutes > 0) {
+      writers = SegmentingSampleWriter.factory(writers, TimeUnit.MINUTES.toMicros(segmentMinutes),
+          MAX_SEGMENT_BYTES, segmentListener);
+    }
+    int timeLapseSeconds = timeLapseInterval.get();
+    long timeLapseSpeedup = 1;
+    if (timeLapseSeconds > 0 && !timeLapseRealTime.get()) {
+      // Each sampled frame is played back for one frame at the recording's frame rate.
+      timeLapseSpeedup = (long) recordingInfo.frameRate * timeLapseSeconds;
+      writers = TimeLapseSampleWriter.factory(writers, timeLapseSpeedup);
+    }
+    long keepAliveUs = TimeUnit.SECONDS.toMicros(keepAliveInterval.get());
+    if (timeLapseSeconds > 0) {
+      keepAliveUs = Math.max(keepAliveUs,
+          TimeUnit.SECONDS.toMicros(timeLapseSeconds * TIME_LAPSE_KEEP_ALIVE_INTERVALS));
+    }
+    Encoder encoder = encoderFactory.create(metrics, metrics, writers, codecPool, keepAliveUs);
+    if (timeLapseSeconds > 0) {
+      encoder = new TimeLapseEncoder(encoder, TimeUnit.SECONDS.toMillis(timeLapseSeconds));
+    }
+    try {
+      encoder.prepare(recordingInfo, outputFile);
+    } catch (IOException | RuntimeException e) {
+      encoder.release();
+      throw e;
+    }
+    replay = replaySeconds > 0;
+    segmented = segmentMinutes > 0;
+    this.timeLapseSeconds = timeLapseSeconds;
+    this.timeLapseSpeedup = timeLapseSpeedup;
+    return encoder;
+  }
+
+  private static SampleRingBuffer createReplayBuffer(RecordingInfo recordingInfo, int seconds) {
+    int capacity = RecordingSession.calculateReplayCapacity(recordingInfo.bitRate, seconds);
+    int maxSamples = recordingInfo.frameRate * (seconds + RecordingSession.REPLAY_SLACK_SECONDS);
+    Timber.d("Replay of %ss buffered in %s bytes.", seconds, capacity);
+    return new SampleRingBuffer(capacity, maxSamples, TimeUnit.SECONDS.toMicros(seconds));
+  }
+
+  /** What the encoder records. Differs from what was asked for after a fallback to H.264. */
+  RecordingInfo recordingInfo() {
+    return recordingInfo;
+  }
+
+  /** True when another codec was chosen but could not be prepared, so H.264 is recorded. */
+  boolean codecFallback() {
+    return codecFallback;
+  }
+
+  /** True when only the end of the recording is kept. */
+  boolean replay() {
+    return replay;
+  }
+
+  /** True when the recording is written to segment files rather than its output file. */
+  boolean segmented() {
+    return segmented;
+  }
+
+  /** Seconds between the frames of a time-lapse recording, or zero when every frame is kept. */
+  int timeLapseSeconds() {
+    return timeLapseSeconds;
+  }
+
+  /** How much faster than real time the recording plays back. One unless time is compressed. */
+  long timeLapseSpeedup() {
+    return timeLapseSpeedup;
+  }
+}
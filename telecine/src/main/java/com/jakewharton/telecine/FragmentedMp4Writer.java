@@ -0,0 +1,178 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaFormat;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+/**
+ * A {@link SampleWriter} which writes a fragmented MP4 containing a single H.264 or HEVC track.
+ * <p>
+ * The file starts with a {@code moov} box describing the track but no samples. Samples are
+ * buffered in memory and written as a {@code moof} + {@code mdat} fragment once at least the
+ * fragment duration has elapsed and a key frame arrives, so every fragment can be decoded on its
+ * own. Each completed fragment leaves the file playable: if the process dies mid-recording only
+ * the fragment being buffered is lost.
+ * <p>
+ * Samples are converted from Annex B to length-prefixed NAL units as they are buffered.
+ */
+final class FragmentedMp4Writer implements SampleWriter {
+  static final long DEFAULT_FRAGMENT_DURATION_US = TimeUnit.SECONDS.toMicros(1);
+  static final Factory FACTORY = new Factory() {
+    @Override public SampleWriter create(String outputFile) throws IOException {
+      return new FragmentedMp4Writer(outputFile);
+    }
+  };
+
+  private static final int TRACK_ID = 1;
+
+  private static final int TRUN_DATA_OFFSET = 0x000001;
+  private static final int TRUN_SAMPLE_DURATION = 0x000100;
+  private static final int TRUN_SAMPLE_SIZE = 0x000200;
+  private static final int TRUN_SAMPLE_FLAGS = 0x000400;
+  private static final int TFHD_DEFAULT_BASE_IS_MOOF = 0x020000;
+  /** sample_depends_on = 2: decodable without reference to other samples. */
+  private static final int SAMPLE_FLAGS_SYNC = 0x02000000;
+  /** sample_depends_on = 1 and sample_is_non_sync_sample = 1. */
+  private static final int SAMPLE_FLAGS_NON_SYNC = 0x01010000;
+
+  private final FileOutputStream out;
+  private final long fragmentDurationTicks;
+
+  /** Length-prefixed sample data of the fragment being buffered. */
+  private final BoxWriter mdat = new BoxWriter(256 * 1024);
+  private final BoxWriter moof = new BoxWriter();
+  private int[] sampleSizes = new int[64];
+  private long[] sampleTicks = new long[64];
+  private boolean[] sampleKeyFrames = new boolean[64];
+  private int sampleCount;
+
+  private boolean started;
+  private long firstPresentationTimeUs = -1;
+  private long lastTicks;
+  private long lastDurationTicks;
+  private int sequenceNumber;
+
+  FragmentedMp4Writer(String outputFile) throws IOException {
+    this(outputFile, DEFAULT_FRAGMENT_DURATION_US);
+  }
+
+  FragmentedMp4Writer(String outputFile, long fragmentDurationUs) throws IOException {
+    out = new FileOutputStream(outputFile);
+    fragmentDurationTicks = Mp4Headers.toTicks(fragmentDurationUs);
+  }
+
+  @Override public void start(MediaFormat format) throws IOException {
+    start(TrackFormat.from(format));
+  }
+
+  /** Write the header describing a track of {@code format}. */
+  void start(TrackFormat format) throws IOException {
+    if (started) {
+      throw new IllegalStateException("Already started.");
+    }
+    if (!format.isComplete()) {
+      throw new IOException("Missing parameter sets: " + format);
+    }
+    started = true;
+
+    BoxWriter header = new BoxWriter();
+    Mp4Headers.writeFtyp(header, format);
+    Mp4Headers.writeMoov(header, format, null);
+    header.writeTo(out);
+  }
+
+  @Override public void writeSample(ByteBuffer data, long presentationTimeUs, boolean keyFrame)
+      throws IOException {
+    if (!started) {
+      throw new IllegalStateException("Not started.");
+    }
+    boolean first = firstPresentationTimeUs == -1;
+    if (first) {
+      firstPresentationTimeUs = presentationTimeUs;
+    }
+    // Decode order must equal presentation order; never let time run backwards.
+    long elapsedTicks = Mp4Headers.toTicks(presentationTimeUs - firstPresentationTimeUs);
+    long ticks = Math.max(lastTicks, elapsedTicks);
+
+    if (keyFrame && sampleCount > 0 && ticks - sampleTicks[0] >= fragmentDurationTicks) {
+      writeFragment(ticks);
+    }
+    if (!first) {
+      lastDurationTicks = ticks - lastTicks;
+    }
+    lastTicks = ticks;
+
+    if (sampleCount == sampleSizes.length) {
+      int capacity = sampleCount * 2;
+      sampleSizes = Arrays.copyOf(sampleSizes, capacity);
+      sampleTicks = Arrays.copyOf(sampleTicks, capacity);
+      sampleKeyFrames = Arrays.copyOf(sampleKeyFrames, capacity);
+    }
+    sampleSizes[sampleCount] = NalUnits.writeLengthPrefixed(data, mdat);
+    sampleTicks[sampleCount] = ticks;
+    sampleKeyFrames[sampleCount] = keyFrame;
+    sampleCount++;
+  }
+
+  @Override public void stop() throws IOException {
+    if (!started) {
+      throw new IllegalStateException("Not started.");
+    }
+    if (sampleCount > 0) {
+      // The last sample has no successor to measure against. Assume it lasts as long as the one
+      // before it did, or one frame at the default rate if it is alone.
+      long duration = lastDurationTicks > 0
+          ? lastDurationTicks
+          : Mp4Headers.TIMESCALE / Encoder.FRAME_RATE;
+      writeFragment(lastTicks + duration);
+    }
+    out.close();
+  }
+
+  @Override public void release() {
+    try {
+      out.close();
+    } catch (IOException e) {
+      Timber.w(e, "Unable to close fragmented MP4 output.");
+    }
+  }
+
+  /** Write the buffered samples as one fragment. {@code endTicks} is when the last one ends. */
+  private void writeFragment(long endTicks) throws IOException {
+    moof.reset();
+    moof.begin("moof");
+    moof.beginFull("mfhd", 0, 0).u32(++sequenceNumber).end();
+    moof.begin("traf");
+    moof.beginFull("tfhd", 0, TFHD_DEFAULT_BASE_IS_MOOF).u32(TRACK_ID).end();
+    moof.beginFull("tfdt", 1, 0).u64(sampleTicks[0]).end();
+    moof.beginFull("trun", 0,
+        TRUN_DATA_OFFSET | TRUN_SAMPLE_DURATION | TRUN_SAMPLE_SIZE | TRUN_SAMPLE_FLAGS);
+    moof.u32(sampleCount);
+    int dataOffsetPosition = moof.size();
+    moof.u32(0); // Patched below once the size of this moof is known.
+    for (int i = 0; i < sampleCount; i++) {
+      long next = i + 1 < sampleCount ? sampleTicks[i + 1] : endTicks;
+      moof.u32(next - sampleTicks[i]);
+      moof.u32(sampleSizes[i]);
+      moof.u32(sampleKeyFrames[i] ? SAMPLE_FLAGS_SYNC : SAMPLE_FLAGS_NON_SYNC);
+    }
+    moof.end(); // trun
+    moof.end(); // traf
+    moof.end(); // moof
+    // Sample data starts just past the mdat header which immediately follows this moof.
+    moof.setU32(dataOffsetPosition, moof.size() + 8);
+    moof.u32(8 + mdat.size()).fourCc("mdat");
+
+    moof.writeTo(out);
+    mdat.writeTo(out);
+    Timber.d("Wrote fragment %s: %s samples, %s bytes.", sequenceNumber, sampleCount,
+        mdat.size());
+
+    mdat.reset();
+    sampleCount = 0;
+  }
+}
@@ -0,0 +1,254 @@
+package com.jakewharton.telecine;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.view.Surface;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Draws frames rendered to {@link #getInputSurface()}, by a decoder or a virtual display, onto an
+ * encoder's input surface with OpenGL, scaling them to the encoder's frame size. Frames never
+ * leave the GPU. Every method must be called on the thread which created the instance.
+ */
+final class FrameScaler implements SurfaceTexture.OnFrameAvailableListener {
+  /** {@code EGLExt.EGL_RECORDABLE_ANDROID}, which is only public from API 26. */
+  private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+  private static final String VERTEX_SHADER = ""
+      + "uniform mat4 uTextureMatrix;\n"
+      + "attribute vec4 aPosition;\n"
+      + "attribute vec4 aTextureCoord;\n"
+      + "varying vec2 vTextureCoord;\n"
+      + "void main() {\n"
+      + "  gl_Position = aPosition;\n"
+      + "  vTextureCoord = (uTextureMatrix * aTextureCoord).xy;\n"
+      + "}\n";
+  private static final String FRAGMENT_SHADER = ""
+      + "#extension GL_OES_EGL_image_external : require\n"
+      + "precision mediump float;\n"
+      + "varying vec2 vTextureCoord;\n"
+      + "uniform samplerExternalOES sTexture;\n"
+      + "void main() {\n"
+      + "  gl_FragColor = texture2D(sTexture, vTextureCoord);\n"
+      + "}\n";
+  /** A full-screen quad as a triangle strip of x, y, u, v. */
+  private static final float[] QUAD = {
+      -1, -1, 0, 0,
+      1, -1, 1, 0,
+      -1, 1, 0, 1,
+      1, 1, 1, 1,
+  };
+  private static final int STRIDE = 4 * 4;
+
+  private final int width;
+  private final int height;
+  private final EGLDisplay display;
+  private final EGLContext context;
+  private final EGLSurface surface;
+  private final int program;
+  private final int textureId;
+  private final SurfaceTexture texture;
+  private final Surface inputSurface;
+  private final FloatBuffer quad;
+  private final float[] textureMatrix = new float[16];
+
+  private final Object frameLock = new Object();
+  private boolean frameAvailable;
+
+  /** Frames are latched by {@link #awaitFrame}. */
+  FrameScaler(Surface encoderSurface, int width, int height) {
+    this(encoderSurface, width, height, null);
+  }
+
+  /**
+   * If {@code frameListener} is not null, frames are instead latched as soon as they arrive and
+   * it is run after each. The creating thread must then have a looper, and be free to receive
+   * them. Producers which cannot drop frames, like a virtual display, stall until they are.
+   */
+  FrameScaler(Surface encoderSurface, int width, int height,
+      @Nullable final Runnable frameListener) {
+    this.width = width;
+    this.height = height;
+
+    display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+    int[] version = new int[2];
+    if (!EGL14.eglInitialize(display, version, 0, version, 1)) {
+      throw new IllegalStateException("Unable to initialize EGL.");
+    }
+    int[] configAttributes = {
+        EGL14.EGL_RED_SIZE, 8,
+        EGL14.EGL_GREEN_SIZE, 8,
+        EGL14.EGL_BLUE_SIZE, 8,
+        EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+        EGL_RECORDABLE_ANDROID, 1,
+        EGL14.EGL_NONE
+    };
+    EGLConfig[] configs = new EGLConfig[1];
+    int[] configCount = new int[1];
+    if (!EGL14.eglChooseConfig(display, configAttributes, 0, configs, 0, 1, configCount, 0)
+        || configCount[0] == 0) {
+      throw new IllegalStateException("No recordable EGL config.");
+    }
+    int[] contextAttributes = { EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE };
+    context = EGL14.eglCreateContext(display, configs[0], EGL14.EGL_NO_CONTEXT,
+        contextAttributes, 0);
+    surface = EGL14.eglCreateWindowSurface(display, configs[0], encoderSurface,
+        new int[] { EGL14.EGL_NONE }, 0);
+    if (context == EGL14.EGL_NO_CONTEXT || surface == EGL14.EGL_NO_SURFACE
+        || !EGL14.eglMakeCurrent(display, surface, surface, context)) {
+      throw new IllegalStateException("Unable to create EGL surface: " + EGL14.eglGetError());
+    }
+
+    program = createProgram();
+    int[] textures = new int[1];
+    GLES20.glGenTextures(1, textures, 0);
+    textureId = textures[0];
+    GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+    GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER,
+        GLES20.GL_LINEAR);
+    GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER,
+        GLES20.GL_LINEAR);
+    GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S,
+        GLES20.GL_CLAMP_TO_EDGE);
+    GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T,
+        GLES20.GL_CLAMP_TO_EDGE);
+
+    quad = ByteBuffer.allocateDirect(QUAD.length * 4)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+    quad.put(QUAD).position(0);
+
+    texture = new SurfaceTexture(textureId);
+    // Decoders size their own buffers. A virtual display renders at whatever size it is given.
+    texture.setDefaultBufferSize(width, height);
+    if (frameListener == null) {
+      // The calling thread is busy feeding the decoder so it cannot receive this callback itself.
+      texture.setOnFrameAvailableListener(this, new Handler(Looper.getMainLooper()));
+    } else {
+      texture.setOnFrameAvailableListener(new SurfaceTexture.OnFrameAvailableListener() {
+        @Override public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+          surfaceTexture.updateTexImage();
+          frameListener.run();
+        }
+      }, new Handler(Looper.myLooper()));
+    }
+    inputSurface = new Surface(texture);
+  }
+
+  /** The surface to which frames should be rendered. */
+  Surface getInputSurface() {
+    return inputSurface;
+  }
+
+  @Override public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+    synchronized (frameLock) {
+      frameAvailable = true;
+      frameLock.notifyAll();
+    }
+  }
+
+  /**
+   * Wait for the frame most recently rendered by the decoder to arrive. Returns false if it did
+   * not arrive within {@code timeoutMs} or the thread was interrupted.
+   */
+  boolean awaitFrame(long timeoutMs) {
+    long deadlineMs = System.currentTimeMillis() + timeoutMs;
+    synchronized (frameLock) {
+      while (!frameAvailable) {
+        long remainingMs = deadlineMs - System.currentTimeMillis();
+        if (remainingMs <= 0) {
+          return false;
+        }
+        try {
+          frameLock.wait(remainingMs);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+      frameAvailable = false;
+    }
+    texture.updateTexImage();
+    return true;
+  }
+
+  /** Draw the frame which was last latched and send it to the encoder. */
+  void drawFrame(long presentationTimeNs) {
+    texture.getTransformMatrix(textureMatrix);
+
+    GLES20.glViewport(0, 0, width, height);
+    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+    GLES20.glUseProgram(program);
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+
+    int position = GLES20.glGetAttribLocation(program, "aPosition");
+    quad.position(0);
+    GLES20.glVertexAttribPointer(position, 2, GLES20.GL_FLOAT, false, STRIDE, quad);
+    GLES20.glEnableVertexAttribArray(position);
+    int textureCoord = GLES20.glGetAttribLocation(program, "aTextureCoord");
+    quad.position(2);
+    GLES20.glVertexAttribPointer(textureCoord, 2, GLES20.GL_FLOAT, false, STRIDE, quad);
+    GLES20.glEnableVertexAttribArray(textureCoord);
+    GLES20.glUniformMatrix4fv(GLES20.glGetUniformLocation(program, "uTextureMatrix"), 1, false,
+        textureMatrix, 0);
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+    EGLExt.eglPresentationTimeANDROID(display, surface, presentationTimeNs);
+    EGL14.eglSwapBuffers(display, surface);
+  }
+
+  void release() {
+    inputSurface.release();
+    texture.release();
+    GLES20.glDeleteProgram(program);
+    GLES20.glDeleteTextures(1, new int[] { textureId }, 0);
+    EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE,
+        EGL14.EGL_NO_CONTEXT);
+    EGL14.eglDestroySurface(display, surface);
+    EGL14.eglDestroyContext(display, context);
+    EGL14.eglReleaseThread();
+    EGL14.eglTerminate(display);
+  }
+
+  private static int createProgram() {
+    int program = GLES20.glCreateProgram();
+    GLES20.glAttachShader(program, compileShader(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER));
+    GLES20.glAttachShader(program, compileShader(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER));
+    GLES20.glLinkProgram(program);
+    int[] status = new int[1];
+    GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+    if (status[0] != GLES20.GL_TRUE) {
+      String log = GLES20.glGetProgramInfoLog(program);
+      GLES20.glDeleteProgram(program);
+      throw new IllegalStateException("Unable to link program: " + log);
+    }
+    return program;
+  }
+
+  private static int compileShader(int type, String source) {
+    int shader = GLES20.glCreateShader(type);
+    GLES20.glShaderSource(shader, source);
+    GLES20.glCompileShader(shader);
+    int[] status = new int[1];
+    GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+    if (status[0] == 0) {
+      String log = GLES20.glGetShaderInfoLog(shader);
+      GLES20.glDeleteShader(shader);
+      throw new IllegalStateException("Unable to compile shader: " + log);
+    }
+    return shader;
+  }
+}
@@ -0,0 +1,82 @@
+package com.jakewharton.telecine;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/** Whole-number choices for a spinner. Zero, which turns a feature off, has its own label. */
+final class IntChoiceAdapter extends BaseAdapter {
+  /** Lengths of instant replay in seconds. Zero records everything. */
+  static final int[] REPLAY_LENGTHS = { 0, 15, 30, 60 };
+  /** Lengths of recording segments in minutes. Zero records a single file. */
+  static final int[] SEGMENT_LENGTHS = { 0, 5, 15, 30, 60 };
+  /** Seconds between key frames while the screen is idle. Zero repeats every frame instead. */
+  static final int[] KEEP_ALIVE_INTERVALS = { 0, 1, 2, 5, 10 };
+  /** Seconds between the frames of a time-lapse. Zero records every frame instead. */
+  static final int[] TIME_LAPSE_INTERVALS = { 0, 1, 2, 5, 10, 30 };
+  /** Total size of kept recordings in gigabytes. Zero is unlimited. */
+  static final int[] RETENTION_SIZES = { 0, 1, 2, 5, 10, 20 };
+  /** Age of kept recordings in days. Zero is unlimited. */
+  static final int[] RETENTION_AGES = { 0, 1, 7, 30, 90 };
+  /** Number of kept recordings. Zero is unlimited. */
+  static final int[] RETENTION_COUNTS = { 0, 10, 25, 50, 100 };
+
+  public static int getSelectedPosition(int[] values, int value) {
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == value) {
+        return i;
+      }
+    }
+    return 0;
+  }
+
+  private final Context context;
+  private final LayoutInflater inflater;
+  private final int[] values;
+  private final int zeroRes;
+  private final int valueRes;
+
+  /**
+   * @param zeroRes a string describing a value of zero.
+   * @param valueRes a string formatting any other value.
+   */
+  IntChoiceAdapter(Context context, int[] values, int zeroRes, int valueRes) {
+    this.context = context;
+    inflater = LayoutInflater.from(context);
+    this.values = values;
+    this.zeroRes = zeroRes;
+    this.valueRes = valueRes;
+  }
+
+  @Override public int getCount() {
+    return values.length;
+  }
+
+  @Override public Integer getItem(int position) {
+    if (position < 0 || position >= values.length) {
+      throw new IllegalArgumentException("Unknown position: " + position);
+    }
+    return values[position];
+  }
+
+  @Override public long getItemId(int position) {
+    return position;
+  }
+
+  @Override public View getView(int position, View convertView, @NonNull ViewGroup parent) {
+    TextView tv = (TextView) convertView;
+    if (tv == null) {
+      tv =
+          (TextView) inflater.inflate(android.R.layout.simple_spinner_dropdown_item, parent, false);
+    }
+
+    int value = getItem(position);
+    tv.setText(value == 0 ? context.getString(zeroRes) : context.getString(valueRes, value));
+
+    return tv;
+  }
+}
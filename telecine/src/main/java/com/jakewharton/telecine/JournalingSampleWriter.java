@@ -0,0 +1,97 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import timber.log.Timber;
+
+/**
+ * Keeps a {@link RecordingJournal} for a {@link SampleWriter} whose output is unplayable until it
+ * is stopped. The journal is deleted once the output is complete. Failing to keep the journal
+ * never fails the recording.
+ */
+final class JournalingSampleWriter implements SampleWriter {
+  static Factory factory(final Factory delegate, final File journalDir) {
+    return new Factory() {
+      @Override public SampleWriter create(String outputFile) throws IOException {
+        File journalFile = RecordingJournal.fileFor(journalDir, new File(outputFile));
+        return new JournalingSampleWriter(delegate.create(outputFile), journalFile);
+      }
+    };
+  }
+
+  private final SampleWriter delegate;
+  private final File journalFile;
+  private RecordingJournal.Writer journal;
+
+  JournalingSampleWriter(SampleWriter delegate, File journalFile) {
+    this.delegate = delegate;
+    this.journalFile = journalFile;
+  }
+
+  @Override public void start(MediaFormat format) throws IOException {
+    delegate.start(format);
+
+    File journalDir = journalFile.getParentFile();
+    if (!journalDir.isDirectory() && !journalDir.mkdirs()) {
+      Timber.w("Unable to create journal directory '%s'.", journalDir);
+      return;
+    }
+    try {
+      journal = new RecordingJournal.Writer(journalFile, TrackFormat.from(format));
+    } catch (IOException | RuntimeException e) {
+      Timber.w(e, "Unable to start journal. Recording will not be repairable.");
+      abandonJournal();
+    }
+  }
+
+  @Override public void writeSample(ByteBuffer data, long presentationTimeUs, boolean keyFrame)
+      throws IOException {
+    delegate.writeSample(data, presentationTimeUs, keyFrame);
+
+    if (journal != null) {
+      try {
+        journal.append(presentationTimeUs);
+        if (keyFrame) {
+          journal.flush();
+        }
+      } catch (IOException e) {
+        Timber.w(e, "Unable to append to journal. Recording will not be repairable.");
+        abandonJournal();
+      }
+    }
+  }
+
+  @Override public void stop() throws IOException {
+    delegate.stop();
+    // The output is complete and no longer needs repair.
+    abandonJournal();
+  }
+
+  @Override public void release() {
+    delegate.release();
+    if (journal != null) {
+      // The output was never completed. Keep what was journaled for repair.
+      try {
+        journal.close();
+      } catch (IOException e) {
+        Timber.w(e, "Unable to close journal.");
+      }
+      journal = null;
+    }
+  }
+
+  private void abandonJournal() {
+    if (journal != null) {
+      try {
+        journal.close();
+      } catch (IOException ignored) {
+      }
+      journal = null;
+    }
+    if (journalFile.exists() && !journalFile.delete()) {
+      Timber.w("Unable to delete journal '%s'.", journalFile);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package com.jakewharton.telecine;
+
+/**
+ * Decides when an idle recording needs a key frame. A virtual display only produces frames when
+ * the screen changes, so an idle screen costs nothing to encode or store. The encoder repeats the
+ * last frame once the screen has been idle for the interval so that players and seeking have
+ * something recent to show, and that repeat should be a key frame so it can be decoded alone.
+ * <p>
+ * A key frame is requested once the screen has been idle for half the interval. The repeat, or
+ * whatever changed frame comes first, is then encoded as one.
+ */
+final class KeepAlive {
+  private static final long NONE = Long.MIN_VALUE;
+
+  private final long intervalUs;
+  private long lastFrameUs = NONE;
+  private boolean requested;
+
+  KeepAlive(long intervalUs) {
+    if (intervalUs <= 0) {
+      throw new IllegalArgumentException("Invalid interval: " + intervalUs);
+    }
+    this.intervalUs = intervalUs;
+  }
+
+  /** Record that a frame was output by the encoder at {@code nowUs}. */
+  void onFrame(long nowUs, boolean keyFrame) {
+    lastFrameUs = nowUs;
+    if (keyFrame) {
+      requested = false;
+    }
+  }
+
+  /** Whether the next frame should be requested to be a key frame. True once per idle stretch. */
+  boolean shouldRequestKeyFrame(long nowUs) {
+    if (requested || lastFrameUs == NONE || nowUs - lastFrameUs < intervalUs / 2) {
+      return false;
+    }
+    requested = true;
+    return true;
+  }
+}
@@ -0,0 +1,209 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Bundle;
+import android.view.Surface;
+import com.jakewharton.telecine.RecordingSession.RecordingInfo;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+import static android.media.MediaCodec.CONFIGURE_FLAG_ENCODE;
+import static android.media.MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface;
+
+/**
+ * An {@link Encoder} which feeds a {@link MediaCodec} from a surface and drains its output into a
+ * {@link SampleWriter} on a dedicated thread. Codecs are taken from and returned to a
+ * {@link CodecPool}. A {@link BitRateGovernor} lowers the bit rate while the codec falls behind.
+ * <p>
+ * With a keep-alive interval the frame rate is variable: nothing is encoded while the screen is
+ * idle except a key frame at each interval, as decided by {@link KeepAlive}. Without one, the last
+ * frame is repeated at the frame rate as if the screen were always changing.
+ */
+final class MediaCodecEncoder implements Encoder {
+  private static final int I_FRAME_INTERVAL = 1; // seconds
+  private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+  private final Listener listener;
+  private final BitRateGovernor.Listener bitRateListener;
+  private final SampleWriter.Factory writerFactory;
+  private final CodecPool codecPool;
+  private final long keepAliveUs;
+
+  private MediaCodec codec;
+  private String mimeType;
+  private SampleWriter writer;
+  private Surface inputSurface;
+  private TimestampRebaser rebaser;
+  private BitRateGovernor governor;
+  private KeepAlive keepAlive;
+  private Thread thread;
+
+  MediaCodecEncoder(Listener listener, BitRateGovernor.Listener bitRateListener,
+      SampleWriter.Factory writerFactory, CodecPool codecPool, long keepAliveUs) {
+    this.listener = listener;
+    this.bitRateListener = bitRateListener;
+    this.writerFactory = writerFactory;
+    this.codecPool = codecPool;
+    this.keepAliveUs = keepAliveUs;
+  }
+
+  @Override public void prepare(RecordingInfo info, String outputFile) throws IOException {
+    if (codec != null) {
+      throw new IllegalStateException("Already prepared.");
+    }
+
+    MediaFormat format = MediaFormat.createVideoFormat(info.mimeType, info.width, info.height);
+    format.setInteger(MediaFormat.KEY_COLOR_FORMAT, COLOR_FormatSurface);
+    format.setInteger(MediaFormat.KEY_BIT_RATE, info.bitRate);
+    format.setInteger(MediaFormat.KEY_FRAME_RATE, info.frameRate);
+    format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+    long repeatAfterUs = keepAliveUs > 0 ? keepAliveUs : 1000000L / info.frameRate;
+    format.setLong(MediaFormat.KEY_REPEAT_PREVIOUS_FRAME_AFTER, repeatAfterUs);
+    Timber.d("Encoder format: %s", format);
+
+    mimeType = info.mimeType;
+    codec = codecPool.acquire(mimeType);
+    codec.configure(format, null, null, CONFIGURE_FLAG_ENCODE);
+    inputSurface = codec.createInputSurface();
+    rebaser = new TimestampRebaser(info.frameRate);
+    keepAlive = keepAliveUs > 0 ? new KeepAlive(keepAliveUs) : null;
+    governor = new BitRateGovernor(info.bitRate, info.frameRate, new BitRateGovernor.Listener() {
+      @Override public void onBitRateChanged(long timeUs, int bitRate, long latencyUs) {
+        Timber.d("Encoder %sus behind. Changing bit rate to %s.", latencyUs, bitRate);
+        setVideoBitRate(bitRate);
+        bitRateListener.onBitRateChanged(timeUs, bitRate, latencyUs);
+      }
+    });
+    writer = writerFactory.create(outputFile);
+  }
+
+  @Override public Surface getInputSurface() {
+    if (inputSurface == null) {
+      throw new IllegalStateException("Not prepared.");
+    }
+    return inputSurface;
+  }
+
+  @Override public void start() {
+    if (codec == null || thread != null) {
+      throw new IllegalStateException("Not prepared or already started.");
+    }
+    codec.start();
+
+    thread = new Thread(new Runnable() {
+      @Override public void run() {
+        drain();
+      }
+    }, "telecine-encoder");
+    thread.start();
+  }
+
+  @Override public void stop() {
+    if (thread == null) {
+      throw new IllegalStateException("Not started.");
+    }
+    if (thread.isAlive()) {
+      codec.signalEndOfInputStream();
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    codec.stop();
+  }
+
+  @Override public void release() {
+    if (codec != null) {
+      codecPool.recycle(codec, mimeType);
+      codec = null;
+    }
+    if (inputSurface != null) {
+      inputSurface.release();
+      inputSurface = null;
+    }
+    if (writer != null) {
+      writer.release();
+      writer = null;
+    }
+  }
+
+  @Override public boolean setVideoBitRate(int bitRate) {
+    if (codec == null) {
+      throw new IllegalStateException("Not prepared.");
+    }
+    Bundle parameters = new Bundle();
+    parameters.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+    codec.setParameters(parameters);
+    return true;
+  }
+
+  @Override public boolean pause() {
+    if (codec == null) {
+      throw new IllegalStateException("Not prepared.");
+    }
+    // Frames from a surface are stamped with the monotonic clock.
+    rebaser.pause(TimeUnit.NANOSECONDS.toMicros(System.nanoTime()));
+    return true;
+  }
+
+  @Override public void resume() {
+    if (codec == null) {
+      throw new IllegalStateException("Not prepared.");
+    }
+    rebaser.resume();
+    // Frames are dropped until a key frame. Ask for one rather than wait for the next interval.
+    requestSyncFrame();
+  }
+
+  private void requestSyncFrame() {
+    Bundle parameters = new Bundle();
+    parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+    codec.setParameters(parameters);
+  }
+
+  /** Runs on the encoder thread until the end of the stream has been written. */
+  private void drain() {
+    EncoderOutput output = new EncoderOutput(codec, new EncoderOutput.Sink() {
+      @Override public void onFormat(MediaFormat format) throws IOException {
+        Timber.d("Encoder output format: %s", format);
+        writer.start(format);
+      }
+
+      @Override public void onSample(ByteBuffer data, long captureTimeUs, boolean keyFrame)
+          throws IOException {
+        // Frames from a surface are stamped with the monotonic clock when they are captured.
+        long nowUs = TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+        governor.onFrameEncoded(nowUs, captureTimeUs);
+        if (keepAlive != null) {
+          keepAlive.onFrame(nowUs, keyFrame);
+        }
+        long presentationTimeUs = rebaser.rebase(captureTimeUs, keyFrame);
+        if (presentationTimeUs != TimestampRebaser.DROP) {
+          int size = data.remaining();
+          writer.writeSample(data, presentationTimeUs, keyFrame);
+          listener.onFrameEncoded(presentationTimeUs, size, keyFrame);
+        }
+      }
+    });
+    try {
+      while (!output.drain(DEQUEUE_TIMEOUT_US)) {
+        long nowUs = TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+        if (keepAlive != null && keepAlive.shouldRequestKeyFrame(nowUs)) {
+          requestSyncFrame();
+        }
+      }
+
+      if (output.started()) {
+        writer.stop();
+      } else {
+        Timber.w("Encoder produced no output.");
+      }
+    } catch (IOException | RuntimeException e) {
+      Timber.e(e, "Encoder failed.");
+    }
+  }
+}
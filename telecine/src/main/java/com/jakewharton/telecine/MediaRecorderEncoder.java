@@ -0,0 +1,72 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaRecorder;
+import android.view.Surface;
+import com.jakewharton.telecine.RecordingSession.RecordingInfo;
+import java.io.IOException;
+
+import static android.media.MediaRecorder.OutputFormat.MPEG_4;
+import static android.media.MediaRecorder.VideoEncoder.H264;
+import static android.media.MediaRecorder.VideoSource.SURFACE;
+
+/**
+ * An {@link Encoder} backed by {@link MediaRecorder}. Used when {@link MediaCodecEncoder} is not
+ * available. Frames are not reported and the encoder cannot be tuned once started.
+ */
+final class MediaRecorderEncoder implements Encoder {
+  private MediaRecorder recorder;
+
+  @Override public void prepare(RecordingInfo info, String outputFile) throws IOException {
+    if (recorder != null) {
+      throw new IllegalStateException("Already prepared.");
+    }
+    recorder = new MediaRecorder();
+    recorder.setVideoSource(SURFACE);
+    recorder.setOutputFormat(MPEG_4);
+    recorder.setVideoFrameRate(info.frameRate);
+    recorder.setVideoEncoder(H264);
+    recorder.setVideoSize(info.width, info.height);
+    recorder.setVideoEncodingBitRate(info.bitRate);
+    recorder.setOutputFile(outputFile);
+    recorder.prepare();
+  }
+
+  @Override public Surface getInputSurface() {
+    if (recorder == null) {
+      throw new IllegalStateException("Not prepared.");
+    }
+    return recorder.getSurface();
+  }
+
+  @Override public void start() {
+    if (recorder == null) {
+      throw new IllegalStateException("Not prepared.");
+    }
+    recorder.start();
+  }
+
+  @Override public void stop() {
+    if (recorder == null) {
+      throw new IllegalStateException("Not prepared.");
+    }
+    recorder.stop();
+  }
+
+  @Override public void release() {
+    if (recorder != null) {
+      recorder.release();
+      recorder = null;
+    }
+  }
+
+  @Override public boolean setVideoBitRate(int bitRate) {
+    return false;
+  }
+
+  @Override public boolean pause() {
+    return false; // MediaRecorder.pause() requires API 24.
+  }
+
+  @Override public void resume() {
+  }
+}
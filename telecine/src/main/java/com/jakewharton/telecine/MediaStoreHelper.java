@@ -0,0 +1,76 @@
+package com.jakewharton.telecine;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+import android.support.annotation.Nullable;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+final class MediaStoreHelper {
+  private static final String MIME_TYPE = "video/mp4";
+
+  private MediaStoreHelper() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Register a finished recording with the media store from what is already known about it,
+   * rather than having the media scanner parse the file. Returns the recording's {@link Uri}, or
+   * null if it could not be inserted.
+   */
+  @Nullable static Uri insertVideo(ContentResolver contentResolver, File file, long durationMs,
+      int width, int height, String codec, long takenMillis) {
+    String name = file.getName();
+    String title = name.endsWith(".mp4") ? name.substring(0, name.length() - 4) : name;
+
+    ContentValues values = new ContentValues();
+    values.put(MediaStore.Video.Media.DATA, file.getAbsolutePath());
+    values.put(MediaStore.Video.Media.DISPLAY_NAME, name);
+    values.put(MediaStore.Video.Media.TITLE, title);
+    values.put(MediaStore.Video.Media.MIME_TYPE, MIME_TYPE);
+    values.put(MediaStore.Video.Media.SIZE, file.length());
+    values.put(MediaStore.Video.Media.DURATION, durationMs);
+    values.put(MediaStore.Video.Media.WIDTH, width);
+    values.put(MediaStore.Video.Media.HEIGHT, height);
+    values.put(MediaStore.Video.Media.RESOLUTION, width + "x" + height);
+    // There is no column for the codec. Record it where galleries which show details can find it.
+    values.put(MediaStore.Video.Media.DESCRIPTION, codec);
+    values.put(MediaStore.Video.Media.DATE_TAKEN, takenMillis);
+    long nowSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    values.put(MediaStore.Video.Media.DATE_ADDED, nowSeconds);
+    values.put(MediaStore.Video.Media.DATE_MODIFIED,
+        TimeUnit.MILLISECONDS.toSeconds(file.lastModified()));
+
+    try {
+      return contentResolver.insert(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, values);
+    } catch (RuntimeException e) {
+      Timber.w(e, "Unable to insert '%s' into the media store.", file);
+      return null;
+    }
+  }
+
+  /** The file of the video at {@code uri}, or null if it is no longer in the media store. */
+  @Nullable static File queryFile(ContentResolver contentResolver, Uri uri) {
+    String[] projection = { MediaStore.Video.Media.DATA };
+    Cursor cursor = null;
+    try {
+      cursor = contentResolver.query(uri, projection, null, null, null);
+      if (cursor == null || !cursor.moveToFirst()) {
+        return null;
+      }
+      String path = cursor.getString(0);
+      return path != null ? new File(path) : null;
+    } catch (RuntimeException e) {
+      Timber.w(e, "Unable to query %s.", uri);
+      return null;
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+  }
+}
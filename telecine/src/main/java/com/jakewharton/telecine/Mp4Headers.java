@@ -0,0 +1,238 @@
+package com.jakewharton.telecine;
+
+import android.support.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+
+/** Writes the {@code ftyp} and {@code moov} boxes describing a single video track. */
+final class Mp4Headers {
+  /** Samples are timed in 90kHz ticks, the customary clock for video. */
+  static final int TIMESCALE = 90000;
+  static final int NAL_LENGTH_SIZE = 4;
+  private static final int MOVIE_TIMESCALE = 1000;
+  private static final int TRACK_ID = 1;
+
+  private Mp4Headers() {
+    throw new AssertionError("No instances.");
+  }
+
+  static long toTicks(long timeUs) {
+    return timeUs * TIMESCALE / 1000000;
+  }
+
+  /** Write an {@code ftyp} whose compatible brands claim {@code avc1} only for H.264. */
+  static void writeFtyp(BoxWriter box, TrackFormat format) {
+    box.begin("ftyp")
+        .fourCc("isom")
+        .u32(0x200)
+        .fourCc("isom")
+        .fourCc("iso2")
+        .fourCc("iso5");
+    if (!format.isHevc()) {
+      box.fourCc("avc1");
+    }
+    box.fourCc("mp41")
+        .end();
+  }
+
+  /**
+   * Write a {@code moov} for {@code format}. When {@code tables} is null the track's samples are
+   * left to be described by movie fragments.
+   */
+  static void writeMoov(BoxWriter box, TrackFormat format, @Nullable SampleTables tables) {
+    long durationTicks = tables != null ? tables.durationTicks() : 0;
+    long movieDuration = durationTicks * MOVIE_TIMESCALE / TIMESCALE;
+
+    box.begin("moov");
+
+    box.beginFull("mvhd", 0, 0)
+        .u32(0) // creation_time
+        .u32(0) // modification_time
+        .u32(MOVIE_TIMESCALE)
+        .u32(movieDuration)
+        .u32(0x00010000) // rate 1.0
+        .u16(0x0100) // volume 1.0
+        .zeros(10);
+    writeMatrix(box);
+    box.zeros(24) // pre_defined
+        .u32(TRACK_ID + 1) // next_track_ID
+        .end();
+
+    box.begin("trak");
+    box.beginFull("tkhd", 0, 0x7) // enabled, in movie, in preview
+        .u32(0) // creation_time
+        .u32(0) // modification_time
+        .u32(TRACK_ID)
+        .u32(0)
+        .u32(movieDuration)
+        .zeros(8)
+        .u16(0) // layer
+        .u16(0) // alternate_group
+        .u16(0) // volume
+        .u16(0);
+    writeMatrix(box);
+    box.u32(format.width << 16) // 16.16 fixed point
+        .u32(format.height << 16)
+        .end();
+
+    box.begin("mdia");
+    box.beginFull("mdhd", 0, 0)
+        .u32(0) // creation_time
+        .u32(0) // modification_time
+        .u32(TIMESCALE)
+        .u32(durationTicks)
+        .u16(0x55c4) // language: "und"
+        .u16(0)
+        .end();
+    box.beginFull("hdlr", 0, 0)
+        .u32(0)
+        .fourCc("vide")
+        .zeros(12)
+        .bytes(new byte[] { 'T', 'e', 'l', 'e', 'c', 'i', 'n', 'e', 0 })
+        .end();
+
+    box.begin("minf");
+    box.beginFull("vmhd", 0, 1).u16(0).zeros(6).end();
+    box.begin("dinf");
+    box.beginFull("dref", 0, 0).u32(1);
+    box.beginFull("url ", 0, 1).end(); // Samples are in this file.
+    box.end(); // dref
+    box.end(); // dinf
+
+    box.begin("stbl");
+    box.beginFull("stsd", 0, 0).u32(1);
+    writeSampleEntry(box, format);
+    box.end(); // stsd
+    if (tables != null) {
+      tables.writeTo(box);
+    } else {
+      box.beginFull("stts", 0, 0).u32(0).end();
+      box.beginFull("stsc", 0, 0).u32(0).end();
+      box.beginFull("stsz", 0, 0).u32(0).u32(0).end();
+      box.beginFull("stco", 0, 0).u32(0).end();
+    }
+    box.end(); // stbl
+    box.end(); // minf
+    box.end(); // mdia
+    box.end(); // trak
+
+    if (tables == null) {
+      box.begin("mvex");
+      box.beginFull("trex", 0, 0)
+          .u32(TRACK_ID)
+          .u32(1) // default_sample_description_index
+          .u32(0) // default_sample_duration
+          .u32(0) // default_sample_size
+          .u32(0) // default_sample_flags
+          .end();
+      box.end(); // mvex
+    }
+
+    box.end(); // moov
+  }
+
+  private static void writeMatrix(BoxWriter box) {
+    box.u32(0x00010000).u32(0).u32(0)
+        .u32(0).u32(0x00010000).u32(0)
+        .u32(0).u32(0).u32(0x40000000);
+  }
+
+  private static void writeSampleEntry(BoxWriter box, TrackFormat format) {
+    box.begin(format.isHevc() ? "hvc1" : "avc1")
+        .zeros(6)
+        .u16(1) // data_reference_index
+        .zeros(16)
+        .u16(format.width)
+        .u16(format.height)
+        .u32(0x00480000) // 72 dpi
+        .u32(0x00480000)
+        .u32(0)
+        .u16(1) // frame_count
+        .zeros(32) // compressorname
+        .u16(0x0018) // depth
+        .u16(0xffff); // pre_defined = -1
+    if (format.isHevc()) {
+      writeHvcC(box, format);
+    } else {
+      writeAvcC(box, format);
+    }
+    box.end();
+  }
+
+  private static void writeAvcC(BoxWriter box, TrackFormat format) {
+    byte[] sps = format.sps();
+    byte[] pps = format.pps();
+    box.begin("avcC")
+        .u8(1) // configurationVersion
+        .u8(sps[1]) // AVCProfileIndication
+        .u8(sps[2]) // profile_compatibility
+        .u8(sps[3]) // AVCLevelIndication
+        .u8(0xfc | (NAL_LENGTH_SIZE - 1))
+        .u8(0xe0 | 1) // One SPS.
+        .u16(sps.length)
+        .bytes(sps)
+        .u8(1) // One PPS.
+        .u16(pps.length)
+        .bytes(pps)
+        .end();
+  }
+
+  /**
+   * Screen recordings are 8-bit 4:2:0, so only the profile, tier, level, and sub-layer fields are
+   * read from the SPS. They sit at fixed offsets ahead of any variable length fields.
+   */
+  private static void writeHvcC(BoxWriter box, TrackFormat format) {
+    // Skip the two byte NAL header. Then: vps_id(4) max_sub_layers_minus1(3) nesting(1), followed
+    // by the general profile_tier_level: 1 byte, 4 bytes of compatibility flags, 6 bytes of
+    // constraint flags, and 1 byte of level.
+    byte[] sps = unescape(format.sps(), 2, 13);
+    int maxSubLayers = ((sps[0] >> 1) & 0x7) + 1;
+    int temporalIdNested = sps[0] & 0x1;
+
+    box.begin("hvcC")
+        .u8(1) // configurationVersion
+        .u8(sps[1]); // general_profile_space, general_tier_flag, general_profile_idc
+    for (int i = 2; i <= 12; i++) {
+      box.u8(sps[i]); // Compatibility flags, constraint flags, and general_level_idc.
+    }
+    box.u16(0xf000) // min_spatial_segmentation_idc
+        .u8(0xfc) // parallelismType
+        .u8(0xfc | 1) // chroma_format_idc: 4:2:0
+        .u8(0xf8) // bit_depth_luma_minus8
+        .u8(0xf8) // bit_depth_chroma_minus8
+        .u16(0) // avgFrameRate: unspecified
+        .u8((maxSubLayers << 3) | (temporalIdNested << 2) | (NAL_LENGTH_SIZE - 1))
+        .u8(3); // numOfArrays
+    int[] types = { TrackFormat.HEVC_NAL_VPS, TrackFormat.HEVC_NAL_SPS, TrackFormat.HEVC_NAL_PPS };
+    for (int type : types) {
+      byte[] nalUnit = format.parameterSet(type);
+      box.u8(0x80 | type) // array_completeness
+          .u16(1)
+          .u16(nalUnit.length)
+          .bytes(nalUnit);
+    }
+    box.end();
+  }
+
+  /**
+   * Up to {@code length} bytes of the RBSP starting at {@code offset} in {@code nalUnit}, with
+   * emulation prevention bytes ({@code 0x000003}) removed. Throws if there are fewer than
+   * {@code length} unless it is {@link Integer#MAX_VALUE}.
+   */
+  static byte[] unescape(byte[] nalUnit, int offset, int length) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(nalUnit.length);
+    int zeros = 0;
+    for (int i = offset; i < nalUnit.length && out.size() < length; i++) {
+      int b = nalUnit[i] & 0xff;
+      if (zeros >= 2 && b == 3) {
+        zeros = 0;
+        continue;
+      }
+      zeros = b == 0 ? zeros + 1 : 0;
+      out.write(b);
+    }
+    if (out.size() < length && length != Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Parameter set too short: " + nalUnit.length);
+    }
+    return out.toByteArray();
+  }
+}
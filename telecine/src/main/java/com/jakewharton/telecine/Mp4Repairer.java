@@ -0,0 +1,518 @@
+package com.jakewharton.telecine;
+
+import android.support.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import timber.log.Timber;
+
+import static com.jakewharton.telecine.EncoderCapabilities.MIME_TYPE_AVC;
+
+/**
+ * Makes an MP4 whose recording was interrupted before its {@code moov} was written playable.
+ * <p>
+ * The NAL units in {@code mdat} are walked to find where each sample begins and ends, and a
+ * {@code moov} indexing them is appended in place. Only NAL headers are read; their payloads are
+ * skipped, so files of any size are repaired while holding a few bytes per sample in memory.
+ * Sample times come from the recording's {@link RecordingJournal} when it has one. Samples beyond
+ * the journal, or every sample when there is none, continue at the last known frame duration.
+ * <p>
+ * Without a journal the track is assumed to be H.264, and it can only be repaired if it carries
+ * its parameter sets in-band. {@link MediaRecorderEncoder}'s output does not: MediaRecorder keeps
+ * them for the {@code avcC} of the {@code moov} it never wrote, and no journal records them. An
+ * interrupted recording from that fallback therefore cannot be repaired.
+ */
+final class Mp4Repairer {
+  private static final int DEFAULT_DURATION_TICKS = Mp4Headers.TIMESCALE / Encoder.FRAME_RATE;
+  private static final int MAX_PARAMETER_SET_SIZE = 1024;
+
+  /** Result of inspecting a file's top level boxes. */
+  enum Status {
+    /** The file has a {@code moov}. */
+    COMPLETE,
+    /** The file has an {@code mdat} but no {@code moov}. */
+    NEEDS_REPAIR,
+    /** The file is not an MP4 which can be repaired. */
+    UNREPAIRABLE
+  }
+
+  private Mp4Repairer() {
+    throw new AssertionError("No instances.");
+  }
+
+  static Status inspect(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      if (findMdat(raf) != null) {
+        return Status.NEEDS_REPAIR;
+      }
+      return hasMoov(raf) ? Status.COMPLETE : Status.UNREPAIRABLE;
+    }
+  }
+
+  /**
+   * Append a {@code moov} to {@code file} indexing the complete samples in its {@code mdat} and
+   * drop any partially written sample after them.
+   *
+   * @return the number of samples indexed, or 0 if nothing could be repaired. The file is left
+   * untouched in that case.
+   */
+  static int repair(File file, @Nullable RecordingJournal journal) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      Mdat mdat = findMdat(raf);
+      if (mdat == null) {
+        Timber.w("No unfinished mdat in '%s'.", file);
+        return 0;
+      }
+
+      TrackFormat journalFormat = journal != null ? journal.format : null;
+      boolean hevc = journalFormat != null && journalFormat.isHevc();
+      SampleTables tables = new SampleTables(mdat.dataStart);
+      List<byte[]> inBandParameterSets = new ArrayList<>();
+      long dataEnd = scan(raf, mdat.dataStart, hevc, journal, tables, inBandParameterSets);
+      if (tables.sampleCount() == 0) {
+        Timber.w("No complete samples in '%s'.", file);
+        return 0;
+      }
+
+      TrackFormat format = journalFormat;
+      if (format == null) {
+        format = new TrackFormat(MIME_TYPE_AVC, 0, 0, inBandParameterSets);
+        if (!format.isComplete()) {
+          Timber.w("No journal or in-band parameter sets for '%s'.", file);
+          return 0;
+        }
+        try {
+          format = withSizeFromSps(format);
+        } catch (IllegalArgumentException e) {
+          Timber.w(e, "Unable to read frame size of '%s'.", file);
+          return 0;
+        }
+      } else if (!format.isComplete()) {
+        List<byte[]> parameterSets = new ArrayList<>(format.parameterSets);
+        parameterSets.addAll(inBandParameterSets);
+        format = new TrackFormat(format.mimeType, format.width, format.height, parameterSets);
+        if (!format.isComplete()) {
+          Timber.w("No parameter sets for '%s'.", file);
+          return 0;
+        }
+      }
+
+      long mdatSize = dataEnd - mdat.start;
+      if (mdat.headerSize == 8 && mdatSize > 0xffffffffL) {
+        Timber.w("mdat of '%s' is too large for its 32-bit header.", file);
+        return 0;
+      }
+
+      BoxWriter moov = new BoxWriter();
+      Mp4Headers.writeMoov(moov, format, tables);
+
+      // Write the index before declaring where mdat ends. If this is interrupted the next attempt
+      // still finds an unfinished mdat and stops scanning at the moov, which is not a NAL unit.
+      raf.setLength(dataEnd);
+      raf.seek(dataEnd);
+      raf.write(moov.toByteArray());
+      raf.getFD().sync();
+
+      raf.seek(mdat.start);
+      if (mdat.headerSize == 16) {
+        raf.writeInt(1);
+        raf.writeInt(0x6d646174); // "mdat"
+        raf.writeLong(mdatSize);
+      } else {
+        raf.writeInt((int) mdatSize);
+      }
+      raf.getFD().sync();
+
+      Timber.i("Repaired '%s': %s samples, %s bytes dropped.", file, tables.sampleCount(),
+          mdat.fileLength - dataEnd);
+      return tables.sampleCount();
+    }
+  }
+
+  private static final class Mdat {
+    final long start;
+    final int headerSize;
+    final long dataStart;
+    final long fileLength;
+
+    Mdat(long start, int headerSize, long fileLength) {
+      this.start = start;
+      this.headerSize = headerSize;
+      this.dataStart = start + headerSize;
+      this.fileLength = fileLength;
+    }
+  }
+
+  /** The {@code mdat} of a file with no {@code moov}, or null. */
+  @Nullable private static Mdat findMdat(RandomAccessFile raf) throws IOException {
+    long length = raf.length();
+    long position = 0;
+    Mdat mdat = null;
+    while (position + 8 <= length) {
+      raf.seek(position);
+      long size = raf.readInt() & 0xffffffffL;
+      int type = raf.readInt();
+      int headerSize = 8;
+      if (size == 1 && position + 16 <= length) {
+        size = raf.readLong();
+        headerSize = 16;
+      }
+      if (type == 0x6d6f6f76) { // "moov"
+        return null;
+      }
+      if (type == 0x6d646174) { // "mdat"
+        // Writers leave a placeholder size until they finish, so the data runs to the end of
+        // the file. A placeholder may also happen to fit, which the walk past it reveals.
+        mdat = new Mdat(position, headerSize, length);
+        if (size < headerSize || position + size > length) {
+          return mdat;
+        }
+      } else if (size < headerSize || position + size > length) {
+        return mdat; // Not a box. Either sample data or not an MP4 at all.
+      }
+      if (size == 0) {
+        return mdat; // Extends to the end of the file.
+      }
+      position += size;
+    }
+    return mdat;
+  }
+
+  private static boolean hasMoov(RandomAccessFile raf) throws IOException {
+    long length = raf.length();
+    long position = 0;
+    while (position + 8 <= length) {
+      raf.seek(position);
+      long size = raf.readInt() & 0xffffffffL;
+      if (raf.readInt() == 0x6d6f6f76) { // "moov"
+        return true;
+      }
+      if (size == 1) {
+        size = raf.readLong();
+      }
+      if (size < 8) {
+        break;
+      }
+      position += size;
+    }
+    return false;
+  }
+
+  /**
+   * Walk the length-prefixed NAL units from {@code start}, adding each complete access unit to
+   * {@code tables} and collecting parameter sets into {@code parameterSets}.
+   *
+   * @return the position just past the last complete access unit.
+   */
+  private static long scan(RandomAccessFile raf, long start, boolean hevc,
+      @Nullable RecordingJournal journal, SampleTables tables, List<byte[]> parameterSets)
+      throws IOException {
+    long length = raf.length();
+    NalReader reader = new NalReader(raf, start);
+    Timeline timeline = new Timeline(journal);
+
+    long sampleStart = start;
+    boolean sampleHasVcl = false;
+    boolean sampleKeyFrame = false;
+
+    while (true) {
+      long nalStart = reader.position;
+      int nalLength = reader.nextLength();
+      byte[] header = nalLength > 0 ? reader.peek(Math.min(nalLength, 3)) : null;
+      boolean valid = header != null && isValidNalHeader(hevc, header);
+      boolean complete = valid && nalStart + 4 + nalLength <= length;
+      boolean startsAccessUnit = valid && startsAccessUnit(hevc, header);
+
+      if (!complete) {
+        // The end of the file, a NAL unit which was never completely written, or data which is
+        // not a NAL unit at all. The current access unit is whole unless what was cut off
+        // continues it.
+        if (!sampleHasVcl || valid && !startsAccessUnit) {
+          return sampleStart;
+        }
+        tables.add((int) (nalStart - sampleStart), timeline.nextDuration(), sampleKeyFrame);
+        return nalStart;
+      }
+
+      if (startsAccessUnit && sampleHasVcl) {
+        tables.add((int) (nalStart - sampleStart), timeline.nextDuration(), sampleKeyFrame);
+        sampleStart = nalStart;
+        sampleHasVcl = false;
+        sampleKeyFrame = false;
+      }
+
+      int type = TrackFormat.nalType(hevc, header[0]);
+      if (isVcl(hevc, type)) {
+        sampleHasVcl = true;
+        sampleKeyFrame |= isKeyFrame(hevc, type);
+      } else if (isParameterSet(hevc, type) && nalLength <= MAX_PARAMETER_SET_SIZE) {
+        byte[] nalUnit = reader.read(nalLength);
+        if (!containsParameterSet(parameterSets, nalUnit)) {
+          parameterSets.add(nalUnit);
+        }
+      }
+      reader.skip(nalLength);
+    }
+  }
+
+  /** Sample durations from a journal's times, continuing at the last known duration past it. */
+  private static final class Timeline {
+    @Nullable private final RecordingJournal journal;
+    private final long firstTimeUs;
+    private long ticks;
+    private int lastDurationTicks = DEFAULT_DURATION_TICKS;
+
+    Timeline(@Nullable RecordingJournal journal) throws IOException {
+      this.journal = journal;
+      firstTimeUs = journal != null ? journal.nextPresentationTimeUs() : -1;
+    }
+
+    /** The duration of the sample which was just completed. */
+    int nextDuration() throws IOException {
+      long nextTimeUs = firstTimeUs != -1 ? journal.nextPresentationTimeUs() : -1;
+      if (nextTimeUs == -1) {
+        ticks += lastDurationTicks;
+        return lastDurationTicks;
+      }
+      long nextTicks = Math.max(ticks, Mp4Headers.toTicks(nextTimeUs - firstTimeUs));
+      int duration = (int) (nextTicks - ticks);
+      ticks = nextTicks;
+      if (duration > 0) {
+        lastDurationTicks = duration;
+      }
+      return duration;
+    }
+  }
+
+  private static boolean isValidNalHeader(boolean hevc, byte[] header) {
+    if ((header[0] & 0x80) != 0) {
+      return false; // forbidden_zero_bit
+    }
+    int type = TrackFormat.nalType(hevc, header[0]);
+    if (hevc) {
+      if (header.length < 2) {
+        return false;
+      }
+      int layerId = ((header[0] & 0x1) << 5) | ((header[1] >> 3) & 0x1f);
+      int temporalIdPlusOne = header[1] & 0x7;
+      return layerId == 0
+          && temporalIdPlusOne != 0
+          && (type <= 9 || type >= 16 && type <= 21 || type >= 32 && type <= 40);
+    }
+    return type >= 1 && type <= 12;
+  }
+
+  /** True if the NAL unit with {@code header} must be the first of a new access unit. */
+  private static boolean startsAccessUnit(boolean hevc, byte[] header) {
+    int type = TrackFormat.nalType(hevc, header[0]);
+    if (isVcl(hevc, type)) {
+      // The first bit of the slice header is set only for the first slice of a picture:
+      // first_mb_in_slice is 0 for H.264, and first_slice_segment_in_pic_flag is 1 for HEVC.
+      int sliceHeader = hevc ? 2 : 1;
+      return header.length > sliceHeader && (header[sliceHeader] & 0x80) != 0;
+    }
+    return startsAccessUnit(hevc, type);
+  }
+
+  private static boolean isVcl(boolean hevc, int type) {
+    return hevc ? type < 32 : type >= 1 && type <= 5;
+  }
+
+  private static boolean isKeyFrame(boolean hevc, int type) {
+    return hevc ? type >= 16 && type <= 21 : type == 5;
+  }
+
+  private static boolean isParameterSet(boolean hevc, int type) {
+    return hevc ? type >= 32 && type <= 34 : type == 7 || type == 8;
+  }
+
+  /** Non-VCL NAL units which may only appear before the first VCL unit of an access unit. */
+  private static boolean startsAccessUnit(boolean hevc, int type) {
+    return hevc
+        ? type >= 32 && type <= 35 || type == 39
+        : type >= 6 && type <= 9;
+  }
+
+  private static boolean containsParameterSet(List<byte[]> parameterSets, byte[] nalUnit) {
+    for (byte[] existing : parameterSets) {
+      if (Arrays.equals(existing, nalUnit)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Read the frame size from an H.264 SPS. Only the fields ahead of the size are decoded, using
+   * the defaults for any optional syntax which screen recorders do not emit.
+   */
+  static TrackFormat withSizeFromSps(TrackFormat format) {
+    if (format.isHevc()) {
+      throw new IllegalArgumentException("HEVC frame size requires a journal.");
+    }
+    byte[] sps = format.sps();
+    BitReader bits = new BitReader(Mp4Headers.unescape(sps, 1, Integer.MAX_VALUE));
+    int profileIdc = bits.bits(8);
+    bits.bits(16); // constraint flags, level_idc
+    bits.ue(); // seq_parameter_set_id
+    int chromaFormatIdc = 1;
+    if (profileIdc == 100 || profileIdc == 110 || profileIdc == 122 || profileIdc == 244
+        || profileIdc == 44 || profileIdc == 83 || profileIdc == 86 || profileIdc == 118
+        || profileIdc == 128 || profileIdc == 138 || profileIdc == 139 || profileIdc == 134) {
+      chromaFormatIdc = bits.ue();
+      if (chromaFormatIdc == 3) {
+        bits.bits(1); // separate_colour_plane_flag
+      }
+      bits.ue(); // bit_depth_luma_minus8
+      bits.ue(); // bit_depth_chroma_minus8
+      bits.bits(1); // qpprime_y_zero_transform_bypass_flag
+      if (bits.bits(1) == 1) {
+        throw new IllegalArgumentException("SPS scaling matrices are not supported.");
+      }
+    }
+    bits.ue(); // log2_max_frame_num_minus4
+    int picOrderCntType = bits.ue();
+    if (picOrderCntType == 0) {
+      bits.ue(); // log2_max_pic_order_cnt_lsb_minus4
+    } else if (picOrderCntType == 1) {
+      bits.bits(1); // delta_pic_order_always_zero_flag
+      bits.se(); // offset_for_non_ref_pic
+      bits.se(); // offset_for_top_to_bottom_field
+      int cycle = bits.ue();
+      for (int i = 0; i < cycle; i++) {
+        bits.se();
+      }
+    }
+    bits.ue(); // max_num_ref_frames
+    bits.bits(1); // gaps_in_frame_num_value_allowed_flag
+    int widthInMbs = bits.ue() + 1;
+    int heightInMapUnits = bits.ue() + 1;
+    boolean frameMbsOnly = bits.bits(1) == 1;
+    if (!frameMbsOnly) {
+      bits.bits(1); // mb_adaptive_frame_field_flag
+    }
+    bits.bits(1); // direct_8x8_inference_flag
+    int width = widthInMbs * 16;
+    int height = heightInMapUnits * 16 * (frameMbsOnly ? 1 : 2);
+    if (bits.bits(1) == 1) { // frame_cropping_flag
+      int cropUnitX = chromaFormatIdc == 0 || chromaFormatIdc == 3 ? 1 : 2;
+      int cropUnitY = (chromaFormatIdc == 1 ? 2 : 1) * (frameMbsOnly ? 1 : 2);
+      width -= (bits.ue() + bits.ue()) * cropUnitX;
+      height -= (bits.ue() + bits.ue()) * cropUnitY;
+    }
+    return new TrackFormat(format.mimeType, width, height, format.parameterSets);
+  }
+
+  /** Reads NAL unit lengths and headers through a fixed size buffer. */
+  private static final class NalReader {
+    private final RandomAccessFile raf;
+    private final byte[] buffer = new byte[64 * 1024];
+    /** File position of {@code buffer[0]}. */
+    private long bufferStart;
+    private int bufferLength;
+    long position;
+
+    NalReader(RandomAccessFile raf, long position) {
+      this.raf = raf;
+      this.position = position;
+      this.bufferStart = position;
+    }
+
+    /** Read a four byte length and advance past it, or return -1 at the end of the file. */
+    int nextLength() throws IOException {
+      if (!fill(4)) {
+        return -1;
+      }
+      int offset = (int) (position - bufferStart);
+      position += 4;
+      long length = ((buffer[offset] & 0xffL) << 24)
+          | ((buffer[offset + 1] & 0xff) << 16)
+          | ((buffer[offset + 2] & 0xff) << 8)
+          | (buffer[offset + 3] & 0xff);
+      return length > Integer.MAX_VALUE ? -1 : (int) length;
+    }
+
+    /** The next {@code count} bytes without advancing, or null if the file ends first. */
+    @Nullable byte[] peek(int count) throws IOException {
+      if (!fill(count)) {
+        return null;
+      }
+      byte[] bytes = new byte[count];
+      System.arraycopy(buffer, (int) (position - bufferStart), bytes, 0, count);
+      return bytes;
+    }
+
+    byte[] read(int count) throws IOException {
+      byte[] bytes = peek(count);
+      if (bytes == null) {
+        throw new IOException("Unexpected end of file.");
+      }
+      return bytes;
+    }
+
+    void skip(int count) {
+      position += count;
+    }
+
+    /** Ensure {@code count} bytes from {@link #position} are buffered. False at end of file. */
+    private boolean fill(int count) throws IOException {
+      if (position >= bufferStart && position + count <= bufferStart + bufferLength) {
+        return true;
+      }
+      raf.seek(position);
+      bufferStart = position;
+      bufferLength = 0;
+      while (bufferLength < buffer.length) {
+        int read = raf.read(buffer, bufferLength, buffer.length - bufferLength);
+        if (read == -1) {
+          break;
+        }
+        bufferLength += read;
+      }
+      return count <= bufferLength;
+    }
+  }
+
+  /** Reads the bits and Exp-Golomb codes of an RBSP. */
+  private static final class BitReader {
+    private final byte[] data;
+    private int bitPosition;
+
+    BitReader(byte[] data) {
+      this.data = data;
+    }
+
+    int bits(int count) {
+      int value = 0;
+      for (int i = 0; i < count; i++) {
+        int index = bitPosition >> 3;
+        if (index >= data.length) {
+          throw new IllegalArgumentException("SPS too short.");
+        }
+        int bit = (data[index] >> (7 - (bitPosition & 7))) & 1;
+        value = (value << 1) | bit;
+        bitPosition++;
+      }
+      return value;
+    }
+
+    int ue() {
+      int leadingZeros = 0;
+      while (bits(1) == 0) {
+        leadingZeros++;
+        if (leadingZeros > 31) {
+          throw new IllegalArgumentException("Invalid Exp-Golomb code.");
+        }
+      }
+      return (1 << leadingZeros) - 1 + bits(leadingZeros);
+    }
+
+    int se() {
+      int value = ue();
+      return (value & 1) == 1 ? (value + 1) / 2 : -(value / 2);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static android.media.MediaCodec.BUFFER_FLAG_KEY_FRAME;
+import static android.media.MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4;
+
+/**
+ * A {@link SampleWriter} backed by {@link MediaMuxer}. The file's index is only written by
+ * {@link #stop()}, so a recording interrupted before then cannot be played.
+ */
+final class MuxerSampleWriter implements SampleWriter {
+  static final Factory FACTORY = new Factory() {
+    @Override public SampleWriter create(String outputFile) throws IOException {
+      return new MuxerSampleWriter(outputFile);
+    }
+  };
+
+  private final MediaMuxer muxer;
+  private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+  private int track = -1;
+
+  MuxerSampleWriter(String outputFile) throws IOException {
+    muxer = new MediaMuxer(outputFile, MUXER_OUTPUT_MPEG_4);
+  }
+
+  @Override public void start(MediaFormat format) {
+    track = muxer.addTrack(format);
+    muxer.start();
+  }
+
+  @Override public void writeSample(ByteBuffer data, long presentationTimeUs, boolean keyFrame) {
+    info.set(data.position(), data.remaining(), presentationTimeUs,
+        keyFrame ? BUFFER_FLAG_KEY_FRAME : 0);
+    muxer.writeSampleData(track, data, info);
+  }
+
+  @Override public void stop() {
+    muxer.stop();
+  }
+
+  @Override public void release() {
+    muxer.release();
+  }
+}
@@ -0,0 +1,80 @@
+package com.jakewharton.telecine;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encoders deliver H.264 and HEVC in Annex B form, where NAL units are separated by start codes,
+ * whereas MP4 stores each NAL unit prefixed by its length.
+ */
+final class NalUnits {
+  private static final byte[] START_CODE = { 0, 0, 1 };
+
+  private NalUnits() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Append the NAL units of the Annex B {@code sample} to {@code out}, each prefixed by its
+   * length, and return the number of bytes appended. Data not starting with a start code is
+   * treated as a single NAL unit.
+   */
+  static int writeLengthPrefixed(ByteBuffer sample, BoxWriter out) {
+    int start = out.size();
+    for (ByteBuffer nalUnit : split(sample)) {
+      out.u32(nalUnit.remaining()).bytes(nalUnit);
+    }
+    return out.size() - start;
+  }
+
+  /**
+   * Split Annex B {@code data} on its start codes into views of each NAL unit. The position and
+   * limit of {@code data} are unchanged.
+   */
+  static List<ByteBuffer> split(ByteBuffer data) {
+    List<ByteBuffer> nalUnits = new ArrayList<>();
+    int limit = data.limit();
+    int start = findStartCode(data, data.position(), limit);
+    if (start == -1) {
+      nalUnits.add(data.duplicate());
+      return nalUnits;
+    }
+    start += START_CODE.length;
+    while (start < limit) {
+      int next = findStartCode(data, start, limit);
+      int end = next == -1 ? limit : next;
+      // A four byte start code appears as a trailing zero on the previous NAL unit.
+      int trimmed = end;
+      while (next != -1 && trimmed > start && data.get(trimmed - 1) == 0) {
+        trimmed--;
+      }
+      if (trimmed > start) {
+        ByteBuffer nalUnit = data.duplicate();
+        nalUnit.limit(trimmed).position(start);
+        nalUnits.add(nalUnit);
+      }
+      if (next == -1) {
+        break;
+      }
+      start = next + START_CODE.length;
+    }
+    return nalUnits;
+  }
+
+  static byte[] toByteArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  /** Index of the next three byte start code in {@code [from, limit)}, or -1. */
+  private static int findStartCode(ByteBuffer data, int from, int limit) {
+    for (int i = from; i + 2 < limit; i++) {
+      if (data.get(i) == 0 && data.get(i + 1) == 0 && data.get(i + 2) == 1) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -36,6 +36,8 @@ final class OverlayView extends FrameLayout {
   private static final int COUNTDOWN_DELAY = 1000;
   private static final int NON_COUNTDOWN_DELAY = 500;
   private static final int DURATION_ENTER_EXIT = 300;
+  /** Long enough for a change to the overlay to reach the screen before frames are kept. */
+  private static final int PAUSE_RESUME_DELAY = 100;
 
   static OverlayView create(Context context, Listener listener, boolean showCountDown) {
     return new OverlayView(context, listener, showCountDown);
@@ -71,14 +73,29 @@ final class OverlayView extends FrameLayout {
     /** Called when cancel is clicked. This view is unusable once this callback is invoked. */
     void onCancel();
 
+    /**
+     * Called as soon as start is clicked, before any countdown. {@link #onStart()} will follow
+     * once the countdown completes.
+     */
+    void onPrepare();
+
     /**
      * Called when start is clicked and it is appropriate to start recording. This view will hide
      * itself completely before invoking this callback.
      */
     void onStart();
 
-    /** Called when stop is clicked. This view is unusable once this callback is invoked. */
+    /**
+     * Called when stop is clicked, or the paused indicator is long-pressed. This view is unusable
+     * once this callback is invoked.
+     */
     void onStop();
+
+    /** Called when stop is long-pressed. A paused indicator is shown. */
+    void onPause();
+
+    /** Called when the paused indicator is clicked, after it has been hidden. */
+    void onResume();
   }
 
   @Bind(R.id.record_overlay_buttons) View buttonsView;
@@ -129,6 +146,8 @@ final class OverlayView extends FrameLayout {
   }
 
   @OnClick(R.id.record_overlay_start) void onStartClicked() {
+    listener.onPrepare();
+
     recordingView.setVisibility(VISIBLE);
     int centerX = (int) (startView.getX() + (startView.getWidth() / 2));
     int centerY = (int) (startView.getY() + (startView.getHeight() / 2));
@@ -159,9 +178,53 @@ final class OverlayView extends FrameLayout {
         listener.onStop();
       }
     });
+    stopView.setOnLongClickListener(new OnLongClickListener() {
+      @Override public boolean onLongClick(@NonNull View v) {
+        pauseRecording();
+        return true;
+      }
+    });
     listener.onStart();
   }
 
+  private void pauseRecording() {
+    listener.onPause();
+
+    stopView.setVisibility(INVISIBLE);
+    recordingView.setOnClickListener(new OnClickListener() {
+      @Override public void onClick(@NonNull View v) {
+        resumeRecording();
+      }
+    });
+    recordingView.setOnLongClickListener(new OnLongClickListener() {
+      @Override public boolean onLongClick(@NonNull View v) {
+        listener.onStop();
+        return true;
+      }
+    });
+    // Only show the indicator once frames are no longer being kept.
+    postDelayed(new Runnable() {
+      @Override public void run() {
+        recordingView.setText(R.string.paused);
+        recordingView.setAlpha(1);
+        recordingView.setVisibility(VISIBLE);
+      }
+    }, PAUSE_RESUME_DELAY);
+  }
+
+  private void resumeRecording() {
+    recordingView.setVisibility(INVISIBLE);
+    recordingView.setOnClickListener(null);
+    recordingView.setOnLongClickListener(null);
+    stopView.setVisibility(VISIBLE);
+    // Only keep frames again once the indicator is gone from the screen.
+    postDelayed(new Runnable() {
+      @Override public void run() {
+        listener.onResume();
+      }
+    }, PAUSE_RESUME_DELAY);
+  }
+
   private void showCountDown() {
     String[] countdown = getResources().getStringArray(R.array.countdown);
     countdown(countdown, 0); // array resource must not be empty
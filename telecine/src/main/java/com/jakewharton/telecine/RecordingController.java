@@ -0,0 +1,201 @@
+package com.jakewharton.telecine;
+
+import com.jakewharton.telecine.RecordingLifecycle.State;
+import java.util.concurrent.Executor;
+import timber.log.Timber;
+
+import static com.jakewharton.telecine.RecordingLifecycle.State.COUNTDOWN;
+import static com.jakewharton.telecine.RecordingLifecycle.State.ENDED;
+import static com.jakewharton.telecine.RecordingLifecycle.State.FINALIZING;
+import static com.jakewharton.telecine.RecordingLifecycle.State.IDLE;
+import static com.jakewharton.telecine.RecordingLifecycle.State.PREPARING;
+import static com.jakewharton.telecine.RecordingLifecycle.State.SCANNING;
+
+/**
+ * Drives a {@link Recorder} through a {@link RecordingLifecycle}. Requests may come from any
+ * thread, but each is run in order on the recording thread, where the transition guarding its
+ * work is attempted right before that work. Whichever request wins a transition therefore also
+ * has its work run before any later request is considered.
+ */
+final class RecordingController {
+  /** The work of a session. Every method is called on the recording thread. */
+  interface Recorder {
+    /**
+     * Allocate what a take needs, keeping anything retained from the previous take. Returns
+     * false, having allocated nothing, if the take cannot be recorded.
+     */
+    boolean prepare();
+
+    void start();
+
+    void pause();
+
+    void resume();
+
+    /**
+     * Flush and close the take's output file. Unless {@code anotherTake}, also release what is
+     * retained between takes.
+     */
+    void stop(boolean anotherTake);
+
+    /**
+     * Index and report the take whose file {@link #stop} closed. Unless {@code endSession}, the
+     * session is ready for another take. Otherwise {@link #end} must be called once done.
+     */
+    void finish(boolean anotherTake, boolean endSession);
+
+    /** Release what {@link #prepare} allocated for a take which never started. */
+    void releasePrepared();
+
+    /** Release what is retained between takes. Safe to call when nothing is. */
+    void releaseRetained();
+  }
+
+  private final RecordingLifecycle lifecycle = new RecordingLifecycle();
+  private final Executor recordingThread;
+  private final Recorder recorder;
+
+  RecordingController(Executor recordingThread, Recorder recorder) {
+    this.recordingThread = recordingThread;
+    this.recorder = recorder;
+  }
+
+  State state() {
+    return lifecycle.get();
+  }
+
+  /** Begin preparing so that the take is ready by the time it is started. */
+  void prepare() {
+    recordingThread.execute(new Runnable() {
+      @Override public void run() {
+        if (!lifecycle.transition(IDLE, PREPARING)) {
+          Timber.w("Unable to prepare while %s.", lifecycle);
+          return;
+        }
+        Timber.d("Preparing screen recording...");
+        if (recorder.prepare()) {
+          lifecycle.transition(PREPARING, COUNTDOWN);
+        } else if (lifecycle.transition(PREPARING, ENDED)) {
+          recorder.releaseRetained();
+        }
+      }
+    });
+  }
+
+  /** Open the gate on a prepared take. */
+  void start() {
+    recordingThread.execute(new Runnable() {
+      @Override public void run() {
+        if (!lifecycle.start()) {
+          Timber.w("Unable to start while %s.", lifecycle);
+          return;
+        }
+        Timber.d("Starting screen recording...");
+        recorder.start();
+      }
+    });
+  }
+
+  void pause() {
+    recordingThread.execute(new Runnable() {
+      @Override public void run() {
+        if (!lifecycle.pause()) {
+          Timber.w("Unable to pause while %s.", lifecycle);
+          return;
+        }
+        recorder.pause();
+      }
+    });
+  }
+
+  void resume() {
+    recordingThread.execute(new Runnable() {
+      @Override public void run() {
+        if (!lifecycle.resume()) {
+          Timber.w("Unable to resume while %s.", lifecycle);
+          return;
+        }
+        recorder.resume();
+      }
+    });
+  }
+
+  /**
+   * Stop the take. If {@code anotherTake}, the session returns to {@link State#IDLE} once the file
+   * is closed and the next take reuses what was retained.
+   */
+  void stop(final boolean anotherTake) {
+    recordingThread.execute(new Runnable() {
+      @Override public void run() {
+        if (!lifecycle.stop()) {
+          Timber.w("Unable to stop while %s.", lifecycle);
+          return;
+        }
+        Timber.d("Stopping screen recording...");
+        finish(anotherTake);
+      }
+    });
+  }
+
+  /**
+   * End the session between takes, returning false if it is not between takes. The transition is
+   * attempted on the calling thread so that the caller knows at once.
+   */
+  boolean cancel() {
+    if (!lifecycle.transition(IDLE, ENDED)) {
+      Timber.w("Unable to cancel while %s.", lifecycle);
+      return false;
+    }
+    recordingThread.execute(new Runnable() {
+      @Override public void run() {
+        recorder.releaseRetained();
+      }
+    });
+    return true;
+  }
+
+  /** Called once the session's last take has been indexed. */
+  void end() {
+    lifecycle.transition(SCANNING, ENDED);
+  }
+
+  /** Finish any take, writing its file, and release everything else. */
+  void destroy() {
+    recordingThread.execute(new Runnable() {
+      @Override public void run() {
+        switch (lifecycle.destroy()) {
+          case RECORDING:
+          case PAUSED:
+            Timber.w("Destroyed while recording!");
+            finish(false);
+            break;
+          case PREPARING:
+          case COUNTDOWN:
+            Timber.w("Destroyed while prepared!");
+            recorder.releasePrepared();
+            break;
+          case IDLE:
+            recorder.releaseRetained(); // Between takes.
+            break;
+          default:
+            break;
+        }
+      }
+    });
+  }
+
+  private void finish(boolean anotherTake) {
+    recorder.stop(anotherTake);
+
+    // The file is complete. With another take to come the session is ready for it immediately
+    // and this take is indexed alongside.
+    boolean endSession = !anotherTake || !lifecycle.transition(FINALIZING, IDLE);
+    if (endSession) {
+      if (anotherTake) {
+        recorder.releaseRetained(); // Destroyed while finishing.
+      }
+      lifecycle.transition(FINALIZING, SCANNING);
+    }
+    recorder.finish(anotherTake, endSession);
+  }
+}
@@ -0,0 +1,188 @@
+package com.jakewharton.telecine;
+
+import android.content.ContentResolver;
+import android.provider.MediaStore;
+import android.system.ErrnoException;
+import android.system.Os;
+import com.google.android.gms.analytics.HitBuilders;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Provider;
+import timber.log.Timber;
+
+/**
+ * Deletes old recordings, and their media store rows, according to the current
+ * {@link RecordingRetention}. Eviction runs on its own thread so it never delays a recording.
+ */
+final class RecordingEvictor {
+  private final ContentResolver contentResolver;
+  private final Analytics analytics;
+  private final File outputRoot;
+  private final File journalDir;
+  private final Provider<RecordingRetention> retention;
+  /**
+   * Journals modified since this time belong to recordings of this process. An older one was left
+   * by a previous process, and outlives its recording's repair if the repair fails.
+   */
+  private final long createdMillis = System.currentTimeMillis();
+  private final Set<String> retained = Collections.synchronizedSet(new HashSet<String>());
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "telecine-evict");
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    }
+  });
+  private final Runnable evict = new Runnable() {
+    @Override public void run() {
+      try {
+        evict();
+      } catch (RuntimeException e) {
+        Timber.w(e, "Unable to evict recordings.");
+      }
+    }
+  };
+
+  RecordingEvictor(ContentResolver contentResolver, Analytics analytics, File outputRoot,
+      File journalDir, Provider<RecordingRetention> retention) {
+    this.contentResolver = contentResolver;
+    this.analytics = analytics;
+    this.outputRoot = outputRoot;
+    this.journalDir = journalDir;
+    this.retention = retention;
+  }
+
+  /** Evict recordings in the background. */
+  void evictLater() {
+    executor.execute(evict);
+  }
+
+  /** Keep the recordings at {@code paths} from eviction until they are {@link #release}d. */
+  void retain(Collection<String> paths) {
+    for (String path : paths) {
+      retained.add(new File(path).getAbsolutePath());
+    }
+  }
+
+  /** Allow the recordings at {@code paths} to be evicted again, and evict in the background. */
+  void release(Collection<String> paths) {
+    for (String path : paths) {
+      retained.remove(new File(path).getAbsolutePath());
+    }
+    evictLater();
+  }
+
+  private boolean isBeingWritten(File recording) {
+    File journal = RecordingJournal.fileFor(journalDir, recording);
+    return journal.exists() && journal.lastModified() >= createdMillis;
+  }
+
+  private void evict() {
+    RecordingRetention policy = retention.get();
+    if (policy.keepsAll()) {
+      return;
+    }
+
+    File[] files = outputRoot.listFiles(new FileFilter() {
+      @Override public boolean accept(File file) {
+        // A recording with a current journal is being written. A retained one is still being
+        // read, e.g. while the takes of a session are joined.
+        return file.isFile()
+            && file.getName().endsWith(".mp4")
+            && !isBeingWritten(file)
+            && !retained.contains(file.getAbsolutePath());
+      }
+    });
+    if (files == null) {
+      return;
+    }
+    List<RecordingRetention.Recording> recordings = new ArrayList<>(files.length);
+    for (File file : files) {
+      recordings.add(new RecordingRetention.Recording(file.getAbsolutePath(), file.length(),
+          lastUsedMillis(file)));
+    }
+
+    List<RecordingRetention.Recording> evictions =
+        policy.selectEvictions(recordings, System.currentTimeMillis());
+    Timber.d("Evicting %s of %s recordings with %s.", evictions.size(), recordings.size(),
+        policy);
+    int evicted = 0;
+    for (RecordingRetention.Recording recording : evictions) {
+      if (delete(new File(recording.path))) {
+        evicted++;
+      }
+    }
+    if (evicted == 0) {
+      return;
+    }
+    deleteOrphanedManifests();
+
+    analytics.send(new HitBuilders.EventBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setAction(Analytics.ACTION_RECORDING_EVICT)
+        .setValue(evicted)
+        .build());
+  }
+
+  /** The later of when {@code file} was last read or written. */
+  private static long lastUsedMillis(File file) {
+    long modifiedMillis = file.lastModified();
+    try {
+      long accessedMillis = TimeUnit.SECONDS.toMillis(Os.stat(file.getPath()).st_atime);
+      return Math.max(modifiedMillis, accessedMillis);
+    } catch (ErrnoException e) {
+      return modifiedMillis;
+    }
+  }
+
+  private boolean delete(File file) {
+    Timber.i("Evicting recording '%s'.", file);
+    // Deleting the media store row also deletes the file, if the file was ever added.
+    contentResolver.delete(MediaStore.Video.Media.EXTERNAL_CONTENT_URI,
+        MediaStore.Video.Media.DATA + "=?", new String[] { file.getAbsolutePath() });
+    if (file.exists() && !file.delete()) {
+      Timber.w("Unable to delete recording '%s'.", file);
+      return false;
+    }
+    File journal = RecordingJournal.fileFor(journalDir, file);
+    if (journal.exists() && !journal.delete()) {
+      Timber.w("Unable to delete journal '%s'.", journal);
+    }
+    return true;
+  }
+
+  /** Delete the playlists of segmented recordings once every segment is gone. */
+  private void deleteOrphanedManifests() {
+    File[] manifests = outputRoot.listFiles(new FileFilter() {
+      @Override public boolean accept(File file) {
+        return file.isFile() && file.getName().endsWith(".m3u");
+      }
+    });
+    if (manifests == null) {
+      return;
+    }
+    for (File manifest : manifests) {
+      String name = manifest.getName();
+      final String prefix = name.substring(0, name.length() - ".m3u".length()) + "_part";
+      String[] segments = outputRoot.list(new FilenameFilter() {
+        @Override public boolean accept(File dir, String filename) {
+          return filename.startsWith(prefix);
+        }
+      });
+      if (segments != null && segments.length == 0 && !manifest.delete()) {
+        Timber.w("Unable to delete playlist '%s'.", manifest);
+      }
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package com.jakewharton.telecine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sidecar kept while a regular MP4 is being recorded, holding what the file itself lacks until
+ * it is finalized: the track's format and each sample's presentation time. It is deleted once the
+ * recording is complete, so one left behind marks a recording which needs
+ * {@linkplain Mp4Repairer repair}.
+ * <p>
+ * Times are buffered and only flushed on key frames. A journal may therefore describe fewer
+ * samples than its recording holds, or more if the recording's own buffers were lost.
+ */
+final class RecordingJournal implements Closeable {
+  static final String SUFFIX = ".journal";
+  private static final int MAGIC = 0x54454c4a; // "TELJ"
+  private static final int VERSION = 1;
+
+  /** The journal of {@code recording}, kept in {@code journalDir}. */
+  static File fileFor(File journalDir, File recording) {
+    return new File(journalDir, recording.getName() + SUFFIX);
+  }
+
+  static final class Writer implements Closeable {
+    private final DataOutputStream out;
+
+    Writer(File file, TrackFormat format) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(format.mimeType);
+      out.writeInt(format.width);
+      out.writeInt(format.height);
+      out.writeInt(format.parameterSets.size());
+      for (byte[] nalUnit : format.parameterSets) {
+        out.writeInt(nalUnit.length);
+        out.write(nalUnit);
+      }
+      out.flush();
+    }
+
+    void append(long presentationTimeUs) throws IOException {
+      out.writeLong(presentationTimeUs);
+    }
+
+    void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  /** Read the journal in {@code file}, throwing if it is not one or its header is incomplete. */
+  static RecordingJournal open(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new IOException("Not a journal: " + file);
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        throw new IOException("Unknown journal version " + version + ": " + file);
+      }
+      String mimeType = in.readUTF();
+      int width = in.readInt();
+      int height = in.readInt();
+      int count = in.readInt();
+      List<byte[]> parameterSets = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        byte[] nalUnit = new byte[in.readInt()];
+        in.readFully(nalUnit);
+        parameterSets.add(nalUnit);
+      }
+      return new RecordingJournal(in, new TrackFormat(mimeType, width, height, parameterSets));
+    } catch (IOException | RuntimeException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  final TrackFormat format;
+  private final DataInputStream in;
+  private boolean exhausted;
+
+  private RecordingJournal(DataInputStream in, TrackFormat format) {
+    this.in = in;
+    this.format = format;
+  }
+
+  /** The presentation time of the next sample, or -1 once the journal has no more. */
+  long nextPresentationTimeUs() throws IOException {
+    if (exhausted) {
+      return -1;
+    }
+    try {
+      return in.readLong();
+    } catch (EOFException e) {
+      exhausted = true; // The end of the journal, or a time which was only partially flushed.
+      return -1;
+    }
+  }
+
+  @Override public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,132 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.atomic.AtomicReference;
+import timber.log.Timber;
+
+import static com.jakewharton.telecine.RecordingLifecycle.State.COUNTDOWN;
+import static com.jakewharton.telecine.RecordingLifecycle.State.ENDED;
+import static com.jakewharton.telecine.RecordingLifecycle.State.FINALIZING;
+import static com.jakewharton.telecine.RecordingLifecycle.State.IDLE;
+import static com.jakewharton.telecine.RecordingLifecycle.State.PAUSED;
+import static com.jakewharton.telecine.RecordingLifecycle.State.PREPARING;
+import static com.jakewharton.telecine.RecordingLifecycle.State.RECORDING;
+
+/**
+ * The states of a {@link RecordingSession}. Every transition is atomic and may be attempted from
+ * any thread. Exactly one caller wins each transition and becomes responsible for the work it
+ * implies; losers should do nothing.
+ */
+final class RecordingLifecycle {
+  enum State {
+    /**
+     * The overlay is showing. Nothing has been allocated, except for the projection and encoder
+     * kept from a previous take.
+     */
+    IDLE,
+    /** Start was clicked. The encoder and projection are being prepared. */
+    PREPARING,
+    /** Prepared and waiting for the countdown to finish. */
+    COUNTDOWN,
+    /** Frames are being encoded. */
+    RECORDING,
+    /** Recording is paused. Frames are neither rendered nor kept. */
+    PAUSED,
+    /**
+     * Stop was requested. The output file is being written and closed. When another take follows
+     * the session returns to {@link #IDLE} from here and the file is indexed alongside it.
+     */
+    FINALIZING,
+    /** The output file is complete and is being indexed for the user. */
+    SCANNING,
+    /** All work is complete. */
+    ENDED
+  }
+
+  private final AtomicReference<State> state = new AtomicReference<>(IDLE);
+
+  State get() {
+    return state.get();
+  }
+
+  /** Move from {@code from} to {@code to}, returning false if the current state is not from. */
+  boolean transition(State from, State to) {
+    if (state.compareAndSet(from, to)) {
+      Timber.d("Recording state %s -> %s", from, to);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Move to {@link State#RECORDING} from either {@link State#PREPARING} or
+   * {@link State#COUNTDOWN}. Preparation may still be running when the countdown completes.
+   */
+  boolean start() {
+    while (true) {
+      State current = state.get();
+      if (current != PREPARING && current != COUNTDOWN) {
+        return false;
+      }
+      if (transition(current, RECORDING)) {
+        return true;
+      }
+    }
+  }
+
+  /** Move from {@link State#RECORDING} to {@link State#PAUSED}. */
+  boolean pause() {
+    return transition(RECORDING, PAUSED);
+  }
+
+  /** Move from {@link State#PAUSED} to {@link State#RECORDING}. */
+  boolean resume() {
+    return transition(PAUSED, RECORDING);
+  }
+
+  /** Move from {@link State#RECORDING} or {@link State#PAUSED} to {@link State#FINALIZING}. */
+  boolean stop() {
+    while (true) {
+      State current = state.get();
+      if (current != RECORDING && current != PAUSED) {
+        return false;
+      }
+      if (transition(current, FINALIZING)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Move towards {@link State#ENDED} from any state and return the state which was left. A
+   * recording, paused or not, is moved to {@link State#FINALIZING} so that its file is still
+   * written; the caller must finalize it. Prepared resources from {@link State#PREPARING} or
+   * {@link State#COUNTDOWN} must be released by the caller. Sessions already finalizing are left
+   * alone.
+   */
+  State destroy() {
+    while (true) {
+      State current = state.get();
+      switch (current) {
+        case RECORDING:
+        case PAUSED:
+          if (transition(current, FINALIZING)) {
+            return current;
+          }
+          break;
+        case IDLE:
+        case PREPARING:
+        case COUNTDOWN:
+          if (transition(current, ENDED)) {
+            return current;
+          }
+          break;
+        default:
+          return current;
+      }
+    }
+  }
+
+  @Override public String toString() {
+    return state.get().toString();
+  }
+}
@@ -0,0 +1,101 @@
+package com.jakewharton.telecine;
+
+/**
+ * Accumulates what an {@link Encoder} reports about the frames of a single recording, and the bit
+ * rate changes its {@link BitRateGovernor} made.
+ */
+final class RecordingMetrics implements Encoder.Listener, BitRateGovernor.Listener {
+  private int frames;
+  private int keyFrames;
+  private long bytes;
+  private long firstPresentationTimeUs = -1;
+  private long lastPresentationTimeUs = -1;
+  private long maxFrameIntervalUs;
+  private long firstFrameNanos = -1;
+  private int bitRateChanges;
+  private int minBitRate;
+  private long maxLatencyUs;
+
+  @Override public synchronized void onFrameEncoded(long presentationTimeUs, int size,
+      boolean keyFrame) {
+    if (firstPresentationTimeUs == -1) {
+      firstPresentationTimeUs = presentationTimeUs;
+      firstFrameNanos = System.nanoTime();
+    } else {
+      maxFrameIntervalUs =
+          Math.max(maxFrameIntervalUs, presentationTimeUs - lastPresentationTimeUs);
+    }
+    lastPresentationTimeUs = presentationTimeUs;
+    frames++;
+    if (keyFrame) {
+      keyFrames++;
+    }
+    bytes += size;
+  }
+
+  @Override public synchronized void onBitRateChanged(long timeUs, int bitRate, long latencyUs) {
+    bitRateChanges++;
+    minBitRate = minBitRate == 0 ? bitRate : Math.min(minBitRate, bitRate);
+    maxLatencyUs = Math.max(maxLatencyUs, latencyUs);
+  }
+
+  /** The {@link System#nanoTime()} at which the first frame was encoded, or -1 if none were. */
+  synchronized long firstFrameNanos() {
+    return firstFrameNanos;
+  }
+
+  synchronized int frames() {
+    return frames;
+  }
+
+  synchronized int keyFrames() {
+    return keyFrames;
+  }
+
+  synchronized long bytes() {
+    return bytes;
+  }
+
+  /** Time between the first and last frame, or 0 if fewer than two frames were encoded. */
+  synchronized long durationUs() {
+    return frames < 2 ? 0 : lastPresentationTimeUs - firstPresentationTimeUs;
+  }
+
+  /** The longest gap between two consecutive frames. Long gaps indicate a stalled encoder. */
+  synchronized long maxFrameIntervalUs() {
+    return maxFrameIntervalUs;
+  }
+
+  synchronized int bitRateChanges() {
+    return bitRateChanges;
+  }
+
+  /** The lowest bit rate the encoder was changed to, or 0 if it was never changed. */
+  synchronized int minBitRate() {
+    return minBitRate;
+  }
+
+  /** The highest smoothed encoder latency which caused a bit rate change. */
+  synchronized long maxLatencyUs() {
+    return maxLatencyUs;
+  }
+
+  /** Average frames per second, or 0 if the duration is unknown. */
+  synchronized float frameRate() {
+    long durationUs = durationUs();
+    return durationUs == 0 ? 0 : (frames - 1) * 1000000f / durationUs;
+  }
+
+  /** Average bits per second, or 0 if the duration is unknown. */
+  synchronized long bitRate() {
+    long durationUs = durationUs();
+    return durationUs == 0 ? 0 : bytes * 8 * 1000000 / durationUs;
+  }
+
+  @Override public synchronized String toString() {
+    return String.format("%s frames (%s key), %s bytes, %.1f fps, %s bps, %s us max interval, "
+            + "%s bit rate changes (min %s bps)",
+        frames, keyFrames, bytes, frameRate(), bitRate(), maxFrameIntervalUs, bitRateChanges,
+        minBitRate);
+  }
+}
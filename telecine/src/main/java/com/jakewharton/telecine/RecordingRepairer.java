@@ -0,0 +1,113 @@
+package com.jakewharton.telecine;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import com.google.android.gms.analytics.HitBuilders;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import timber.log.Timber;
+
+/**
+ * Repairs recordings left without a {@code moov} because the process writing them died. Only
+ * files last modified before this process started are considered, so a recording which is being
+ * written right now is never touched.
+ */
+final class RecordingRepairer implements Runnable {
+  private final Context context;
+  private final Analytics analytics;
+  private final File outputRoot;
+  private final File journalDir;
+  private final long modifiedBeforeMillis;
+
+  RecordingRepairer(Context context, Analytics analytics, File outputRoot, File journalDir,
+      long modifiedBeforeMillis) {
+    this.context = context;
+    this.analytics = analytics;
+    this.outputRoot = outputRoot;
+    this.journalDir = journalDir;
+    this.modifiedBeforeMillis = modifiedBeforeMillis;
+  }
+
+  /** Run on a background thread. Repairs every unfinished recording. */
+  @Override public void run() {
+    File[] recordings = outputRoot.listFiles(new FileFilter() {
+      @Override public boolean accept(File file) {
+        return file.isFile()
+            && file.getName().endsWith(".mp4")
+            && file.lastModified() < modifiedBeforeMillis;
+      }
+    });
+    if (recordings != null) {
+      for (File recording : recordings) {
+        try {
+          repair(recording);
+        } catch (IOException | RuntimeException e) {
+          Timber.w(e, "Unable to repair '%s'.", recording);
+        }
+      }
+    }
+    deleteOrphanedJournals();
+  }
+
+  private void repair(File recording) throws IOException {
+    File journalFile = RecordingJournal.fileFor(journalDir, recording);
+    Mp4Repairer.Status status = Mp4Repairer.inspect(recording);
+    if (status != Mp4Repairer.Status.NEEDS_REPAIR) {
+      if (journalFile.exists()) {
+        Timber.d("Deleting journal of %s recording '%s'.", status, recording);
+        deleteJournal(journalFile);
+      }
+      return;
+    }
+
+    Timber.i("Repairing unfinished recording '%s'.", recording);
+    int samples;
+    if (journalFile.exists()) {
+      try (RecordingJournal journal = RecordingJournal.open(journalFile)) {
+        samples = Mp4Repairer.repair(recording, journal);
+      }
+    } else {
+      samples = Mp4Repairer.repair(recording, null);
+    }
+    if (samples == 0) {
+      return; // Leave the journal in case a later version can do better.
+    }
+    deleteJournal(journalFile);
+
+    MediaScannerConnection.scanFile(context, new String[] { recording.getAbsolutePath() }, null,
+        null);
+
+    analytics.send(new HitBuilders.EventBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setAction(Analytics.ACTION_RECORDING_REPAIR)
+        .setValue(samples)
+        .build());
+  }
+
+  /** Delete journals whose recordings are gone, e.g. because the user deleted them. */
+  private void deleteOrphanedJournals() {
+    File[] journals = journalDir.listFiles();
+    if (journals == null) {
+      return;
+    }
+    for (File journal : journals) {
+      String name = journal.getName();
+      if (!name.endsWith(RecordingJournal.SUFFIX)
+          || journal.lastModified() >= modifiedBeforeMillis) {
+        continue;
+      }
+      String recordingName = name.substring(0, name.length() - RecordingJournal.SUFFIX.length());
+      if (!new File(outputRoot, recordingName).exists()) {
+        Timber.d("Deleting orphaned journal '%s'.", journal);
+        deleteJournal(journal);
+      }
+    }
+  }
+
+  private static void deleteJournal(File journal) {
+    if (journal.exists() && !journal.delete()) {
+      Timber.w("Unable to delete journal '%s'.", journal);
+    }
+  }
+}
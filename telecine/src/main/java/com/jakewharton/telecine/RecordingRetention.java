@@ -0,0 +1,98 @@
+package com.jakewharton.telecine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Limits on the recordings kept in the output directory. A limit of zero is unlimited. Recordings
+ * are evicted least recently used first until those remaining are within every limit.
+ */
+final class RecordingRetention {
+  static final RecordingRetention KEEP_ALL = new RecordingRetention(0, 0, 0);
+
+  /** The least recently used recording sorts first. */
+  private static final Comparator<Recording> LEAST_RECENTLY_USED = new Comparator<Recording>() {
+    @Override public int compare(Recording lhs, Recording rhs) {
+      if (lhs.lastUsedMillis != rhs.lastUsedMillis) {
+        return lhs.lastUsedMillis < rhs.lastUsedMillis ? -1 : 1;
+      }
+      return lhs.path.compareTo(rhs.path);
+    }
+  };
+
+  final long maxBytes;
+  final long maxAgeMillis;
+  final int maxCount;
+
+  RecordingRetention(long maxBytes, long maxAgeMillis, int maxCount) {
+    if (maxBytes < 0 || maxAgeMillis < 0 || maxCount < 0) {
+      throw new IllegalArgumentException(
+          "Invalid limits: " + maxBytes + ", " + maxAgeMillis + ", " + maxCount);
+    }
+    this.maxBytes = maxBytes;
+    this.maxAgeMillis = maxAgeMillis;
+    this.maxCount = maxCount;
+  }
+
+  boolean keepsAll() {
+    return maxBytes == 0 && maxAgeMillis == 0 && maxCount == 0;
+  }
+
+  /**
+   * The recordings to delete at {@code nowMillis}, least recently used first. The most recently
+   * used recording is always kept so that a recording is never deleted as soon as it is made.
+   */
+  List<Recording> selectEvictions(List<Recording> recordings, long nowMillis) {
+    List<Recording> sorted = new ArrayList<>(recordings);
+    Collections.sort(sorted, LEAST_RECENTLY_USED);
+
+    // Keep recordings newest first until one would break a limit. Everything older goes.
+    int kept = 0;
+    long keptBytes = 0;
+    int index = sorted.size() - 1;
+    for (; index >= 0; index--) {
+      Recording recording = sorted.get(index);
+      if (kept > 0 && !fits(recording, kept, keptBytes, nowMillis)) {
+        break;
+      }
+      kept++;
+      keptBytes += recording.sizeBytes;
+    }
+    return sorted.subList(0, index + 1);
+  }
+
+  /** Whether {@code recording} may be kept alongside {@code kept} more recent recordings. */
+  private boolean fits(Recording recording, int kept, long keptBytes, long nowMillis) {
+    return (maxCount == 0 || kept < maxCount)
+        && (maxBytes == 0 || keptBytes + recording.sizeBytes <= maxBytes)
+        && (maxAgeMillis == 0 || nowMillis - recording.lastUsedMillis <= maxAgeMillis);
+  }
+
+  @Override public String toString() {
+    return "RecordingRetention{maxBytes="
+        + maxBytes
+        + ", maxAgeMillis="
+        + maxAgeMillis
+        + ", maxCount="
+        + maxCount
+        + '}';
+  }
+
+  static final class Recording {
+    final String path;
+    final long sizeBytes;
+    final long lastUsedMillis;
+
+    Recording(String path, long sizeBytes, long lastUsedMillis) {
+      this.path = path;
+      this.sizeBytes = sizeBytes;
+      this.lastUsedMillis = lastUsedMillis;
+    }
+
+    @Override public String toString() {
+      return path;
+    }
+  }
+}
@@ -7,32 +7,37 @@ import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.hardware.display.VirtualDisplay;
-import android.media.CamcorderProfile;
-import android.media.MediaMetadataRetriever;
-import android.media.MediaRecorder;
 import android.media.MediaScannerConnection;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.DisplayMetrics;
-import android.view.Surface;
 import android.view.WindowManager;
+import android.widget.Toast;
 import com.google.android.gms.analytics.HitBuilders;
 import java.io.File;
-import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import javax.inject.Provider;
 import timber.log.Timber;
@@ -42,12 +47,10 @@ import static android.content.Context.NOTIFICATION_SERVICE;
 import static android.content.Context.WINDOW_SERVICE;
 import static android.content.Intent.ACTION_SEND;
 import static android.content.Intent.ACTION_VIEW;
-import static android.content.res.Configuration.ORIENTATION_LANDSCAPE;
 import static android.hardware.display.DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION;
-import static android.media.MediaRecorder.OutputFormat.MPEG_4;
-import static android.media.MediaRecorder.VideoEncoder.H264;
-import static android.media.MediaRecorder.VideoSource.SURFACE;
 import static android.os.Environment.DIRECTORY_MOVIES;
+import static com.jakewharton.telecine.EncoderCapabilities.MIME_TYPE_AVC;
+import static com.jakewharton.telecine.EncoderCapabilities.MIME_TYPE_HEVC;
 
 final class RecordingSession {
   static final int NOTIFICATION_ID = 522592;
@@ -55,11 +58,26 @@ final class RecordingSession {
   private static final String DISPLAY_NAME = "telecine";
   private static final String MIME_TYPE = "video/mp4";
 
+  /** Used when the encoder's capabilities are unknown. Matches the H.264 macroblock size. */
+  private static final int DEFAULT_ALIGNMENT = 16;
+  /** Frames are shrunk to reach the requested frame rate, but their short edge not below this. */
+  private static final int MIN_FRAME_RATE_SHORT_EDGE = 720;
+  private static final int MIN_BIT_RATE = 1000 * 1000;
+  private static final int MAX_BIT_RATE = 40 * 1000 * 1000;
+  /** HEVC looks as good as H.264 at a little over half of its bit rate. */
+  static final float HEVC_EFFICIENCY = 0.6f;
+  /** MediaMuxer, which writes most recordings and every joined one, writes HEVC from Android N. */
+  private static final int MUXER_HEVC_SDK = 24;
+
+  /** Replay retains up to a group of pictures beyond its length so it can begin on a key frame. */
+  static final int REPLAY_SLACK_SECONDS = 2;
+  private static final int MAX_REPLAY_CAPACITY = 96 * 1024 * 1024;
+
   interface Listener {
     /** Invoked immediately prior to the start of recording. */
     void onStart();
 
-    /** Invoked immediately after the end of recording. */
+    /** Invoked once the recording has been written to disk. */
     void onStop();
 
     /** Invoked after all work for this session has completed. */
@@ -67,6 +85,9 @@ final class RecordingSession {
   }
 
   private final Handler mainThread = new Handler(Looper.getMainLooper());
+  private final HandlerThread recordingThread = new HandlerThread("telecine-recording");
+  private final Handler recordingHandler;
+  private final RecordingController controller;
 
   private final Context context;
   private final Listener listener;
@@ -74,10 +95,20 @@ final class RecordingSession {
   private final Intent data;
 
   private final Analytics analytics;
+  private final EncoderCapabilitiesCache encoderCapabilitiesCache;
+  private final BitmapPool bitmapPool;
+  private final RecordingEvictor recordingEvictor;
+  private final EncoderSelector encoderSelector;
   private final Provider<Boolean> showCountDown;
   private final Provider<Integer> videoSizePercentage;
+  private final Provider<Integer> videoFrameRate;
+  private final Provider<Boolean> preferHevc;
+  private final Provider<Integer> replayLength;
+  private final Provider<Boolean> multiTake;
+  private final Provider<Boolean> joinTakes;
 
   private final File outputRoot;
+  private final File journalDir;
   private final DateFormat fileFormat =
       new SimpleDateFormat("'Telecine_'yyyy-MM-dd-HH-mm-ss'.mp4'", Locale.US);
 
@@ -86,30 +117,161 @@ final class RecordingSession {
   private final MediaProjectionManager projectionManager;
 
   private OverlayView overlayView;
-  private MediaRecorder recorder;
+  /** Keeps the encoder between takes. */
+  private final CodecPool codecPool = new CodecPool();
+  private Encoder encoder;
+  private RecordingMetrics metrics;
+  // The projection and display are retained between takes. The projection's permission grant can
+  // only be used once, so every take of the session must share it.
   private MediaProjection projection;
   private VirtualDisplay display;
+  private ThumbnailCapture thumbnailCapture;
+  private StorageMonitor storageMonitor;
   private String outputFile;
-  private boolean running;
+  private RecordingInfo recordingInfo;
+  private long prepareStartNanos;
   private long recordingStartNanos;
+  private long recordingStartMillis;
+  private long recordingStopNanos;
+  private long stopRequestNanos;
+  /** Set on the recording thread when the recording is stopped for lack of storage. */
+  private volatile boolean stoppedForStorage;
+
+  /** Files of the session's completed takes, in order, to be joined when the session ends. */
+  private final List<String> takeFiles = Collections.synchronizedList(new ArrayList<String>());
+
+  /** The session's work, run on the recording thread as the {@link #controller} directs. */
+  private final RecordingController.Recorder recorder = new RecordingController.Recorder() {
+    @Override public boolean prepare() {
+      return RecordingSession.this.prepare();
+    }
+
+    @Override public void start() {
+      startRecording();
+    }
+
+    @Override public void pause() {
+      pauseRecording();
+    }
+
+    @Override public void resume() {
+      resumeRecording();
+    }
+
+    @Override public void stop(boolean anotherTake) {
+      stopTake(anotherTake);
+    }
+
+    @Override public void finish(boolean anotherTake, boolean endSession) {
+      finishRecording(endSession);
+    }
+
+    @Override public void releasePrepared() {
+      RecordingSession.this.releasePrepared();
+    }
+
+    @Override public void releaseRetained() {
+      RecordingSession.this.releaseRetained();
+    }
+  };
+
+  /** Media store entries of completed segments, in order. Null for any not yet indexed. */
+  private final List<Uri> segmentUris = new ArrayList<>();
+
+  /** Index each segment as soon as it is complete so it can be viewed during long recordings. */
+  private final SegmentingSampleWriter.Listener segmentListener =
+      new SegmentingSampleWriter.Listener() {
+        @Override public void onSegmentComplete(File segment, long durationUs) {
+          long durationMs = TimeUnit.MICROSECONDS.toMillis(durationUs);
+          Uri uri = MediaStoreHelper.insertVideo(context.getContentResolver(), segment,
+              durationMs, recordingInfo.width, recordingInfo.height, recordingInfo.mimeType,
+              segment.lastModified() - durationMs);
+          if (uri == null) {
+            MediaScannerConnection.scanFile(context, new String[] { segment.getPath() }, null,
+                null);
+          }
+          synchronized (segmentUris) {
+            segmentUris.add(uri);
+          }
+        }
+      };
+
+  /** Stop recording while there is still room to complete the file. */
+  private final StorageMonitor.Listener storageListener = new StorageMonitor.Listener() {
+    @Override public void onStorageLow(long usableBytes) {
+      Timber.w("Only %s bytes of storage remain. Stopping recording.", usableBytes);
+      stoppedForStorage = true;
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_RECORDING)
+          .setAction(Analytics.ACTION_RECORDING_LOW_STORAGE)
+          .setLabel("Stopped")
+          .build());
+
+      mainThread.post(new Runnable() {
+        @Override public void run() {
+          Toast.makeText(context, R.string.storage_low_stopped, Toast.LENGTH_LONG).show();
+          // Another take would only be refused for want of storage, so end the session.
+          stopRecording(false);
+        }
+      });
+    }
+  };
 
   RecordingSession(Context context, Listener listener, int resultCode, Intent data,
-      Analytics analytics, Provider<Boolean> showCountDown, Provider<Integer> videoSizePercentage) {
+      Analytics analytics, EncoderCapabilitiesCache encoderCapabilitiesCache,
+      BitmapPool bitmapPool, RecordingEvictor recordingEvictor, Encoder.Factory encoderFactory,
+      Provider<Boolean> showCountDown, Provider<Integer> videoSizePercentage,
+      Provider<Integer> videoFrameRate, Provider<Boolean> preferHevc,
+      Provider<Boolean> crashSafeRecording, Provider<Integer> replayLength,
+      Provider<Integer> segmentLength, Provider<Integer> keepAliveInterval,
+      Provider<Integer> timeLapseInterval, Provider<Boolean> timeLapseRealTime,
+      Provider<Boolean> multiTake, Provider<Boolean> joinTakes) {
     this.context = context;
     this.listener = listener;
     this.resultCode = resultCode;
     this.data = data;
     this.analytics = analytics;
+    this.encoderCapabilitiesCache = encoderCapabilitiesCache;
+    this.bitmapPool = bitmapPool;
+    this.recordingEvictor = recordingEvictor;
 
     this.showCountDown = showCountDown;
     this.videoSizePercentage = videoSizePercentage;
-
-    File picturesDir = Environment.getExternalStoragePublicDirectory(DIRECTORY_MOVIES);
-    outputRoot = new File(picturesDir, "Telecine");
+    this.videoFrameRate = videoFrameRate;
+    this.preferHevc = preferHevc;
+    this.replayLength = replayLength;
+    this.multiTake = multiTake;
+    this.joinTakes = joinTakes;
+
+    outputRoot = getOutputRoot();
+    journalDir = getJournalDir(context);
+    encoderSelector = new EncoderSelector(encoderFactory, codecPool, journalDir, segmentListener,
+        crashSafeRecording, segmentLength, keepAliveInterval, timeLapseInterval,
+        timeLapseRealTime);
 
     notificationManager = (NotificationManager) context.getSystemService(NOTIFICATION_SERVICE);
     windowManager = (WindowManager) context.getSystemService(WINDOW_SERVICE);
     projectionManager = (MediaProjectionManager) context.getSystemService(MEDIA_PROJECTION_SERVICE);
+
+    recordingThread.start();
+    recordingHandler = new Handler(recordingThread.getLooper());
+    controller = new RecordingController(new Executor() {
+      @Override public void execute(@NonNull Runnable command) {
+        recordingHandler.post(command);
+      }
+    }, recorder);
+  }
+
+  /** The directory into which recordings are written. */
+  static File getOutputRoot() {
+    File moviesDir = Environment.getExternalStoragePublicDirectory(DIRECTORY_MOVIES);
+    return new File(moviesDir, "Telecine");
+  }
+
+  /** The private directory holding the {@link RecordingJournal} of each unfinished recording. */
+  static File getJournalDir(Context context) {
+    return new File(context.getFilesDir(), "journals");
   }
 
   public void showOverlay() {
@@ -120,12 +282,24 @@ final class RecordingSession {
         cancelOverlay();
       }
 
+      @Override public void onPrepare() {
+        prepareRecording();
+      }
+
       @Override public void onStart() {
-        startRecording();
+        controller.start();
       }
 
       @Override public void onStop() {
-        stopRecording();
+        stopRecording(multiTake.get());
+      }
+
+      @Override public void onPause() {
+        controller.pause();
+      }
+
+      @Override public void onResume() {
+        controller.resume();
       }
     };
     overlayView = OverlayView.create(context, overlayListener, showCountDown.get());
@@ -151,7 +325,11 @@ final class RecordingSession {
   }
 
   private void cancelOverlay() {
+    if (!controller.cancel()) {
+      return;
+    }
     hideOverlay();
+    startJoiningTakes();
     listener.onEnd();
 
     analytics.send(new HitBuilders.EventBuilder() //
@@ -160,7 +338,45 @@ final class RecordingSession {
         .build());
   }
 
-  private RecordingInfo getRecordingInfo() {
+  /** Join the session's takes into one video if requested. The takes themselves are kept. */
+  private void startJoiningTakes() {
+    ArrayList<String> inputs;
+    synchronized (takeFiles) {
+      inputs = new ArrayList<>(takeFiles);
+    }
+    if (inputs.size() < 2 || !joinTakes.get()) {
+      return;
+    }
+    String output = RemuxService.joinedFile(inputs.get(0));
+    // Released by the service once the join is done.
+    ArrayList<String> retained = new ArrayList<>(inputs);
+    retained.add(output);
+    recordingEvictor.retain(retained);
+    context.startService(RemuxService.newIntent(context, inputs, output));
+  }
+
+  /**
+   * Pick the codec to record with. H.264 is used unless HEVC is preferred and
+   * {@link #chooseRecordingInfo} finds its encoder as capable.
+   */
+  private RecordingInfo selectCodec(RecordingInfo avcInfo) {
+    if (!preferHevc.get()) {
+      return avcInfo;
+    }
+    if (Build.VERSION.SDK_INT < MUXER_HEVC_SDK) {
+      Timber.d("HEVC recordings cannot be written. Recording H.264.");
+      return avcInfo;
+    }
+    EncoderCapabilities capabilities = encoderCapabilitiesCache.get(MIME_TYPE_HEVC);
+    if (capabilities == null || capabilities.isSoftware()) {
+      // Software encoders cannot keep up with the screen.
+      Timber.d("No hardware HEVC encoder. Recording H.264.");
+      return avcInfo;
+    }
+    return chooseRecordingInfo(avcInfo, getRecordingInfo(capabilities));
+  }
+
+  private RecordingInfo getRecordingInfo(@Nullable EncoderCapabilities capabilities) {
     DisplayMetrics displayMetrics = new DisplayMetrics();
     WindowManager wm = (WindowManager) context.getSystemService(WINDOW_SERVICE);
     wm.getDefaultDisplay().getRealMetrics(displayMetrics);
@@ -169,65 +385,139 @@ final class RecordingSession {
     int displayDensity = displayMetrics.densityDpi;
     Timber.d("Display size: %s x %s @ %s", displayWidth, displayHeight, displayDensity);
 
-    Configuration configuration = context.getResources().getConfiguration();
-    boolean isLandscape = configuration.orientation == ORIENTATION_LANDSCAPE;
-    Timber.d("Display landscape: %s", isLandscape);
-
-    // Get the best camera profile available. We assume MediaRecorder supports the highest.
-    CamcorderProfile camcorderProfile = CamcorderProfile.get(CamcorderProfile.QUALITY_HIGH);
-    int cameraWidth = camcorderProfile != null ? camcorderProfile.videoFrameWidth : -1;
-    int cameraHeight = camcorderProfile != null ? camcorderProfile.videoFrameHeight : -1;
-    Timber.d("Camera size: %s x %s", cameraWidth, cameraHeight);
+    Timber.d("Encoder: %s", capabilities);
 
     int sizePercentage = videoSizePercentage.get();
     Timber.d("Size percentage: %s", sizePercentage);
 
-    return calculateRecordingInfo(displayWidth, displayHeight, displayDensity, isLandscape,
-        cameraWidth, cameraHeight, sizePercentage);
+    // Frames beyond the display's refresh rate would only repeat.
+    int refreshRate = Math.round(wm.getDefaultDisplay().getRefreshRate());
+    int frameRate = Math.min(videoFrameRate.get(), Math.max(Encoder.FRAME_RATE, refreshRate));
+    Timber.d("Frame rate: %s (display refreshes at %s)", frameRate, refreshRate);
+
+    RecordingInfo info = calculateRecordingInfo(displayWidth, displayHeight, displayDensity,
+        capabilities, sizePercentage, frameRate, Quality.MEDIUM);
+    if (info.frameRate < frameRate) {
+      Timber.i("Encoder cannot reach %s fps. Recording at %s fps.", frameRate, info.frameRate);
+    }
+    return info;
   }
 
-  private void startRecording() {
-    Timber.d("Starting screen recording...");
+  /**
+   * Begin preparing the encoder and projection on the recording thread so that they are ready by
+   * the time the overlay's countdown completes.
+   */
+  private void prepareRecording() {
+    prepareStartNanos = System.nanoTime();
+    controller.prepare();
+  }
 
-    if (!outputRoot.mkdirs()) {
-      Timber.e("Unable to create output directory '%s'.", outputRoot.getAbsolutePath());
-      // We're probably about to crash, but at least the log will indicate as to why.
+  /** Returns false, having allocated nothing, if there is not enough storage to record. */
+  private boolean prepare() {
+    // Forget anything left over from a previous take.
+    stoppedForStorage = false;
+    stopRequestNanos = 0;
+    synchronized (segmentUris) {
+      segmentUris.clear();
     }
 
-    RecordingInfo recordingInfo = getRecordingInfo();
-    Timber.d("Recording: %s x %s @ %s", recordingInfo.width, recordingInfo.height,
-        recordingInfo.density);
-
-    recorder = new MediaRecorder();
-    recorder.setVideoSource(SURFACE);
-    recorder.setOutputFormat(MPEG_4);
-    recorder.setVideoFrameRate(30);
-    recorder.setVideoEncoder(H264);
-    recorder.setVideoSize(recordingInfo.width, recordingInfo.height);
-    recorder.setVideoEncodingBitRate(8 * 1000 * 1000);
+    RecordingInfo avcInfo = getRecordingInfo(encoderCapabilitiesCache.get(MIME_TYPE_AVC));
+    recordingInfo = selectCodec(avcInfo);
+    Timber.d("Recording: %s x %s @ %s, %s fps, %s bps, %s", recordingInfo.width,
+        recordingInfo.height, recordingInfo.density, recordingInfo.frameRate,
+        recordingInfo.bitRate, recordingInfo.mimeType);
+
+    // Budget for H.264 in case HEVC fails to prepare and it is recorded instead.
+    int replaySeconds = replayLength.get();
+    long deferredBytes =
+        replaySeconds > 0 ? calculateReplayCapacity(avcInfo.bitRate, replaySeconds) : 0;
+    StorageBudget storageBudget = new StorageBudget(avcInfo.bitRate, deferredBytes);
+    if (!checkStorage(storageBudget)) {
+      return false;
+    }
+    storageMonitor =
+        new StorageMonitor(outputRoot, storageBudget, recordingHandler, storageListener);
 
     String outputName = fileFormat.format(new Date());
     outputFile = new File(outputRoot, outputName).getAbsolutePath();
     Timber.i("Output file '%s'.", outputFile);
-    recorder.setOutputFile(outputFile);
 
-    try {
-      recorder.prepare();
-    } catch (IOException e) {
-      throw new RuntimeException("Unable to prepare MediaRecorder.", e);
+    metrics = new RecordingMetrics();
+    encoder = encoderSelector.prepare(recordingInfo, avcInfo, replaySeconds, metrics, outputFile);
+    recordingInfo = encoderSelector.recordingInfo();
+
+    // The display renders nowhere until recording starts and the encoder's surface is attached.
+    if (projection == null) {
+      projection = projectionManager.getMediaProjection(resultCode, data);
+      display =
+          projection.createVirtualDisplay(DISPLAY_NAME, recordingInfo.width, recordingInfo.height,
+              recordingInfo.density, VIRTUAL_DISPLAY_FLAG_PRESENTATION, null, null, null);
+    } else {
+      Timber.d("Reusing projection from the previous take.");
+      display.resize(recordingInfo.width, recordingInfo.height, recordingInfo.density);
+    }
+    Resources res = context.getResources();
+    Thumbnails.Region thumbnailSize = Thumbnails.fit(recordingInfo.width, recordingInfo.height,
+        res.getDimensionPixelSize(R.dimen.thumbnail_max_width),
+        res.getDimensionPixelSize(R.dimen.thumbnail_max_height));
+    thumbnailCapture = new ThumbnailCapture(projection, thumbnailSize.width,
+        thumbnailSize.height, recordingInfo.density, bitmapPool, recordingHandler);
+
+    Timber.d("Screen recording prepared in %sms.",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - prepareStartNanos));
+    return true;
+  }
+
+  /**
+   * Ensure the output directory exists and has room for a recording within {@code budget}. If
+   * not, the session is ended and the user is told why.
+   */
+  private boolean checkStorage(StorageBudget budget) {
+    int reason;
+    if (!outputRoot.isDirectory() && !outputRoot.mkdirs()) {
+      Timber.e("Unable to create output directory '%s'.", outputRoot.getAbsolutePath());
+      reason = R.string.storage_unavailable;
+    } else {
+      long usableBytes = outputRoot.getUsableSpace();
+      if (budget.canStart(usableBytes)) {
+        Timber.d("Storage for %ss of recording.", budget.remainingSeconds(usableBytes));
+        return true;
+      }
+      Timber.w("Only %s bytes of storage available.", usableBytes);
+      reason = R.string.storage_insufficient;
     }
 
-    projection = projectionManager.getMediaProjection(resultCode, data);
+    analytics.send(new HitBuilders.EventBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setAction(Analytics.ACTION_RECORDING_LOW_STORAGE)
+        .setLabel("Refused")
+        .build());
 
-    Surface surface = recorder.getSurface();
-    display =
-        projection.createVirtualDisplay(DISPLAY_NAME, recordingInfo.width, recordingInfo.height,
-            recordingInfo.density, VIRTUAL_DISPLAY_FLAG_PRESENTATION, surface, null, null);
+    final int message = reason;
+    mainThread.post(new Runnable() {
+      @Override public void run() {
+        hideOverlay();
+        Toast.makeText(context, message, Toast.LENGTH_LONG).show();
+        startJoiningTakes();
+        listener.onEnd();
+      }
+    });
+    return false;
+  }
 
-    recorder.start();
-    running = true;
+  /** Open the gate on a prepared recording. */
+  private void startRecording() {
+    encoder.start();
+    display.setSurface(encoder.getInputSurface());
+    thumbnailCapture.start();
+    storageMonitor.start();
     recordingStartNanos = System.nanoTime();
-    listener.onStart();
+    recordingStartMillis = System.currentTimeMillis();
+    mainThread.post(new Runnable() {
+      @Override public void run() {
+        listener.onStart();
+      }
+    });
 
     Timber.d("Screen recording started.");
 
@@ -235,73 +525,288 @@ final class RecordingSession {
         .setCategory(Analytics.CATEGORY_RECORDING)
         .setAction(Analytics.ACTION_RECORDING_START)
         .build());
+    analytics.send(new HitBuilders.EventBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setAction(Analytics.ACTION_RECORDING_CODEC)
+        .setLabel(recordingInfo.mimeType)
+        .setValue(encoderSelector.codecFallback() ? 1 : 0)
+        .build());
+    if (encoderSelector.timeLapseSeconds() > 0) {
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_RECORDING)
+          .setAction(Analytics.ACTION_RECORDING_TIME_LAPSE)
+          .setLabel(encoderSelector.timeLapseSpeedup() > 1 ? "Compressed" : "Real Time")
+          .setValue(encoderSelector.timeLapseSeconds())
+          .build());
+    }
+  }
+
+  /** Stop rendering frames to the encoder, which drops any still in flight from now on. */
+  private void pauseRecording() {
+    if (!encoder.pause()) {
+      Timber.w("Encoder cannot pause. The paused time will be kept as a still frame.");
+    }
+    display.setSurface(null);
+    Timber.d("Screen recording paused.");
+
+    analytics.send(new HitBuilders.EventBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setAction(Analytics.ACTION_RECORDING_PAUSE)
+        .build());
+  }
+
+  private void resumeRecording() {
+    encoder.resume();
+    display.setSurface(encoder.getInputSurface());
+    Timber.d("Screen recording resumed.");
+
+    analytics.send(new HitBuilders.EventBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setAction(Analytics.ACTION_RECORDING_RESUME)
+        .build());
   }
 
-  private void stopRecording() {
-    Timber.d("Stopping screen recording...");
+  /** Release what {@link #prepare} allocated for a recording which never started. */
+  private void releasePrepared() {
+    storageMonitor.stop();
+    thumbnailCapture.release();
+    encoder.release();
+    releaseRetained();
+  }
 
-    if (!running) {
-      throw new IllegalStateException("Not running.");
+  /** Release what is kept between takes. Safe to call when nothing is. */
+  private void releaseRetained() {
+    if (projection != null) {
+      projection.stop();
+      projection = null;
+      display.release();
+      display = null;
     }
-    running = false;
+    codecPool.clear();
+  }
 
+  /**
+   * The bytes needed to retain {@code seconds} of video encoded at {@code bitRate}. Memory use is
+   * bounded regardless of the bit rate, shortening the replay of very large recordings.
+   */
+  static int calculateReplayCapacity(int bitRate, int seconds) {
+    long bytes = (long) (bitRate / 8L * (seconds + REPLAY_SLACK_SECONDS)
+        * StorageBudget.HEADROOM);
+    return (int) Math.min(MAX_REPLAY_CAPACITY, bytes);
+  }
+
+  private void stopRecording(boolean anotherTake) {
+    stopRequestNanos = System.nanoTime();
     hideOverlay();
 
-    // Stop the projection in order to flush everything to the recorder.
-    projection.stop();
+    controller.stop(anotherTake);
+  }
+
+  /**
+   * Flush and close the output file. If {@code anotherTake}, the projection and encoder are kept
+   * for the next take.
+   */
+  private void stopTake(boolean anotherTake) {
+    storageMonitor.stop();
 
-    // Stop the recorder which writes the contents to the file.
-    recorder.stop();
+    // Detach or stop the projection in order to flush everything to the encoder.
+    if (anotherTake) {
+      display.setSurface(null);
+    } else {
+      projection.stop();
+    }
 
-    long recordingStopNanos = System.nanoTime();
+    // Stop the encoder which writes the contents to the file.
+    encoder.stop();
 
-    recorder.release();
-    display.release();
+    recordingStopNanos = System.nanoTime();
+
+    encoder.release();
+    if (!anotherTake) {
+      releaseRetained();
+    }
+  }
+
+  /**
+   * Index the take whose file {@link #stopTake} closed. Unless {@code endSession}, the overlay is
+   * shown again for another take.
+   */
+  private void finishRecording(final boolean endSession) {
+    final Bitmap thumbnail = thumbnailCapture.getThumbnail();
+    thumbnailCapture.release();
+
+    Timber.d("Encoded %s", metrics);
+    sendStartLatency();
 
     analytics.send(new HitBuilders.EventBuilder() //
         .setCategory(Analytics.CATEGORY_RECORDING)
         .setAction(Analytics.ACTION_RECORDING_STOP)
         .build());
+    if (metrics.bitRateChanges() > 0) {
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_RECORDING)
+          .setAction(Analytics.ACTION_RECORDING_BIT_RATE)
+          .setLabel(String.valueOf(metrics.minBitRate()))
+          .setValue(metrics.bitRateChanges())
+          .build());
+    }
     analytics.send(new HitBuilders.TimingBuilder() //
         .setCategory(Analytics.CATEGORY_RECORDING)
         .setValue(TimeUnit.NANOSECONDS.toMillis(recordingStopNanos - recordingStartNanos))
         .setVariable(Analytics.VARIABLE_RECORDING_LENGTH)
         .build());
 
-    listener.onStop();
+    // Segmented takes are already split, so joining them is left to the user. The take is added
+    // before the overlay returns so that cancelling from it cannot leave this take out of the join.
+    if (!encoderSelector.segmented() && new File(outputFile).isFile()) {
+      takeFiles.add(outputFile);
+    }
+
+    mainThread.post(new Runnable() {
+      @Override public void run() {
+        listener.onStop();
+        if (!endSession) {
+          showOverlay();
+        }
+      }
+    });
+
+    final Take take = new Take(stopRequestNanos, stoppedForStorage, endSession);
+    Uri uri = encoderSelector.segmented() ? firstSegmentUri() : insertIntoMediaStore();
+    if (uri != null) {
+      Timber.d("Screen recording stopped. Inserted into media store as %s.", uri);
+      postNotification(uri, thumbnail, take);
+      return;
+    }
 
     Timber.d("Screen recording stopped. Notifying media scanner of new video.");
 
-    MediaScannerConnection.scanFile(context, new String[] { outputFile }, null,
+    // Segments were each scanned as they completed. This only needs a Uri for the first.
+    String scanFile = encoderSelector.segmented()
+        ? SegmentingSampleWriter.segmentFile(outputFile, 1).getPath()
+        : outputFile;
+    MediaScannerConnection.scanFile(context, new String[] { scanFile }, null,
         new MediaScannerConnection.OnScanCompletedListener() {
-          @Override public void onScanCompleted(String path, final Uri uri) {
+          @Override public void onScanCompleted(String path, Uri uri) {
             Timber.d("Media scanner completed.");
-            mainThread.post(new Runnable() {
-              @Override public void run() {
-                showNotification(uri, null);
-              }
-            });
+            postNotification(uri, thumbnail, take);
           }
         });
   }
 
-  private void showNotification(final Uri uri, Bitmap bitmap) {
+  /**
+   * Register the recording with the media store directly when everything about it is known.
+   * Returns null if the media scanner must be used instead.
+   */
+  @Nullable private Uri insertIntoMediaStore() {
+    long durationUs = metrics.durationUs();
+    if (durationUs == 0 || encoderSelector.replay()) {
+      return null; // The encoder did not report frames, or not every frame was kept.
+    }
+    File file = new File(outputFile);
+    if (!file.isFile()) {
+      return null;
+    }
+    // The last frame is shown for about as long as the average frame. Frames are reported with
+    // the time they were captured, before any time-lapse compresses it.
+    long durationMs = TimeUnit.MICROSECONDS.toMillis(durationUs * metrics.frames()
+        / (metrics.frames() - 1) / encoderSelector.timeLapseSpeedup());
+    return MediaStoreHelper.insertVideo(context.getContentResolver(), file, durationMs,
+        recordingInfo.width, recordingInfo.height, recordingInfo.mimeType, recordingStartMillis);
+  }
+
+  /** The notification for a segmented recording opens the first segment. */
+  @Nullable private Uri firstSegmentUri() {
+    synchronized (segmentUris) {
+      return segmentUris.isEmpty() ? null : segmentUris.get(0);
+    }
+  }
+
+  private void postNotification(final Uri uri, @Nullable final Bitmap thumbnail,
+      final Take take) {
+    mainThread.post(new Runnable() {
+      @Override public void run() {
+        showNotification(uri, thumbnail, take);
+      }
+    });
+  }
+
+  /**
+   * Report how long it took from tapping start until the first frame reached the file, as well as
+   * how much of that came after the countdown completed.
+   */
+  private void sendStartLatency() {
+    long firstFrameNanos = metrics.firstFrameNanos();
+    if (firstFrameNanos == -1) {
+      return; // The encoder does not report frames.
+    }
+    long tapLatencyMs = TimeUnit.NANOSECONDS.toMillis(firstFrameNanos - prepareStartNanos);
+    long startLatencyMs = TimeUnit.NANOSECONDS.toMillis(firstFrameNanos - recordingStartNanos);
+    Timber.d("First frame %sms after tap, %sms after start.", tapLatencyMs, startLatencyMs);
+
+    analytics.send(new HitBuilders.TimingBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setValue(tapLatencyMs)
+        .setVariable(Analytics.VARIABLE_TAP_TO_FIRST_FRAME)
+        .build());
+    analytics.send(new HitBuilders.TimingBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setValue(startLatencyMs)
+        .setVariable(Analytics.VARIABLE_START_TO_FIRST_FRAME)
+        .build());
+  }
+
+  /** Report how long it took from tapping stop until the recording could be viewed. */
+  private void sendStopLatency(Take take) {
+    if (take.stopRequestNanos == 0) {
+      return; // Destroyed rather than stopped.
+    }
+    long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - take.stopRequestNanos);
+    Timber.d("Notification shown %sms after stop.", latencyMs);
+
+    analytics.send(new HitBuilders.TimingBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setValue(latencyMs)
+        .setVariable(Analytics.VARIABLE_STOP_TO_NOTIFICATION)
+        .build());
+  }
+
+  /**
+   * Post a notification for the recording at {@code uri}. Each take of a session gets its own,
+   * tagged with its URI, so a later take never replaces an earlier one.
+   */
+  private void showNotification(Uri uri, @Nullable Bitmap bitmap, Take take) {
+    // The share chooser differs between takes only in its extras, which do not distinguish
+    // pending intents. A request code per recording does.
+    int requestCode = uri.hashCode();
+    int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+
     Intent viewIntent = new Intent(ACTION_VIEW, uri);
-    PendingIntent pendingViewIntent = PendingIntent.getActivity(context, 0, viewIntent, 0);
+    PendingIntent pendingViewIntent =
+        PendingIntent.getActivity(context, requestCode, viewIntent, flags);
 
     Intent shareIntent = new Intent(ACTION_SEND);
     shareIntent.setType(MIME_TYPE);
     shareIntent.putExtra(Intent.EXTRA_STREAM, uri);
     shareIntent = Intent.createChooser(shareIntent, null);
-    PendingIntent pendingShareIntent = PendingIntent.getActivity(context, 0, shareIntent, 0);
+    PendingIntent pendingShareIntent =
+        PendingIntent.getActivity(context, requestCode, shareIntent, flags);
+
+    Intent shareSmallIntent = ShareSmallService.newIntent(context, uri);
+    PendingIntent pendingShareSmallIntent =
+        PendingIntent.getService(context, requestCode, shareSmallIntent, flags);
 
     Intent deleteIntent = new Intent(context, DeleteRecordingBroadcastReceiver.class);
     deleteIntent.setData(uri);
-    PendingIntent pendingDeleteIntent = PendingIntent.getBroadcast(context, 0, deleteIntent, 0);
+    PendingIntent pendingDeleteIntent =
+        PendingIntent.getBroadcast(context, requestCode, deleteIntent, flags);
 
     CharSequence title = context.getText(R.string.notification_captured_title);
-    CharSequence subtitle = context.getText(R.string.notification_captured_subtitle);
+    CharSequence subtitle = context.getText(take.stoppedForStorage
+        ? R.string.notification_captured_subtitle_low_storage
+        : R.string.notification_captured_subtitle);
     CharSequence share = context.getText(R.string.notification_captured_share);
+    CharSequence shareSmall = context.getText(R.string.notification_captured_share_small);
     CharSequence delete = context.getText(R.string.notification_captured_delete);
     Notification.Builder builder = new Notification.Builder(context) //
         .setContentTitle(title)
@@ -313,101 +818,192 @@ final class RecordingSession {
         .setContentIntent(pendingViewIntent)
         .setAutoCancel(true)
         .addAction(R.drawable.ic_share_white_24dp, share, pendingShareIntent)
+        .addAction(R.drawable.ic_share_white_24dp, shareSmall, pendingShareSmallIntent)
         .addAction(R.drawable.ic_delete_white_24dp, delete, pendingDeleteIntent);
 
+    Bitmap icon = null;
     if (bitmap != null) {
-      builder.setLargeIcon(createSquareBitmap(bitmap))
+      icon = createLargeIcon(bitmap);
+      builder.setLargeIcon(icon)
           .setStyle(new Notification.BigPictureStyle() //
               .setBigContentTitle(title) //
               .setSummaryText(subtitle) //
               .bigPicture(bitmap));
     }
 
-    notificationManager.notify(NOTIFICATION_ID, builder.build());
+    notificationManager.notify(uri.toString(), NOTIFICATION_ID, builder.build());
+    sendStopLatency(take);
 
+    // The notification's bitmaps were copied to the system as it was posted.
     if (bitmap != null) {
-      listener.onEnd();
-      return;
+      bitmapPool.put(bitmap);
+      bitmapPool.put(icon);
+    }
+    if (take.endSession) {
+      end();
     }
-
-    new AsyncTask<Void, Void, Bitmap>() {
-      @Override protected Bitmap doInBackground(@NonNull Void... none) {
-        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-        retriever.setDataSource(context, uri);
-        return retriever.getFrameAtTime();
-      }
-
-      @Override protected void onPostExecute(@Nullable Bitmap bitmap) {
-        if (bitmap != null) {
-          showNotification(uri, bitmap);
-        } else {
-          listener.onEnd();
-        }
-      }
-    }.execute();
   }
 
   static RecordingInfo calculateRecordingInfo(int displayWidth, int displayHeight,
-      int displayDensity, boolean isLandscapeDevice, int cameraWidth, int cameraHeight,
-      int sizePercentage) {
+      int displayDensity, @Nullable EncoderCapabilities capabilities, int sizePercentage,
+      int frameRate, Quality quality) {
     // Scale the display size before any maximum size calculations.
-    displayWidth = displayWidth * sizePercentage / 100;
-    displayHeight = displayHeight * sizePercentage / 100;
+    int frameWidth = displayWidth * sizePercentage / 100;
+    int frameHeight = displayHeight * sizePercentage / 100;
+
+    int widthAlignment = DEFAULT_ALIGNMENT;
+    int heightAlignment = DEFAULT_ALIGNMENT;
+    if (capabilities != null) {
+      // Shrink the frame, preserving its aspect ratio, until every edge and its area fit.
+      int longEdge = Math.max(frameWidth, frameHeight);
+      int shortEdge = Math.min(frameWidth, frameHeight);
+      int maxLongEdge = Math.max(capabilities.maxWidth, capabilities.maxHeight);
+      int maxShortEdge = Math.min(capabilities.maxWidth, capabilities.maxHeight);
+      double scale = Math.min(1, Math.min((double) maxLongEdge / longEdge,
+          (double) maxShortEdge / shortEdge));
+      scale = Math.min(scale, Math.sqrt((double) capabilities.maxArea / frameWidth / frameHeight));
+
+      // Motion is the point of a higher frame rate, so give up resolution for it first. Only
+      // once the frame would become hard to read is the frame rate lowered instead, below.
+      frameRate = Math.min(frameRate, capabilities.maxFrameRate);
+      double pixelRate = (double) frameWidth * frameHeight * frameRate;
+      if (pixelRate * scale * scale > capabilities.maxPixelRate) {
+        double minScale = Math.min(scale, (double) MIN_FRAME_RATE_SHORT_EDGE / shortEdge);
+        scale = Math.max(minScale, Math.sqrt(capabilities.maxPixelRate / pixelRate));
+      }
+      if (scale < 1) {
+        frameWidth = (int) (frameWidth * scale);
+        frameHeight = (int) (frameHeight * scale);
+      }
 
-    if (cameraWidth == -1 && cameraHeight == -1) {
-      // No cameras. Fall back to the display size.
-      return new RecordingInfo(displayWidth, displayHeight, displayDensity);
+      widthAlignment = capabilities.widthAlignment;
+      heightAlignment = capabilities.heightAlignment;
     }
 
-    int frameWidth = isLandscapeDevice ? cameraWidth : cameraHeight;
-    int frameHeight = isLandscapeDevice ? cameraHeight : cameraWidth;
-    if (frameWidth >= displayWidth && frameHeight >= displayHeight) {
-      // Frame can hold the entire display. Use exact values.
-      return new RecordingInfo(displayWidth, displayHeight, displayDensity);
+    frameWidth = EncoderCapabilities.align(frameWidth, widthAlignment);
+    frameHeight = EncoderCapabilities.align(frameHeight, heightAlignment);
+
+    if (capabilities != null) {
+      frameRate = Math.min(frameRate, capabilities.maxFrameRate(frameWidth, frameHeight));
     }
 
-    // Calculate new width or height to preserve aspect ratio.
-    if (isLandscapeDevice) {
-      frameWidth = displayWidth * frameHeight / displayHeight;
-    } else {
-      frameHeight = displayHeight * frameWidth / displayWidth;
+    String mimeType = capabilities != null ? capabilities.mimeType : MIME_TYPE_AVC;
+    int bitRate = calculateBitRate(frameWidth, frameHeight, frameRate, quality);
+    if (MIME_TYPE_HEVC.equals(mimeType)) {
+      bitRate = Math.max(MIN_BIT_RATE, Math.round(bitRate * HEVC_EFFICIENCY));
+    }
+    return new RecordingInfo(frameWidth, frameHeight, displayDensity, frameRate, bitRate,
+        mimeType);
+  }
+
+  /**
+   * Choose {@code hevcInfo} unless its encoder would record fewer pixels per second than H.264's.
+   * Smaller files are not worth a smaller or choppier recording.
+   */
+  static RecordingInfo chooseRecordingInfo(RecordingInfo avcInfo, RecordingInfo hevcInfo) {
+    long avcPixelRate = (long) avcInfo.width * avcInfo.height * avcInfo.frameRate;
+    long hevcPixelRate = (long) hevcInfo.width * hevcInfo.height * hevcInfo.frameRate;
+    if (hevcPixelRate < avcPixelRate) {
+      Timber.d("HEVC encoder records less than H.264's. Recording H.264.");
+      return avcInfo;
+    }
+    return hevcInfo;
+  }
+
+  /**
+   * Pick a bit rate for encoding {@code width} x {@code height} frames at {@code frameRate}.
+   * <p>
+   * The budget is {@code quality}'s bits per pixel at 30fps. Consecutive frames differ less the
+   * faster they arrive so the budget grows with the 0.75 power of the frame rate rather than
+   * linearly.
+   */
+  static int calculateBitRate(int width, int height, int frameRate, Quality quality) {
+    double effectiveFrameRate = 30 * Math.pow(frameRate / 30d, 0.75);
+    long bitRate = Math.round(width * height * effectiveFrameRate * quality.bitsPerPixel);
+    return (int) Math.max(MIN_BIT_RATE, Math.min(MAX_BIT_RATE, bitRate));
+  }
+
+  enum Quality {
+    LOW(0.04f),
+    MEDIUM(0.08f),
+    HIGH(0.12f);
+
+    final float bitsPerPixel;
+
+    Quality(float bitsPerPixel) {
+      this.bitsPerPixel = bitsPerPixel;
+    }
+  }
+
+  /** What is needed to report on a take after the session may have moved on to the next. */
+  private static final class Take {
+    final long stopRequestNanos;
+    final boolean stoppedForStorage;
+    /** False when the session returned to the overlay for another take. */
+    final boolean endSession;
+
+    Take(long stopRequestNanos, boolean stoppedForStorage, boolean endSession) {
+      this.stopRequestNanos = stopRequestNanos;
+      this.stoppedForStorage = stoppedForStorage;
+      this.endSession = endSession;
     }
-    return new RecordingInfo(frameWidth, frameHeight, displayDensity);
   }
 
   static final class RecordingInfo {
     final int width;
     final int height;
     final int density;
+    final int frameRate;
+    final int bitRate;
+    final String mimeType;
 
-    RecordingInfo(int width, int height, int density) {
+    RecordingInfo(int width, int height, int density, int frameRate, int bitRate) {
+      this(width, height, density, frameRate, bitRate, MIME_TYPE_AVC);
+    }
+
+    RecordingInfo(int width, int height, int density, int frameRate, int bitRate,
+        String mimeType) {
       this.width = width;
       this.height = height;
       this.density = density;
+      this.frameRate = frameRate;
+      this.bitRate = bitRate;
+      this.mimeType = mimeType;
     }
   }
 
-  private static Bitmap createSquareBitmap(Bitmap bitmap) {
-    int x = 0;
-    int y = 0;
-    int width = bitmap.getWidth();
-    int height = bitmap.getHeight();
-    if (width > height) {
-      x = (width - height) / 2;
-      //noinspection SuspiciousNameCombination
-      width = height;
-    } else {
-      y = (height - width) / 2;
-      //noinspection SuspiciousNameCombination
-      height = width;
-    }
-    return Bitmap.createBitmap(bitmap, x, y, width, height, null, true);
+  /** Draw the center square of {@code bitmap} at the size of a notification's large icon. */
+  private Bitmap createLargeIcon(Bitmap bitmap) {
+    Resources res = context.getResources();
+    int size = Math.min(res.getDimensionPixelSize(android.R.dimen.notification_large_icon_width),
+        res.getDimensionPixelSize(android.R.dimen.notification_large_icon_height));
+    Thumbnails.Region crop = Thumbnails.centerSquare(bitmap.getWidth(), bitmap.getHeight());
+
+    Bitmap icon = bitmapPool.get(size, size);
+    Rect source = new Rect(crop.left, crop.top, crop.right(), crop.bottom());
+    Rect destination = new Rect(0, 0, size, size);
+    new Canvas(icon).drawBitmap(bitmap, source, destination, new Paint(Paint.FILTER_BITMAP_FLAG));
+    return icon;
   }
 
+  private void end() {
+    controller.end();
+    startJoiningTakes();
+    listener.onEnd();
+  }
+
+  /** Stop any recording and block until its file has been completely written. */
   public void destroy() {
-    if (running) {
-      Timber.w("Destroyed while running!");
-      stopRecording();
+    hideOverlay();
+
+    controller.destroy();
+
+    // Let any queued finalization run to completion.
+    recordingThread.quitSafely();
+    try {
+      recordingThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
   }
 
@@ -416,8 +1012,8 @@ final class RecordingSession {
     @Override public void onReceive(Context context, Intent intent) {
       NotificationManager notificationManager =
           (NotificationManager) context.getSystemService(NOTIFICATION_SERVICE);
-      notificationManager.cancel(NOTIFICATION_ID);
       final Uri uri = intent.getData();
+      notificationManager.cancel(uri.toString(), NOTIFICATION_ID);
       final ContentResolver contentResolver = context.getContentResolver();
       new AsyncTask<Void, Void, Void>() {
         @Override protected Void doInBackground(@NonNull Void... none) {
@@ -0,0 +1,104 @@
+package com.jakewharton.telecine;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.media.MediaScannerConnection;
+import com.google.android.gms.analytics.HitBuilders;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import timber.log.Timber;
+
+/** Joins the takes of a session into one video, in the background, once the session ends. */
+public final class RemuxService extends IntentService {
+  private static final String EXTRA_INPUTS = "inputs";
+  private static final String EXTRA_OUTPUT = "output";
+  /** Covers the overlay's exit animation which starts every take. */
+  static final long HEAD_TRIM_MS = 300;
+  /** Covers the tap on the overlay's stop button which ends every take. */
+  static final long TAIL_TRIM_MS = 500;
+
+  static Intent newIntent(Context context, ArrayList<String> inputs, String output) {
+    Intent intent = new Intent(context, RemuxService.class);
+    intent.putStringArrayListExtra(EXTRA_INPUTS, inputs);
+    intent.putExtra(EXTRA_OUTPUT, output);
+    return intent;
+  }
+
+  /** The file into which the takes starting with {@code firstTake} are joined. */
+  static String joinedFile(String firstTake) {
+    return firstTake.substring(0, firstTake.lastIndexOf('.')) + "_joined.mp4";
+  }
+
+  @Inject Analytics analytics;
+  @Inject RecordingEvictor recordingEvictor;
+
+  public RemuxService() {
+    super("telecine-remux");
+  }
+
+  @Override public void onCreate() {
+    super.onCreate();
+    ((TelecineApplication) getApplication()).inject(this);
+  }
+
+  @Override protected void onHandleIntent(Intent intent) {
+    ArrayList<String> paths = intent.getStringArrayListExtra(EXTRA_INPUTS);
+    String outputPath = intent.getStringExtra(EXTRA_OUTPUT);
+    try {
+      join(paths, outputPath);
+    } finally {
+      // The session kept the takes and the joined file from eviction until now.
+      List<String> retained = new ArrayList<>(paths);
+      retained.add(outputPath);
+      recordingEvictor.release(retained);
+    }
+  }
+
+  private void join(List<String> paths, String outputPath) {
+    List<File> inputs = new ArrayList<>();
+    for (String path : paths) {
+      inputs.add(new File(path));
+    }
+    File output = new File(outputPath);
+    Timber.d("Joining %s into '%s'.", inputs, output);
+
+    long startNanos = System.nanoTime();
+    long durationUs;
+    SampleWriter writer = null;
+    try {
+      writer = MuxerSampleWriter.FACTORY.create(output.getPath());
+      durationUs = Remuxer.remux(inputs, writer, TimeUnit.MILLISECONDS.toMicros(HEAD_TRIM_MS),
+          TimeUnit.MILLISECONDS.toMicros(TAIL_TRIM_MS));
+    } catch (IOException | RuntimeException e) {
+      Timber.e(e, "Unable to join %s.", inputs);
+      if (output.exists() && !output.delete()) {
+        Timber.w("Unable to delete incomplete '%s'.", output);
+      }
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_RECORDING)
+          .setAction(Analytics.ACTION_RECORDING_JOIN)
+          .setLabel("Failed")
+          .build());
+      return;
+    } finally {
+      if (writer != null) {
+        writer.release();
+      }
+    }
+
+    Timber.d("Joined %sms of video in %sms.", TimeUnit.MICROSECONDS.toMillis(durationUs),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    MediaScannerConnection.scanFile(this, new String[] { output.getPath() }, null, null);
+
+    analytics.send(new HitBuilders.EventBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setAction(Analytics.ACTION_RECORDING_JOIN)
+        .setValue(inputs.size())
+        .build());
+  }
+}
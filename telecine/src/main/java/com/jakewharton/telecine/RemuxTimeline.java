@@ -0,0 +1,108 @@
+package com.jakewharton.telecine;
+
+/**
+ * Maps the presentation times of samples from several recordings onto one continuous timeline,
+ * trimming the head and tail of each. Cuts happen only where no sample is lost to a decoder: each
+ * recording resumes at its first key frame at or after the head is trimmed, and ends with the
+ * last sample decoded before one presented after the tail. Each recording follows the previous
+ * one by the duration of the previous one's last frame.
+ * <p>
+ * Samples are given in decode order, in which an encoder using B-frames presents some samples
+ * before ones it decoded earlier. Frame durations are therefore measured between the latest two
+ * presentation times rather than between consecutive samples.
+ */
+final class RemuxTimeline {
+  /** Returned by {@link #map} for a sample which is not kept. */
+  static final long DROP = -1;
+  /** Returned by {@link #map} once the rest of the current input is trimmed. */
+  static final long END = -2;
+
+  private static final long NONE = Long.MIN_VALUE;
+  private static final long DEFAULT_FRAME_US = 1000000L / Encoder.FRAME_RATE;
+
+  private final long headUs;
+  private final long tailUs;
+
+  // The current input, in its own time base.
+  private long cutInUs = NONE;
+  private long cutOutUs;
+  private long firstKeptUs;
+  /** The latest presentation time kept, and the latest before it. */
+  private long latestKeptUs;
+  private long previousKeptUs;
+  /** Output time of the current input's first kept sample. */
+  private long inputOffsetUs;
+
+  private long lastOutputUs = NONE;
+  private long frameDurationUs = DEFAULT_FRAME_US;
+  private int samples;
+
+  RemuxTimeline(long headUs, long tailUs) {
+    if (headUs < 0 || tailUs < 0) {
+      throw new IllegalArgumentException("Invalid trim: " + headUs + ", " + tailUs);
+    }
+    this.headUs = headUs;
+    this.tailUs = tailUs;
+  }
+
+  /**
+   * Begin the next input, whose first sample is at {@code firstSampleUs} and which lasts
+   * {@code durationUs} before trimming.
+   */
+  void nextInput(long firstSampleUs, long durationUs) {
+    cutInUs = firstSampleUs + headUs;
+    cutOutUs = firstSampleUs + durationUs - tailUs;
+    firstKeptUs = NONE;
+  }
+
+  /** Where the current input should skip to before reading, e.g. by seeking to a key frame. */
+  long cutInUs() {
+    return cutInUs;
+  }
+
+  /**
+   * The output time of the current input's sample at {@code presentationTimeUs}, {@link #DROP},
+   * or {@link #END}. Samples must be given in decode order. The first sample presented after the
+   * tail ends the input, as samples decoded after it may refer to it.
+   */
+  long map(long presentationTimeUs, boolean keyFrame) {
+    if (cutInUs == NONE) {
+      throw new IllegalStateException("No input.");
+    }
+    if (presentationTimeUs >= cutOutUs) {
+      return END;
+    }
+    if (firstKeptUs == NONE) {
+      if (presentationTimeUs < cutInUs || !keyFrame) {
+        return DROP;
+      }
+      firstKeptUs = presentationTimeUs;
+      latestKeptUs = presentationTimeUs;
+      previousKeptUs = NONE;
+      inputOffsetUs = lastOutputUs == NONE ? 0 : lastOutputUs + frameDurationUs;
+    } else if (presentationTimeUs < firstKeptUs) {
+      return DROP; // A leading picture, which would be shown before the cut.
+    } else if (presentationTimeUs > latestKeptUs) {
+      previousKeptUs = latestKeptUs;
+      latestKeptUs = presentationTimeUs;
+    } else if (presentationTimeUs < latestKeptUs && presentationTimeUs > previousKeptUs) {
+      previousKeptUs = presentationTimeUs;
+    }
+    if (previousKeptUs != NONE) {
+      frameDurationUs = latestKeptUs - previousKeptUs;
+    }
+    lastOutputUs = inputOffsetUs + latestKeptUs - firstKeptUs;
+    samples++;
+    return inputOffsetUs + presentationTimeUs - firstKeptUs;
+  }
+
+  /** The number of samples kept from every input so far. */
+  int samples() {
+    return samples;
+  }
+
+  /** The duration of the output so far, including its last frame. */
+  long durationUs() {
+    return lastOutputUs == NONE ? 0 : lastOutputUs + frameDurationUs;
+  }
+}
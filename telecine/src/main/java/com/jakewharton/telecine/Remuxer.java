@@ -0,0 +1,203 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import timber.log.Timber;
+
+import static android.media.MediaExtractor.SAMPLE_FLAG_SYNC;
+import static android.media.MediaExtractor.SEEK_TO_CLOSEST_SYNC;
+import static android.media.MediaExtractor.SEEK_TO_NEXT_SYNC;
+
+/**
+ * Trims and joins recordings by copying their compressed samples into a single file. Nothing is
+ * decoded or re-encoded. Samples are copied one at a time through a single buffer, so memory use
+ * does not depend on the length of the recordings.
+ * <p>
+ * Every recording must share the first one's codec and frame size. A recording whose parameter
+ * sets differ carries its own in-band ahead of its first frame.
+ */
+final class Remuxer {
+  private static final byte[] START_CODE = { 0, 0, 0, 1 };
+  private static final long DEFAULT_FRAME_US = 1000000L / Encoder.FRAME_RATE;
+
+  private Remuxer() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * Write {@code inputs}, in order and each trimmed by {@code headUs} and {@code tailUs}, to
+   * {@code output} and stop it. The caller must release {@code output}.
+   *
+   * @return the duration of the output.
+   */
+  static long remux(List<File> inputs, SampleWriter output, long headUs, long tailUs)
+      throws IOException {
+    RemuxTimeline timeline = new RemuxTimeline(headUs, tailUs);
+    TrackFormat outputFormat = null;
+    ByteBuffer buffer = null;
+
+    for (File input : inputs) {
+      MediaExtractor extractor = new MediaExtractor();
+      try {
+        extractor.setDataSource(input.getPath());
+        MediaFormat format = selectVideoTrack(extractor, input);
+        TrackFormat trackFormat = TrackFormat.from(format);
+        byte[] parameterSets = null;
+        if (outputFormat == null) {
+          output.start(format);
+          outputFormat = trackFormat;
+        } else {
+          if (!trackFormat.mimeType.equals(outputFormat.mimeType)
+              || trackFormat.width != outputFormat.width
+              || trackFormat.height != outputFormat.height) {
+            throw new IOException(
+                "Cannot join " + input + ": " + trackFormat + " after " + outputFormat);
+          }
+          if (!sameParameterSets(trackFormat, outputFormat)) {
+            parameterSets = annexB(trackFormat.parameterSets);
+          }
+        }
+
+        int capacity = maxSampleSize(format) + (parameterSets != null ? parameterSets.length : 0);
+        if (buffer == null || buffer.capacity() < capacity) {
+          buffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        long firstSampleUs = extractor.getSampleTime();
+        if (firstSampleUs < 0) {
+          Timber.w("No samples in '%s'.", input);
+          continue;
+        }
+        timeline.nextInput(firstSampleUs, durationUs(extractor, format));
+        // Skip the head without reading it. The timeline still checks where this lands.
+        extractor.seekTo(timeline.cutInUs(), SEEK_TO_NEXT_SYNC);
+
+        int copied = 0;
+        for (long timeUs; (timeUs = extractor.getSampleTime()) >= 0; extractor.advance()) {
+          boolean keyFrame = (extractor.getSampleFlags() & SAMPLE_FLAG_SYNC) != 0;
+          long outputTimeUs = timeline.map(timeUs, keyFrame);
+          if (outputTimeUs == RemuxTimeline.END) {
+            break;
+          }
+          if (outputTimeUs == RemuxTimeline.DROP) {
+            continue;
+          }
+
+          buffer.clear();
+          if (parameterSets != null && copied == 0) {
+            buffer.put(parameterSets);
+          }
+          int prefix = buffer.position();
+          int size = extractor.readSampleData(buffer, prefix);
+          if (size < 0) {
+            break;
+          }
+          buffer.limit(prefix + size).position(0);
+          output.writeSample(buffer, outputTimeUs, keyFrame);
+          copied++;
+        }
+        Timber.d("Copied %s samples from '%s'.", copied, input);
+      } finally {
+        extractor.release();
+      }
+    }
+
+    if (timeline.samples() == 0) {
+      throw new IOException("Nothing left to write after trimming " + inputs);
+    }
+    output.stop();
+    return timeline.durationUs();
+  }
+
+  /** Select the first video track of {@code extractor} and return its format. */
+  static MediaFormat selectVideoTrack(MediaExtractor extractor, File input)
+      throws IOException {
+    for (int i = 0; i < extractor.getTrackCount(); i++) {
+      MediaFormat format = extractor.getTrackFormat(i);
+      String mimeType = format.getString(MediaFormat.KEY_MIME);
+      if (mimeType != null && mimeType.startsWith("video/")) {
+        extractor.selectTrack(i);
+        return format;
+      }
+    }
+    throw new IOException("No video track in " + input);
+  }
+
+  /**
+   * The duration of the selected track of {@code extractor}, whose {@code format} a crash-safe
+   * recording leaves without one as it is fragmented. The track then lasts until the end of its
+   * last presented sample, which is found by reading through it and returning to its first.
+   */
+  static long durationUs(MediaExtractor extractor, MediaFormat format) {
+    if (format.containsKey(MediaFormat.KEY_DURATION)) {
+      long durationUs = format.getLong(MediaFormat.KEY_DURATION);
+      if (durationUs > 0) {
+        return durationUs;
+      }
+    }
+    long firstSampleUs = extractor.getSampleTime();
+    long previousSampleUs = -1;
+    long lastSampleUs = -1;
+    // Samples are read in decode order, so the latest two presentation times are kept.
+    for (long timeUs; (timeUs = extractor.getSampleTime()) >= 0; extractor.advance()) {
+      if (timeUs > lastSampleUs) {
+        previousSampleUs = lastSampleUs;
+        lastSampleUs = timeUs;
+      } else if (timeUs < lastSampleUs && timeUs > previousSampleUs) {
+        previousSampleUs = timeUs;
+      }
+    }
+    extractor.seekTo(firstSampleUs, SEEK_TO_CLOSEST_SYNC);
+    return durationUs(firstSampleUs, previousSampleUs, lastSampleUs);
+  }
+
+  /**
+   * The duration of samples from {@code firstSampleUs} to {@code lastSampleUs}, whose last lasts
+   * as long as the one before it at {@code previousSampleUs}. Either may be -1 if there is none.
+   */
+  static long durationUs(long firstSampleUs, long previousSampleUs, long lastSampleUs) {
+    if (lastSampleUs < 0) {
+      return 0;
+    }
+    long lastFrameUs = previousSampleUs >= 0 && lastSampleUs > previousSampleUs
+        ? lastSampleUs - previousSampleUs
+        : DEFAULT_FRAME_US;
+    return lastSampleUs - firstSampleUs + lastFrameUs;
+  }
+
+  /** The largest sample the extractor may return for {@code format}. */
+  private static int maxSampleSize(MediaFormat format) {
+    if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+      return format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
+    }
+    // No compressed frame is larger than an uncompressed 4:2:0 frame.
+    return format.getInteger(MediaFormat.KEY_WIDTH) * format.getInteger(MediaFormat.KEY_HEIGHT)
+        * 3 / 2;
+  }
+
+  private static boolean sameParameterSets(TrackFormat a, TrackFormat b) {
+    if (a.parameterSets.size() != b.parameterSets.size()) {
+      return false;
+    }
+    for (int i = 0; i < a.parameterSets.size(); i++) {
+      if (!Arrays.equals(a.parameterSets.get(i), b.parameterSets.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** {@code nalUnits} in Annex B form, as samples are read and written. */
+  private static byte[] annexB(List<byte[]> nalUnits) {
+    BoxWriter out = new BoxWriter(256);
+    for (byte[] nalUnit : nalUnits) {
+      out.bytes(START_CODE).bytes(nalUnit);
+    }
+    return out.toByteArray();
+  }
+}
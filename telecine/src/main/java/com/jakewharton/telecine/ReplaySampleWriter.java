@@ -0,0 +1,73 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+/**
+ * Retains only the most recent samples of a recording in a {@link SampleRingBuffer}. Nothing
+ * touches the disk until {@link #stop()}, which writes what was retained to the output file.
+ */
+final class ReplaySampleWriter implements SampleWriter {
+  static Factory factory(final Factory output, final SampleRingBuffer buffer) {
+    return new Factory() {
+      @Override public SampleWriter create(String outputFile) {
+        return new ReplaySampleWriter(output, outputFile, buffer);
+      }
+    };
+  }
+
+  private final Factory output;
+  private final String outputFile;
+  private final SampleRingBuffer buffer;
+  private MediaFormat format;
+  private int dropped;
+
+  ReplaySampleWriter(Factory output, String outputFile, SampleRingBuffer buffer) {
+    this.output = output;
+    this.outputFile = outputFile;
+    this.buffer = buffer;
+  }
+
+  @Override public void start(MediaFormat format) {
+    this.format = format;
+    buffer.clear();
+  }
+
+  @Override public void writeSample(ByteBuffer data, long presentationTimeUs, boolean keyFrame) {
+    if (!buffer.add(data, presentationTimeUs, keyFrame)) {
+      dropped++;
+    }
+  }
+
+  @Override public void stop() throws IOException {
+    if (dropped > 0) {
+      Timber.w("Dropped %s samples which did not fit in the %s byte replay buffer.", dropped,
+          buffer.capacity());
+    }
+    int samples = buffer.size();
+    if (samples == 0) {
+      Timber.w("Replay buffer is empty. Nothing to write.");
+      return;
+    }
+    Timber.d("Writing %s samples spanning %sms of replay.", samples,
+        TimeUnit.MICROSECONDS.toMillis(buffer.durationUs()));
+
+    SampleWriter writer = output.create(outputFile);
+    try {
+      writer.start(format);
+      for (int i = 0; i < samples; i++) {
+        writer.writeSample(buffer.sample(i), buffer.presentationTimeUs(i), buffer.isKeyFrame(i));
+      }
+      writer.stop();
+    } finally {
+      writer.release();
+    }
+  }
+
+  @Override public void release() {
+    buffer.clear();
+  }
+}
@@ -0,0 +1,193 @@
+package com.jakewharton.telecine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the most recent encoded samples in a fixed amount of memory.
+ * <p>
+ * Sample data lives in a single direct buffer allocated up front and each sample occupies one
+ * contiguous region of it. Samples are evicted a whole group of pictures at a time so that the
+ * oldest retained sample is always a key frame and the contents can be decoded on their own.
+ * Once at least {@code windowUs} of samples are retained, groups which fall entirely before the
+ * window are evicted as well.
+ * <p>
+ * Not thread safe.
+ */
+final class SampleRingBuffer {
+  private final ByteBuffer data;
+  private final long windowUs;
+
+  // Parallel circular arrays describing each retained sample, oldest at 'head'.
+  private final int[] offsets;
+  private final int[] sizes;
+  private final long[] presentationTimesUs;
+  private final boolean[] keyFrames;
+  private int head;
+  private int count;
+
+  /** The position in {@link #data} immediately after the newest sample. */
+  private int end;
+  /** Set when a sample was dropped. Nothing is retained until the next key frame. */
+  private boolean awaitingKeyFrame = true;
+
+  SampleRingBuffer(int capacityBytes, int maxSamples, long windowUs) {
+    if (capacityBytes <= 0 || maxSamples <= 0 || windowUs <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid ring: " + capacityBytes + " bytes, " + maxSamples + " samples, " + windowUs);
+    }
+    this.data = ByteBuffer.allocateDirect(capacityBytes);
+    this.windowUs = windowUs;
+    offsets = new int[maxSamples];
+    sizes = new int[maxSamples];
+    presentationTimesUs = new long[maxSamples];
+    keyFrames = new boolean[maxSamples];
+  }
+
+  /**
+   * Copy the sample between the position and limit of {@code sample}, evicting the oldest samples
+   * as needed. Returns false if the sample was dropped because it could not be decoded from what
+   * is retained or because it does not fit at all.
+   */
+  boolean add(ByteBuffer sample, long presentationTimeUs, boolean keyFrame) {
+    if (keyFrame) {
+      awaitingKeyFrame = false;
+    }
+    if (awaitingKeyFrame) {
+      return false;
+    }
+
+    int size = sample.remaining();
+    int offset;
+    while (count == offsets.length || (offset = allocate(size)) == -1) {
+      if (count == 0) {
+        // Larger than the entire ring. Everything that depends on it must be dropped too.
+        awaitingKeyFrame = true;
+        return false;
+      }
+      evictGroup();
+      if (count == 0 && !keyFrame) {
+        // Evicting made room only by discarding the key frame this sample depends on.
+        awaitingKeyFrame = true;
+        return false;
+      }
+    }
+
+    ByteBuffer target = data.duplicate();
+    target.position(offset);
+    target.put(sample.duplicate());
+    end = offset + size;
+
+    int index = index(count++);
+    offsets[index] = offset;
+    sizes[index] = size;
+    presentationTimesUs[index] = presentationTimeUs;
+    keyFrames[index] = keyFrame;
+
+    trimToWindow(presentationTimeUs);
+    return true;
+  }
+
+  /** Evict every group which ends before the window preceding {@code newestUs} begins. */
+  private void trimToWindow(long newestUs) {
+    long windowStartUs = newestUs - windowUs;
+    while (true) {
+      int next = nextKeyFrame();
+      if (next == -1 || presentationTimesUs[index(next)] > windowStartUs) {
+        return;
+      }
+      evictGroup();
+    }
+  }
+
+  /** The position of the first key frame after the oldest sample, or -1 if there is none. */
+  private int nextKeyFrame() {
+    for (int i = 1; i < count; i++) {
+      if (keyFrames[index(i)]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Evict the oldest sample and every sample which follows it up to the next key frame. */
+  private void evictGroup() {
+    do {
+      head = index(1);
+      count--;
+    } while (count > 0 && !keyFrames[head]);
+  }
+
+  /** Find an offset where {@code size} contiguous bytes are free, or -1 if there is none. */
+  private int allocate(int size) {
+    int capacity = data.capacity();
+    if (count == 0) {
+      return size <= capacity ? 0 : -1;
+    }
+    int start = offsets[head];
+    if (end > start) {
+      // Free space is after the newest sample and before the oldest.
+      if (capacity - end >= size) {
+        return end;
+      }
+      return start >= size ? 0 : -1;
+    }
+    // The newest samples have wrapped around behind the oldest.
+    return start - end >= size ? end : -1;
+  }
+
+  private int index(int position) {
+    return (head + position) % offsets.length;
+  }
+
+  /** The number of retained samples. */
+  int size() {
+    return count;
+  }
+
+  /** The number of bytes of sample data which can be retained. */
+  int capacity() {
+    return data.capacity();
+  }
+
+  long presentationTimeUs(int position) {
+    checkPosition(position);
+    return presentationTimesUs[index(position)];
+  }
+
+  boolean isKeyFrame(int position) {
+    checkPosition(position);
+    return keyFrames[index(position)];
+  }
+
+  /**
+   * A view of the data of the retained sample at {@code position}, oldest first. The view is only
+   * valid until the next call to {@link #add}.
+   */
+  ByteBuffer sample(int position) {
+    checkPosition(position);
+    int index = index(position);
+    ByteBuffer sample = data.duplicate();
+    sample.limit(offsets[index] + sizes[index]);
+    sample.position(offsets[index]);
+    return sample;
+  }
+
+  /** Time between the oldest and newest retained samples. */
+  long durationUs() {
+    return count == 0 ? 0 : presentationTimeUs(count - 1) - presentationTimeUs(0);
+  }
+
+  /** Discard all samples. Nothing is retained until the next key frame. */
+  void clear() {
+    head = 0;
+    count = 0;
+    end = 0;
+    awaitingKeyFrame = true;
+  }
+
+  private void checkPosition(int position) {
+    if (position < 0 || position >= count) {
+      throw new IndexOutOfBoundsException("Position " + position + " of " + count);
+    }
+  }
+}
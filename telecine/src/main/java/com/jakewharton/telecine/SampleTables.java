@@ -0,0 +1,95 @@
+package com.jakewharton.telecine;
+
+import java.util.Arrays;
+
+/**
+ * The sample tables of a track whose samples are stored back to back in a single chunk. Only
+ * sizes, key frames, and runs of equal durations are kept, so memory grows with the number of
+ * samples rather than the size of their data.
+ */
+final class SampleTables {
+  private final long chunkOffset;
+
+  private int[] sizes = new int[1024];
+  private int sampleCount;
+  private int[] syncSamples = new int[64];
+  private int syncSampleCount;
+  private int[] durationRunLengths = new int[64];
+  private int[] durationRunDeltas = new int[64];
+  private int durationRunCount;
+  private long durationTicks;
+
+  /** @param chunkOffset Absolute file position of the first sample's data. */
+  SampleTables(long chunkOffset) {
+    this.chunkOffset = chunkOffset;
+  }
+
+  void add(int size, int durationTicks, boolean keyFrame) {
+    if (sampleCount == sizes.length) {
+      sizes = Arrays.copyOf(sizes, sampleCount * 2);
+    }
+    sizes[sampleCount++] = size;
+
+    if (keyFrame) {
+      if (syncSampleCount == syncSamples.length) {
+        syncSamples = Arrays.copyOf(syncSamples, syncSampleCount * 2);
+      }
+      syncSamples[syncSampleCount++] = sampleCount; // Sample numbers are 1-based.
+    }
+
+    if (durationRunCount > 0 && durationRunDeltas[durationRunCount - 1] == durationTicks) {
+      durationRunLengths[durationRunCount - 1]++;
+    } else {
+      if (durationRunCount == durationRunLengths.length) {
+        durationRunLengths = Arrays.copyOf(durationRunLengths, durationRunCount * 2);
+        durationRunDeltas = Arrays.copyOf(durationRunDeltas, durationRunCount * 2);
+      }
+      durationRunLengths[durationRunCount] = 1;
+      durationRunDeltas[durationRunCount] = durationTicks;
+      durationRunCount++;
+    }
+    this.durationTicks += durationTicks;
+  }
+
+  int sampleCount() {
+    return sampleCount;
+  }
+
+  long durationTicks() {
+    return durationTicks;
+  }
+
+  /** Write {@code stts}, {@code stss}, {@code stsc}, {@code stsz}, and the chunk offset. */
+  void writeTo(BoxWriter box) {
+    box.beginFull("stts", 0, 0).u32(durationRunCount);
+    for (int i = 0; i < durationRunCount; i++) {
+      box.u32(durationRunLengths[i]).u32(durationRunDeltas[i]);
+    }
+    box.end();
+
+    box.beginFull("stss", 0, 0).u32(syncSampleCount);
+    for (int i = 0; i < syncSampleCount; i++) {
+      box.u32(syncSamples[i]);
+    }
+    box.end();
+
+    box.beginFull("stsc", 0, 0)
+        .u32(1)
+        .u32(1) // first_chunk
+        .u32(sampleCount) // samples_per_chunk
+        .u32(1) // sample_description_index
+        .end();
+
+    box.beginFull("stsz", 0, 0).u32(0).u32(sampleCount);
+    for (int i = 0; i < sampleCount; i++) {
+      box.u32(sizes[i]);
+    }
+    box.end();
+
+    if (chunkOffset > 0xffffffffL) {
+      box.beginFull("co64", 0, 0).u32(1).u64(chunkOffset).end();
+    } else {
+      box.beginFull("stco", 0, 0).u32(1).u32(chunkOffset).end();
+    }
+  }
+}
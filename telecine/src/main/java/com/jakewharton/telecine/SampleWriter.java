@@ -0,0 +1,27 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the encoded samples of a single video track to a file. Called only from the encoder's
+ * thread, in the order {@link #start}, {@link #writeSample}..., {@link #stop}, {@link #release}.
+ */
+interface SampleWriter {
+  interface Factory {
+    SampleWriter create(String outputFile) throws IOException;
+  }
+
+  /** Begin the file using the encoder's output {@code format}. */
+  void start(MediaFormat format) throws IOException;
+
+  /** Append one sample. The position and limit of {@code data} bound the sample's bytes. */
+  void writeSample(ByteBuffer data, long presentationTimeUs, boolean keyFrame) throws IOException;
+
+  /** Write anything still buffered and complete the file. */
+  void stop() throws IOException;
+
+  /** Free any resources. Safe to call whether or not the writer was started or stopped. */
+  void release();
+}
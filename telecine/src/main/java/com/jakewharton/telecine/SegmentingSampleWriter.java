@@ -0,0 +1,207 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaFormat;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+/**
+ * Splits a recording into segment files named {@code <name>_part<N>.mp4}. A new segment begins at
+ * the first key frame after the current one reaches a maximum duration or size, so each segment
+ * plays on its own. Finished segments are completed on a background thread while the next one
+ * records, and a {@code <name>.m3u} playlist listing them is kept up to date alongside.
+ */
+final class SegmentingSampleWriter implements SampleWriter {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  interface Listener {
+    /** Invoked on a background thread, in order, as each segment is completed. */
+    void onSegmentComplete(File segment, long durationUs);
+  }
+
+  static Factory factory(final Factory segments, final long maxDurationUs, final long maxBytes,
+      final Listener listener) {
+    return new Factory() {
+      @Override public SampleWriter create(String outputFile) {
+        return new SegmentingSampleWriter(segments, outputFile, maxDurationUs, maxBytes, listener);
+      }
+    };
+  }
+
+  /** The file for segment {@code part}, counting from 1, of a recording to {@code outputFile}. */
+  static File segmentFile(String outputFile, int part) {
+    return new File(stripExtension(outputFile) + "_part" + part + ".mp4");
+  }
+
+  /** The playlist of the segments of a recording to {@code outputFile}. */
+  static File manifestFile(String outputFile) {
+    return new File(stripExtension(outputFile) + ".m3u");
+  }
+
+  private static String stripExtension(String outputFile) {
+    int dot = outputFile.lastIndexOf('.');
+    return dot > outputFile.lastIndexOf(File.separatorChar) ? outputFile.substring(0, dot)
+        : outputFile;
+  }
+
+  private final Factory segments;
+  private final String outputFile;
+  private final long maxDurationUs;
+  private final long maxBytes;
+  private final Listener listener;
+  private final ExecutorService finisher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override public Thread newThread(Runnable runnable) {
+      return new Thread(runnable, "telecine-segment");
+    }
+  });
+
+  // Only accessed on the finisher thread.
+  private final List<File> finishedFiles = new ArrayList<>();
+  private final List<Long> finishedDurationsUs = new ArrayList<>();
+  private volatile IOException failure;
+
+  private MediaFormat format;
+  private SampleWriter current;
+  private File currentFile;
+  private int part;
+  private int samples;
+  private long bytes;
+  private long firstPresentationTimeUs;
+  private long lastPresentationTimeUs;
+
+  SegmentingSampleWriter(Factory segments, String outputFile, long maxDurationUs, long maxBytes,
+      Listener listener) {
+    this.segments = segments;
+    this.outputFile = outputFile;
+    this.maxDurationUs = maxDurationUs;
+    this.maxBytes = maxBytes;
+    this.listener = listener;
+  }
+
+  @Override public void start(MediaFormat format) throws IOException {
+    this.format = format;
+    startSegment();
+  }
+
+  private void startSegment() throws IOException {
+    part++;
+    currentFile = segmentFile(outputFile, part);
+    Timber.d("Starting segment '%s'.", currentFile);
+    current = segments.create(currentFile.getPath());
+    current.start(format);
+    samples = 0;
+    bytes = 0;
+  }
+
+  @Override public void writeSample(ByteBuffer data, long presentationTimeUs, boolean keyFrame)
+      throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    if (keyFrame && samples > 0
+        && (presentationTimeUs - firstPresentationTimeUs >= maxDurationUs
+        || bytes + data.remaining() > maxBytes)) {
+      finishSegment();
+      startSegment();
+    }
+
+    if (samples == 0) {
+      firstPresentationTimeUs = presentationTimeUs;
+    }
+    lastPresentationTimeUs = presentationTimeUs;
+    samples++;
+    bytes += data.remaining();
+    current.writeSample(data, presentationTimeUs, keyFrame);
+  }
+
+  /** Hand the current segment to the background thread to be completed. */
+  private void finishSegment() {
+    final SampleWriter writer = current;
+    final File file = currentFile;
+    // The last sample is shown for as long as the average sample.
+    long spanUs = lastPresentationTimeUs - firstPresentationTimeUs;
+    final long durationUs = samples > 1 ? spanUs * samples / (samples - 1) : 0;
+    current = null;
+
+    finisher.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          writer.stop();
+          finishedFiles.add(file);
+          finishedDurationsUs.add(durationUs);
+          writeManifest();
+          listener.onSegmentComplete(file, durationUs);
+        } catch (IOException e) {
+          Timber.e(e, "Unable to complete segment '%s'.", file);
+          failure = e;
+        } catch (RuntimeException e) {
+          Timber.e(e, "Unable to complete segment '%s'.", file);
+          failure = new IOException(e);
+        } finally {
+          writer.release();
+        }
+      }
+    });
+  }
+
+  /** Atomically replace the playlist with one listing every completed segment. */
+  private void writeManifest() throws IOException {
+    File manifest = manifestFile(outputFile);
+    File temp = new File(manifest.getPath() + ".tmp");
+    Writer writer = new OutputStreamWriter(new FileOutputStream(temp), UTF_8);
+    try {
+      writer.write("#EXTM3U\n");
+      for (int i = 0; i < finishedFiles.size(); i++) {
+        String name = finishedFiles.get(i).getName();
+        double seconds = finishedDurationsUs.get(i) / 1000000d;
+        writer.write(String.format(Locale.US, "#EXTINF:%.3f,%s\n%s\n", seconds, name, name));
+      }
+    } finally {
+      writer.close();
+    }
+    if (!temp.renameTo(manifest)) {
+      throw new IOException("Unable to replace " + manifest);
+    }
+  }
+
+  @Override public void stop() throws IOException {
+    if (current != null) {
+      finishSegment();
+    }
+    finisher.shutdown();
+    try {
+      // Block until every segment which was handed off has been completed.
+      while (!finisher.awaitTermination(1, TimeUnit.SECONDS)) {
+        Timber.d("Waiting for segments to complete...");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while completing segments.", e);
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    Timber.d("Recorded %s segments.", part);
+  }
+
+  @Override public void release() {
+    if (current != null) {
+      current.release();
+      current = null;
+    }
+    // Let segments which were already handed off finish so their files are playable.
+    finisher.shutdown();
+  }
+}
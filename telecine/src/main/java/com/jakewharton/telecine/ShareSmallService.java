@@ -0,0 +1,187 @@
+package com.jakewharton.telecine;
+
+import android.app.IntentService;
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Process;
+import android.support.annotation.Nullable;
+import com.google.android.gms.analytics.HitBuilders;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Inject;
+import timber.log.Timber;
+
+import static android.content.Intent.ACTION_SEND;
+
+/**
+ * Shares a smaller copy of a recording, transcoding it in the background at low priority first if
+ * needed. Transcoded copies are cached so that sharing the same recording again is immediate.
+ */
+public final class ShareSmallService extends IntentService {
+  private static final int NOTIFICATION_ID = 522593;
+  private static final String MIME_TYPE = "video/mp4";
+  private static final String SUFFIX = "_small.mp4";
+  /** Copies beyond the most recent few are unlikely to be shared again. */
+  private static final int MAX_CACHED = 5;
+
+  static Intent newIntent(Context context, Uri recording) {
+    Intent intent = new Intent(context, ShareSmallService.class);
+    intent.setData(recording);
+    return intent;
+  }
+
+  @Inject Analytics analytics;
+
+  private NotificationManager notificationManager;
+
+  public ShareSmallService() {
+    super("telecine-share");
+  }
+
+  @Override public void onCreate() {
+    super.onCreate();
+    ((TelecineApplication) getApplication()).inject(this);
+    notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+  }
+
+  @Override protected void onHandleIntent(Intent intent) {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+    File recording = MediaStoreHelper.queryFile(getContentResolver(), intent.getData());
+    File shareDir = getExternalCacheDir();
+    if (recording == null || !recording.isFile() || shareDir == null) {
+      Timber.w("Unable to share %s from '%s'.", intent.getData(), shareDir);
+      showFailed();
+      return;
+    }
+    shareDir = new File(shareDir, "share");
+
+    String name = recording.getName();
+    File small = new File(shareDir, name.substring(0, name.lastIndexOf('.')) + SUFFIX);
+    if (small.isFile() && small.lastModified() >= recording.lastModified()) {
+      Timber.d("Sharing cached '%s'.", small);
+      // The action was tapped in the notification shade which would otherwise hide the chooser.
+      sendBroadcast(new Intent(Intent.ACTION_CLOSE_SYSTEM_DIALOGS));
+      startActivity(createChooser(small).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK));
+      sendEvent("Cached", 0);
+      return;
+    }
+
+    if (!shareDir.isDirectory() && !shareDir.mkdirs()) {
+      Timber.w("Unable to create '%s'.", shareDir);
+      showFailed();
+      return;
+    }
+    trimCache(shareDir);
+
+    // Written elsewhere first so that an interrupted transcode is never mistaken for a copy.
+    File partial = new File(shareDir, small.getName() + ".tmp");
+    long startNanos = System.nanoTime();
+    showProgress(0);
+    SampleWriter writer = null;
+    try {
+      writer = MuxerSampleWriter.FACTORY.create(partial.getPath());
+      Transcoder.ProgressListener progressListener = new Transcoder.ProgressListener() {
+        @Override public void onProgress(int percent) {
+          showProgress(percent);
+        }
+      };
+      ShareTarget target = Transcoder.transcode(recording, writer, progressListener);
+      writer.release();
+      writer = null;
+      if (!partial.renameTo(small)) {
+        throw new IOException("Unable to rename " + partial + " to " + small);
+      }
+      Timber.d("Transcoded '%s' to %s bytes at %s.", recording, small.length(), target);
+    } catch (IOException | RuntimeException e) {
+      Timber.e(e, "Unable to transcode '%s'.", recording);
+      if (partial.exists() && !partial.delete()) {
+        Timber.w("Unable to delete '%s'.", partial);
+      }
+      showFailed();
+      sendEvent("Failed", 0);
+      return;
+    } finally {
+      if (writer != null) {
+        writer.release();
+      }
+    }
+
+    showReady(small);
+    sendEvent("Transcoded", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+  }
+
+  private Intent createChooser(File small) {
+    Intent shareIntent = new Intent(ACTION_SEND);
+    shareIntent.setType(MIME_TYPE);
+    shareIntent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(small));
+    return Intent.createChooser(shareIntent, null);
+  }
+
+  /** Delete all but the most recently written copies, making room for the next one. */
+  private static void trimCache(File shareDir) {
+    File[] files = shareDir.listFiles();
+    if (files == null || files.length < MAX_CACHED) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override public int compare(File lhs, File rhs) {
+        long lhsModified = lhs.lastModified();
+        long rhsModified = rhs.lastModified();
+        return lhsModified > rhsModified ? -1 : lhsModified == rhsModified ? 0 : 1;
+      }
+    });
+    for (int i = MAX_CACHED - 1; i < files.length; i++) {
+      if (!files[i].delete()) {
+        Timber.w("Unable to delete '%s'.", files[i]);
+      }
+    }
+  }
+
+  private void showProgress(int percent) {
+    postNotification(getText(R.string.notification_share_small_progress), null, percent);
+  }
+
+  private void showReady(File small) {
+    PendingIntent pendingShareIntent =
+        PendingIntent.getActivity(this, 0, createChooser(small), PendingIntent.FLAG_UPDATE_CURRENT);
+    postNotification(getText(R.string.notification_share_small_ready), pendingShareIntent, -1);
+  }
+
+  private void showFailed() {
+    postNotification(getText(R.string.notification_share_small_failed), null, -1);
+  }
+
+  /** Post the share notification, with a progress bar unless {@code percent} is negative. */
+  private void postNotification(CharSequence title, @Nullable PendingIntent contentIntent,
+      int percent) {
+    Notification.Builder builder = new Notification.Builder(this) //
+        .setContentTitle(title)
+        .setSmallIcon(R.drawable.ic_share_white_24dp)
+        .setColor(getResources().getColor(R.color.primary_normal))
+        .setContentIntent(contentIntent)
+        .setAutoCancel(true);
+    if (percent >= 0) {
+      builder.setProgress(100, percent, false)
+          .setOngoing(true)
+          .setOnlyAlertOnce(true);
+    }
+    notificationManager.notify(NOTIFICATION_ID, builder.build());
+  }
+
+  private void sendEvent(String label, long valueMs) {
+    analytics.send(new HitBuilders.EventBuilder() //
+        .setCategory(Analytics.CATEGORY_RECORDING)
+        .setAction(Analytics.ACTION_RECORDING_SHARE_SMALL)
+        .setLabel(label)
+        .setValue(valueMs)
+        .build());
+  }
+}
@@ -0,0 +1,60 @@
+package com.jakewharton.telecine;
+
+/**
+ * The size and bit rate to transcode a recording to so that it can be shared through messaging
+ * apps, which commonly refuse or re-compress attachments larger than a few megabytes.
+ * <p>
+ * The bit rate is whatever fits the whole recording in {@link #TARGET_BYTES}. The frame is then
+ * shrunk until that bit rate still buys {@link RecordingSession.Quality#LOW} quality, as a
+ * smaller sharp video is preferable to a larger blocky one.
+ */
+final class ShareTarget {
+  static final long TARGET_BYTES = 8 * 1024 * 1024;
+  /** Leave room for the file's index and headers. */
+  static final float CONTAINER_OVERHEAD = 0.05f;
+  static final int MIN_BIT_RATE = 200 * 1000;
+  static final int MAX_BIT_RATE = 2 * 1000 * 1000;
+  /** 480p. Larger frames gain little on a phone's chat screen. */
+  static final int MAX_LONG_EDGE = 854;
+  /** Below this text in a screen recording becomes unreadable, whatever the bit rate. */
+  static final int MIN_LONG_EDGE = 320;
+  static final int ALIGNMENT = 16;
+
+  final int width;
+  final int height;
+  final int bitRate;
+
+  ShareTarget(int width, int height, int bitRate) {
+    this.width = width;
+    this.height = height;
+    this.bitRate = bitRate;
+  }
+
+  static ShareTarget forRecording(int width, int height, int frameRate, long durationUs) {
+    if (width <= 0 || height <= 0 || frameRate <= 0 || durationUs <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid recording: " + width + "x" + height + "@" + frameRate + ", " + durationUs);
+    }
+    double seconds = durationUs / 1000000d;
+    long fitBitRate = (long) (TARGET_BYTES * 8 * (1 - CONTAINER_OVERHEAD) / seconds);
+    int bitRate = (int) Math.max(MIN_BIT_RATE, Math.min(MAX_BIT_RATE, fitBitRate));
+
+    int longEdge = Math.max(width, height);
+    double bitsPerPixel = RecordingSession.Quality.LOW.bitsPerPixel;
+    double scale = Math.min(1, (double) MAX_LONG_EDGE / longEdge);
+    scale = Math.min(scale, Math.sqrt(bitRate / (width * height * frameRate * bitsPerPixel)));
+    if (longEdge * scale < MIN_LONG_EDGE) {
+      scale = Math.min(1, (double) MIN_LONG_EDGE / longEdge); // Never scale up.
+    }
+
+    return new ShareTarget(align((int) (width * scale)), align((int) (height * scale)), bitRate);
+  }
+
+  private static int align(int edge) {
+    return Math.max(ALIGNMENT, EncoderCapabilities.align(edge, ALIGNMENT));
+  }
+
+  @Override public String toString() {
+    return "ShareTarget{" + width + "x" + height + ", bitRate=" + bitRate + '}';
+  }
+}
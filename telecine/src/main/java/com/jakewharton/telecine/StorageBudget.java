@@ -0,0 +1,62 @@
+package com.jakewharton.telecine;
+
+/**
+ * Decides whether there is enough free storage to begin a recording and when a running recording
+ * must be stopped so that its file can still be completed.
+ * <p>
+ * Space is reserved so that stopping never happens on a full volume: enough for a few seconds of
+ * video already in flight, the index written when the file is completed, and any data which is
+ * only written when the recording stops.
+ */
+final class StorageBudget {
+  /** Bit rates are targets, not limits. Leave room for the encoder to overshoot. */
+  static final float HEADROOM = 1.5f;
+  /** Never let a recording take the volume below this, whatever its bit rate. */
+  static final long MIN_RESERVE_BYTES = 32 * 1024 * 1024;
+  /** Seconds of video which must still fit when a recording is stopped for lack of space. */
+  static final int RESERVE_SECONDS = 10;
+  /** A recording is refused unless at least this many seconds of it will fit. */
+  static final int MIN_RECORDING_SECONDS = 30;
+  static final long MIN_CHECK_INTERVAL_MS = 1000;
+  static final long MAX_CHECK_INTERVAL_MS = 30000;
+
+  final long bytesPerSecond;
+  final long reserveBytes;
+
+  /**
+   * @param bitRate the target bit rate of the recording.
+   * @param deferredBytes bytes which are only written once the recording stops.
+   */
+  StorageBudget(int bitRate, long deferredBytes) {
+    if (bitRate <= 0 || deferredBytes < 0) {
+      throw new IllegalArgumentException("Invalid budget: " + bitRate + ", " + deferredBytes);
+    }
+    bytesPerSecond = (long) Math.ceil(bitRate / 8d * HEADROOM);
+    reserveBytes = Math.max(MIN_RESERVE_BYTES, bytesPerSecond * RESERVE_SECONDS) + deferredBytes;
+  }
+
+  /** Whether a recording may begin with {@code usableBytes} of free storage. */
+  boolean canStart(long usableBytes) {
+    return usableBytes >= reserveBytes + bytesPerSecond * MIN_RECORDING_SECONDS;
+  }
+
+  /** Whether a recording must be stopped now that {@code usableBytes} of storage remain. */
+  boolean shouldStop(long usableBytes) {
+    return usableBytes < reserveBytes;
+  }
+
+  /** Seconds which can be recorded with {@code usableBytes} of free storage before stopping. */
+  long remainingSeconds(long usableBytes) {
+    return Math.max(0, (usableBytes - reserveBytes) / bytesPerSecond);
+  }
+
+  /**
+   * How long to wait before checking free storage again. Checks are frequent when the recording
+   * could reach the reserve soon, and rare while there is ample space.
+   */
+  long checkIntervalMs(long usableBytes) {
+    // Half the time remaining leaves room for other apps consuming space at the same time.
+    long intervalMs = remainingSeconds(usableBytes) * 1000 / 2;
+    return Math.max(MIN_CHECK_INTERVAL_MS, Math.min(MAX_CHECK_INTERVAL_MS, intervalMs));
+  }
+}
@@ -0,0 +1,54 @@
+package com.jakewharton.telecine;
+
+import android.os.Handler;
+import java.io.File;
+import timber.log.Timber;
+
+/**
+ * Periodically checks the free space of the volume being recorded to and reports once it falls
+ * below the {@link StorageBudget}'s reserve. Runs on the thread of the handler it is given.
+ */
+final class StorageMonitor implements Runnable {
+  interface Listener {
+    /** Invoked once, on the monitor's handler, when the recording should stop. */
+    void onStorageLow(long usableBytes);
+  }
+
+  private final File directory;
+  private final StorageBudget budget;
+  private final Handler handler;
+  private final Listener listener;
+  private boolean stopped;
+
+  StorageMonitor(File directory, StorageBudget budget, Handler handler, Listener listener) {
+    this.directory = directory;
+    this.budget = budget;
+    this.handler = handler;
+    this.listener = listener;
+  }
+
+  void start() {
+    handler.post(this);
+  }
+
+  /** Stop checking. Must be called on the monitor's handler. */
+  void stop() {
+    stopped = true;
+    handler.removeCallbacks(this);
+  }
+
+  @Override public void run() {
+    if (stopped) {
+      return;
+    }
+    long usableBytes = directory.getUsableSpace();
+    if (budget.shouldStop(usableBytes)) {
+      stopped = true;
+      listener.onStorageLow(usableBytes);
+      return;
+    }
+    long intervalMs = budget.checkIntervalMs(usableBytes);
+    Timber.v("%s bytes usable. Checking again in %sms.", usableBytes, intervalMs);
+    handler.postDelayed(this, intervalMs);
+  }
+}
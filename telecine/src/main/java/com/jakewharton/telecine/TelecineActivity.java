@@ -23,23 +23,57 @@ import timber.log.Timber;
 
 public final class TelecineActivity extends Activity {
   @Bind(R.id.spinner_video_size_percentage) Spinner videoSizePercentageView;
+  @Bind(R.id.spinner_video_frame_rate) Spinner videoFrameRateView;
   @Bind(R.id.switch_show_countdown) Switch showCountdownView;
   @Bind(R.id.switch_hide_from_recents) Switch hideFromRecentsView;
   @Bind(R.id.switch_recording_notification) Switch recordingNotificationView;
   @Bind(R.id.switch_show_touches) Switch showTouchesView;
+  @Bind(R.id.switch_crash_safe_recording) Switch crashSafeRecordingView;
+  @Bind(R.id.switch_multi_take) Switch multiTakeView;
+  @Bind(R.id.switch_join_takes) Switch joinTakesView;
+  @Bind(R.id.switch_prefer_hevc) Switch preferHevcView;
+  @Bind(R.id.spinner_replay_length) Spinner replayLengthView;
+  @Bind(R.id.spinner_segment_length) Spinner segmentLengthView;
+  @Bind(R.id.spinner_keep_alive_interval) Spinner keepAliveIntervalView;
+  @Bind(R.id.spinner_time_lapse_interval) Spinner timeLapseIntervalView;
+  @Bind(R.id.switch_time_lapse_real_time) Switch timeLapseRealTimeView;
+  @Bind(R.id.spinner_retention_max_size) Spinner retentionMaxSizeView;
+  @Bind(R.id.spinner_retention_max_age) Spinner retentionMaxAgeView;
+  @Bind(R.id.spinner_retention_max_count) Spinner retentionMaxCountView;
 
   @BindString(R.string.app_name) String appName;
   @BindColor(R.color.primary_normal) int primaryNormal;
 
   @Inject @VideoSizePercentage IntPreference videoSizePreference;
+  @Inject @VideoFrameRate IntPreference videoFrameRatePreference;
   @Inject @ShowCountdown BooleanPreference showCountdownPreference;
   @Inject @HideFromRecents BooleanPreference hideFromRecentsPreference;
   @Inject @RecordingNotification BooleanPreference recordingNotificationPreference;
   @Inject @ShowTouches BooleanPreference showTouchesPreference;
+  @Inject @CrashSafeRecording BooleanPreference crashSafeRecordingPreference;
+  @Inject @MultiTake BooleanPreference multiTakePreference;
+  @Inject @JoinTakes BooleanPreference joinTakesPreference;
+  @Inject @PreferHevc BooleanPreference preferHevcPreference;
+  @Inject @ReplayLength IntPreference replayLengthPreference;
+  @Inject @SegmentLength IntPreference segmentLengthPreference;
+  @Inject @KeepAliveInterval IntPreference keepAliveIntervalPreference;
+  @Inject @TimeLapseInterval IntPreference timeLapseIntervalPreference;
+  @Inject @TimeLapseRealTime BooleanPreference timeLapseRealTimePreference;
+  @Inject @RetentionMaxSize IntPreference retentionMaxSizePreference;
+  @Inject @RetentionMaxAge IntPreference retentionMaxAgePreference;
+  @Inject @RetentionMaxCount IntPreference retentionMaxCountPreference;
 
   @Inject Analytics analytics;
 
   private VideoSizePercentageAdapter videoSizePercentageAdapter;
+  private VideoFrameRateAdapter videoFrameRateAdapter;
+  private IntChoiceAdapter replayLengthAdapter;
+  private IntChoiceAdapter segmentLengthAdapter;
+  private IntChoiceAdapter keepAliveIntervalAdapter;
+  private IntChoiceAdapter timeLapseIntervalAdapter;
+  private IntChoiceAdapter retentionMaxSizeAdapter;
+  private IntChoiceAdapter retentionMaxAgeAdapter;
+  private IntChoiceAdapter retentionMaxCountAdapter;
   private int longClickCount;
 
   @Override protected void onCreate(Bundle savedInstanceState) {
@@ -60,10 +94,62 @@ public final class TelecineActivity extends Activity {
     videoSizePercentageView.setSelection(
         VideoSizePercentageAdapter.getSelectedPosition(videoSizePreference.get()));
 
+    videoFrameRateAdapter = new VideoFrameRateAdapter(this);
+    videoFrameRateView.setAdapter(videoFrameRateAdapter);
+    videoFrameRateView.setSelection(
+        VideoFrameRateAdapter.getSelectedPosition(videoFrameRatePreference.get()));
+
     showCountdownView.setChecked(showCountdownPreference.get());
     hideFromRecentsView.setChecked(hideFromRecentsPreference.get());
     recordingNotificationView.setChecked(recordingNotificationPreference.get());
     showTouchesView.setChecked(showTouchesPreference.get());
+    crashSafeRecordingView.setChecked(crashSafeRecordingPreference.get());
+    multiTakeView.setChecked(multiTakePreference.get());
+    joinTakesView.setChecked(joinTakesPreference.get());
+    preferHevcView.setChecked(preferHevcPreference.get());
+
+    replayLengthAdapter = new IntChoiceAdapter(this, IntChoiceAdapter.REPLAY_LENGTHS,
+        R.string.replay_length_off, R.string.replay_length_seconds);
+    replayLengthView.setAdapter(replayLengthAdapter);
+    replayLengthView.setSelection(IntChoiceAdapter.getSelectedPosition(
+        IntChoiceAdapter.REPLAY_LENGTHS, replayLengthPreference.get()));
+
+    segmentLengthAdapter = new IntChoiceAdapter(this, IntChoiceAdapter.SEGMENT_LENGTHS,
+        R.string.segment_length_off, R.string.segment_length_minutes);
+    segmentLengthView.setAdapter(segmentLengthAdapter);
+    segmentLengthView.setSelection(IntChoiceAdapter.getSelectedPosition(
+        IntChoiceAdapter.SEGMENT_LENGTHS, segmentLengthPreference.get()));
+
+    keepAliveIntervalAdapter = new IntChoiceAdapter(this, IntChoiceAdapter.KEEP_ALIVE_INTERVALS,
+        R.string.keep_alive_off, R.string.keep_alive_seconds);
+    keepAliveIntervalView.setAdapter(keepAliveIntervalAdapter);
+    keepAliveIntervalView.setSelection(IntChoiceAdapter.getSelectedPosition(
+        IntChoiceAdapter.KEEP_ALIVE_INTERVALS, keepAliveIntervalPreference.get()));
+
+    timeLapseIntervalAdapter = new IntChoiceAdapter(this, IntChoiceAdapter.TIME_LAPSE_INTERVALS,
+        R.string.time_lapse_off, R.string.time_lapse_seconds);
+    timeLapseIntervalView.setAdapter(timeLapseIntervalAdapter);
+    timeLapseIntervalView.setSelection(IntChoiceAdapter.getSelectedPosition(
+        IntChoiceAdapter.TIME_LAPSE_INTERVALS, timeLapseIntervalPreference.get()));
+    timeLapseRealTimeView.setChecked(timeLapseRealTimePreference.get());
+
+    retentionMaxSizeAdapter = new IntChoiceAdapter(this, IntChoiceAdapter.RETENTION_SIZES,
+        R.string.retention_unlimited, R.string.retention_max_size_gigabytes);
+    retentionMaxSizeView.setAdapter(retentionMaxSizeAdapter);
+    retentionMaxSizeView.setSelection(IntChoiceAdapter.getSelectedPosition(
+        IntChoiceAdapter.RETENTION_SIZES, retentionMaxSizePreference.get()));
+
+    retentionMaxAgeAdapter = new IntChoiceAdapter(this, IntChoiceAdapter.RETENTION_AGES,
+        R.string.retention_unlimited, R.string.retention_max_age_days);
+    retentionMaxAgeView.setAdapter(retentionMaxAgeAdapter);
+    retentionMaxAgeView.setSelection(IntChoiceAdapter.getSelectedPosition(
+        IntChoiceAdapter.RETENTION_AGES, retentionMaxAgePreference.get()));
+
+    retentionMaxCountAdapter = new IntChoiceAdapter(this, IntChoiceAdapter.RETENTION_COUNTS,
+        R.string.retention_unlimited, R.string.retention_max_count_recordings);
+    retentionMaxCountView.setAdapter(retentionMaxCountAdapter);
+    retentionMaxCountView.setSelection(IntChoiceAdapter.getSelectedPosition(
+        IntChoiceAdapter.RETENTION_COUNTS, retentionMaxCountPreference.get()));
   }
 
   @OnClick(R.id.launch) void onLaunchClicked() {
@@ -100,6 +186,21 @@ public final class TelecineActivity extends Activity {
     }
   }
 
+  @OnItemSelected(R.id.spinner_video_frame_rate) void onVideoFrameRateSelected(int position) {
+    int newValue = videoFrameRateAdapter.getItem(position);
+    int oldValue = videoFrameRatePreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Video frame rate changing to %s fps", newValue);
+      videoFrameRatePreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_VIDEO_FRAME_RATE)
+          .setValue(newValue)
+          .build());
+    }
+  }
+
   @OnCheckedChanged(R.id.switch_show_countdown) void onShowCountdownChanged() {
     boolean newValue = showCountdownView.isChecked();
     boolean oldValue = showCountdownPreference.get();
@@ -160,6 +261,188 @@ public final class TelecineActivity extends Activity {
     }
   }
 
+  @OnCheckedChanged(R.id.switch_crash_safe_recording) void onCrashSafeRecordingChanged() {
+    boolean newValue = crashSafeRecordingView.isChecked();
+    boolean oldValue = crashSafeRecordingPreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Crash-safe recording preference changing to %s", newValue);
+      crashSafeRecordingPreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_CRASH_SAFE_RECORDING)
+          .setValue(newValue ? 1 : 0)
+          .build());
+    }
+  }
+
+  @OnCheckedChanged(R.id.switch_multi_take) void onMultiTakeChanged() {
+    boolean newValue = multiTakeView.isChecked();
+    boolean oldValue = multiTakePreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Multi-take preference changing to %s", newValue);
+      multiTakePreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_MULTI_TAKE)
+          .setValue(newValue ? 1 : 0)
+          .build());
+    }
+  }
+
+  @OnCheckedChanged(R.id.switch_join_takes) void onJoinTakesChanged() {
+    boolean newValue = joinTakesView.isChecked();
+    boolean oldValue = joinTakesPreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Join takes preference changing to %s", newValue);
+      joinTakesPreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_JOIN_TAKES)
+          .setValue(newValue ? 1 : 0)
+          .build());
+    }
+  }
+
+  @OnCheckedChanged(R.id.switch_prefer_hevc) void onPreferHevcChanged() {
+    boolean newValue = preferHevcView.isChecked();
+    boolean oldValue = preferHevcPreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Prefer HEVC preference changing to %s", newValue);
+      preferHevcPreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_PREFER_HEVC)
+          .setValue(newValue ? 1 : 0)
+          .build());
+    }
+  }
+
+  @OnItemSelected(R.id.spinner_replay_length) void onReplayLengthSelected(int position) {
+    int newValue = replayLengthAdapter.getItem(position);
+    int oldValue = replayLengthPreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Replay length changing to %ss", newValue);
+      replayLengthPreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_REPLAY_LENGTH)
+          .setValue(newValue)
+          .build());
+    }
+  }
+
+  @OnItemSelected(R.id.spinner_segment_length) void onSegmentLengthSelected(int position) {
+    int newValue = segmentLengthAdapter.getItem(position);
+    int oldValue = segmentLengthPreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Segment length changing to %s minutes", newValue);
+      segmentLengthPreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_SEGMENT_LENGTH)
+          .setValue(newValue)
+          .build());
+    }
+  }
+
+  @OnItemSelected(R.id.spinner_keep_alive_interval) void onKeepAliveIntervalSelected(
+      int position) {
+    int newValue = keepAliveIntervalAdapter.getItem(position);
+    int oldValue = keepAliveIntervalPreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Keep-alive interval changing to %s seconds", newValue);
+      keepAliveIntervalPreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_KEEP_ALIVE_INTERVAL)
+          .setValue(newValue)
+          .build());
+    }
+  }
+
+  @OnItemSelected(R.id.spinner_time_lapse_interval) void onTimeLapseIntervalSelected(
+      int position) {
+    int newValue = timeLapseIntervalAdapter.getItem(position);
+    int oldValue = timeLapseIntervalPreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Time-lapse interval changing to %s seconds", newValue);
+      timeLapseIntervalPreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_TIME_LAPSE_INTERVAL)
+          .setValue(newValue)
+          .build());
+    }
+  }
+
+  @OnCheckedChanged(R.id.switch_time_lapse_real_time) void onTimeLapseRealTimeChanged() {
+    boolean newValue = timeLapseRealTimeView.isChecked();
+    boolean oldValue = timeLapseRealTimePreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Time-lapse real-time preference changing to %s", newValue);
+      timeLapseRealTimePreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_TIME_LAPSE_REAL_TIME)
+          .setValue(newValue ? 1 : 0)
+          .build());
+    }
+  }
+
+  @OnItemSelected(R.id.spinner_retention_max_size) void onRetentionMaxSizeSelected(int position) {
+    int newValue = retentionMaxSizeAdapter.getItem(position);
+    int oldValue = retentionMaxSizePreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Retention max size changing to %sGB", newValue);
+      retentionMaxSizePreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_RETENTION_MAX_SIZE)
+          .setValue(newValue)
+          .build());
+    }
+  }
+
+  @OnItemSelected(R.id.spinner_retention_max_age) void onRetentionMaxAgeSelected(int position) {
+    int newValue = retentionMaxAgeAdapter.getItem(position);
+    int oldValue = retentionMaxAgePreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Retention max age changing to %s days", newValue);
+      retentionMaxAgePreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_RETENTION_MAX_AGE)
+          .setValue(newValue)
+          .build());
+    }
+  }
+
+  @OnItemSelected(R.id.spinner_retention_max_count) void onRetentionMaxCountSelected(int position) {
+    int newValue = retentionMaxCountAdapter.getItem(position);
+    int oldValue = retentionMaxCountPreference.get();
+    if (newValue != oldValue) {
+      Timber.d("Retention max count changing to %s recordings", newValue);
+      retentionMaxCountPreference.set(newValue);
+
+      analytics.send(new HitBuilders.EventBuilder() //
+          .setCategory(Analytics.CATEGORY_SETTINGS)
+          .setAction(Analytics.ACTION_CHANGE_RETENTION_MAX_COUNT)
+          .setValue(newValue)
+          .build());
+    }
+  }
+
   @Override protected void onActivityResult(int requestCode, int resultCode, Intent data) {
     if (!CaptureHelper.handleActivityResult(this, requestCode, resultCode, data, analytics)) {
       super.onActivityResult(requestCode, resultCode, data);
@@ -32,6 +32,14 @@ public final class TelecineApplication extends Application {
     }
 
     objectGraph = ObjectGraph.create(new TelecineModule(this));
+
+    // Recordings interrupted by a previous process are repaired in the background. Anything
+    // modified from now on belongs to this process.
+    RecordingRepairer repairer =
+        new RecordingRepairer(this, objectGraph.get(Analytics.class),
+            RecordingSession.getOutputRoot(), RecordingSession.getJournalDir(this),
+            System.currentTimeMillis());
+    new Thread(repairer, "telecine-repair").start();
   }
 
   public void inject(Object o) {
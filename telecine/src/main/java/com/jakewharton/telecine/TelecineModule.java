@@ -2,11 +2,15 @@ package com.jakewharton.telecine;
 
 import android.content.ContentResolver;
 import android.content.SharedPreferences;
+import android.os.Build;
 import com.google.android.gms.analytics.GoogleAnalytics;
 import com.google.android.gms.analytics.Tracker;
 import dagger.Module;
 import dagger.Provides;
+import java.io.File;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 import timber.log.Timber;
 
@@ -15,6 +19,8 @@ import static android.content.Context.MODE_PRIVATE;
 @Module(injects = {
     TelecineActivity.class,
     TelecineService.class,
+    RemuxService.class,
+    ShareSmallService.class,
     TelecineShortcutConfigureActivity.class,
     TelecineShortcutLaunchActivity.class,
 })
@@ -24,7 +30,20 @@ final class TelecineModule {
   private static final boolean DEFAULT_HIDE_FROM_RECENTS = false;
   private static final boolean DEFAULT_SHOW_TOUCHES = false;
   private static final boolean DEFAULT_RECORDING_NOTIFICATION = false;
+  private static final boolean DEFAULT_CRASH_SAFE_RECORDING = false;
+  private static final boolean DEFAULT_MULTI_TAKE = false;
+  private static final boolean DEFAULT_JOIN_TAKES = false;
+  private static final boolean DEFAULT_PREFER_HEVC = false;
   private static final int DEFAULT_VIDEO_SIZE_PERCENTAGE = 100;
+  private static final int DEFAULT_VIDEO_FRAME_RATE = Encoder.FRAME_RATE;
+  private static final int DEFAULT_REPLAY_LENGTH = 0; // Off.
+  private static final int DEFAULT_SEGMENT_LENGTH = 0; // Off.
+  private static final int DEFAULT_KEEP_ALIVE_INTERVAL = 2; // Seconds.
+  private static final int DEFAULT_TIME_LAPSE_INTERVAL = 0; // Off.
+  private static final boolean DEFAULT_TIME_LAPSE_REAL_TIME = false;
+  private static final int DEFAULT_RETENTION_MAX_SIZE = 0; // Unlimited.
+  private static final int DEFAULT_RETENTION_MAX_AGE = 0; // Unlimited.
+  private static final int DEFAULT_RETENTION_MAX_COUNT = 0; // Unlimited.
 
   private final TelecineApplication app;
 
@@ -51,6 +70,34 @@ final class TelecineModule {
     return app.getContentResolver();
   }
 
+  @Provides @Singleton EncoderCapabilitiesCache provideEncoderCapabilitiesCache() {
+    File file = new File(app.getFilesDir(), "encoder-capabilities");
+    return new EncoderCapabilitiesCache(file, Build.FINGERPRINT,
+        EncoderCapabilitiesCache.Prober.MEDIA_CODEC_LIST);
+  }
+
+  @Provides @Singleton BitmapPool provideBitmapPool() {
+    // The thumbnail, its large icon, and room for a padded copy of the thumbnail.
+    return new BitmapPool(3);
+  }
+
+  @Provides Encoder.Factory provideEncoderFactory() {
+    return Encoder.Factory.DEFAULT;
+  }
+
+  @Provides @Singleton RecordingEvictor provideRecordingEvictor(ContentResolver contentResolver,
+      Analytics analytics, Provider<RecordingRetention> retention) {
+    return new RecordingEvictor(contentResolver, analytics, RecordingSession.getOutputRoot(),
+        RecordingSession.getJournalDir(app), retention);
+  }
+
+  @Provides RecordingRetention provideRecordingRetention(
+      @RetentionMaxSize IntPreference maxSize, @RetentionMaxAge IntPreference maxAge,
+      @RetentionMaxCount IntPreference maxCount) {
+    return new RecordingRetention(maxSize.get() * 1024L * 1024 * 1024,
+        TimeUnit.DAYS.toMillis(maxAge.get()), maxCount.get());
+  }
+
   @Provides @Singleton SharedPreferences provideSharedPreferences() {
     return app.getSharedPreferences(PREFERENCES_NAME, MODE_PRIVATE);
   }
@@ -88,6 +135,43 @@ final class TelecineModule {
     return pref.get();
   }
 
+  @Provides @Singleton @CrashSafeRecording BooleanPreference provideCrashSafeRecordingPreference(
+      SharedPreferences prefs) {
+    return new BooleanPreference(prefs, "crash-safe-recording", DEFAULT_CRASH_SAFE_RECORDING);
+  }
+
+  @Provides @CrashSafeRecording Boolean provideCrashSafeRecording(
+      @CrashSafeRecording BooleanPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @MultiTake BooleanPreference provideMultiTakePreference(
+      SharedPreferences prefs) {
+    return new BooleanPreference(prefs, "multi-take", DEFAULT_MULTI_TAKE);
+  }
+
+  @Provides @MultiTake Boolean provideMultiTake(@MultiTake BooleanPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @JoinTakes BooleanPreference provideJoinTakesPreference(
+      SharedPreferences prefs) {
+    return new BooleanPreference(prefs, "join-takes", DEFAULT_JOIN_TAKES);
+  }
+
+  @Provides @JoinTakes Boolean provideJoinTakes(@JoinTakes BooleanPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @PreferHevc BooleanPreference providePreferHevcPreference(
+      SharedPreferences prefs) {
+    return new BooleanPreference(prefs, "prefer-hevc", DEFAULT_PREFER_HEVC);
+  }
+
+  @Provides @PreferHevc Boolean providePreferHevc(@PreferHevc BooleanPreference pref) {
+    return pref.get();
+  }
+
   @Provides @Singleton @VideoSizePercentage IntPreference provideVideoSizePercentagePreference(
       SharedPreferences prefs) {
     return new IntPreference(prefs, "video-size", DEFAULT_VIDEO_SIZE_PERCENTAGE);
@@ -97,4 +181,76 @@ final class TelecineModule {
       @VideoSizePercentage IntPreference pref) {
     return pref.get();
   }
+
+  @Provides @Singleton @VideoFrameRate IntPreference provideVideoFrameRatePreference(
+      SharedPreferences prefs) {
+    return new IntPreference(prefs, "video-frame-rate", DEFAULT_VIDEO_FRAME_RATE);
+  }
+
+  @Provides @VideoFrameRate Integer provideVideoFrameRate(@VideoFrameRate IntPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @ReplayLength IntPreference provideReplayLengthPreference(
+      SharedPreferences prefs) {
+    return new IntPreference(prefs, "replay-length", DEFAULT_REPLAY_LENGTH);
+  }
+
+  @Provides @ReplayLength Integer provideReplayLength(@ReplayLength IntPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @SegmentLength IntPreference provideSegmentLengthPreference(
+      SharedPreferences prefs) {
+    return new IntPreference(prefs, "segment-length", DEFAULT_SEGMENT_LENGTH);
+  }
+
+  @Provides @SegmentLength Integer provideSegmentLength(@SegmentLength IntPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @KeepAliveInterval IntPreference provideKeepAliveIntervalPreference(
+      SharedPreferences prefs) {
+    return new IntPreference(prefs, "keep-alive-interval", DEFAULT_KEEP_ALIVE_INTERVAL);
+  }
+
+  @Provides @KeepAliveInterval Integer provideKeepAliveInterval(
+      @KeepAliveInterval IntPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @TimeLapseInterval IntPreference provideTimeLapseIntervalPreference(
+      SharedPreferences prefs) {
+    return new IntPreference(prefs, "time-lapse-interval", DEFAULT_TIME_LAPSE_INTERVAL);
+  }
+
+  @Provides @TimeLapseInterval Integer provideTimeLapseInterval(
+      @TimeLapseInterval IntPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @TimeLapseRealTime BooleanPreference provideTimeLapseRealTimePreference(
+      SharedPreferences prefs) {
+    return new BooleanPreference(prefs, "time-lapse-real-time", DEFAULT_TIME_LAPSE_REAL_TIME);
+  }
+
+  @Provides @TimeLapseRealTime Boolean provideTimeLapseRealTime(
+      @TimeLapseRealTime BooleanPreference pref) {
+    return pref.get();
+  }
+
+  @Provides @Singleton @RetentionMaxSize IntPreference provideRetentionMaxSizePreference(
+      SharedPreferences prefs) {
+    return new IntPreference(prefs, "retention-max-size", DEFAULT_RETENTION_MAX_SIZE);
+  }
+
+  @Provides @Singleton @RetentionMaxAge IntPreference provideRetentionMaxAgePreference(
+      SharedPreferences prefs) {
+    return new IntPreference(prefs, "retention-max-age", DEFAULT_RETENTION_MAX_AGE);
+  }
+
+  @Provides @Singleton @RetentionMaxCount IntPreference provideRetentionMaxCountPreference(
+      SharedPreferences prefs) {
+    return new IntPreference(prefs, "retention-max-count", DEFAULT_RETENTION_MAX_COUNT);
+  }
 }
@@ -29,11 +29,25 @@ public final class TelecineService extends Service {
 
   @Inject @ShowCountdown Provider<Boolean> showCountdownProvider;
   @Inject @VideoSizePercentage Provider<Integer> videoSizePercentageProvider;
+  @Inject @VideoFrameRate Provider<Integer> videoFrameRateProvider;
+  @Inject @CrashSafeRecording Provider<Boolean> crashSafeRecordingProvider;
+  @Inject @ReplayLength Provider<Integer> replayLengthProvider;
+  @Inject @SegmentLength Provider<Integer> segmentLengthProvider;
+  @Inject @KeepAliveInterval Provider<Integer> keepAliveIntervalProvider;
+  @Inject @TimeLapseInterval Provider<Integer> timeLapseIntervalProvider;
+  @Inject @TimeLapseRealTime Provider<Boolean> timeLapseRealTimeProvider;
+  @Inject @MultiTake Provider<Boolean> multiTakeProvider;
+  @Inject @JoinTakes Provider<Boolean> joinTakesProvider;
+  @Inject @PreferHevc Provider<Boolean> preferHevcProvider;
   @Inject @RecordingNotification Provider<Boolean> recordingNotificationProvider;
   @Inject @ShowTouches Provider<Boolean> showTouchesProvider;
 
   @Inject Analytics analytics;
   @Inject ContentResolver contentResolver;
+  @Inject EncoderCapabilitiesCache encoderCapabilitiesCache;
+  @Inject BitmapPool bitmapPool;
+  @Inject RecordingEvictor recordingEvictor;
+  @Inject Encoder.Factory encoderFactory;
 
   private boolean running;
   private RecordingSession recordingSession;
@@ -94,16 +108,21 @@ public final class TelecineService extends Service {
 
     ((TelecineApplication) getApplication()).inject(this);
 
-    recordingSession =
-        new RecordingSession(this, listener, resultCode, data, analytics, showCountdownProvider,
-            videoSizePercentageProvider);
+    recordingSession = new RecordingSession(this, listener, resultCode, data, analytics,
+        encoderCapabilitiesCache, bitmapPool, recordingEvictor, encoderFactory,
+        showCountdownProvider, videoSizePercentageProvider, videoFrameRateProvider,
+        preferHevcProvider, crashSafeRecordingProvider, replayLengthProvider,
+        segmentLengthProvider, keepAliveIntervalProvider, timeLapseIntervalProvider,
+        timeLapseRealTimeProvider, multiTakeProvider, joinTakesProvider);
     recordingSession.showOverlay();
 
     return START_NOT_STICKY;
   }
 
   @Override public void onDestroy() {
+    // Blocks until any in-progress recording has been written to disk.
     recordingSession.destroy();
+    recordingEvictor.evictLater();
     super.onDestroy();
   }
 
@@ -0,0 +1,106 @@
+package com.jakewharton.telecine;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PixelFormat;
+import android.hardware.display.VirtualDisplay;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.projection.MediaProjection;
+import android.os.Handler;
+import android.support.annotation.Nullable;
+import java.nio.ByteBuffer;
+import timber.log.Timber;
+
+import static android.hardware.display.DisplayManager.VIRTUAL_DISPLAY_FLAG_PRESENTATION;
+
+/**
+ * Captures a single downscaled frame of the screen for the notification shown once a recording
+ * is saved. Frames come from a second, small display of the recording's projection so that the
+ * finished file never needs to be decoded.
+ * <p>
+ * Not thread safe. Frames are delivered on the handler passed to the constructor which must be
+ * the thread from which every other method is called.
+ */
+final class ThumbnailCapture implements ImageReader.OnImageAvailableListener {
+  private static final String DISPLAY_NAME = "telecine-thumbnail";
+
+  private final BitmapPool bitmapPool;
+  private final ImageReader reader;
+  private final VirtualDisplay display;
+  private Bitmap thumbnail;
+  private boolean released;
+
+  /**
+   * Prepare to capture a {@code width} x {@code height} frame. The screen is scaled to that size
+   * as it is rendered so no full size copy of a frame is ever made.
+   */
+  ThumbnailCapture(MediaProjection projection, int width, int height, int density,
+      BitmapPool bitmapPool, Handler handler) {
+    this.bitmapPool = bitmapPool;
+    reader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, 2);
+    reader.setOnImageAvailableListener(this, handler);
+    // Like the recording's display, this renders nowhere until started.
+    display = projection.createVirtualDisplay(DISPLAY_NAME, width, height, density,
+        VIRTUAL_DISPLAY_FLAG_PRESENTATION, null, null, null);
+  }
+
+  /** Capture the next frame of the screen. */
+  void start() {
+    display.setSurface(reader.getSurface());
+  }
+
+  @Override public void onImageAvailable(ImageReader reader) {
+    if (released) {
+      return; // Delivered after the recording finished.
+    }
+    Image image = reader.acquireLatestImage();
+    if (image == null) {
+      return;
+    }
+    try {
+      if (thumbnail == null) {
+        thumbnail = toBitmap(image);
+        Timber.d("Captured %s x %s thumbnail.", thumbnail.getWidth(), thumbnail.getHeight());
+      }
+    } finally {
+      image.close();
+    }
+    // One frame is all that is needed. Stop rendering the second display.
+    display.setSurface(null);
+  }
+
+  /**
+   * The captured frame, or null if the screen never produced one. It came from the pool which
+   * the caller should return it to once it is no longer used.
+   */
+  @Nullable Bitmap getThumbnail() {
+    return thumbnail;
+  }
+
+  void release() {
+    released = true;
+    display.release();
+    reader.close();
+  }
+
+  private Bitmap toBitmap(Image image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    Image.Plane plane = image.getPlanes()[0];
+    ByteBuffer pixels = plane.getBuffer();
+    int pixelStride = plane.getPixelStride();
+    int rowPadding = plane.getRowStride() - pixelStride * width;
+
+    // Rows may be padded. Copy them whole and then draw without the padding.
+    Bitmap padded = bitmapPool.get(width + rowPadding / pixelStride, height);
+    padded.copyPixelsFromBuffer(pixels);
+    if (rowPadding == 0) {
+      return padded;
+    }
+    Bitmap bitmap = bitmapPool.get(width, height);
+    new Canvas(bitmap).drawBitmap(padded, 0, 0, null);
+    bitmapPool.put(padded);
+    return bitmap;
+  }
+}
@@ -0,0 +1,74 @@
+package com.jakewharton.telecine;
+
+/** Size and crop calculations for the thumbnails shown in the captured notification. */
+final class Thumbnails {
+  private Thumbnails() {
+    throw new AssertionError("No instances.");
+  }
+
+  /**
+   * The largest size with the aspect ratio of {@code width} x {@code height} which fits within
+   * {@code maxWidth} x {@code maxHeight}. Images are never scaled up.
+   */
+  static Region fit(int width, int height, int maxWidth, int maxHeight) {
+    if (width <= 0 || height <= 0 || maxWidth <= 0 || maxHeight <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid size: " + width + "x" + height + " within " + maxWidth + "x" + maxHeight);
+    }
+    double scale = Math.min(1, Math.min((double) maxWidth / width, (double) maxHeight / height));
+    int scaledWidth = Math.max(1, (int) Math.round(width * scale));
+    int scaledHeight = Math.max(1, (int) Math.round(height * scale));
+    // Rounding must not push either edge past its bound.
+    return new Region(0, 0, Math.min(scaledWidth, maxWidth), Math.min(scaledHeight, maxHeight));
+  }
+
+  /** The largest square centered within {@code width} x {@code height}. */
+  static Region centerSquare(int width, int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+    }
+    int size = Math.min(width, height);
+    return new Region((width - size) / 2, (height - size) / 2, size, size);
+  }
+
+  static final class Region {
+    final int left;
+    final int top;
+    final int width;
+    final int height;
+
+    Region(int left, int top, int width, int height) {
+      this.left = left;
+      this.top = top;
+      this.width = width;
+      this.height = height;
+    }
+
+    int right() {
+      return left + width;
+    }
+
+    int bottom() {
+      return top + height;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (!(o instanceof Region)) {
+        return false;
+      }
+      Region other = (Region) o;
+      return left == other.left
+          && top == other.top
+          && width == other.width
+          && height == other.height;
+    }
+
+    @Override public int hashCode() {
+      return ((left * 31 + top) * 31 + width) * 31 + height;
+    }
+
+    @Override public String toString() {
+      return width + "x" + height + " at " + left + "," + top;
+    }
+  }
+}
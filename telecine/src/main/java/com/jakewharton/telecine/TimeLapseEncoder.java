@@ -0,0 +1,178 @@
+package com.jakewharton.telecine;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.view.Surface;
+import com.jakewharton.telecine.RecordingSession.RecordingInfo;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Samples the display into another {@link Encoder} at most once per interval rather than
+ * encoding every frame it renders. Frames are rendered to a texture and only the latest of each
+ * interval is drawn to the encoder, so encoding work and output size fall with the interval.
+ * <p>
+ * Each sample is stamped with the time it is drawn to the encoder, when the latest frame is still
+ * what the display shows. That frame may have been rendered long before if the display has been
+ * still, and its own timestamp would read as encoder latency to the {@link BitRateGovernor}.
+ * Compressing time for playback is left to a {@link TimeLapseSampleWriter}.
+ */
+final class TimeLapseEncoder implements Encoder {
+  private final Encoder delegate;
+  private final long intervalMs;
+
+  private HandlerThread thread;
+  private Handler handler;
+
+  // Only accessed on the sampling thread once prepared.
+  private FrameScaler scaler;
+  private boolean sampling;
+  private boolean framePending;
+  private boolean scheduled;
+  private long nextSampleMs;
+
+  private final Runnable sample = new Runnable() {
+    @Override public void run() {
+      scheduled = false;
+      sampleIfDue();
+    }
+  };
+
+  TimeLapseEncoder(Encoder delegate, long intervalMs) {
+    if (intervalMs <= 0) {
+      throw new IllegalArgumentException("Invalid interval: " + intervalMs);
+    }
+    this.delegate = delegate;
+    this.intervalMs = intervalMs;
+  }
+
+  @Override public void prepare(final RecordingInfo info, String outputFile) throws IOException {
+    if (thread != null) {
+      throw new IllegalStateException("Already prepared.");
+    }
+    delegate.prepare(info, outputFile);
+
+    thread = new HandlerThread("telecine-time-lapse");
+    thread.start();
+    handler = new Handler(thread.getLooper());
+    final Surface encoderSurface = delegate.getInputSurface();
+    runOnSampler(new Runnable() {
+      @Override public void run() {
+        scaler = new FrameScaler(encoderSurface, info.width, info.height, new Runnable() {
+          @Override public void run() {
+            framePending = true;
+            sampleIfDue();
+          }
+        });
+      }
+    });
+  }
+
+  @Override public Surface getInputSurface() {
+    if (scaler == null) {
+      throw new IllegalStateException("Not prepared.");
+    }
+    return scaler.getInputSurface();
+  }
+
+  @Override public void start() {
+    if (scaler == null) {
+      throw new IllegalStateException("Not prepared.");
+    }
+    delegate.start();
+    handler.post(new Runnable() {
+      @Override public void run() {
+        sampling = true;
+        sampleIfDue();
+      }
+    });
+  }
+
+  @Override public void stop() {
+    // Nothing may be drawn to the encoder once it has been told its input has ended.
+    runOnSampler(new Runnable() {
+      @Override public void run() {
+        sampling = false;
+        scheduled = false;
+        handler.removeCallbacks(sample);
+      }
+    });
+    delegate.stop();
+  }
+
+  @Override public void release() {
+    if (thread != null) {
+      if (scaler != null) {
+        runOnSampler(new Runnable() {
+          @Override public void run() {
+            scaler.release();
+            scaler = null;
+          }
+        });
+      }
+      thread.quit();
+      thread = null;
+      handler = null;
+    }
+    // The scaler drew to the delegate's surface so it must be gone before the surface is.
+    delegate.release();
+  }
+
+  @Override public boolean setVideoBitRate(int bitRate) {
+    return delegate.setVideoBitRate(bitRate);
+  }
+
+  @Override public boolean pause() {
+    return delegate.pause();
+  }
+
+  @Override public void resume() {
+    delegate.resume();
+  }
+
+  /**
+   * Draw the latest frame if one has arrived and an interval has passed since the last was
+   * drawn. Otherwise wait for whichever is still missing.
+   */
+  private void sampleIfDue() {
+    if (!sampling || !framePending || scheduled) {
+      return;
+    }
+    long nowMs = SystemClock.uptimeMillis();
+    if (nowMs < nextSampleMs) {
+      handler.postAtTime(sample, nextSampleMs);
+      scheduled = true;
+      return;
+    }
+    framePending = false;
+    nextSampleMs = nowMs + intervalMs;
+    scaler.drawFrame(System.nanoTime());
+  }
+
+  /** Run {@code work} on the sampling thread and wait for it, rethrowing anything it throws. */
+  private void runOnSampler(final Runnable work) {
+    final CountDownLatch done = new CountDownLatch(1);
+    final RuntimeException[] failure = new RuntimeException[1];
+    handler.post(new Runnable() {
+      @Override public void run() {
+        try {
+          work.run();
+        } catch (RuntimeException e) {
+          failure[0] = e;
+        } finally {
+          done.countDown();
+        }
+      }
+    });
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted waiting for the sampling thread.", e);
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+  }
+}
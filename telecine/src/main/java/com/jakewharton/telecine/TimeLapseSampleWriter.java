@@ -0,0 +1,52 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses time in a recording sampled by a {@link TimeLapseEncoder}, dividing every
+ * presentation time by a speedup before passing samples to another {@link SampleWriter}. A
+ * sampling interval of one second played back at 30fps is a speedup of 30.
+ */
+final class TimeLapseSampleWriter implements SampleWriter {
+  static Factory factory(final Factory output, final long speedup) {
+    return new Factory() {
+      @Override public SampleWriter create(String outputFile) throws IOException {
+        return new TimeLapseSampleWriter(output.create(outputFile), speedup);
+      }
+    };
+  }
+
+  private final SampleWriter output;
+  private final long speedup;
+  private long lastPresentationTimeUs = -1;
+
+  TimeLapseSampleWriter(SampleWriter output, long speedup) {
+    if (speedup < 1) {
+      throw new IllegalArgumentException("Invalid speedup: " + speedup);
+    }
+    this.output = output;
+    this.speedup = speedup;
+  }
+
+  @Override public void start(MediaFormat format) throws IOException {
+    output.start(format);
+  }
+
+  @Override public void writeSample(ByteBuffer data, long presentationTimeUs, boolean keyFrame)
+      throws IOException {
+    // Frames which were distinct before compression must remain so after it.
+    long compressedUs = Math.max(presentationTimeUs / speedup, lastPresentationTimeUs + 1);
+    lastPresentationTimeUs = compressedUs;
+    output.writeSample(data, compressedUs, keyFrame);
+  }
+
+  @Override public void stop() throws IOException {
+    output.stop();
+  }
+
+  @Override public void release() {
+    output.release();
+  }
+}
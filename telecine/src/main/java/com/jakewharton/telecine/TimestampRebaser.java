@@ -0,0 +1,78 @@
+package com.jakewharton.telecine;
+
+/**
+ * Removes paused spans from the presentation times of an encoded stream so that a recording which
+ * was paused plays back continuously from a single file.
+ * <p>
+ * Samples presented after a pause began are dropped. After resuming, samples are dropped until
+ * the first key frame, since anything before it may refer to a dropped sample. That key frame is
+ * presented one frame interval after the last sample which was kept, and everything after it is
+ * shifted by the same amount.
+ * <p>
+ * Pausing and resuming may happen on a different thread than rebasing.
+ */
+final class TimestampRebaser {
+  /** Returned by {@link #rebase} for samples which must be dropped. */
+  static final long DROP = -1;
+
+  private static final long NONE = Long.MIN_VALUE;
+
+  private final long frameIntervalUs;
+
+  private long offsetUs;
+  private long lastUs = NONE;
+  /** When the current pause began, or {@link #NONE} once the stream has been rejoined. */
+  private long pausedAtUs = NONE;
+  private boolean paused;
+
+  TimestampRebaser(int frameRate) {
+    if (frameRate <= 0) {
+      throw new IllegalArgumentException("frameRate <= 0: " + frameRate);
+    }
+    frameIntervalUs = 1000000L / frameRate;
+  }
+
+  /** Drop samples presented after {@code timeUs}, in the stream's time base. */
+  synchronized void pause(long timeUs) {
+    if (paused) {
+      return;
+    }
+    paused = true;
+    if (pausedAtUs == NONE) {
+      pausedAtUs = timeUs;
+    }
+    // Otherwise this is still waiting for a key frame from the previous pause. Keep its window.
+  }
+
+  /** Keep samples again, starting at the next key frame. */
+  synchronized void resume() {
+    paused = false;
+  }
+
+  synchronized boolean isPaused() {
+    return paused;
+  }
+
+  /** Total time removed from the stream by pauses so far. */
+  synchronized long pausedDurationUs() {
+    return offsetUs;
+  }
+
+  /**
+   * The time at which to present the sample at {@code presentationTimeUs}, or {@link #DROP}.
+   * Samples must be given in presentation order.
+   */
+  synchronized long rebase(long presentationTimeUs, boolean keyFrame) {
+    if (pausedAtUs != NONE && presentationTimeUs > pausedAtUs) {
+      if (paused || !keyFrame) {
+        return DROP;
+      }
+      // Rejoin the stream where it left off.
+      long rejoinUs = lastUs == NONE ? pausedAtUs - offsetUs : lastUs + frameIntervalUs;
+      offsetUs = presentationTimeUs - rejoinUs;
+      pausedAtUs = NONE;
+    }
+    lastUs = presentationTimeUs - offsetUs;
+    return lastUs;
+  }
+}
@@ -0,0 +1,98 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaFormat;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.jakewharton.telecine.EncoderCapabilities.MIME_TYPE_AVC;
+import static com.jakewharton.telecine.EncoderCapabilities.MIME_TYPE_HEVC;
+
+/**
+ * What a decoder needs to know about a video track: its codec, frame size, and the parameter set
+ * NAL units (without start codes) which the encoder emitted as codec config.
+ */
+final class TrackFormat {
+  private static final int AVC_NAL_SPS = 7;
+  private static final int AVC_NAL_PPS = 8;
+  static final int HEVC_NAL_VPS = 32;
+  static final int HEVC_NAL_SPS = 33;
+  static final int HEVC_NAL_PPS = 34;
+
+  /** Read the codec config which an encoder reported in its output {@code format}. */
+  static TrackFormat from(MediaFormat format) {
+    List<byte[]> parameterSets = new ArrayList<>();
+    for (String key : new String[] { "csd-0", "csd-1" }) {
+      if (format.containsKey(key)) {
+        for (ByteBuffer nalUnit : NalUnits.split(format.getByteBuffer(key))) {
+          parameterSets.add(NalUnits.toByteArray(nalUnit));
+        }
+      }
+    }
+    return new TrackFormat(format.getString(MediaFormat.KEY_MIME),
+        format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT),
+        parameterSets);
+  }
+
+  final String mimeType;
+  final int width;
+  final int height;
+  final List<byte[]> parameterSets;
+
+  TrackFormat(String mimeType, int width, int height, List<byte[]> parameterSets) {
+    if (!MIME_TYPE_AVC.equals(mimeType) && !MIME_TYPE_HEVC.equals(mimeType)) {
+      throw new IllegalArgumentException("Unsupported MIME type: " + mimeType);
+    }
+    this.mimeType = mimeType;
+    this.width = width;
+    this.height = height;
+    this.parameterSets = Collections.unmodifiableList(new ArrayList<>(parameterSets));
+  }
+
+  boolean isHevc() {
+    return MIME_TYPE_HEVC.equals(mimeType);
+  }
+
+  /** The NAL unit type of {@code nalUnit}'s header for this format's codec. */
+  int nalType(byte[] nalUnit) {
+    return nalType(isHevc(), nalUnit[0]);
+  }
+
+  static int nalType(boolean hevc, byte firstHeaderByte) {
+    return hevc ? (firstHeaderByte >> 1) & 0x3f : firstHeaderByte & 0x1f;
+  }
+
+  /** The first parameter set of {@code type}, or null if there is none. */
+  byte[] parameterSet(int type) {
+    for (byte[] nalUnit : parameterSets) {
+      if (nalType(nalUnit) == type) {
+        return nalUnit;
+      }
+    }
+    return null;
+  }
+
+  /** True if every parameter set needed to describe the track is present. */
+  boolean isComplete() {
+    if (isHevc()) {
+      return parameterSet(HEVC_NAL_VPS) != null
+          && parameterSet(HEVC_NAL_SPS) != null
+          && parameterSet(HEVC_NAL_PPS) != null;
+    }
+    return parameterSet(AVC_NAL_SPS) != null && parameterSet(AVC_NAL_PPS) != null;
+  }
+
+  byte[] sps() {
+    return parameterSet(isHevc() ? HEVC_NAL_SPS : AVC_NAL_SPS);
+  }
+
+  byte[] pps() {
+    return parameterSet(isHevc() ? HEVC_NAL_PPS : AVC_NAL_PPS);
+  }
+
+  @Override public String toString() {
+    return mimeType + " " + width + " x " + height + " (" + parameterSets.size()
+        + " parameter sets)";
+  }
+}
@@ -0,0 +1,163 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.view.Surface;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import timber.log.Timber;
+
+import static android.media.MediaCodec.BUFFER_FLAG_END_OF_STREAM;
+import static android.media.MediaCodec.CONFIGURE_FLAG_ENCODE;
+import static android.media.MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface;
+import static com.jakewharton.telecine.EncoderCapabilities.MIME_TYPE_AVC;
+
+/**
+ * Re-encodes a recording to the smaller size and bit rate of a {@link ShareTarget}. Frames are
+ * decoded to a surface, scaled by a {@link FrameScaler} and encoded from a surface, so they are
+ * never copied through the CPU. All work happens on the calling thread.
+ */
+final class Transcoder {
+  interface ProgressListener {
+    /** Called on the transcoding thread each time another percent of the input is encoded. */
+    void onProgress(int percent);
+  }
+
+  private static final int I_FRAME_INTERVAL = 2; // seconds
+  private static final long DEQUEUE_TIMEOUT_US = 10000;
+  /** A rendered frame which takes longer than this to arrive is never going to. */
+  private static final long FRAME_TIMEOUT_MS = 2500;
+
+  private Transcoder() {
+    throw new AssertionError("No instances.");
+  }
+
+  /** Transcode {@code input} to {@code output} and stop it. The caller must release it. */
+  static ShareTarget transcode(File input, SampleWriter output, ProgressListener listener)
+      throws IOException {
+    MediaExtractor extractor = new MediaExtractor();
+    MediaCodec decoder = null;
+    MediaCodec encoder = null;
+    Surface encoderSurface = null;
+    FrameScaler scaler = null;
+    try {
+      extractor.setDataSource(input.getPath());
+      MediaFormat inputFormat = Remuxer.selectVideoTrack(extractor, input);
+      long durationUs = Remuxer.durationUs(extractor, inputFormat);
+      if (durationUs <= 0) {
+        throw new IOException("No samples in " + input);
+      }
+      int frameRate = inputFormat.containsKey(MediaFormat.KEY_FRAME_RATE)
+          ? inputFormat.getInteger(MediaFormat.KEY_FRAME_RATE)
+          : Encoder.FRAME_RATE;
+      ShareTarget target = ShareTarget.forRecording(inputFormat.getInteger(MediaFormat.KEY_WIDTH),
+          inputFormat.getInteger(MediaFormat.KEY_HEIGHT), frameRate, durationUs);
+      Timber.d("Transcoding '%s' to %s.", input, target);
+
+      MediaFormat outputFormat =
+          MediaFormat.createVideoFormat(MIME_TYPE_AVC, target.width, target.height);
+      outputFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, COLOR_FormatSurface);
+      outputFormat.setInteger(MediaFormat.KEY_BIT_RATE, target.bitRate);
+      outputFormat.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+      outputFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
+      encoder = MediaCodec.createEncoderByType(MIME_TYPE_AVC);
+      encoder.configure(outputFormat, null, null, CONFIGURE_FLAG_ENCODE);
+      encoderSurface = encoder.createInputSurface();
+      scaler = new FrameScaler(encoderSurface, target.width, target.height);
+      encoder.start();
+
+      decoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+      decoder.configure(inputFormat, scaler.getInputSurface(), null, 0);
+      decoder.start();
+
+      pump(extractor, decoder, scaler, encoder, output, durationUs, listener);
+      output.stop();
+      return target;
+    } finally {
+      if (decoder != null) {
+        decoder.release();
+      }
+      if (scaler != null) {
+        scaler.release();
+      }
+      if (encoder != null) {
+        encoder.release();
+      }
+      if (encoderSurface != null) {
+        encoderSurface.release();
+      }
+      extractor.release();
+    }
+  }
+
+  /** Move every sample from the extractor through the codecs to the output. */
+  private static void pump(MediaExtractor extractor, MediaCodec decoder, FrameScaler scaler,
+      MediaCodec encoder, final SampleWriter output, final long durationUs,
+      final ProgressListener listener) throws IOException {
+    MediaCodec.BufferInfo decoderInfo = new MediaCodec.BufferInfo();
+    EncoderOutput encoderOutput = new EncoderOutput(encoder, new EncoderOutput.Sink() {
+      private int percent = -1;
+
+      @Override public void onFormat(MediaFormat format) throws IOException {
+        output.start(format);
+      }
+
+      @Override public void onSample(ByteBuffer data, long presentationTimeUs, boolean keyFrame)
+          throws IOException {
+        output.writeSample(data, presentationTimeUs, keyFrame);
+
+        int newPercent = (int) Math.min(100, presentationTimeUs * 100 / durationUs);
+        if (newPercent != percent) {
+          percent = newPercent;
+          listener.onProgress(percent);
+        }
+      }
+    });
+    boolean inputDone = false;
+    boolean decoderDone = false;
+
+    while (true) {
+      if (!inputDone) {
+        int index = decoder.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+        if (index >= 0) {
+          ByteBuffer buffer = decoder.getInputBuffer(index);
+          int size = extractor.readSampleData(buffer, 0);
+          if (size < 0) {
+            decoder.queueInputBuffer(index, 0, 0, 0, BUFFER_FLAG_END_OF_STREAM);
+            inputDone = true;
+          } else {
+            decoder.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+            extractor.advance();
+          }
+        }
+      }
+
+      if (!decoderDone) {
+        int index = decoder.dequeueOutputBuffer(decoderInfo, DEQUEUE_TIMEOUT_US);
+        if (index >= 0) {
+          boolean render = decoderInfo.size > 0;
+          decoder.releaseOutputBuffer(index, render);
+          if (render) {
+            if (!scaler.awaitFrame(FRAME_TIMEOUT_MS)) {
+              throw new IOException("Decoded frame never arrived.");
+            }
+            scaler.drawFrame(decoderInfo.presentationTimeUs * 1000);
+          }
+          if ((decoderInfo.flags & BUFFER_FLAG_END_OF_STREAM) != 0) {
+            encoder.signalEndOfInputStream();
+            decoderDone = true;
+          }
+        }
+      }
+
+      if (encoderOutput.drain(decoderDone ? DEQUEUE_TIMEOUT_US : 0)) {
+        if (!encoderOutput.started()) {
+          throw new IOException("Encoder produced no output.");
+        }
+        return;
+      }
+    }
+  }
+}
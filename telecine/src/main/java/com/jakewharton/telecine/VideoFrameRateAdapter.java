@@ -0,0 +1,69 @@
+package com.jakewharton.telecine;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+final class VideoFrameRateAdapter extends BaseAdapter {
+  public static int getSelectedPosition(int value) {
+    switch (value) {
+      case 30:
+        return 0;
+      case 60:
+        return 1;
+      case 90:
+        return 2;
+      case 120:
+        return 3;
+      default:
+        return 0;
+    }
+  }
+
+  private final Context context;
+  private final LayoutInflater inflater;
+
+  VideoFrameRateAdapter(Context context) {
+    this.context = context;
+    inflater = LayoutInflater.from(context);
+  }
+
+  @Override public int getCount() {
+    return 4;
+  }
+
+  @Override public Integer getItem(int position) {
+    switch (position) {
+      case 0:
+        return 30;
+      case 1:
+        return 60;
+      case 2:
+        return 90;
+      case 3:
+        return 120;
+      default:
+        throw new IllegalArgumentException("Unknown position: " + position);
+    }
+  }
+
+  @Override public long getItemId(int position) {
+    return position;
+  }
+
+  @Override public View getView(int position, View convertView, @NonNull ViewGroup parent) {
+    TextView tv = (TextView) convertView;
+    if (tv == null) {
+      tv =
+          (TextView) inflater.inflate(android.R.layout.simple_spinner_dropdown_item, parent, false);
+    }
+
+    tv.setText(context.getString(R.string.video_frame_rate_fps, getItem(position)));
+
+    return tv;
+  }
+}
@@ -0,0 +1,123 @@
+package com.jakewharton.telecine;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class BitRateGovernorTest {
+  private static final int TARGET = 4000000;
+  private static final int FRAME_RATE = 30;
+  private static final long FRAME_US = 1000000 / FRAME_RATE;
+
+  private final List<Integer> changes = new ArrayList<>();
+  private final BitRateGovernor governor =
+      new BitRateGovernor(TARGET, FRAME_RATE, new BitRateGovernor.Listener() {
+        @Override public void onBitRateChanged(long timeUs, int bitRate, long latencyUs) {
+          changes.add(bitRate);
+        }
+      });
+  private long nowUs;
+
+  /** Feed {@code seconds} of frames, each output {@code latencyUs} after it was captured. */
+  private void run(double seconds, long latencyUs) {
+    long endUs = nowUs + (long) (seconds * 1000000);
+    while (nowUs < endUs) {
+      nowUs += FRAME_US;
+      governor.onFrameEncoded(nowUs, nowUs - latencyUs);
+    }
+  }
+
+  @Test public void keepingUpLeavesTarget() {
+    run(30, FRAME_US / 2);
+    assertThat(changes).isEmpty();
+    assertThat(governor.bitRate()).isEqualTo(TARGET);
+  }
+
+  @Test public void singleSlowFrameIgnored() {
+    run(1, FRAME_US / 2);
+    governor.onFrameEncoded(nowUs += FRAME_US, nowUs - 8 * FRAME_US);
+    run(1, FRAME_US / 2);
+    assertThat(changes).isEmpty();
+  }
+
+  @Test public void fallingBehindCutsOncePerCooldown() {
+    run(1, FRAME_US / 2);
+    run(2.5, 6 * FRAME_US);
+    // One cut once the smoothed latency crosses the high water mark, then one per second.
+    assertThat(changes).containsExactly(3000000, 2250000, 1687500).inOrder();
+  }
+
+  @Test public void cutsStopAtMinimum() {
+    run(30, 10 * FRAME_US);
+    assertThat(governor.bitRate()).isEqualTo((int) (TARGET * BitRateGovernor.MIN_FRACTION));
+    int last = changes.get(changes.size() - 1);
+    assertThat(last).isEqualTo(governor.bitRate());
+  }
+
+  @Test public void recoversSlowlyToTarget() {
+    run(1, FRAME_US / 2);
+    run(0.5, 6 * FRAME_US);
+    assertThat(changes).containsExactly(3000000);
+
+    run(4.5, FRAME_US / 2);
+    assertThat(changes).hasSize(1); // Not yet keeping up for long enough.
+    run(1, FRAME_US / 2);
+    assertThat(changes).containsExactly(3000000, 3300000).inOrder();
+
+    run(30, FRAME_US / 2);
+    assertThat(governor.bitRate()).isEqualTo(TARGET);
+    assertThat(changes.get(changes.size() - 1)).isEqualTo(TARGET);
+  }
+
+  @Test public void moderateLatencyHolds() {
+    run(1, FRAME_US / 2);
+    run(0.5, 6 * FRAME_US);
+    changes.clear();
+    // Between the water marks: neither cut nor raised.
+    run(30, 2 * FRAME_US);
+    assertThat(changes).isEmpty();
+    assertThat(governor.bitRate()).isEqualTo(3000000);
+  }
+
+  /**
+   * Feed {@code seconds} of time-lapse samples, one a second, of a display last rendered at
+   * {@code renderedUs}. Each is output {@code latencyUs} after being drawn to the encoder and is
+   * stamped as {@link TimeLapseEncoder} would, or with when its frame was rendered if
+   * {@code stampRendered}.
+   */
+  private void runTimeLapse(int seconds, long renderedUs, long latencyUs, boolean stampRendered) {
+    for (int i = 0; i < seconds; i++) {
+      nowUs += 1000000;
+      long drawnUs = nowUs - latencyUs;
+      governor.onFrameEncoded(nowUs, stampRendered ? renderedUs : drawnUs);
+    }
+  }
+
+  @Test public void staleTimeLapseSamplesHold() {
+    runTimeLapse(30, 0, FRAME_US / 2, false);
+    assertThat(changes).isEmpty();
+    assertThat(governor.bitRate()).isEqualTo(TARGET);
+  }
+
+  @Test public void staleTimeLapseSamplesStampedWhenRenderedCut() {
+    // The age of a frame from a still display is not encoder latency.
+    runTimeLapse(30, 0, FRAME_US / 2, true);
+    assertThat(governor.bitRate()).isEqualTo((int) (TARGET * BitRateGovernor.MIN_FRACTION));
+  }
+
+  @Test public void queueDepthEstimate() {
+    run(2, 2 * FRAME_US);
+    assertThat(Math.round(governor.queueDepth())).isEqualTo(2);
+  }
+
+  @Test public void invalidTargetRejected() {
+    try {
+      new BitRateGovernor(0, 30, null);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
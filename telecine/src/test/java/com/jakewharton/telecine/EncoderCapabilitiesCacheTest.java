@@ -0,0 +1,98 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class EncoderCapabilitiesCacheTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final RecordingProber prober = new RecordingProber();
+
+  @Test public void probesOnceAndPersists() throws Exception {
+    File file = new File(temporaryFolder.getRoot(), "cache");
+    EncoderCapabilitiesCache cache = new EncoderCapabilitiesCache(file, "build/1", prober);
+    EncoderCapabilities first = cache.get("video/avc");
+    EncoderCapabilities second = cache.get("video/avc");
+    assertThat(second).isSameAs(first);
+    assertThat(prober.probed).containsExactly("video/avc");
+    assertThat(file.exists()).isTrue();
+
+    EncoderCapabilitiesCache reloaded = new EncoderCapabilitiesCache(file, "build/1", prober);
+    EncoderCapabilities loaded = reloaded.get("video/avc");
+    assertThat(prober.probed).containsExactly("video/avc");
+    assertThat(loaded.mimeType).isEqualTo("video/avc");
+    assertThat(loaded.codecName).isEqualTo("OMX.test.video/avc");
+    assertThat(loaded.maxWidth).isEqualTo(4096);
+    assertThat(loaded.maxHeight).isEqualTo(2176);
+    assertThat(loaded.maxArea).isEqualTo(4096 * 2176);
+    assertThat(loaded.widthAlignment).isEqualTo(16);
+    assertThat(loaded.heightAlignment).isEqualTo(32);
+    assertThat(loaded.maxFrameRate).isEqualTo(120);
+    assertThat(loaded.maxPixelRate).isEqualTo(4096L * 2176 * 60);
+  }
+
+  @Test public void missingEncoderIsRemembered() {
+    File file = new File(temporaryFolder.getRoot(), "cache");
+    EncoderCapabilitiesCache cache = new EncoderCapabilitiesCache(file, "build/1", prober);
+    assertThat(cache.get("video/hevc")).isNull();
+    assertThat(cache.get("video/hevc")).isNull();
+
+    EncoderCapabilitiesCache reloaded = new EncoderCapabilitiesCache(file, "build/1", prober);
+    assertThat(reloaded.get("video/hevc")).isNull();
+    assertThat(prober.probed).containsExactly("video/hevc");
+  }
+
+  @Test public void typesAccumulate() {
+    File file = new File(temporaryFolder.getRoot(), "cache");
+    EncoderCapabilitiesCache cache = new EncoderCapabilitiesCache(file, "build/1", prober);
+    cache.get("video/avc");
+    cache.get("video/hevc");
+
+    EncoderCapabilitiesCache reloaded = new EncoderCapabilitiesCache(file, "build/1", prober);
+    assertThat(reloaded.get("video/avc")).isNotNull();
+    assertThat(reloaded.get("video/hevc")).isNull();
+    assertThat(prober.probed).containsExactly("video/avc", "video/hevc").inOrder();
+  }
+
+  @Test public void fingerprintChangeInvalidates() {
+    File file = new File(temporaryFolder.getRoot(), "cache");
+    new EncoderCapabilitiesCache(file, "build/1", prober).get("video/avc");
+    new EncoderCapabilitiesCache(file, "build/2", prober).get("video/avc");
+    assertThat(prober.probed).containsExactly("video/avc", "video/avc").inOrder();
+
+    // The new build's results replaced the old ones.
+    new EncoderCapabilitiesCache(file, "build/2", prober).get("video/avc");
+    assertThat(prober.probed).hasSize(2);
+  }
+
+  @Test public void corruptFileIsReprobed() throws Exception {
+    File file = temporaryFolder.newFile("cache");
+    FileOutputStream out = new FileOutputStream(file);
+    out.write("build/1\nvideo/avc\tgarbage\n".getBytes("UTF-8"));
+    out.close();
+    EncoderCapabilitiesCache cache = new EncoderCapabilitiesCache(file, "build/1", prober);
+    assertThat(cache.get("video/avc")).isNotNull();
+    assertThat(prober.probed).containsExactly("video/avc");
+  }
+
+  /** Reports a 4K encoder for H.264 and nothing else. */
+  static final class RecordingProber implements EncoderCapabilitiesCache.Prober {
+    final List<String> probed = new ArrayList<>();
+
+    @Override public EncoderCapabilities probe(String mimeType) {
+      probed.add(mimeType);
+      if (!mimeType.equals("video/avc")) {
+        return null;
+      }
+      return new EncoderCapabilities(mimeType, "OMX.test." + mimeType, 4096, 2176, 4096 * 2176,
+          16, 32, 120, 4096L * 2176 * 60);
+    }
+  }
+}
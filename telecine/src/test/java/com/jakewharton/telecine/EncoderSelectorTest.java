@@ -0,0 +1,150 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import javax.inject.Provider;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.EncoderCapabilities.MIME_TYPE_AVC;
+import static com.jakewharton.telecine.EncoderCapabilities.MIME_TYPE_HEVC;
+import static com.jakewharton.telecine.RecordingSession.RecordingInfo;
+
+public final class EncoderSelectorTest {
+  private static final RecordingInfo AVC_INFO =
+      new RecordingInfo(1072, 1920, 160, 30, 4939776, MIME_TYPE_AVC);
+  private static final RecordingInfo HEVC_INFO =
+      new RecordingInfo(1072, 1920, 160, 30, 2963866, MIME_TYPE_HEVC);
+  private static final String OUTPUT_FILE = "out.mp4";
+
+  private final List<FakeEncoder> created = new ArrayList<>();
+  private final List<SampleWriter.Factory> writers = new ArrayList<>();
+  private final List<Long> keepAlives = new ArrayList<>();
+  private final List<FakeEncoder> fallbacks = new ArrayList<>();
+  private String rejectedMimeType;
+  private boolean crashSafe;
+  private int segmentMinutes;
+
+  private final Encoder.Factory factory = new Encoder.Factory() {
+    @Override public Encoder create(Encoder.Listener listener,
+        BitRateGovernor.Listener bitRateListener, SampleWriter.Factory writers,
+        CodecPool codecPool, long keepAliveUs) {
+      FakeEncoder encoder = new FakeEncoder(listener, 30, 1, 30).reject(rejectedMimeType);
+      created.add(encoder);
+      EncoderSelectorTest.this.writers.add(writers);
+      keepAlives.add(keepAliveUs);
+      return encoder;
+    }
+
+    @Override public Encoder createFallback() {
+      FakeEncoder encoder = new FakeEncoder(Encoder.Listener.NONE, 30, 1, 30);
+      fallbacks.add(encoder);
+      return encoder;
+    }
+  };
+
+  private final EncoderSelector selector =
+      new EncoderSelector(factory, new CodecPool(), new File("journals"), null,
+          new Provider<Boolean>() {
+            @Override public Boolean get() {
+              return crashSafe;
+            }
+          }, new Provider<Integer>() {
+            @Override public Integer get() {
+              return segmentMinutes;
+            }
+          }, constant(2), constant(0), constant(false));
+  private final RecordingMetrics metrics = new RecordingMetrics();
+
+  @Test public void preparesCodecEncoder() {
+    Encoder encoder = selector.prepare(AVC_INFO, AVC_INFO, 0, metrics, OUTPUT_FILE);
+
+    assertThat(encoder).isSameAs(created.get(0));
+    assertThat(created.get(0).info()).isSameAs(AVC_INFO);
+    assertThat(created.get(0).outputFile()).isEqualTo(OUTPUT_FILE);
+    assertThat(keepAlives).containsExactly(2000000L);
+    assertThat(fallbacks).isEmpty();
+    assertThat(selector.recordingInfo()).isSameAs(AVC_INFO);
+    assertThat(selector.codecFallback()).isFalse();
+    assertThat(selector.replay()).isFalse();
+    assertThat(selector.segmented()).isFalse();
+    assertThat(selector.timeLapseSpeedup()).isEqualTo(1);
+  }
+
+  @Test public void replayKeepsTheEnd() {
+    Encoder encoder = selector.prepare(AVC_INFO, AVC_INFO, 10, metrics, OUTPUT_FILE);
+
+    assertThat(encoder).isSameAs(created.get(0));
+    assertThat(selector.replay()).isTrue();
+  }
+
+  @Test public void crashSafeRecordingIsFragmented() {
+    crashSafe = true;
+    selector.prepare(AVC_INFO, AVC_INFO, 0, metrics, OUTPUT_FILE);
+
+    assertThat(writers).containsExactly(FragmentedMp4Writer.FACTORY);
+  }
+
+  @Test public void framesAreReportedToMetrics() {
+    Encoder encoder = selector.prepare(AVC_INFO, AVC_INFO, 0, metrics, OUTPUT_FILE);
+    encoder.start();
+    while (created.get(0).framesEncoded() < 2) {
+      Thread.yield();
+    }
+    encoder.stop();
+
+    assertThat(metrics.frames()).isAtLeast(2);
+  }
+
+  @Test public void unsupportedCodecFallsBackToAvc() {
+    rejectedMimeType = MIME_TYPE_HEVC;
+    Encoder encoder = selector.prepare(HEVC_INFO, AVC_INFO, 0, metrics, OUTPUT_FILE);
+
+    assertThat(created).hasSize(2);
+    assertThat(encoder).isSameAs(created.get(1));
+    assertThat(created.get(1).info()).isSameAs(AVC_INFO);
+    assertThat(selector.recordingInfo()).isSameAs(AVC_INFO);
+    assertThat(selector.codecFallback()).isTrue();
+  }
+
+  @Test public void unsupportedAvcFallsBackToFallback() {
+    rejectedMimeType = MIME_TYPE_AVC;
+    segmentMinutes = 5;
+    Encoder encoder = selector.prepare(AVC_INFO, AVC_INFO, 0, metrics, OUTPUT_FILE);
+
+    assertThat(fallbacks).hasSize(1);
+    assertThat(encoder).isSameAs(fallbacks.get(0));
+    assertThat(fallbacks.get(0).info()).isSameAs(AVC_INFO);
+    assertThat(fallbacks.get(0).outputFile()).isEqualTo(OUTPUT_FILE);
+    // The fallback writes a single file of every frame.
+    assertThat(selector.segmented()).isFalse();
+    assertThat(selector.replay()).isFalse();
+  }
+
+  @Test public void replayIsNotSegmented() {
+    segmentMinutes = 5;
+    selector.prepare(AVC_INFO, AVC_INFO, 10, metrics, OUTPUT_FILE);
+
+    assertThat(selector.replay()).isTrue();
+    assertThat(selector.segmented()).isFalse();
+  }
+
+  @Test public void eachRecordingStartsOver() {
+    segmentMinutes = 5;
+    selector.prepare(AVC_INFO, AVC_INFO, 0, metrics, OUTPUT_FILE);
+    assertThat(selector.segmented()).isTrue();
+
+    segmentMinutes = 0;
+    selector.prepare(AVC_INFO, AVC_INFO, 0, metrics, OUTPUT_FILE);
+    assertThat(selector.segmented()).isFalse();
+  }
+
+  private static <T> Provider<T> constant(final T value) {
+    return new Provider<T>() {
+      @Override public T get() {
+        return value;
+      }
+    };
+  }
+}
@@ -0,0 +1,124 @@
+package com.jakewharton.telecine;
+
+import android.view.Surface;
+import com.jakewharton.telecine.RecordingSession.RecordingInfo;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link Encoder} which produces fixed-size frames on its own thread, as fast as it is able,
+ * with timestamps spaced at {@code frameRate} as if they came from a real display.
+ */
+final class FakeEncoder implements Encoder {
+  private final Listener listener;
+  private final int frameRate;
+  private final int frameSize;
+  private final int keyFrameInterval;
+
+  private volatile boolean prepared;
+  private volatile boolean stopped;
+  private volatile int bitRate;
+  private volatile int framesEncoded;
+  private volatile String outputFile;
+  private volatile RecordingInfo info;
+  private volatile String rejectedMimeType;
+  private Thread thread;
+
+  FakeEncoder(Listener listener, int frameRate, int frameSize, int keyFrameInterval) {
+    this.listener = listener;
+    this.frameRate = frameRate;
+    this.frameSize = frameSize;
+    this.keyFrameInterval = keyFrameInterval;
+  }
+
+  @Override public void prepare(RecordingInfo info, String outputFile) throws IOException {
+    if (prepared) {
+      throw new IllegalStateException("Already prepared.");
+    }
+    if (info.mimeType.equals(rejectedMimeType)) {
+      throw new IOException("Unsupported codec: " + info.mimeType);
+    }
+    this.info = info;
+    this.outputFile = outputFile;
+    this.bitRate = info.bitRate;
+    prepared = true;
+  }
+
+  @Override public Surface getInputSurface() {
+    if (!prepared) {
+      throw new IllegalStateException("Not prepared.");
+    }
+    return null; // Frames are synthesized rather than drawn.
+  }
+
+  @Override public void start() {
+    if (!prepared || thread != null) {
+      throw new IllegalStateException("Not prepared or already started.");
+    }
+    thread = new Thread(new Runnable() {
+      @Override public void run() {
+        long frameIntervalUs = TimeUnit.SECONDS.toMicros(1) / frameRate;
+        for (int frame = 0; !stopped; frame++) {
+          listener.onFrameEncoded(frame * frameIntervalUs, frameSize,
+              frame % keyFrameInterval == 0);
+          framesEncoded = frame + 1;
+          Thread.yield();
+        }
+      }
+    }, "fake-encoder");
+    thread.start();
+  }
+
+  @Override public void stop() {
+    if (thread == null || stopped) {
+      throw new IllegalStateException("Not started or already stopped.");
+    }
+    stopped = true;
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override public void release() {
+    prepared = false;
+  }
+
+  @Override public boolean setVideoBitRate(int bitRate) {
+    if (!prepared) {
+      throw new IllegalStateException("Not prepared.");
+    }
+    this.bitRate = bitRate;
+    return true;
+  }
+
+  @Override public boolean pause() {
+    return false;
+  }
+
+  @Override public void resume() {
+  }
+
+  /** Fail to prepare for recordings of {@code mimeType}, as if no encoder supported it. */
+  FakeEncoder reject(String mimeType) {
+    rejectedMimeType = mimeType;
+    return this;
+  }
+
+  RecordingInfo info() {
+    return info;
+  }
+
+  String outputFile() {
+    return outputFile;
+  }
+
+  int bitRate() {
+    return bitRate;
+  }
+
+  int framesEncoded() {
+    return framesEncoded;
+  }
+}
@@ -0,0 +1,245 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.EncoderCapabilities.MIME_TYPE_AVC;
+import static com.jakewharton.telecine.EncoderCapabilities.MIME_TYPE_HEVC;
+
+public final class FragmentedMp4WriterTest {
+  private static final byte[] SPS = { 0x67, 0x42, (byte) 0xc0, 0x1f, 0x11, 0x22 };
+  private static final byte[] PPS = { 0x68, (byte) 0xce, 0x3c, (byte) 0x80 };
+  private static final TrackFormat FORMAT =
+      new TrackFormat(MIME_TYPE_AVC, 1072, 1920, Arrays.asList(SPS, PPS));
+  /** 25fps is a whole number of both microseconds and 90kHz ticks. */
+  private static final long FRAME_US = 40000;
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File file;
+
+  @Before public void setUp() throws IOException {
+    file = temporaryFolder.newFile("out.mp4");
+  }
+
+  @Test public void headerDescribesTrackWithoutSamples() throws IOException {
+    FragmentedMp4Writer writer = new FragmentedMp4Writer(file.getPath());
+    writer.start(FORMAT);
+    writer.stop();
+
+    List<Mp4Box> boxes = Mp4Box.parse(file);
+    assertThat(Mp4Box.types(boxes)).containsExactly("ftyp", "moov").inOrder();
+    assertThat(boxes.get(0).fourCcAt(0)).isEqualTo("isom");
+
+    Mp4Box moov = boxes.get(1);
+    assertThat(Mp4Box.types(moov.children())).containsExactly("mvhd", "trak", "mvex").inOrder();
+    assertThat(moov.find("mvex", "trex").u32(4)).isEqualTo(1); // track_ID
+
+    Mp4Box tkhd = moov.find("trak", "tkhd");
+    assertThat(tkhd.u32(tkhd.size() - 8)).isEqualTo(1072 << 16);
+    assertThat(tkhd.u32(tkhd.size() - 4)).isEqualTo(1920 << 16);
+    assertThat(moov.find("trak", "mdia", "mdhd").u32(12)).isEqualTo(90000);
+    assertThat(moov.find("trak", "mdia", "hdlr").fourCcAt(8)).isEqualTo("vide");
+
+    Mp4Box stbl = moov.find("trak", "mdia", "minf", "stbl");
+    assertThat(Mp4Box.types(stbl.children()))
+        .containsExactly("stsd", "stts", "stsc", "stsz", "stco")
+        .inOrder();
+    assertThat(stbl.find("stts").u32(4)).isEqualTo(0);
+
+    // stsd is a full box with an entry count, followed by the avc1 sample entry.
+    Mp4Box stsd = stbl.find("stsd");
+    Mp4Box avc1 = Mp4Box.parse(stsd.payload, 8, stsd.payload.length).get(0);
+    assertThat(avc1.type).isEqualTo("avc1");
+    assertThat(avc1.u16(24)).isEqualTo(1072);
+    assertThat(avc1.u16(26)).isEqualTo(1920);
+    Mp4Box avcC = Mp4Box.parse(avc1.payload, 78, avc1.payload.length).get(0);
+    assertThat(avcC.type).isEqualTo("avcC");
+    assertThat(avcC.u8(1)).isEqualTo(0x42); // Profile from the SPS.
+    assertThat(avcC.u8(3)).isEqualTo(0x1f); // Level from the SPS.
+    assertThat(avcC.u8(4) & 0x3).isEqualTo(3); // Four byte NAL lengths.
+    assertThat(avcC.u8(5) & 0x1f).isEqualTo(1);
+    assertThat(avcC.u16(6)).isEqualTo(SPS.length);
+    assertThat(avcC.bytes(8, SPS.length)).isEqualTo(SPS);
+    assertThat(avcC.u8(8 + SPS.length)).isEqualTo(1);
+    assertThat(avcC.u16(9 + SPS.length)).isEqualTo(PPS.length);
+    assertThat(avcC.bytes(11 + SPS.length, PPS.length)).isEqualTo(PPS);
+  }
+
+  @Test public void onlyH264ClaimsTheAvcBrand() {
+    assertThat(compatibleBrands(FORMAT))
+        .containsExactly("isom", "iso2", "iso5", "avc1", "mp41")
+        .inOrder();
+    TrackFormat hevc = new TrackFormat(MIME_TYPE_HEVC, 1072, 1920, Arrays.<byte[]>asList());
+    assertThat(compatibleBrands(hevc)).containsExactly("isom", "iso2", "iso5", "mp41").inOrder();
+  }
+
+  @Test public void fragmentsStartOnKeyFramesAfterDuration() throws IOException {
+    FragmentedMp4Writer writer = new FragmentedMp4Writer(file.getPath(), 1000000);
+    writer.start(FORMAT);
+    // 90 frames with a key frame every 0.8s: fragments are cut at the key frames of 1.6s and 3.2s.
+    for (int i = 0; i < 90; i++) {
+      writer.writeSample(annexB(i), 5000000 + i * FRAME_US, i % 20 == 0);
+    }
+    writer.stop();
+
+    List<Mp4Box> boxes = Mp4Box.parse(file);
+    assertThat(Mp4Box.types(boxes))
+        .containsExactly("ftyp", "moov", "moof", "mdat", "moof", "mdat", "moof", "mdat")
+        .inOrder();
+
+    assertFragment(boxes.get(2), boxes.get(3), 1, 0, 0, 40, 20);
+    assertFragment(boxes.get(4), boxes.get(5), 2, 40 * 3600, 40, 40, 20);
+    assertFragment(boxes.get(6), boxes.get(7), 3, 80 * 3600, 80, 10, 20);
+  }
+
+  @Test public void completedFragmentsSurviveWithoutStop() throws IOException {
+    FragmentedMp4Writer writer = new FragmentedMp4Writer(file.getPath(), 1000000);
+    writer.start(FORMAT);
+    for (int i = 0; i < 45; i++) {
+      writer.writeSample(annexB(i), i * FRAME_US, i % 30 == 0);
+    }
+    // The process dies here. Frames from the second key frame onward were only buffered.
+
+    List<Mp4Box> boxes = Mp4Box.parse(file);
+    assertThat(Mp4Box.types(boxes)).containsExactly("ftyp", "moov", "moof", "mdat").inOrder();
+    assertFragment(boxes.get(2), boxes.get(3), 1, 0, 0, 30, 30);
+    writer.release();
+  }
+
+  @Test public void lastSampleLastsAsLongAsThePrevious() throws IOException {
+    FragmentedMp4Writer writer = new FragmentedMp4Writer(file.getPath());
+    writer.start(FORMAT);
+    writer.writeSample(annexB(0), 0, true);
+    writer.writeSample(annexB(1), 50000, false);
+    writer.stop();
+
+    Mp4Box trun = Mp4Box.parse(file).get(2).find("traf", "trun");
+    assertThat(trun.u32(4)).isEqualTo(2);
+    assertThat(trun.u32(12)).isEqualTo(4500);
+    assertThat(trun.u32(24)).isEqualTo(4500);
+  }
+
+  @Test public void timeNeverRunsBackwards() throws IOException {
+    FragmentedMp4Writer writer = new FragmentedMp4Writer(file.getPath());
+    writer.start(FORMAT);
+    writer.writeSample(annexB(0), 100000, true);
+    writer.writeSample(annexB(1), 200000, false);
+    writer.writeSample(annexB(2), 150000, false);
+    writer.writeSample(annexB(3), 250000, false);
+    writer.stop();
+
+    Mp4Box trun = Mp4Box.parse(file).get(2).find("traf", "trun");
+    assertThat(trun.u32(12)).isEqualTo(9000);
+    assertThat(trun.u32(24)).isEqualTo(0);
+    assertThat(trun.u32(36)).isEqualTo(4500);
+  }
+
+  @Test public void annexBIsConvertedToLengthPrefixed() {
+    ByteBuffer sample = ByteBuffer.wrap(new byte[] {
+        0, 0, 0, 1, 0x09, (byte) 0xf0, // Four byte start code.
+        0, 0, 1, 0x65, 1, 2, 3, // Three byte start code.
+    });
+    sample.position(0);
+    BoxWriter out = new BoxWriter();
+    int written = NalUnits.writeLengthPrefixed(sample, out);
+
+    assertThat(written).isEqualTo(14);
+    assertThat(out.toByteArray()).isEqualTo(new byte[] {
+        0, 0, 0, 2, 0x09, (byte) 0xf0,
+        0, 0, 0, 4, 0x65, 1, 2, 3,
+    });
+    assertThat(sample.position()).isEqualTo(0);
+  }
+
+  @Test public void dataWithoutStartCodeIsOneNalUnit() {
+    ByteBuffer sample = ByteBuffer.wrap(new byte[] { 9, 8, 7, 0x65, 0x10 });
+    sample.position(1);
+    BoxWriter out = new BoxWriter();
+    NalUnits.writeLengthPrefixed(sample, out);
+
+    assertThat(out.toByteArray()).isEqualTo(new byte[] { 0, 0, 0, 4, 8, 7, 0x65, 0x10 });
+  }
+
+  /**
+   * Assert that {@code moof} describes {@code count} samples starting at frame {@code first}
+   * which live in {@code mdat}, with a key frame every {@code keyFrameInterval} frames.
+   */
+  private static void assertFragment(Mp4Box moof, Mp4Box mdat, int sequence, long baseTicks,
+      int first, int count, int keyFrameInterval) {
+    assertThat(moof.find("mfhd").u32(4)).isEqualTo(sequence);
+    assertThat(moof.find("traf", "tfhd").u32(0) & 0x020000).isNotEqualTo(0);
+    Mp4Box tfdt = moof.find("traf", "tfdt");
+    assertThat(tfdt.u8(0)).isEqualTo(1);
+    assertThat(tfdt.u64(4)).isEqualTo(baseTicks);
+
+    Mp4Box trun = moof.find("traf", "trun");
+    assertThat(trun.u32(4)).isEqualTo(count);
+    // The data offset is relative to the start of the moof and must land on the mdat payload.
+    assertThat(moof.offset + trun.u32(8)).isEqualTo(mdat.offset + 8);
+
+    int dataOffset = 0;
+    for (int i = 0; i < count; i++) {
+      int entry = 12 + i * 12;
+      int frame = first + i;
+      assertThat(trun.u32(entry)).isEqualTo(3600); // 1/25s in 90kHz ticks.
+      byte[] expected = lengthPrefixed(frame);
+      assertThat(trun.u32(entry + 4)).isEqualTo(expected.length);
+      assertThat(trun.u32(entry + 8))
+          .isEqualTo(frame % keyFrameInterval == 0 ? 0x02000000 : 0x01010000);
+      assertThat(mdat.bytes(dataOffset, expected.length)).isEqualTo(expected);
+      dataOffset += expected.length;
+    }
+    assertThat(dataOffset).isEqualTo(mdat.payload.length);
+  }
+
+  /** An access unit delimiter and a slice whose size and content vary with {@code frame}. */
+  private static ByteBuffer annexB(int frame) {
+    byte[] slice = slice(frame);
+    ByteBuffer buffer = ByteBuffer.allocate(6 + 4 + slice.length + 2);
+    buffer.put((byte) 0xff); // Junk before the sample, excluded by position.
+    buffer.put(new byte[] { 0, 0, 0, 1, 0x09, (byte) 0xf0 });
+    buffer.put(new byte[] { 0, 0, 1 });
+    buffer.put(slice);
+    buffer.flip();
+    buffer.position(1);
+    return buffer;
+  }
+
+  private static byte[] lengthPrefixed(int frame) {
+    byte[] slice = slice(frame);
+    ByteBuffer buffer = ByteBuffer.allocate(6 + 4 + slice.length);
+    buffer.putInt(2).put((byte) 0x09).put((byte) 0xf0);
+    buffer.putInt(slice.length).put(slice);
+    return buffer.array();
+  }
+
+  private static byte[] slice(int frame) {
+    byte[] slice = new byte[3 + frame % 7];
+    slice[0] = (byte) (frame % 20 == 0 ? 0x65 : 0x41);
+    for (int i = 1; i < slice.length; i++) {
+      slice[i] = (byte) (frame + i);
+    }
+    return slice;
+  }
+
+  private static List<String> compatibleBrands(TrackFormat format) {
+    BoxWriter header = new BoxWriter();
+    Mp4Headers.writeFtyp(header, format);
+    Mp4Box ftyp = Mp4Box.parse(header.toByteArray()).get(0);
+    List<String> brands = new ArrayList<>();
+    for (int offset = 8; offset < ftyp.payload.length; offset += 4) {
+      brands.add(ftyp.fourCcAt(offset));
+    }
+    return brands;
+  }
+}
@@ -0,0 +1,47 @@
+package com.jakewharton.telecine;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class KeepAliveTest {
+  private final KeepAlive keepAlive = new KeepAlive(2000000);
+
+  @Test public void nothingBeforeFirstFrame() {
+    assertThat(keepAlive.shouldRequestKeyFrame(10000000)).isFalse();
+  }
+
+  @Test public void changingScreenNeedsNoKeyFrame() {
+    for (long nowUs = 0; nowUs < 10000000; nowUs += 33333) {
+      keepAlive.onFrame(nowUs, false);
+      assertThat(keepAlive.shouldRequestKeyFrame(nowUs + 10000)).isFalse();
+    }
+  }
+
+  @Test public void idleRequestsOnceAfterHalfInterval() {
+    keepAlive.onFrame(0, false);
+    assertThat(keepAlive.shouldRequestKeyFrame(999999)).isFalse();
+    assertThat(keepAlive.shouldRequestKeyFrame(1000000)).isTrue();
+    assertThat(keepAlive.shouldRequestKeyFrame(1500000)).isFalse();
+    // A frame encoded before the request took effect does not satisfy it.
+    keepAlive.onFrame(1600000, false);
+    assertThat(keepAlive.shouldRequestKeyFrame(3000000)).isFalse();
+  }
+
+  @Test public void eachIdleStretchGetsKeyFrame() {
+    keepAlive.onFrame(0, false);
+    assertThat(keepAlive.shouldRequestKeyFrame(1000000)).isTrue();
+    keepAlive.onFrame(2000000, true); // The repeated frame.
+    assertThat(keepAlive.shouldRequestKeyFrame(2500000)).isFalse();
+    assertThat(keepAlive.shouldRequestKeyFrame(3000000)).isTrue();
+  }
+
+  @Test public void invalidIntervalRejected() {
+    try {
+      new KeepAlive(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.jakewharton.telecine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * A parsed MP4 box for asserting on the structure of files. Offsets into the payload exclude the
+ * box's header.
+ */
+final class Mp4Box {
+  static List<Mp4Box> parse(File file) throws IOException {
+    byte[] bytes = new byte[(int) file.length()];
+    try (InputStream in = new FileInputStream(file)) {
+      int read = 0;
+      while (read < bytes.length) {
+        read += in.read(bytes, read, bytes.length - read);
+      }
+    }
+    return parse(bytes);
+  }
+
+  static List<String> types(List<Mp4Box> boxes) {
+    List<String> types = new ArrayList<>();
+    for (Mp4Box box : boxes) {
+      types.add(box.type);
+    }
+    return types;
+  }
+
+  static List<Mp4Box> parse(byte[] data) {
+    return parse(data, 0, data.length);
+  }
+
+  static List<Mp4Box> parse(byte[] data, int start, int end) {
+    List<Mp4Box> boxes = new ArrayList<>();
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    int offset = start;
+    while (offset < end) {
+      long size = buffer.getInt(offset) & 0xffffffffL;
+      int headerSize = 8;
+      if (size == 1) {
+        size = buffer.getLong(offset + 8);
+        headerSize = 16;
+      }
+      assertThat(size).isAtLeast((long) headerSize);
+      assertThat(offset + size).isAtMost((long) end);
+      String type = new String(data, offset + 4, 4);
+      byte[] payload = Arrays.copyOfRange(data, offset + headerSize, (int) (offset + size));
+      boxes.add(new Mp4Box(type, offset, (int) (offset + size), payload));
+      offset += size;
+    }
+    return boxes;
+  }
+
+  final String type;
+  /** Position of the box's header, and of the first byte following the box. */
+  final int offset;
+  final int end;
+  final byte[] payload;
+
+  Mp4Box(String type, int offset, int end, byte[] payload) {
+    this.type = type;
+    this.offset = offset;
+    this.end = end;
+    this.payload = payload;
+  }
+
+  List<Mp4Box> children() {
+    return parse(payload);
+  }
+
+  /** Descend through nested container boxes by type. */
+  Mp4Box find(String... path) {
+    Mp4Box box = this;
+    for (String type : path) {
+      Mp4Box match = null;
+      for (Mp4Box child : box.children()) {
+        if (child.type.equals(type)) {
+          match = child;
+          break;
+        }
+      }
+      assertThat(match).named(type + " in " + box.type).isNotNull();
+      box = match;
+    }
+    return box;
+  }
+
+  int size() {
+    return payload.length;
+  }
+
+  int u8(int offset) {
+    return payload[offset] & 0xff;
+  }
+
+  int u16(int offset) {
+    return ByteBuffer.wrap(payload).getShort(offset) & 0xffff;
+  }
+
+  int u32(int offset) {
+    return ByteBuffer.wrap(payload).getInt(offset);
+  }
+
+  long u64(int offset) {
+    return ByteBuffer.wrap(payload).getLong(offset);
+  }
+
+  String fourCcAt(int offset) {
+    return new String(payload, offset, 4);
+  }
+
+  byte[] bytes(int offset, int length) {
+    return Arrays.copyOfRange(payload, offset, offset + length);
+  }
+}
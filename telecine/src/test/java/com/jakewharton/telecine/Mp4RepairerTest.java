@@ -0,0 +1,443 @@
+package com.jakewharton.telecine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.EncoderCapabilities.MIME_TYPE_AVC;
+import static com.jakewharton.telecine.EncoderCapabilities.MIME_TYPE_HEVC;
+
+public final class Mp4RepairerTest {
+  private static final byte[] SPS = sps(68, 120, 4); // 1088 x 1920 cropped to 1080 x 1920.
+  private static final byte[] PPS = { 0x68, (byte) 0xce, 0x3c, (byte) 0x80 };
+  private static final TrackFormat AVC =
+      new TrackFormat(MIME_TYPE_AVC, 1080, 1920, Arrays.asList(SPS, PPS));
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File file;
+  private File journalFile;
+
+  @Before public void setUp() throws IOException {
+    file = temporaryFolder.newFile("Telecine_test.mp4");
+    journalFile = new File(temporaryFolder.getRoot(), "Telecine_test.mp4.journal");
+  }
+
+  @Test public void repairsWithJournal() throws IOException {
+    Recording recording = new Recording(false);
+    long[] times = new long[10];
+    for (int i = 0; i < 10; i++) {
+      recording.avcSample(i % 5 == 0, 100 + i * 7);
+      times[i] = 1000000 + i * 40000L;
+    }
+    long dataEnd = recording.size();
+    recording.truncatedSample(500, 30);
+    recording.writeTo(file);
+    writeJournal(AVC, times);
+
+    assertThat(Mp4Repairer.inspect(file)).isEqualTo(Mp4Repairer.Status.NEEDS_REPAIR);
+    assertThat(repair()).isEqualTo(10);
+    assertThat(Mp4Repairer.inspect(file)).isEqualTo(Mp4Repairer.Status.COMPLETE);
+
+    List<Mp4Box> boxes = Mp4Box.parse(file);
+    assertThat(Mp4Box.types(boxes)).containsExactly("ftyp", "mdat", "moov").inOrder();
+    Mp4Box mdat = boxes.get(1);
+    assertThat(mdat.end).isEqualTo((int) dataEnd);
+
+    Mp4Box stbl = boxes.get(2).find("trak", "mdia", "minf", "stbl");
+    assertSizes(stbl, recording.sampleSizes);
+    assertThat(stbl.find("stss").u32(4)).isEqualTo(2);
+    assertThat(stbl.find("stss").u32(8)).isEqualTo(1);
+    assertThat(stbl.find("stss").u32(12)).isEqualTo(6);
+    // 40ms is 3600 ticks. The last sample repeats the duration before it.
+    Mp4Box stts = stbl.find("stts");
+    assertThat(stts.u32(4)).isEqualTo(1);
+    assertThat(stts.u32(8)).isEqualTo(10);
+    assertThat(stts.u32(12)).isEqualTo(3600);
+    // One chunk starting at the mdat payload, past its 16 byte header.
+    assertThat(stbl.find("stco").u32(8)).isEqualTo(mdat.offset + 16);
+
+    Mp4Box avc1 = Mp4Box.parse(stbl.find("stsd").payload, 8, stbl.find("stsd").size()).get(0);
+    assertThat(avc1.type).isEqualTo("avc1");
+    assertThat(avc1.u16(24)).isEqualTo(1080);
+    assertThat(avc1.u16(26)).isEqualTo(1920);
+
+    Mp4Box mdhd = boxes.get(2).find("trak", "mdia", "mdhd");
+    assertThat(mdhd.u32(16)).isEqualTo(36000);
+  }
+
+  @Test public void journalShorterThanRecordingContinuesLastDuration() throws IOException {
+    Recording recording = new Recording(false);
+    for (int i = 0; i < 6; i++) {
+      recording.avcSample(i == 0, 50);
+    }
+    recording.writeTo(file);
+    writeJournal(AVC, new long[] { 0, 20000, 40000, 100000 });
+
+    assertThat(repair()).isEqualTo(6);
+
+    Mp4Box stts = Mp4Box.parse(file).get(2).find("trak", "mdia", "minf", "stbl", "stts");
+    assertThat(stts.u32(4)).isEqualTo(2);
+    assertThat(stts.u32(8)).isEqualTo(2);
+    assertThat(stts.u32(12)).isEqualTo(1800);
+    assertThat(stts.u32(16)).isEqualTo(4);
+    assertThat(stts.u32(20)).isEqualTo(5400);
+  }
+
+  @Test public void repairsFromInBandParameterSetsWithoutJournal() throws IOException {
+    Recording recording = new Recording(false);
+    recording.nalUnit(SPS);
+    recording.nalUnit(PPS);
+    recording.avcSample(true, 80);
+    recording.avcSample(false, 60);
+    recording.nalUnit(SPS);
+    recording.nalUnit(PPS);
+    recording.avcSample(true, 80);
+    recording.writeTo(file);
+
+    assertThat(repair()).isEqualTo(3);
+
+    Mp4Box stbl = Mp4Box.parse(file).get(2).find("trak", "mdia", "minf", "stbl");
+    // Parameter sets belong to the access unit which follows them.
+    int parameterSets = 4 + SPS.length + 4 + PPS.length;
+    assertSizes(stbl, Arrays.asList(parameterSets + 84, 64, parameterSets + 84));
+    Mp4Box avc1 = Mp4Box.parse(stbl.find("stsd").payload, 8, stbl.find("stsd").size()).get(0);
+    assertThat(avc1.u16(24)).isEqualTo(1080); // From the SPS.
+    assertThat(avc1.u16(26)).isEqualTo(1920);
+    // Constant 30fps without a journal.
+    assertThat(stbl.find("stts").u32(12)).isEqualTo(3000);
+  }
+
+  @Test public void mediaRecorderOutputCannotBeRepaired() throws IOException {
+    // MediaRecorder writes no journal and keeps its parameter sets for the avcC it never wrote.
+    Recording recording = new Recording(false);
+    recording.avcSample(true, 80);
+    recording.avcSample(false, 60);
+    recording.avcSample(false, 60);
+    recording.writeTo(file);
+
+    assertThat(repair()).isEqualTo(0);
+    assertThat(file.length()).isEqualTo(recording.size());
+    assertThat(Mp4Repairer.inspect(file)).isEqualTo(Mp4Repairer.Status.NEEDS_REPAIR);
+  }
+
+  @Test public void slicesOfOnePictureAreOneSample() throws IOException {
+    Recording recording = new Recording(false);
+    recording.avcSample(true, 40);
+    recording.nalUnit(slice((byte) 0x65, false, 30)); // A second slice of the same picture.
+    recording.avcSample(false, 20);
+    recording.nalUnit(new byte[] { 0x06, 0x05, 0x01, 0x00 }); // SEI begins the next picture.
+    recording.avcSample(false, 20);
+    recording.writeTo(file);
+    writeJournal(AVC, new long[0]);
+
+    assertThat(repair()).isEqualTo(3);
+
+    Mp4Box stbl = Mp4Box.parse(file).get(2).find("trak", "mdia", "minf", "stbl");
+    assertSizes(stbl, Arrays.asList(44 + 34, 24, 8 + 24));
+  }
+
+  @Test public void streamsThroughDataLargerThanItsBuffer() throws IOException {
+    Recording recording = new Recording(true);
+    for (int i = 0; i < 300; i++) {
+      recording.avcSample(i % 30 == 0, 1000 + (i * 7919) % 20000);
+    }
+    recording.writeTo(file);
+    writeJournal(AVC, new long[0]);
+
+    assertThat(repair()).isEqualTo(300);
+
+    List<Mp4Box> boxes = Mp4Box.parse(file);
+    assertThat(Mp4Box.types(boxes)).containsExactly("ftyp", "mdat", "moov").inOrder();
+    assertSizes(boxes.get(2).find("trak", "mdia", "minf", "stbl"), recording.sampleSizes);
+    // A 32-bit mdat header was patched in place.
+    assertThat(boxes.get(1).end).isEqualTo(recording.size());
+  }
+
+  @Test public void repairsHevc() throws IOException {
+    byte[] vps = { 0x40, 0x01, 0x0c, 0x01, (byte) 0xff, (byte) 0xff };
+    byte[] sps = escape(new byte[] {
+        0x42, 0x01, // NAL header.
+        0x01, // vps_id 0, max_sub_layers_minus1 0, temporal_id_nesting 1.
+        0x01, // general_profile_idc: Main.
+        0x60, 0x00, 0x00, 0x00, // Compatibility flags.
+        (byte) 0x90, 0x00, 0x00, 0x00, 0x00, 0x00, // Constraint flags.
+        0x5d, // general_level_idc
+        (byte) 0xa0, 0x02, (byte) 0x80
+    });
+    byte[] pps = { 0x44, 0x01, (byte) 0xc1, 0x72 };
+    TrackFormat hevc = new TrackFormat(MIME_TYPE_HEVC, 1080, 1920, Arrays.asList(vps, sps, pps));
+
+    Recording recording = new Recording(false);
+    recording.nalUnit(slice(new byte[] { 0x26, 0x01 }, true, 90)); // IDR_W_RADL
+    recording.nalUnit(slice(new byte[] { 0x02, 0x01 }, true, 40)); // TRAIL_R
+    recording.nalUnit(slice(new byte[] { 0x02, 0x01 }, false, 40)); // Same picture.
+    recording.nalUnit(slice(new byte[] { 0x02, 0x01 }, true, 40));
+    recording.writeTo(file);
+    writeJournal(hevc, new long[] { 0, 33333, 66666 });
+
+    assertThat(repair()).isEqualTo(3);
+
+    Mp4Box stbl = Mp4Box.parse(file).get(2).find("trak", "mdia", "minf", "stbl");
+    assertSizes(stbl, Arrays.asList(4 + 90, 4 + 40 + 4 + 40, 4 + 40));
+    assertThat(stbl.find("stss").u32(4)).isEqualTo(1);
+
+    Mp4Box hvc1 = Mp4Box.parse(stbl.find("stsd").payload, 8, stbl.find("stsd").size()).get(0);
+    assertThat(hvc1.type).isEqualTo("hvc1");
+    Mp4Box hvcC = Mp4Box.parse(hvc1.payload, 78, hvc1.size()).get(0);
+    assertThat(hvcC.type).isEqualTo("hvcC");
+    assertThat(hvcC.u8(1)).isEqualTo(0x01); // Main profile.
+    assertThat(hvcC.u32(2)).isEqualTo(0x60000000); // Unescaped compatibility flags.
+    assertThat(hvcC.u8(6)).isEqualTo(0x90);
+    assertThat(hvcC.u8(12)).isEqualTo(0x5d); // Level.
+    assertThat(hvcC.u8(21)).isEqualTo((1 << 3) | (1 << 2) | 3);
+    assertThat(hvcC.u8(22)).isEqualTo(3); // VPS, SPS, and PPS arrays.
+    assertThat(hvcC.u8(23)).isEqualTo(0x80 | 32);
+    assertThat(hvcC.bytes(28, vps.length)).isEqualTo(vps);
+  }
+
+  @Test public void unrepairableWithoutParameterSets() throws IOException {
+    Recording recording = new Recording(false);
+    recording.avcSample(true, 40);
+    recording.writeTo(file);
+    long length = file.length();
+
+    assertThat(repair()).isEqualTo(0);
+    assertThat(file.length()).isEqualTo(length);
+    assertThat(Mp4Repairer.inspect(file)).isEqualTo(Mp4Repairer.Status.NEEDS_REPAIR);
+  }
+
+  @Test public void inspectsFinishedAndForeignFiles() throws IOException {
+    FragmentedMp4Writer writer = new FragmentedMp4Writer(file.getPath());
+    writer.start(AVC);
+    writer.stop();
+    assertThat(Mp4Repairer.inspect(file)).isEqualTo(Mp4Repairer.Status.COMPLETE);
+
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write("Not a video at all.".getBytes("UTF-8"));
+    }
+    assertThat(Mp4Repairer.inspect(file)).isEqualTo(Mp4Repairer.Status.UNREPAIRABLE);
+  }
+
+  @Test public void journalRoundTrip() throws IOException {
+    writeJournal(AVC, new long[] { 5, 6 });
+    // A partially flushed time is ignored.
+    try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+      raf.seek(raf.length());
+      raf.write(new byte[] { 1, 2, 3 });
+    }
+
+    try (RecordingJournal journal = RecordingJournal.open(journalFile)) {
+      assertThat(journal.format.mimeType).isEqualTo(MIME_TYPE_AVC);
+      assertThat(journal.format.width).isEqualTo(1080);
+      assertThat(journal.format.height).isEqualTo(1920);
+      assertThat(journal.format.sps()).isEqualTo(SPS);
+      assertThat(journal.format.pps()).isEqualTo(PPS);
+      assertThat(journal.nextPresentationTimeUs()).isEqualTo(5);
+      assertThat(journal.nextPresentationTimeUs()).isEqualTo(6);
+      assertThat(journal.nextPresentationTimeUs()).isEqualTo(-1);
+      assertThat(journal.nextPresentationTimeUs()).isEqualTo(-1);
+    }
+  }
+
+  @Test public void frameSizeFromSps() {
+    TrackFormat uncropped = Mp4Repairer.withSizeFromSps(
+        new TrackFormat(MIME_TYPE_AVC, 0, 0, Arrays.asList(sps(67, 120, 0), PPS)));
+    assertThat(uncropped.width).isEqualTo(1072);
+    assertThat(uncropped.height).isEqualTo(1920);
+
+    TrackFormat cropped = Mp4Repairer.withSizeFromSps(
+        new TrackFormat(MIME_TYPE_AVC, 0, 0, Arrays.asList(SPS, PPS)));
+    assertThat(cropped.width).isEqualTo(1080);
+    assertThat(cropped.height).isEqualTo(1920);
+  }
+
+  private int repair() throws IOException {
+    if (!journalFile.exists()) {
+      return Mp4Repairer.repair(file, null);
+    }
+    try (RecordingJournal journal = RecordingJournal.open(journalFile)) {
+      return Mp4Repairer.repair(file, journal);
+    }
+  }
+
+  private void writeJournal(TrackFormat format, long[] times) throws IOException {
+    try (RecordingJournal.Writer writer = new RecordingJournal.Writer(journalFile, format)) {
+      for (long time : times) {
+        writer.append(time);
+      }
+    }
+  }
+
+  private static void assertSizes(Mp4Box stbl, List<Integer> expected) {
+    Mp4Box stsz = stbl.find("stsz");
+    assertThat(stsz.u32(8)).isEqualTo(expected.size());
+    List<Integer> actual = new ArrayList<>();
+    for (int i = 0; i < expected.size(); i++) {
+      actual.add(stsz.u32(12 + i * 4));
+    }
+    assertThat(actual).isEqualTo(expected);
+  }
+
+  /**
+   * The contents of a file whose writer died: an {@code ftyp} and an {@code mdat} with a
+   * placeholder size followed by length-prefixed NAL units.
+   */
+  private static final class Recording {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final List<Integer> sampleSizes = new ArrayList<>();
+
+    Recording(boolean smallMdatHeader) {
+      BoxWriter header = new BoxWriter();
+      Mp4Headers.writeFtyp(header, AVC);
+      if (smallMdatHeader) {
+        header.u32(0).fourCc("mdat");
+      } else {
+        header.u32(1).fourCc("mdat").u64(0);
+      }
+      byte[] bytes = header.toByteArray();
+      out.write(bytes, 0, bytes.length);
+    }
+
+    void avcSample(boolean keyFrame, int size) {
+      sampleSizes.add(nalUnit(slice((byte) (keyFrame ? 0x65 : 0x41), true, size)));
+    }
+
+    int nalUnit(byte[] nalUnit) {
+      out.write(nalUnit.length >>> 24);
+      out.write(nalUnit.length >>> 16);
+      out.write(nalUnit.length >>> 8);
+      out.write(nalUnit.length);
+      out.write(nalUnit, 0, nalUnit.length);
+      return 4 + nalUnit.length;
+    }
+
+    /** A NAL unit claiming {@code declared} bytes of which only {@code written} made it out. */
+    void truncatedSample(int declared, int written) {
+      byte[] nalUnit = slice((byte) 0x41, true, declared);
+      out.write(declared >>> 24);
+      out.write(declared >>> 16);
+      out.write(declared >>> 8);
+      out.write(declared);
+      out.write(nalUnit, 0, written);
+    }
+
+    int size() {
+      return out.size();
+    }
+
+    void writeTo(File file) throws IOException {
+      try (FileOutputStream stream = new FileOutputStream(file)) {
+        out.writeTo(stream);
+      }
+    }
+  }
+
+  private static byte[] slice(byte header, boolean firstInPicture, int size) {
+    return slice(new byte[] { header }, firstInPicture, size);
+  }
+
+  /** A slice NAL unit whose first slice header bit marks whether it starts a picture. */
+  private static byte[] slice(byte[] header, boolean firstInPicture, int size) {
+    byte[] nalUnit = new byte[size];
+    System.arraycopy(header, 0, nalUnit, 0, header.length);
+    nalUnit[header.length] = (byte) (firstInPicture ? 0x88 : 0x28);
+    for (int i = header.length + 1; i < size; i++) {
+      nalUnit[i] = (byte) (0x10 + i % 0x60); // Never forms a start code or length-like zeros.
+    }
+    return nalUnit;
+  }
+
+  /**
+   * A baseline profile SPS for {@code widthInMbs} x {@code heightInMbs} macroblocks, cropped on
+   * the right by {@code cropRight} chroma samples.
+   */
+  private static byte[] sps(int widthInMbs, int heightInMbs, int cropRight) {
+    BitWriter bits = new BitWriter();
+    bits.bits(66, 8); // profile_idc: baseline
+    bits.bits(0xc0, 8); // constraint flags
+    bits.bits(31, 8); // level_idc
+    bits.ue(0); // seq_parameter_set_id
+    bits.ue(0); // log2_max_frame_num_minus4
+    bits.ue(0); // pic_order_cnt_type
+    bits.ue(0); // log2_max_pic_order_cnt_lsb_minus4
+    bits.ue(1); // max_num_ref_frames
+    bits.bits(0, 1); // gaps_in_frame_num_value_allowed_flag
+    bits.ue(widthInMbs - 1);
+    bits.ue(heightInMbs - 1);
+    bits.bits(1, 1); // frame_mbs_only_flag
+    bits.bits(1, 1); // direct_8x8_inference_flag
+    if (cropRight > 0) {
+      bits.bits(1, 1);
+      bits.ue(0);
+      bits.ue(cropRight);
+      bits.ue(0);
+      bits.ue(0);
+    } else {
+      bits.bits(0, 1);
+    }
+    bits.bits(0, 1); // vui_parameters_present_flag
+    bits.bits(1, 1); // rbsp_stop_one_bit
+    byte[] rbsp = bits.toByteArray();
+    byte[] nalUnit = new byte[rbsp.length + 1];
+    nalUnit[0] = 0x67;
+    System.arraycopy(rbsp, 0, nalUnit, 1, rbsp.length);
+    return escape(nalUnit);
+  }
+
+  /** Insert emulation prevention bytes wherever two zeros precede a byte of 3 or less. */
+  private static byte[] escape(byte[] nalUnit) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int zeros = 0;
+    for (byte b : nalUnit) {
+      if (zeros == 2 && (b & 0xff) <= 3) {
+        out.write(3);
+        zeros = 0;
+      }
+      out.write(b);
+      zeros = b == 0 ? zeros + 1 : 0;
+    }
+    return out.toByteArray();
+  }
+
+  private static final class BitWriter {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private int current;
+    private int count;
+
+    void bits(int value, int length) {
+      for (int i = length - 1; i >= 0; i--) {
+        current = (current << 1) | ((value >> i) & 1);
+        if (++count == 8) {
+          out.write(current);
+          current = 0;
+          count = 0;
+        }
+      }
+    }
+
+    void ue(int value) {
+      int coded = value + 1;
+      int length = 32 - Integer.numberOfLeadingZeros(coded);
+      bits(0, length - 1);
+      bits(coded, length);
+    }
+
+    byte[] toByteArray() {
+      if (count > 0) {
+        bits(0, 8 - count);
+      }
+      return out.toByteArray();
+    }
+  }
+}
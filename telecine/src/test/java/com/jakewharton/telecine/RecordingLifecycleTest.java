@@ -0,0 +1,455 @@
+package com.jakewharton.telecine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.RecordingLifecycle.State.COUNTDOWN;
+import static com.jakewharton.telecine.RecordingLifecycle.State.ENDED;
+import static com.jakewharton.telecine.RecordingLifecycle.State.FINALIZING;
+import static com.jakewharton.telecine.RecordingLifecycle.State.IDLE;
+import static com.jakewharton.telecine.RecordingLifecycle.State.PAUSED;
+import static com.jakewharton.telecine.RecordingLifecycle.State.PREPARING;
+import static com.jakewharton.telecine.RecordingLifecycle.State.RECORDING;
+import static com.jakewharton.telecine.RecordingLifecycle.State.SCANNING;
+import static com.jakewharton.telecine.RecordingSession.RecordingInfo;
+
+public final class RecordingLifecycleTest {
+  private final RecordingLifecycle lifecycle = new RecordingLifecycle();
+
+  @Test public void fullLifecycle() {
+    assertThat(lifecycle.get()).isEqualTo(IDLE);
+    assertThat(lifecycle.transition(IDLE, PREPARING)).isTrue();
+    assertThat(lifecycle.transition(PREPARING, COUNTDOWN)).isTrue();
+    assertThat(lifecycle.start()).isTrue();
+    assertThat(lifecycle.get()).isEqualTo(RECORDING);
+    assertThat(lifecycle.stop()).isTrue();
+    assertThat(lifecycle.get()).isEqualTo(FINALIZING);
+    assertThat(lifecycle.transition(FINALIZING, SCANNING)).isTrue();
+    assertThat(lifecycle.transition(SCANNING, ENDED)).isTrue();
+  }
+
+  @Test public void anotherTakeReturnsToIdle() {
+    lifecycle.transition(IDLE, PREPARING);
+    lifecycle.start();
+    lifecycle.stop();
+    assertThat(lifecycle.transition(FINALIZING, IDLE)).isTrue();
+    assertThat(lifecycle.transition(IDLE, PREPARING)).isTrue();
+    assertThat(lifecycle.start()).isTrue();
+    assertThat(lifecycle.get()).isEqualTo(RECORDING);
+  }
+
+  @Test public void destroyBetweenTakesEnds() {
+    lifecycle.transition(IDLE, PREPARING);
+    lifecycle.start();
+    lifecycle.stop();
+    lifecycle.transition(FINALIZING, IDLE);
+    assertThat(lifecycle.destroy()).isEqualTo(IDLE);
+    assertThat(lifecycle.get()).isEqualTo(ENDED);
+  }
+
+  @Test public void pauseAndResume() {
+    lifecycle.transition(IDLE, PREPARING);
+    assertThat(lifecycle.pause()).isFalse();
+    lifecycle.start();
+    assertThat(lifecycle.resume()).isFalse();
+    assertThat(lifecycle.pause()).isTrue();
+    assertThat(lifecycle.get()).isEqualTo(PAUSED);
+    assertThat(lifecycle.pause()).isFalse();
+    assertThat(lifecycle.resume()).isTrue();
+    assertThat(lifecycle.get()).isEqualTo(RECORDING);
+  }
+
+  @Test public void stopWhilePaused() {
+    lifecycle.transition(IDLE, PREPARING);
+    lifecycle.start();
+    lifecycle.pause();
+    assertThat(lifecycle.stop()).isTrue();
+    assertThat(lifecycle.get()).isEqualTo(FINALIZING);
+    assertThat(lifecycle.resume()).isFalse();
+  }
+
+  @Test public void destroyPausedFinalizes() {
+    lifecycle.transition(IDLE, PREPARING);
+    lifecycle.start();
+    lifecycle.pause();
+    assertThat(lifecycle.destroy()).isEqualTo(PAUSED);
+    assertThat(lifecycle.get()).isEqualTo(FINALIZING);
+  }
+
+  @Test public void startWhilePreparing() {
+    lifecycle.transition(IDLE, PREPARING);
+    assertThat(lifecycle.start()).isTrue();
+    assertThat(lifecycle.get()).isEqualTo(RECORDING);
+    // Preparation completing afterwards must not move the state backwards.
+    assertThat(lifecycle.transition(PREPARING, COUNTDOWN)).isFalse();
+    assertThat(lifecycle.get()).isEqualTo(RECORDING);
+  }
+
+  @Test public void startRequiresPreparation() {
+    assertThat(lifecycle.start()).isFalse();
+    assertThat(lifecycle.get()).isEqualTo(IDLE);
+  }
+
+  @Test public void doubleStopIgnored() {
+    lifecycle.transition(IDLE, PREPARING);
+    lifecycle.start();
+    assertThat(lifecycle.stop()).isTrue();
+    assertThat(lifecycle.stop()).isFalse();
+    assertThat(lifecycle.get()).isEqualTo(FINALIZING);
+  }
+
+  @Test public void stopBeforeStartIgnored() {
+    lifecycle.transition(IDLE, PREPARING);
+    assertThat(lifecycle.stop()).isFalse();
+    assertThat(lifecycle.get()).isEqualTo(PREPARING);
+  }
+
+  @Test public void destroyIdleEnds() {
+    assertThat(lifecycle.destroy()).isEqualTo(IDLE);
+    assertThat(lifecycle.get()).isEqualTo(ENDED);
+  }
+
+  @Test public void destroyPreparedEnds() {
+    lifecycle.transition(IDLE, PREPARING);
+    lifecycle.transition(PREPARING, COUNTDOWN);
+    assertThat(lifecycle.destroy()).isEqualTo(COUNTDOWN);
+    assertThat(lifecycle.get()).isEqualTo(ENDED);
+    assertThat(lifecycle.start()).isFalse();
+  }
+
+  @Test public void destroyRecordingFinalizes() {
+    lifecycle.transition(IDLE, PREPARING);
+    lifecycle.start();
+    assertThat(lifecycle.destroy()).isEqualTo(RECORDING);
+    assertThat(lifecycle.get()).isEqualTo(FINALIZING);
+    assertThat(lifecycle.stop()).isFalse();
+  }
+
+  @Test public void destroyFinalizingLeavesItAlone() {
+    lifecycle.transition(IDLE, PREPARING);
+    lifecycle.start();
+    lifecycle.stop();
+    assertThat(lifecycle.destroy()).isEqualTo(FINALIZING);
+    assertThat(lifecycle.get()).isEqualTo(FINALIZING);
+    assertThat(lifecycle.destroy()).isEqualTo(FINALIZING);
+  }
+
+  @Test public void concurrentTransitionsHaveOneWinner() throws Exception {
+    for (int i = 0; i < 500; i++) {
+      final RecordingLifecycle lifecycle = new RecordingLifecycle();
+      lifecycle.transition(IDLE, PREPARING);
+      final AtomicInteger starts = new AtomicInteger();
+      final AtomicInteger finalizers = new AtomicInteger();
+      final AtomicInteger enders = new AtomicInteger();
+      final AtomicInteger preparedReleasers = new AtomicInteger();
+
+      hammer(new Runnable() {
+        @Override public void run() {
+          if (lifecycle.start()) {
+            starts.incrementAndGet();
+          }
+        }
+      }, new Runnable() {
+        @Override public void run() {
+          if (lifecycle.stop()) {
+            finalizers.incrementAndGet();
+          }
+        }
+      }, new Runnable() {
+        @Override public void run() {
+          switch (lifecycle.destroy()) {
+            case RECORDING:
+              finalizers.incrementAndGet();
+              break;
+            case PREPARING:
+              preparedReleasers.incrementAndGet();
+              break;
+            default:
+              break;
+          }
+        }
+      }, new Runnable() {
+        @Override public void run() {
+          if (lifecycle.transition(FINALIZING, ENDED)) {
+            enders.incrementAndGet();
+          }
+        }
+      });
+
+      assertThat(starts.get()).isAtMost(1);
+      // Either the recording started and exactly one party finalizes it, or destroy won first
+      // and releases what was prepared.
+      assertThat(finalizers.get() + preparedReleasers.get()).isEqualTo(1);
+      assertThat(finalizers.get()).isEqualTo(starts.get());
+      assertThat(enders.get()).isAtMost(finalizers.get());
+    }
+  }
+
+  /** Run each of {@code actions} on three threads at once. */
+  private static void hammer(Runnable... actions) throws InterruptedException {
+    final CountDownLatch go = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int copy = 0; copy < 3; copy++) {
+      for (final Runnable action : actions) {
+        Thread thread = new Thread(new Runnable() {
+          @Override public void run() {
+            try {
+              go.await();
+            } catch (InterruptedException e) {
+              throw new AssertionError(e);
+            }
+            action.run();
+          }
+        });
+        thread.start();
+        threads.add(thread);
+      }
+    }
+    go.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  @Test public void concurrentStartStopDestroy() throws Exception {
+    for (int i = 0; i < 200; i++) {
+      final Session session = new Session();
+      final RecordingController controller = session.controller;
+      controller.prepare();
+      session.drain();
+
+      hammer(new Runnable() {
+        @Override public void run() {
+          controller.start();
+        }
+      }, new Runnable() {
+        @Override public void run() {
+          controller.pause();
+        }
+      }, new Runnable() {
+        @Override public void run() {
+          controller.resume();
+        }
+      }, new Runnable() {
+        @Override public void run() {
+          controller.stop(false);
+        }
+      }, new Runnable() {
+        @Override public void run() {
+          controller.stop(true);
+        }
+      }, new Runnable() {
+        @Override public void run() {
+          controller.cancel();
+        }
+      }, new Runnable() {
+        @Override public void run() {
+          controller.destroy();
+        }
+      });
+      controller.destroy();
+      session.awaitIdle();
+
+      assertThat(session.errors).isEmpty();
+      assertThat(controller.state()).isEqualTo(ENDED);
+      assertThat(session.starts.get()).isAtMost(1);
+      assertThat(session.stops.get()).isEqualTo(session.starts.get());
+      assertThat(session.finishes.get()).isEqualTo(session.stops.get());
+      assertThat(session.encoderReleases.get()).isEqualTo(1);
+      assertThat(session.retainedReleases.get()).isEqualTo(1);
+    }
+  }
+
+  @Test public void anotherTakeKeepsRetainedUntilCancelled() throws Exception {
+    Session session = new Session();
+    RecordingController controller = session.controller;
+    controller.prepare();
+    controller.start();
+    controller.pause();
+    controller.stop(true);
+    controller.prepare();
+    controller.start();
+    controller.stop(true);
+    session.drain();
+
+    assertThat(controller.state()).isEqualTo(IDLE);
+    assertThat(session.starts.get()).isEqualTo(2);
+    assertThat(session.encoderReleases.get()).isEqualTo(2);
+    assertThat(session.retainedReleases.get()).isEqualTo(0);
+
+    assertThat(controller.cancel()).isTrue();
+    controller.destroy();
+    session.awaitIdle();
+    assertThat(session.errors).isEmpty();
+    assertThat(controller.state()).isEqualTo(ENDED);
+    assertThat(session.retainedReleases.get()).isEqualTo(1);
+  }
+
+  @Test public void cancelBeforePreparing() throws Exception {
+    Session session = new Session();
+    RecordingController controller = session.controller;
+    assertThat(controller.cancel()).isTrue();
+    controller.prepare();
+    controller.start();
+    controller.destroy();
+    session.awaitIdle();
+
+    assertThat(session.errors).isEmpty();
+    assertThat(controller.state()).isEqualTo(ENDED);
+    assertThat(session.starts.get()).isEqualTo(0);
+    assertThat(session.encoderReleases.get()).isEqualTo(0);
+  }
+
+  @Test public void destroyPausedWritesFile() throws Exception {
+    Session session = new Session();
+    RecordingController controller = session.controller;
+    controller.prepare();
+    controller.start();
+    controller.pause();
+    controller.destroy();
+    session.awaitIdle();
+
+    assertThat(session.errors).isEmpty();
+    assertThat(controller.state()).isEqualTo(ENDED);
+    assertThat(session.stops.get()).isEqualTo(1);
+    assertThat(session.retainedReleases.get()).isEqualTo(1);
+  }
+
+  @Test public void refusedPreparationEnds() throws Exception {
+    Session session = new Session();
+    session.refuse = true;
+    RecordingController controller = session.controller;
+    controller.prepare();
+    controller.start();
+    controller.destroy();
+    session.awaitIdle();
+
+    assertThat(session.errors).isEmpty();
+    assertThat(controller.state()).isEqualTo(ENDED);
+    assertThat(session.starts.get()).isEqualTo(0);
+    assertThat(session.encoderReleases.get()).isEqualTo(0);
+  }
+
+  /**
+   * A {@link RecordingController.Recorder} which records with a {@link FakeEncoder} and counts
+   * what it allocates and releases. A projection is retained from the first take prepared until
+   * released, as {@link RecordingSession} retains its projection.
+   */
+  private static final class Session implements RecordingController.Recorder {
+    final ExecutorService recordingThread = Executors.newSingleThreadExecutor();
+    final RecordingController controller = new RecordingController(new Executor() {
+      @Override public void execute(final Runnable command) {
+        recordingThread.execute(new Runnable() {
+          @Override public void run() {
+            try {
+              command.run();
+            } catch (Throwable t) {
+              errors.add(t);
+            }
+          }
+        });
+      }
+    }, this);
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    final AtomicInteger starts = new AtomicInteger();
+    final AtomicInteger stops = new AtomicInteger();
+    final AtomicInteger finishes = new AtomicInteger();
+    final AtomicInteger encoderReleases = new AtomicInteger();
+    final AtomicInteger retainedReleases = new AtomicInteger();
+    volatile boolean refuse;
+
+    // Only accessed on the recording thread.
+    private FakeEncoder encoder;
+    private boolean retained;
+
+    @Override public boolean prepare() {
+      if (refuse) {
+        return false;
+      }
+      encoder = new FakeEncoder(Encoder.Listener.NONE, 30, 1, 30);
+      try {
+        encoder.prepare(new RecordingInfo(1072, 1920, 160, 30, 4939776), "out.mp4");
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+      retained = true;
+      return true;
+    }
+
+    @Override public void start() {
+      encoder.start();
+      starts.incrementAndGet();
+    }
+
+    @Override public void pause() {
+      encoder.pause();
+    }
+
+    @Override public void resume() {
+      encoder.resume();
+    }
+
+    @Override public void stop(boolean anotherTake) {
+      encoder.stop();
+      stops.incrementAndGet();
+      releaseEncoder();
+      if (!anotherTake) {
+        releaseRetained();
+      }
+    }
+
+    @Override public void finish(boolean anotherTake, boolean endSession) {
+      if (!retained) {
+        assertThat(endSession).isTrue();
+      }
+      finishes.incrementAndGet();
+      if (endSession) {
+        controller.end(); // As once the take has been indexed.
+      }
+    }
+
+    @Override public void releasePrepared() {
+      releaseEncoder();
+      releaseRetained();
+    }
+
+    @Override public void releaseRetained() {
+      if (retained) {
+        retained = false;
+        retainedReleases.incrementAndGet();
+      }
+    }
+
+    private void releaseEncoder() {
+      if (encoder == null) {
+        throw new AssertionError("Encoder released twice.");
+      }
+      encoder.release();
+      encoder = null;
+      encoderReleases.incrementAndGet();
+    }
+
+    /** Wait for everything posted so far to run. */
+    void drain() throws Exception {
+      recordingThread.submit(new Runnable() {
+        @Override public void run() {
+        }
+      }).get(10, TimeUnit.SECONDS);
+    }
+
+    void awaitIdle() throws InterruptedException {
+      recordingThread.shutdown();
+      assertThat(recordingThread.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.RecordingSession.RecordingInfo;
+import static org.junit.Assert.fail;
+
+public final class RecordingMetricsTest {
+  private final RecordingInfo info = new RecordingInfo(1072, 1920, 160, 30, 4939776);
+
+  @Test public void empty() {
+    RecordingMetrics metrics = new RecordingMetrics();
+    assertThat(metrics.frames()).isEqualTo(0);
+    assertThat(metrics.durationUs()).isEqualTo(0L);
+    assertThat(metrics.frameRate()).isEqualTo(0f);
+    assertThat(metrics.bitRate()).isEqualTo(0L);
+    assertThat(metrics.firstFrameNanos()).isEqualTo(-1L);
+  }
+
+  @Test public void firstFrameTime() {
+    RecordingMetrics metrics = new RecordingMetrics();
+    long before = System.nanoTime();
+    metrics.onFrameEncoded(1000, 500, true);
+    long firstFrameNanos = metrics.firstFrameNanos();
+    assertThat(firstFrameNanos).isAtLeast(before);
+    assertThat(firstFrameNanos).isAtMost(System.nanoTime());
+
+    metrics.onFrameEncoded(2000, 500, false);
+    assertThat(metrics.firstFrameNanos()).isEqualTo(firstFrameNanos);
+  }
+
+  @Test public void singleFrameHasNoDuration() {
+    RecordingMetrics metrics = new RecordingMetrics();
+    metrics.onFrameEncoded(1000, 500, true);
+    assertThat(metrics.frames()).isEqualTo(1);
+    assertThat(metrics.keyFrames()).isEqualTo(1);
+    assertThat(metrics.bytes()).isEqualTo(500L);
+    assertThat(metrics.durationUs()).isEqualTo(0L);
+    assertThat(metrics.bitRate()).isEqualTo(0L);
+  }
+
+  @Test public void frameRateAndBitRate() {
+    RecordingMetrics metrics = new RecordingMetrics();
+    for (int i = 0; i <= 30; i++) {
+      metrics.onFrameEncoded(5000000 + i * 33333L, 10000, i % 30 == 0);
+    }
+    assertThat(metrics.frames()).isEqualTo(31);
+    assertThat(metrics.keyFrames()).isEqualTo(2);
+    assertThat(metrics.durationUs()).isEqualTo(999990L);
+    assertThat(Math.round(metrics.frameRate())).isEqualTo(30);
+    assertThat(metrics.bitRate()).isEqualTo(31 * 10000 * 8 * 1000000L / 999990L);
+  }
+
+  @Test public void maxFrameIntervalTracksStalls() {
+    RecordingMetrics metrics = new RecordingMetrics();
+    metrics.onFrameEncoded(0, 1, true);
+    metrics.onFrameEncoded(33333, 1, false);
+    metrics.onFrameEncoded(533333, 1, false);
+    metrics.onFrameEncoded(566666, 1, false);
+    assertThat(metrics.maxFrameIntervalUs()).isEqualTo(500000L);
+  }
+
+  @Test public void bitRateChanges() {
+    RecordingMetrics metrics = new RecordingMetrics();
+    assertThat(metrics.minBitRate()).isEqualTo(0);
+    metrics.onBitRateChanged(1000000, 3000000, 150000);
+    metrics.onBitRateChanged(2000000, 2250000, 120000);
+    metrics.onBitRateChanged(9000000, 2475000, 10000);
+    assertThat(metrics.bitRateChanges()).isEqualTo(3);
+    assertThat(metrics.minBitRate()).isEqualTo(2250000);
+    assertThat(metrics.maxLatencyUs()).isEqualTo(150000L);
+  }
+
+  @Test public void encoderLifecycleThroughput() throws Exception {
+    final RecordingMetrics metrics = new RecordingMetrics();
+    final CountDownLatch latch = new CountDownLatch(3000);
+    Encoder.Listener listener = new Encoder.Listener() {
+      @Override public void onFrameEncoded(long presentationTimeUs, int size, boolean keyFrame) {
+        metrics.onFrameEncoded(presentationTimeUs, size, keyFrame);
+        latch.countDown();
+      }
+    };
+    FakeEncoder encoder = new FakeEncoder(listener, 30, 20000, 30);
+
+    encoder.prepare(info, "out.mp4");
+    assertThat(encoder.info()).isSameAs(info);
+    assertThat(encoder.outputFile()).isEqualTo("out.mp4");
+    encoder.start();
+    assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+    encoder.stop();
+    encoder.release();
+
+    // Every frame produced before stop returns must have been observed.
+    assertThat(metrics.frames()).isEqualTo(encoder.framesEncoded());
+    assertThat(metrics.frames()).isAtLeast(3000);
+    assertThat(metrics.keyFrames()).isEqualTo((metrics.frames() + 29) / 30);
+    assertThat(Math.round(metrics.frameRate())).isEqualTo(30);
+    // 20kB per frame at 30 fps.
+    assertThat(metrics.bitRate()).isAtLeast(4800000L);
+    assertThat(metrics.bitRate()).isAtMost(4810000L);
+  }
+
+  @Test public void encoderLifecycleOrderEnforced() throws Exception {
+    FakeEncoder encoder = new FakeEncoder(Encoder.Listener.NONE, 30, 1, 1);
+    try {
+      encoder.start();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    encoder.prepare(info, "out.mp4");
+    try {
+      encoder.prepare(info, "out.mp4");
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      encoder.stop();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    encoder.start();
+    encoder.stop();
+    try {
+      encoder.stop();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+    encoder.release();
+  }
+}
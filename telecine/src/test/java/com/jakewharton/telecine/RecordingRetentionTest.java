@@ -0,0 +1,73 @@
+package com.jakewharton.telecine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class RecordingRetentionTest {
+  private static final long NOW = TimeUnit.DAYS.toMillis(100);
+  private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+  private final RecordingRetention.Recording a = recording("a", 100, NOW - 4 * DAY);
+  private final RecordingRetention.Recording b = recording("b", 200, NOW - 3 * DAY);
+  private final RecordingRetention.Recording c = recording("c", 300, NOW - 2 * DAY);
+  private final RecordingRetention.Recording d = recording("d", 400, NOW - DAY);
+  private final List<RecordingRetention.Recording> recordings = Arrays.asList(c, a, d, b);
+
+  @Test public void keepAllEvictsNothing() {
+    assertThat(RecordingRetention.KEEP_ALL.keepsAll()).isTrue();
+    assertThat(RecordingRetention.KEEP_ALL.selectEvictions(recordings, NOW)).isEmpty();
+  }
+
+  @Test public void maxCountEvictsLeastRecentlyUsedFirst() {
+    RecordingRetention retention = new RecordingRetention(0, 0, 2);
+    assertThat(retention.selectEvictions(recordings, NOW)).containsExactly(a, b).inOrder();
+  }
+
+  @Test public void maxBytes() {
+    RecordingRetention retention = new RecordingRetention(700, 0, 0);
+    assertThat(retention.selectEvictions(recordings, NOW)).containsExactly(a, b).inOrder();
+  }
+
+  @Test public void maxBytesEvictsOlderRecordingsWhichWouldFit() {
+    // b breaks the limit, so a goes too even though it alone would fit.
+    RecordingRetention retention = new RecordingRetention(850, 0, 0);
+    assertThat(retention.selectEvictions(recordings, NOW)).containsExactly(a, b).inOrder();
+  }
+
+  @Test public void maxAge() {
+    RecordingRetention retention = new RecordingRetention(0, 2 * DAY, 0);
+    assertThat(retention.selectEvictions(recordings, NOW)).containsExactly(a, b).inOrder();
+  }
+
+  @Test public void strictestLimitWins() {
+    RecordingRetention retention = new RecordingRetention(10000, 3 * DAY, 1);
+    assertThat(retention.selectEvictions(recordings, NOW)).containsExactly(a, b, c).inOrder();
+  }
+
+  @Test public void mostRecentlyUsedIsAlwaysKept() {
+    RecordingRetention retention = new RecordingRetention(1, DAY / 2, 1);
+    assertThat(retention.selectEvictions(recordings, NOW)).containsExactly(a, b, c).inOrder();
+  }
+
+  @Test public void tiesBrokenByPath() {
+    RecordingRetention.Recording x = recording("x", 1, NOW);
+    RecordingRetention.Recording y = recording("y", 1, NOW);
+    RecordingRetention retention = new RecordingRetention(0, 0, 1);
+    assertThat(retention.selectEvictions(Arrays.asList(y, x), NOW)).containsExactly(x);
+  }
+
+  @Test public void noRecordings() {
+    RecordingRetention retention = new RecordingRetention(1, 1, 1);
+    List<RecordingRetention.Recording> none = Collections.emptyList();
+    assertThat(retention.selectEvictions(none, NOW)).isEmpty();
+  }
+
+  private static RecordingRetention.Recording recording(String path, long size, long lastUsed) {
+    return new RecordingRetention.Recording(path, size, lastUsed);
+  }
+}
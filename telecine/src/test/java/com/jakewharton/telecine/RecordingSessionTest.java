@@ -3,70 +3,183 @@ package com.jakewharton.telecine;
 import org.junit.Test;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.RecordingSession.Quality.HIGH;
+import static com.jakewharton.telecine.RecordingSession.Quality.LOW;
+import static com.jakewharton.telecine.RecordingSession.Quality.MEDIUM;
 import static com.jakewharton.telecine.RecordingSession.RecordingInfo;
+import static com.jakewharton.telecine.RecordingSession.calculateBitRate;
 import static com.jakewharton.telecine.RecordingSession.calculateRecordingInfo;
+import static com.jakewharton.telecine.RecordingSession.calculateReplayCapacity;
+import static com.jakewharton.telecine.RecordingSession.chooseRecordingInfo;
 
 public final class RecordingSessionTest {
-  @Test public void videoSizeNoCamera() {
-    RecordingInfo size = calculateRecordingInfo(1080, 1920, 160, false, -1, -1, 100);
-    assertThat(size.width).isEqualTo(1080);
-    assertThat(size.height).isEqualTo(1920);
-    assertThat(size.density).isEqualTo(160);
+  /** A 1080p encoder like the high quality camcorder profile of most devices. */
+  private static final EncoderCapabilities ENCODER_1080P =
+      capabilities(1920, 1080, 1920 * 1080, 16, 16, 30, 1920 * 1080 * 30);
+  /** Accepts long edges up to 4096, but only 1080p worth of pixels. */
+  private static final EncoderCapabilities ENCODER_AREA_LIMITED =
+      capabilities(4096, 4096, 1920 * 1088, 16, 16, 60, 1920 * 1088 * 30);
+  /** Accepts 120fps, but only has the throughput for 1080p at 30fps. */
+  private static final EncoderCapabilities ENCODER_RATE_LIMITED =
+      capabilities(4096, 4096, 4096 * 4096, 16, 16, 120, 1920 * 1088 * 30);
+  /** {@link #ENCODER_1080P}, but for HEVC. */
+  private static final EncoderCapabilities ENCODER_HEVC_1080P =
+      new EncoderCapabilities("video/hevc", "test", 1920, 1080, 1920 * 1080, 16, 16, 30,
+          1920 * 1080 * 30);
+  private static final EncoderCapabilities ENCODER_ALIGN_32 =
+      capabilities(4096, 2160, 4096 * 2160, 32, 64, 120, 4096 * 2160 * 120L);
+
+  @Test public void videoSize() {
+    //             display      encoder               %    expected
+    assertVideoSize(1080, 1920, null,                 100, 1072, 1920);
+    assertVideoSize(1080, 1920, null,                  75,  800, 1440);
+    assertVideoSize(1080, 1920, ENCODER_1080P,        100, 1072, 1920);
+    assertVideoSize(1920, 1080, ENCODER_1080P,        100, 1920, 1072);
+    assertVideoSize(2160, 3840, ENCODER_1080P,        100, 1072, 1920);
+    assertVideoSize(3840, 2160, ENCODER_1080P,        100, 1920, 1072);
+    assertVideoSize(1200, 1920, ENCODER_1080P,        100, 1072, 1728);
+    assertVideoSize(1200, 1920, ENCODER_1080P,         75,  896, 1440);
+    assertVideoSize(1920, 1200, ENCODER_1080P,        100, 1728, 1072);
+    assertVideoSize(1440, 2560, ENCODER_1080P,        100, 1072, 1920);
+    assertVideoSize(1440, 2560, ENCODER_1080P,         50,  720, 1280);
+    assertVideoSize(1440, 2560, ENCODER_AREA_LIMITED, 100, 1072, 1920);
+    assertVideoSize(2560, 1440, ENCODER_AREA_LIMITED, 100, 1920, 1072);
+    assertVideoSize(1080, 1920, ENCODER_AREA_LIMITED, 100, 1072, 1920);
+    assertVideoSize(1080, 1920, ENCODER_ALIGN_32,     100, 1056, 1920);
+    assertVideoSize(1080, 1920, ENCODER_ALIGN_32,      75,  800, 1408);
+  }
+
+  @Test public void videoSizeKeepsDensity() {
+    RecordingInfo info = calculateRecordingInfo(2160, 3840, 640, ENCODER_1080P, 100, 30, MEDIUM);
+    assertThat(info.density).isEqualTo(640);
+  }
+
+  @Test public void frameRate() {
+    //             display      encoder               %    requested  expected
+    assertFrameRate(1080, 1920, null,                 100, 60,        60);
+    assertFrameRate(1080, 1920, ENCODER_1080P,        100, 30,        30);
+    assertFrameRate(1080, 1920, ENCODER_1080P,        100, 60,        30);
+    assertFrameRate(1080, 1920, ENCODER_AREA_LIMITED, 100, 60,        60);
+    assertFrameRate(1080, 1920, ENCODER_AREA_LIMITED,  50, 60,        60);
+    assertFrameRate(1080, 1920, ENCODER_ALIGN_32,     100, 120,      120);
+    assertFrameRate(1080, 1920, ENCODER_RATE_LIMITED, 100, 90,        68);
+  }
+
+  @Test public void higherFrameRateShrinksFrame() {
+    RecordingInfo info =
+        calculateRecordingInfo(1080, 1920, 160, ENCODER_AREA_LIMITED, 100, 60, MEDIUM);
+    assertThat(info.width).isEqualTo(752);
+    assertThat(info.height).isEqualTo(1360);
+    assertThat(info.frameRate).isEqualTo(60);
+  }
+
+  @Test public void frameRateLoweredOnceFrameAtMinimumSize() {
+    RecordingInfo info =
+        calculateRecordingInfo(1080, 1920, 160, ENCODER_RATE_LIMITED, 100, 120, MEDIUM);
+    assertThat(info.width).isEqualTo(720);
+    assertThat(info.height).isEqualTo(1280);
+    assertThat(info.frameRate).isEqualTo(68);
   }
 
-  @Test public void videoSizeResize() {
-    RecordingInfo size = calculateRecordingInfo(1080, 1920, 160, false, -1, -1, 75);
-    assertThat(size.width).isEqualTo(810);
-    assertThat(size.height).isEqualTo(1440);
-    assertThat(size.density).isEqualTo(160);
+  @Test public void frameRateCappedByEncoderWithoutShrinking() {
+    RecordingInfo info = calculateRecordingInfo(1080, 1920, 160, ENCODER_1080P, 100, 120, MEDIUM);
+    assertThat(info.width).isEqualTo(1072);
+    assertThat(info.height).isEqualTo(1920);
+    assertThat(info.frameRate).isEqualTo(30);
   }
 
-  @Test public void videoSizeFitsInCamera() {
-    RecordingInfo size = calculateRecordingInfo(1080, 1920, 160, false, 1920, 1080, 100);
-    assertThat(size.width).isEqualTo(1080);
-    assertThat(size.height).isEqualTo(1920);
-    assertThat(size.density).isEqualTo(160);
+  private static void assertVideoSize(int displayWidth, int displayHeight,
+      EncoderCapabilities capabilities, int sizePercentage, int width, int height) {
+    RecordingInfo info = calculateRecordingInfo(displayWidth, displayHeight, 160, capabilities,
+        sizePercentage, 30, MEDIUM);
+    String row = displayWidth + "x" + displayHeight + " @ " + sizePercentage + "%";
+    assertThat(info.width).named(row + " width").isEqualTo(width);
+    assertThat(info.height).named(row + " height").isEqualTo(height);
   }
 
-  @Test public void videoSizeFitsInCameraLandscape() {
-    RecordingInfo size = calculateRecordingInfo(1920, 1080, 160, true, 1920, 1080, 100);
-    assertThat(size.width).isEqualTo(1920);
-    assertThat(size.height).isEqualTo(1080);
-    assertThat(size.density).isEqualTo(160);
+  private static void assertFrameRate(int displayWidth, int displayHeight,
+      EncoderCapabilities capabilities, int sizePercentage, int requested, int frameRate) {
+    RecordingInfo info = calculateRecordingInfo(displayWidth, displayHeight, 160, capabilities,
+        sizePercentage, requested, MEDIUM);
+    String row = displayWidth + "x" + displayHeight + " @ " + sizePercentage + "%, "
+        + requested + "fps";
+    assertThat(info.frameRate).named(row).isEqualTo(frameRate);
   }
 
-  @Test public void videoSizeLargerThanCamera() {
-    RecordingInfo size = calculateRecordingInfo(2160, 3840, 160, false, 1920, 1080, 100);
-    assertThat(size.width).isEqualTo(1080);
-    assertThat(size.height).isEqualTo(1920);
-    assertThat(size.density).isEqualTo(160);
+  private static EncoderCapabilities capabilities(int maxWidth, int maxHeight, int maxArea,
+      int widthAlignment, int heightAlignment, int maxFrameRate, long maxPixelRate) {
+    return new EncoderCapabilities("video/avc", "test", maxWidth, maxHeight, maxArea,
+        widthAlignment, heightAlignment, maxFrameRate, maxPixelRate);
+  }
+
+  @Test public void bitRateScalesWithArea() {
+    assertThat(calculateBitRate(1080, 1920, 30, MEDIUM)).isEqualTo(4976640);
+    assertThat(calculateBitRate(540, 960, 30, MEDIUM)).isEqualTo(1244160);
+    assertThat(calculateBitRate(1440, 2560, 30, MEDIUM)).isEqualTo(8847360);
+  }
+
+  @Test public void bitRateScalesWithQuality() {
+    assertThat(calculateBitRate(1080, 1920, 30, LOW)).isEqualTo(2488320);
+    assertThat(calculateBitRate(1080, 1920, 30, HIGH)).isEqualTo(7464960);
+  }
+
+  @Test public void bitRateGrowsSublinearlyWithFrameRate() {
+    int thirty = calculateBitRate(1080, 1920, 30, MEDIUM);
+    int sixty = calculateBitRate(1080, 1920, 60, MEDIUM);
+    assertThat(sixty).isGreaterThan(thirty);
+    assertThat(sixty).isLessThan(2 * thirty);
+    assertThat(sixty).isEqualTo(8369677);
+    assertThat(calculateBitRate(1080, 1920, 15, MEDIUM)).isEqualTo(2959128);
+  }
+
+  @Test public void bitRateClamped() {
+    assertThat(calculateBitRate(320, 480, 30, LOW)).isEqualTo(1000000);
+    assertThat(calculateBitRate(2160, 3840, 120, HIGH)).isEqualTo(40000000);
+  }
+
+  @Test public void recordingInfoBitRateUsesFrameSizeAndRate() {
+    RecordingInfo info = calculateRecordingInfo(2160, 3840, 160, ENCODER_1080P, 100, 60, MEDIUM);
+    assertThat(info.bitRate).isEqualTo(calculateBitRate(1072, 1920, 30, MEDIUM));
+
+    RecordingInfo resized = calculateRecordingInfo(1080, 1920, 160, null, 50, 30, MEDIUM);
+    assertThat(resized.bitRate).isEqualTo(calculateBitRate(528, 960, 30, MEDIUM));
+  }
+
+  @Test public void recordingInfoHevcBitRateReduced() {
+    RecordingInfo avc = calculateRecordingInfo(1080, 1920, 160, ENCODER_1080P, 100, 30, MEDIUM);
+    assertThat(avc.mimeType).isEqualTo("video/avc");
+    RecordingInfo hevc =
+        calculateRecordingInfo(1080, 1920, 160, ENCODER_HEVC_1080P, 100, 30, MEDIUM);
+    assertThat(hevc.mimeType).isEqualTo("video/hevc");
+    assertThat(hevc.bitRate).isEqualTo(Math.round(avc.bitRate * RecordingSession.HEVC_EFFICIENCY));
+
+    RecordingInfo small = calculateRecordingInfo(320, 480, 160, ENCODER_HEVC_1080P, 100, 30, LOW);
+    assertThat(small.bitRate).isEqualTo(1000000);
   }
 
-  @Test public void videoSizeLargerThanCameraLandscape() {
-    RecordingInfo size = calculateRecordingInfo(3840, 2160, 160, true, 1920, 1080, 100);
-    assertThat(size.width).isEqualTo(1920);
-    assertThat(size.height).isEqualTo(1080);
-    assertThat(size.density).isEqualTo(160);
+  @Test public void chooseHevcWhenAsCapable() {
+    RecordingInfo avc = calculateRecordingInfo(1080, 1920, 160, ENCODER_1080P, 100, 30, MEDIUM);
+    RecordingInfo hevc =
+        calculateRecordingInfo(1080, 1920, 160, ENCODER_HEVC_1080P, 100, 30, MEDIUM);
+    assertThat(chooseRecordingInfo(avc, hevc)).isSameAs(hevc);
   }
 
-  @Test public void videoSizeLargerThanCameraScaling() {
-    RecordingInfo size = calculateRecordingInfo(1200, 1920, 160, false, 1920, 1080, 100);
-    assertThat(size.width).isEqualTo(1080);
-    assertThat(size.height).isEqualTo(1728);
-    assertThat(size.density).isEqualTo(160);
+  @Test public void chooseAvcWhenHevcRecordsLess() {
+    RecordingInfo avc = calculateRecordingInfo(1080, 1920, 160, ENCODER_ALIGN_32, 100, 60, MEDIUM);
+    RecordingInfo hevc =
+        calculateRecordingInfo(1080, 1920, 160, ENCODER_HEVC_1080P, 100, 60, MEDIUM);
+    assertThat(hevc.frameRate).isEqualTo(30);
+    assertThat(chooseRecordingInfo(avc, hevc)).isSameAs(avc);
   }
 
-  @Test public void videoSizeLargerThanCameraScalingResizesFirst() {
-    RecordingInfo size = calculateRecordingInfo(1200, 1920, 160, false, 1920, 1080, 75);
-    assertThat(size.width).isEqualTo(900);
-    assertThat(size.height).isEqualTo(1440);
-    assertThat(size.density).isEqualTo(160);
+  @Test public void replayCapacityCoversLengthWithHeadroom() {
+    // 1MB/s for 30 seconds plus two of slack, and half again for overshoot.
+    assertThat(calculateReplayCapacity(8000000, 30)).isEqualTo(48000000);
+    assertThat(calculateReplayCapacity(8000000, 60))
+        .isGreaterThan(calculateReplayCapacity(8000000, 30));
   }
 
-  @Test public void videoSizeLargerThanCameraScalingLandscape() {
-    RecordingInfo size = calculateRecordingInfo(1920, 1200, 160, true, 1920, 1080, 100);
-    assertThat(size.width).isEqualTo(1728);
-    assertThat(size.height).isEqualTo(1080);
-    assertThat(size.density).isEqualTo(160);
+  @Test public void replayCapacityClamped() {
+    assertThat(calculateReplayCapacity(40000000, 60)).isEqualTo(96 * 1024 * 1024);
   }
 }
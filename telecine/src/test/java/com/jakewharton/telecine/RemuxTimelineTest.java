@@ -0,0 +1,150 @@
+package com.jakewharton.telecine;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.RemuxTimeline.DROP;
+import static com.jakewharton.telecine.RemuxTimeline.END;
+import static org.junit.Assert.fail;
+
+public final class RemuxTimelineTest {
+  @Test public void untrimmedInputsFollowEachOther() {
+    RemuxTimeline timeline = new RemuxTimeline(0, 0);
+    timeline.nextInput(1000, 100);
+    assertThat(timeline.map(1000, true)).isEqualTo(0);
+    assertThat(timeline.map(1040, false)).isEqualTo(40);
+    timeline.nextInput(5000, 100);
+    // The previous input's last frame lasts as long as the one before it.
+    assertThat(timeline.map(5000, true)).isEqualTo(80);
+    assertThat(timeline.map(5050, false)).isEqualTo(130);
+    assertThat(timeline.durationUs()).isEqualTo(180);
+    assertThat(timeline.samples()).isEqualTo(4);
+  }
+
+  @Test public void headIsTrimmedToNextKeyFrame() {
+    RemuxTimeline timeline = new RemuxTimeline(100, 0);
+    timeline.nextInput(0, 1000);
+    assertThat(timeline.cutInUs()).isEqualTo(100);
+    assertThat(timeline.map(0, true)).isEqualTo(DROP);
+    assertThat(timeline.map(100, false)).isEqualTo(DROP);
+    assertThat(timeline.map(150, true)).isEqualTo(0);
+    assertThat(timeline.map(160, false)).isEqualTo(10);
+  }
+
+  @Test public void tailIsTrimmed() {
+    RemuxTimeline timeline = new RemuxTimeline(0, 300);
+    timeline.nextInput(0, 1000);
+    assertThat(timeline.map(0, true)).isEqualTo(0);
+    assertThat(timeline.map(699, false)).isEqualTo(699);
+    assertThat(timeline.map(700, false)).isEqualTo(END);
+  }
+
+  @Test public void trimmedInputsFollowEachOther() {
+    RemuxTimeline timeline = new RemuxTimeline(100, 100);
+    timeline.nextInput(0, 1000);
+    assertThat(timeline.map(100, true)).isEqualTo(0);
+    assertThat(timeline.map(200, false)).isEqualTo(100);
+    assertThat(timeline.map(900, false)).isEqualTo(END);
+    timeline.nextInput(2000, 1000);
+    assertThat(timeline.map(2050, true)).isEqualTo(DROP);
+    assertThat(timeline.map(2120, true)).isEqualTo(200);
+    assertThat(timeline.durationUs()).isEqualTo(300);
+  }
+
+  @Test public void inputShorterThanTrimContributesNothing() {
+    RemuxTimeline timeline = new RemuxTimeline(100, 100);
+    timeline.nextInput(0, 150);
+    assertThat(timeline.map(0, true)).isEqualTo(DROP);
+    assertThat(timeline.map(50, true)).isEqualTo(END);
+    assertThat(timeline.samples()).isEqualTo(0);
+    assertThat(timeline.durationUs()).isEqualTo(0);
+    timeline.nextInput(500, 1000);
+    assertThat(timeline.map(600, true)).isEqualTo(0);
+  }
+
+  @Test public void inputWithoutKeyFrameAfterHeadContributesNothing() {
+    RemuxTimeline timeline = new RemuxTimeline(100, 0);
+    timeline.nextInput(0, 1000);
+    assertThat(timeline.map(0, true)).isEqualTo(DROP);
+    assertThat(timeline.map(500, false)).isEqualTo(DROP);
+    assertThat(timeline.samples()).isEqualTo(0);
+  }
+
+  @Test public void fragmentedTakeJoinsUntilItsLastSample() {
+    RemuxTimeline timeline = new RemuxTimeline(0, 0);
+    timeline.nextInput(0, 100);
+    assertThat(timeline.map(0, true)).isEqualTo(0);
+    assertThat(timeline.map(50, false)).isEqualTo(50);
+    // A crash-safe take declares no duration so it is measured from its samples.
+    long durationUs = Remuxer.durationUs(5000, 5040, 5080);
+    assertThat(durationUs).isEqualTo(120);
+    timeline.nextInput(5000, durationUs);
+    assertThat(timeline.map(5000, true)).isEqualTo(100);
+    assertThat(timeline.map(5040, false)).isEqualTo(140);
+    assertThat(timeline.map(5080, false)).isEqualTo(180);
+    assertThat(timeline.durationUs()).isEqualTo(220);
+    assertThat(timeline.samples()).isEqualTo(5);
+  }
+
+  @Test public void reorderedSamplesAreGivenInDecodeOrder() {
+    RemuxTimeline timeline = new RemuxTimeline(0, 0);
+    timeline.nextInput(0, 70);
+    // B-frames are decoded after the later frame they refer to.
+    assertThat(timeline.map(0, true)).isEqualTo(0);
+    assertThat(timeline.map(30, false)).isEqualTo(30);
+    assertThat(timeline.map(10, false)).isEqualTo(10);
+    assertThat(timeline.map(20, false)).isEqualTo(20);
+    assertThat(timeline.map(60, false)).isEqualTo(60);
+    assertThat(timeline.map(40, false)).isEqualTo(40);
+    assertThat(timeline.map(50, false)).isEqualTo(50);
+    assertThat(timeline.durationUs()).isEqualTo(70);
+    timeline.nextInput(1000, 100);
+    assertThat(timeline.map(1000, true)).isEqualTo(70);
+  }
+
+  @Test public void reorderedTailEndsAtFirstSamplePresentedAfterIt() {
+    RemuxTimeline timeline = new RemuxTimeline(0, 25);
+    timeline.nextInput(0, 70);
+    assertThat(timeline.map(0, true)).isEqualTo(0);
+    assertThat(timeline.map(30, false)).isEqualTo(30);
+    assertThat(timeline.map(10, false)).isEqualTo(10);
+    assertThat(timeline.map(20, false)).isEqualTo(20);
+    assertThat(timeline.map(60, false)).isEqualTo(END);
+    // The last presented frame lasts as long as the one before it, not the one decoded before it.
+    assertThat(timeline.durationUs()).isEqualTo(40);
+  }
+
+  @Test public void leadingPicturesBeforeTheCutAreDropped() {
+    RemuxTimeline timeline = new RemuxTimeline(100, 0);
+    timeline.nextInput(0, 1000);
+    assertThat(timeline.map(120, true)).isEqualTo(0);
+    assertThat(timeline.map(110, false)).isEqualTo(DROP);
+    assertThat(timeline.map(150, false)).isEqualTo(30);
+    assertThat(timeline.samples()).isEqualTo(2);
+  }
+
+  @Test public void fragmentedTakeOfOneSampleLastsOneFrame() {
+    assertThat(Remuxer.durationUs(5000, -1, 5000)).isEqualTo(1000000L / Encoder.FRAME_RATE);
+  }
+
+  @Test public void fragmentedTakeWithoutSamplesLastsNothing() {
+    assertThat(Remuxer.durationUs(-1, -1, -1)).isEqualTo(0);
+  }
+
+  @Test public void mapRequiresInput() {
+    RemuxTimeline timeline = new RemuxTimeline(0, 0);
+    try {
+      timeline.map(0, true);
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void negativeTrimRejected() {
+    try {
+      new RemuxTimeline(-1, 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package com.jakewharton.telecine;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class SampleRingBufferTest {
+  private static final long FRAME_US = 100000;
+
+  @Test public void retainsEverythingWithinTheWindow() {
+    SampleRingBuffer buffer = new SampleRingBuffer(1000, 100, 1000000);
+    for (int i = 0; i < 8; i++) {
+      assertThat(buffer.add(sample(i, 10), i * FRAME_US, i % 4 == 0)).isTrue();
+    }
+
+    assertThat(buffer.size()).isEqualTo(8);
+    assertThat(buffer.durationUs()).isEqualTo(7 * FRAME_US);
+    for (int i = 0; i < 8; i++) {
+      assertSample(buffer, i, i, 10);
+      assertThat(buffer.presentationTimeUs(i)).isEqualTo(i * FRAME_US);
+      assertThat(buffer.isKeyFrame(i)).isEqualTo(i % 4 == 0);
+    }
+  }
+
+  @Test public void dropsEverythingBeforeTheFirstKeyFrame() {
+    SampleRingBuffer buffer = new SampleRingBuffer(1000, 100, 1000000);
+    assertThat(buffer.add(sample(0, 10), 0, false)).isFalse();
+    assertThat(buffer.add(sample(1, 10), FRAME_US, false)).isFalse();
+    assertThat(buffer.add(sample(2, 10), 2 * FRAME_US, true)).isTrue();
+
+    assertThat(buffer.size()).isEqualTo(1);
+    assertSample(buffer, 0, 2, 10);
+  }
+
+  @Test public void evictsWholeGroupsOutsideTheWindow() {
+    // Key frames every 4 frames, 0.5s window.
+    SampleRingBuffer buffer = new SampleRingBuffer(10000, 100, 500000);
+    for (int i = 0; i < 20; i++) {
+      buffer.add(sample(i, 10), i * FRAME_US, i % 4 == 0);
+    }
+
+    // The window begins at frame 14. The group starting at 12 covers it and the one at 8 does not.
+    assertThat(buffer.size()).isEqualTo(8);
+    assertThat(buffer.isKeyFrame(0)).isTrue();
+    assertSample(buffer, 0, 12, 10);
+    assertSample(buffer, 7, 19, 10);
+    assertThat(buffer.durationUs()).isAtLeast(500000L);
+  }
+
+  @Test public void evictsWholeGroupsWhenOutOfSpace() {
+    // Room for 10 samples of 10 bytes, but a window which would retain everything.
+    SampleRingBuffer buffer = new SampleRingBuffer(100, 100, 100000000);
+    for (int i = 0; i < 12; i++) {
+      assertThat(buffer.add(sample(i, 10), i * FRAME_US, i % 4 == 0)).isTrue();
+    }
+
+    // Frame 10 evicted the group starting at 0. Frame 11 still fits.
+    assertThat(buffer.size()).isEqualTo(8);
+    assertThat(buffer.isKeyFrame(0)).isTrue();
+    for (int i = 0; i < 8; i++) {
+      assertSample(buffer, i, 4 + i, 10);
+    }
+  }
+
+  @Test public void evictsWholeGroupsWhenOutOfSamples() {
+    SampleRingBuffer buffer = new SampleRingBuffer(10000, 6, 100000000);
+    for (int i = 0; i < 7; i++) {
+      buffer.add(sample(i, 10), i * FRAME_US, i % 3 == 0);
+    }
+
+    assertThat(buffer.size()).isEqualTo(4);
+    assertSample(buffer, 0, 3, 10);
+    assertSample(buffer, 3, 6, 10);
+  }
+
+  @Test public void samplesWrapAroundWithoutSplitting() {
+    SampleRingBuffer buffer = new SampleRingBuffer(100, 100, 100000000);
+    List<Integer> sizes = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      int size = 7 + (i * 13) % 23;
+      sizes.add(size);
+      buffer.add(sample(i, size), i * FRAME_US, i % 2 == 0);
+    }
+
+    // Every retained sample is intact and contiguous no matter where it landed.
+    int first = 50 - buffer.size();
+    assertThat(buffer.isKeyFrame(0)).isTrue();
+    int total = 0;
+    for (int i = 0; i < buffer.size(); i++) {
+      assertSample(buffer, i, first + i, sizes.get(first + i));
+      total += sizes.get(first + i);
+    }
+    assertThat(total).isAtMost(100);
+    assertSample(buffer, buffer.size() - 1, 49, sizes.get(49));
+  }
+
+  @Test public void sampleLargerThanCapacityDropsItsGroup() {
+    SampleRingBuffer buffer = new SampleRingBuffer(100, 100, 100000000);
+    buffer.add(sample(0, 10), 0, true);
+    buffer.add(sample(1, 10), FRAME_US, false);
+    assertThat(buffer.add(sample(2, 101), 2 * FRAME_US, true)).isFalse();
+    // Frames which depend on the dropped key frame are useless.
+    assertThat(buffer.add(sample(3, 10), 3 * FRAME_US, false)).isFalse();
+    assertThat(buffer.size()).isEqualTo(0);
+
+    assertThat(buffer.add(sample(4, 10), 4 * FRAME_US, true)).isTrue();
+    assertSample(buffer, 0, 4, 10);
+  }
+
+  @Test public void frameWhichEvictsItsOwnKeyFrameIsDropped() {
+    SampleRingBuffer buffer = new SampleRingBuffer(100, 100, 100000000);
+    buffer.add(sample(0, 60), 0, true);
+    assertThat(buffer.add(sample(1, 60), FRAME_US, false)).isFalse();
+    assertThat(buffer.size()).isEqualTo(0);
+    assertThat(buffer.add(sample(2, 10), 2 * FRAME_US, false)).isFalse();
+    assertThat(buffer.add(sample(3, 60), 3 * FRAME_US, true)).isTrue();
+  }
+
+  @Test public void clearWaitsForTheNextKeyFrame() {
+    SampleRingBuffer buffer = new SampleRingBuffer(100, 100, 1000000);
+    buffer.add(sample(0, 10), 0, true);
+    buffer.clear();
+    assertThat(buffer.size()).isEqualTo(0);
+    assertThat(buffer.add(sample(1, 10), FRAME_US, false)).isFalse();
+    assertThat(buffer.add(sample(2, 10), 2 * FRAME_US, true)).isTrue();
+  }
+
+  @Test public void positionOutOfRangeThrows() {
+    SampleRingBuffer buffer = new SampleRingBuffer(100, 100, 1000000);
+    buffer.add(sample(0, 10), 0, true);
+    try {
+      buffer.sample(1);
+      fail();
+    } catch (IndexOutOfBoundsException expected) {
+    }
+  }
+
+  @Test public void addDoesNotConsumeTheSource() {
+    SampleRingBuffer buffer = new SampleRingBuffer(100, 100, 1000000);
+    ByteBuffer source = sample(0, 10);
+    buffer.add(source, 0, true);
+    assertThat(source.remaining()).isEqualTo(10);
+  }
+
+  private static void assertSample(SampleRingBuffer buffer, int position, int frame, int size) {
+    ByteBuffer actual = buffer.sample(position);
+    assertThat(actual.remaining()).isEqualTo(size);
+    assertThat(actual).isEqualTo(sample(frame, size));
+  }
+
+  /** {@code size} bytes identifying {@code frame}, between bytes which are not part of it. */
+  private static ByteBuffer sample(int frame, int size) {
+    ByteBuffer buffer = ByteBuffer.allocate(size + 2);
+    buffer.put((byte) 0xff);
+    for (int i = 0; i < size; i++) {
+      buffer.put((byte) (frame * 31 + i));
+    }
+    buffer.put((byte) 0xff);
+    buffer.position(1);
+    buffer.limit(1 + size);
+    return buffer;
+  }
+}
@@ -0,0 +1,205 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaFormat;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class SegmentingSampleWriterTest {
+  private static final long FRAME_US = 100000;
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+  private final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+  private final SegmentingSampleWriter.Listener listener = new SegmentingSampleWriter.Listener() {
+    @Override public void onSegmentComplete(File segment, long durationUs) {
+      completed.add(segment.getName() + " " + durationUs);
+    }
+  };
+  private String outputFile;
+
+  @Before public void setUp() {
+    outputFile = new File(temporaryFolder.getRoot(), "Telecine_test.mp4").getPath();
+  }
+
+  @Test public void segmentFileNames() {
+    assertThat(SegmentingSampleWriter.segmentFile("/sdcard/Telecine_1.mp4", 3).getPath())
+        .isEqualTo("/sdcard/Telecine_1_part3.mp4");
+    assertThat(SegmentingSampleWriter.manifestFile("/sdcard/Telecine_1.mp4").getPath())
+        .isEqualTo("/sdcard/Telecine_1.m3u");
+    assertThat(SegmentingSampleWriter.segmentFile("/sdcard.d/recording", 1).getPath())
+        .isEqualTo("/sdcard.d/recording_part1.mp4");
+  }
+
+  @Test public void rotatesAtFirstKeyFrameAfterDuration() throws IOException {
+    SegmentingSampleWriter writer = new SegmentingSampleWriter(new RecordingFactory(), outputFile,
+        1000000, Long.MAX_VALUE, listener);
+    writer.start(null);
+    // Key frames every 0.4s. The 1s limit is reached at frame 10, so segments begin at 12 and 24.
+    for (int i = 0; i < 30; i++) {
+      writer.writeSample(sample(10), i * FRAME_US, i % 4 == 0);
+    }
+    writer.stop();
+    writer.release();
+
+    assertThat(segmentStarts()).containsExactly("Telecine_test_part1.mp4 0",
+        "Telecine_test_part2.mp4 1200000", "Telecine_test_part3.mp4 2400000").inOrder();
+    assertThat(completed).containsExactly("Telecine_test_part1.mp4 1200000",
+        "Telecine_test_part2.mp4 1200000", "Telecine_test_part3.mp4 600000").inOrder();
+  }
+
+  @Test public void rotatesAtFirstKeyFrameWhichWouldExceedSize() throws IOException {
+    SegmentingSampleWriter writer = new SegmentingSampleWriter(new RecordingFactory(), outputFile,
+        Long.MAX_VALUE, 100, listener);
+    writer.start(null);
+    for (int i = 0; i < 12; i++) {
+      writer.writeSample(sample(30), i * FRAME_US, i % 2 == 0);
+    }
+    writer.stop();
+
+    // Only a key frame can begin a segment, so segments may exceed the limit by a group.
+    assertThat(segmentStarts()).containsExactly("Telecine_test_part1.mp4 0",
+        "Telecine_test_part2.mp4 400000", "Telecine_test_part3.mp4 800000").inOrder();
+  }
+
+  @Test public void manifestListsCompletedSegments() throws IOException {
+    SegmentingSampleWriter writer = new SegmentingSampleWriter(new RecordingFactory(), outputFile,
+        1000000, Long.MAX_VALUE, listener);
+    writer.start(null);
+    for (int i = 0; i < 15; i++) {
+      writer.writeSample(sample(10), i * FRAME_US, i % 10 == 0);
+    }
+    writer.stop();
+
+    File manifest = SegmentingSampleWriter.manifestFile(outputFile);
+    assertThat(read(manifest)).isEqualTo("#EXTM3U\n"
+        + "#EXTINF:1.000,Telecine_test_part1.mp4\n"
+        + "Telecine_test_part1.mp4\n"
+        + "#EXTINF:0.500,Telecine_test_part2.mp4\n"
+        + "Telecine_test_part2.mp4\n");
+    assertThat(new File(manifest.getPath() + ".tmp").exists()).isFalse();
+  }
+
+  @Test public void segmentsCompleteInBackground() throws Exception {
+    final CountDownLatch stopping = new CountDownLatch(1);
+    final CountDownLatch proceed = new CountDownLatch(1);
+    RecordingFactory factory = new RecordingFactory() {
+      @Override void onStop(String name) {
+        if (name.endsWith("part1.mp4")) {
+          stopping.countDown();
+          try {
+            proceed.await();
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          }
+        }
+      }
+    };
+    SegmentingSampleWriter writer =
+        new SegmentingSampleWriter(factory, outputFile, 1000000, Long.MAX_VALUE, listener);
+    writer.start(null);
+    for (int i = 0; i < 11; i++) {
+      writer.writeSample(sample(10), i * FRAME_US, i % 10 == 0);
+    }
+    stopping.await();
+
+    // The first segment is still completing while the second records.
+    writer.writeSample(sample(10), 11 * FRAME_US, false);
+    assertThat(events).contains("write Telecine_test_part2.mp4 1100000");
+    assertThat(completed).isEmpty();
+
+    proceed.countDown();
+    writer.stop();
+    assertThat(completed).hasSize(2);
+  }
+
+  @Test public void failedSegmentFailsTheRecording() throws IOException {
+    RecordingFactory factory = new RecordingFactory() {
+      @Override void onStop(String name) throws IOException {
+        throw new IOException("Disk full");
+      }
+    };
+    SegmentingSampleWriter writer =
+        new SegmentingSampleWriter(factory, outputFile, 1000000, Long.MAX_VALUE, listener);
+    writer.start(null);
+    writer.writeSample(sample(10), 0, true);
+    try {
+      writer.stop();
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Disk full");
+    }
+    writer.release();
+    assertThat(events).contains("release Telecine_test_part1.mp4");
+  }
+
+  /** The name and first presentation time of every segment which was started. */
+  private List<String> segmentStarts() {
+    List<String> starts = new ArrayList<>();
+    String current = null;
+    for (String event : events) {
+      String[] parts = event.split(" ");
+      if (parts[0].equals("write") && !parts[1].equals(current)) {
+        current = parts[1];
+        starts.add(current + " " + parts[2]);
+      }
+    }
+    return starts;
+  }
+
+  private static ByteBuffer sample(int size) {
+    return ByteBuffer.allocate(size);
+  }
+
+  private static String read(File file) throws IOException {
+    Scanner scanner = new Scanner(file, Charset.forName("UTF-8").name());
+    try {
+      return scanner.useDelimiter("\\A").next();
+    } finally {
+      scanner.close();
+    }
+  }
+
+  /** Records each call made to the segments it creates as an event. */
+  private class RecordingFactory implements SampleWriter.Factory {
+    void onStop(String name) throws IOException {
+    }
+
+    @Override public SampleWriter create(String outputFile) {
+      final String name = new File(outputFile).getName();
+      return new SampleWriter() {
+        @Override public void start(MediaFormat format) {
+          events.add("start " + name);
+        }
+
+        @Override public void writeSample(ByteBuffer data, long presentationTimeUs,
+            boolean keyFrame) {
+          events.add("write " + name + " " + presentationTimeUs);
+        }
+
+        @Override public void stop() throws IOException {
+          onStop(name);
+          events.add("stop " + name);
+        }
+
+        @Override public void release() {
+          events.add("release " + name);
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.jakewharton.telecine;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class ShareTargetTest {
+  private static final long MINUTE_US = TimeUnit.MINUTES.toMicros(1);
+
+  @Test public void shortRecordingCappedAt480p() {
+    ShareTarget target = ShareTarget.forRecording(1080, 1920, 30, TimeUnit.SECONDS.toMicros(10));
+    assertThat(target.bitRate).isEqualTo(ShareTarget.MAX_BIT_RATE);
+    assertThat(target.height).isAtMost(ShareTarget.MAX_LONG_EDGE);
+    assertThat(target.width).isEqualTo(480);
+    assertThat(target.height).isEqualTo(848);
+  }
+
+  @Test public void bitRateFitsTargetSize() {
+    ShareTarget target = ShareTarget.forRecording(1080, 1920, 30, MINUTE_US);
+    long bytes = (long) target.bitRate * 60 / 8;
+    assertThat(bytes).isAtMost(ShareTarget.TARGET_BYTES);
+    assertThat(bytes).isAtLeast(ShareTarget.TARGET_BYTES * 9 / 10);
+  }
+
+  @Test public void lowerBitRateShrinksFrame() {
+    ShareTarget oneMinute = ShareTarget.forRecording(1080, 1920, 30, MINUTE_US);
+    ShareTarget fiveMinutes = ShareTarget.forRecording(1080, 1920, 30, 5 * MINUTE_US);
+    assertThat(fiveMinutes.bitRate).isLessThan(oneMinute.bitRate);
+    assertThat(fiveMinutes.height).isLessThan(oneMinute.height);
+  }
+
+  @Test public void longRecordingKeepsMinimumBitRate() {
+    ShareTarget target = ShareTarget.forRecording(1080, 1920, 30, 60 * MINUTE_US);
+    assertThat(target.bitRate).isEqualTo(ShareTarget.MIN_BIT_RATE);
+    assertThat(target.height).isAtLeast(ShareTarget.MIN_LONG_EDGE);
+  }
+
+  @Test public void frameNotShrunkBelowMinimumSize() {
+    ShareTarget target = ShareTarget.forRecording(3000, 3000, 60, 60 * MINUTE_US);
+    assertThat(target.width).isEqualTo(ShareTarget.MIN_LONG_EDGE);
+    assertThat(target.height).isEqualTo(ShareTarget.MIN_LONG_EDGE);
+  }
+
+  @Test public void smallRecordingNotScaledUp() {
+    ShareTarget target = ShareTarget.forRecording(160, 288, 30, 60 * MINUTE_US);
+    assertThat(target.width).isEqualTo(160);
+    assertThat(target.height).isEqualTo(288);
+  }
+
+  @Test public void dimensionsAligned() {
+    ShareTarget target = ShareTarget.forRecording(1200, 1920, 30, 3 * MINUTE_US);
+    assertThat(target.width % ShareTarget.ALIGNMENT).isEqualTo(0);
+    assertThat(target.height % ShareTarget.ALIGNMENT).isEqualTo(0);
+  }
+
+  @Test public void invalidRecordingRejected() {
+    try {
+      ShareTarget.forRecording(1080, 1920, 30, 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.jakewharton.telecine;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public final class StorageBudgetTest {
+  private static final long MB = 1024 * 1024;
+
+  @Test public void bytesPerSecondIncludesHeadroom() {
+    // 8 Mbps is 1MB per second, plus half again for encoder overshoot.
+    StorageBudget budget = new StorageBudget(8000000, 0);
+    assertThat(budget.bytesPerSecond).isEqualTo(1500000);
+  }
+
+  @Test public void lowBitRateUsesMinimumReserve() {
+    StorageBudget budget = new StorageBudget(1000000, 0);
+    assertThat(budget.reserveBytes).isEqualTo(StorageBudget.MIN_RESERVE_BYTES);
+  }
+
+  @Test public void highBitRateReservesSecondsOfVideo() {
+    StorageBudget budget = new StorageBudget(40000000, 0);
+    assertThat(budget.reserveBytes).isEqualTo(7500000L * StorageBudget.RESERVE_SECONDS);
+  }
+
+  @Test public void deferredBytesAreReserved() {
+    StorageBudget budget = new StorageBudget(1000000, 50 * MB);
+    assertThat(budget.reserveBytes).isEqualTo(StorageBudget.MIN_RESERVE_BYTES + 50 * MB);
+  }
+
+  @Test public void canStartRequiresMinimumRecording() {
+    StorageBudget budget = new StorageBudget(8000000, 0);
+    long required = budget.reserveBytes + 1500000L * StorageBudget.MIN_RECORDING_SECONDS;
+    assertThat(budget.canStart(required)).isTrue();
+    assertThat(budget.canStart(required - 1)).isFalse();
+    assertThat(budget.canStart(0)).isFalse();
+  }
+
+  @Test public void shouldStopBelowReserve() {
+    StorageBudget budget = new StorageBudget(8000000, 0);
+    assertThat(budget.shouldStop(budget.reserveBytes)).isFalse();
+    assertThat(budget.shouldStop(budget.reserveBytes - 1)).isTrue();
+  }
+
+  @Test public void remainingSeconds() {
+    StorageBudget budget = new StorageBudget(8000000, 0);
+    assertThat(budget.remainingSeconds(budget.reserveBytes + 1500000L * 42 + 10)).isEqualTo(42);
+    assertThat(budget.remainingSeconds(0)).isEqualTo(0);
+  }
+
+  @Test public void checkIntervalShrinksAsSpaceRunsOut() {
+    StorageBudget budget = new StorageBudget(8000000, 0);
+    assertThat(budget.checkIntervalMs(budget.reserveBytes + 1500000L * 3600))
+        .isEqualTo(StorageBudget.MAX_CHECK_INTERVAL_MS);
+    assertThat(budget.checkIntervalMs(budget.reserveBytes + 1500000L * 20)).isEqualTo(10000);
+    assertThat(budget.checkIntervalMs(budget.reserveBytes))
+        .isEqualTo(StorageBudget.MIN_CHECK_INTERVAL_MS);
+  }
+
+  @Test public void invalidBitRate() {
+    try {
+      new StorageBudget(0, 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package com.jakewharton.telecine;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.Thumbnails.Region;
+import static com.jakewharton.telecine.Thumbnails.centerSquare;
+import static com.jakewharton.telecine.Thumbnails.fit;
+import static org.junit.Assert.fail;
+
+public final class ThumbnailsTest {
+  @Test public void fitPortraitIsBoundByHeight() {
+    // A 1440p phone in portrait with a 450 x 256dp box at xxxhdpi.
+    assertThat(fit(1440, 2560, 1800, 1024)).isEqualTo(new Region(0, 0, 576, 1024));
+  }
+
+  @Test public void fitLandscapeIsBoundByWidth() {
+    assertThat(fit(2560, 1440, 1350, 768)).isEqualTo(new Region(0, 0, 1350, 759));
+  }
+
+  @Test public void fitKeepsAspectRatio() {
+    Region region = fit(1072, 1920, 1350, 768);
+    assertThat(region.height).isEqualTo(768);
+    assertThat(region.width).isEqualTo(429); // 428.8
+  }
+
+  @Test public void fitNeverScalesUp() {
+    assertThat(fit(320, 480, 1350, 768)).isEqualTo(new Region(0, 0, 320, 480));
+    assertThat(fit(1350, 768, 1350, 768)).isEqualTo(new Region(0, 0, 1350, 768));
+  }
+
+  @Test public void fitNeverReachesZero() {
+    assertThat(fit(10000, 1, 100, 100)).isEqualTo(new Region(0, 0, 100, 1));
+  }
+
+  @Test public void fitRejectsEmptySizes() {
+    try {
+      fit(0, 1920, 100, 100);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+    try {
+      fit(1080, 1920, 100, 0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void centerSquareOfPortrait() {
+    Region square = centerSquare(429, 768);
+    assertThat(square).isEqualTo(new Region(0, 169, 429, 429));
+    assertThat(square.right()).isEqualTo(429);
+    assertThat(square.bottom()).isEqualTo(598);
+  }
+
+  @Test public void centerSquareOfLandscape() {
+    assertThat(centerSquare(1350, 759)).isEqualTo(new Region(295, 0, 759, 759));
+  }
+
+  @Test public void centerSquareOfSquare() {
+    assertThat(centerSquare(192, 192)).isEqualTo(new Region(0, 0, 192, 192));
+  }
+
+  @Test public void centerSquareRejectsEmptySizes() {
+    try {
+      centerSquare(0, 10);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
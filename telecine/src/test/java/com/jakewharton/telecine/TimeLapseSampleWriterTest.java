@@ -0,0 +1,70 @@
+package com.jakewharton.telecine;
+
+import android.media.MediaFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public final class TimeLapseSampleWriterTest {
+  private final List<String> events = new ArrayList<>();
+  private final SampleWriter output = new SampleWriter() {
+    @Override public void start(MediaFormat format) {
+      events.add("start");
+    }
+
+    @Override public void writeSample(ByteBuffer data, long presentationTimeUs,
+        boolean keyFrame) {
+      events.add(presentationTimeUs + (keyFrame ? " key" : ""));
+    }
+
+    @Override public void stop() {
+      events.add("stop");
+    }
+
+    @Override public void release() {
+      events.add("release");
+    }
+  };
+
+  @Test public void compressesTime() throws IOException {
+    // One frame a second played back at 30fps.
+    TimeLapseSampleWriter writer = new TimeLapseSampleWriter(output, 30);
+    writer.start(null);
+    writer.writeSample(ByteBuffer.allocate(1), 0, true);
+    writer.writeSample(ByteBuffer.allocate(1), 1000000, false);
+    writer.writeSample(ByteBuffer.allocate(1), 2010000, false);
+    writer.writeSample(ByteBuffer.allocate(1), 6000000, true);
+    writer.stop();
+    writer.release();
+
+    assertThat(events).containsExactly("start", "0 key", "33333", "67000", "200000 key", "stop",
+        "release").inOrder();
+  }
+
+  @Test public void keepsFramesDistinct() throws IOException {
+    TimeLapseSampleWriter writer = new TimeLapseSampleWriter(output, 1000);
+    writer.start(null);
+    writer.writeSample(ByteBuffer.allocate(1), 1000, true);
+    writer.writeSample(ByteBuffer.allocate(1), 1500, false);
+    writer.writeSample(ByteBuffer.allocate(1), 10000, false);
+
+    assertThat(events).containsExactly("start", "1 key", "2", "10").inOrder();
+  }
+
+  @Test public void speedupOfOneKeepsRealTime() throws IOException {
+    TimeLapseSampleWriter writer = new TimeLapseSampleWriter(output, 1);
+    writer.start(null);
+    writer.writeSample(ByteBuffer.allocate(1), 0, true);
+    writer.writeSample(ByteBuffer.allocate(1), 1000000, false);
+
+    assertThat(events).containsExactly("start", "0 key", "1000000").inOrder();
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void rejectsSpeedupBelowOne() {
+    new TimeLapseSampleWriter(output, 0);
+  }
+}
@@ -0,0 +1,99 @@
+package com.jakewharton.telecine;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jakewharton.telecine.TimestampRebaser.DROP;
+import static org.junit.Assert.fail;
+
+public final class TimestampRebaserTest {
+  private static final long FRAME_US = 100000;
+
+  private final TimestampRebaser rebaser = new TimestampRebaser(10);
+
+  @Test public void unchangedWithoutPause() {
+    assertThat(rebaser.rebase(5000000, true)).isEqualTo(5000000);
+    assertThat(rebaser.rebase(5100000, false)).isEqualTo(5100000);
+    assertThat(rebaser.pausedDurationUs()).isEqualTo(0);
+  }
+
+  @Test public void pauseRemovesGap() {
+    assertThat(rebaser.rebase(1000000, true)).isEqualTo(1000000);
+    assertThat(rebaser.rebase(1100000, false)).isEqualTo(1100000);
+    rebaser.pause(1150000);
+    assertThat(rebaser.isPaused()).isTrue();
+    assertThat(rebaser.rebase(1200000, false)).isEqualTo(DROP);
+    rebaser.resume();
+    assertThat(rebaser.isPaused()).isFalse();
+
+    // Resumed 10 seconds later. The key frame follows the last kept frame by one frame.
+    assertThat(rebaser.rebase(11000000, true)).isEqualTo(1100000 + FRAME_US);
+    assertThat(rebaser.rebase(11100000, false)).isEqualTo(1100000 + 2 * FRAME_US);
+    assertThat(rebaser.pausedDurationUs()).isEqualTo(11000000 - 1200000);
+  }
+
+  @Test public void samplesInFlightWhenPausedAreKept() {
+    rebaser.rebase(1000000, true);
+    rebaser.pause(1250000);
+    // Rendered before the pause but delivered after it.
+    assertThat(rebaser.rebase(1100000, false)).isEqualTo(1100000);
+    assertThat(rebaser.rebase(1200000, false)).isEqualTo(1200000);
+    assertThat(rebaser.rebase(1300000, false)).isEqualTo(DROP);
+  }
+
+  @Test public void framesBeforeKeyFrameAfterResumeDropped() {
+    rebaser.rebase(1000000, true);
+    rebaser.pause(1050000);
+    rebaser.resume();
+    assertThat(rebaser.rebase(3000000, false)).isEqualTo(DROP);
+    assertThat(rebaser.rebase(3100000, false)).isEqualTo(DROP);
+    assertThat(rebaser.rebase(3200000, true)).isEqualTo(1000000 + FRAME_US);
+    assertThat(rebaser.rebase(3300000, false)).isEqualTo(1000000 + 2 * FRAME_US);
+  }
+
+  @Test public void multiplePausesAccumulate() {
+    rebaser.rebase(0, true);
+    rebaser.pause(50000);
+    rebaser.resume();
+    assertThat(rebaser.rebase(2000000, true)).isEqualTo(FRAME_US);
+    rebaser.pause(2050000);
+    rebaser.resume();
+    assertThat(rebaser.rebase(5000000, true)).isEqualTo(2 * FRAME_US);
+    assertThat(rebaser.pausedDurationUs()).isEqualTo(5000000 - 2 * FRAME_US);
+  }
+
+  @Test public void pausedAgainBeforeRejoiningKeepsFirstPause() {
+    rebaser.rebase(1000000, true);
+    rebaser.pause(1050000);
+    rebaser.resume();
+    assertThat(rebaser.rebase(2000000, false)).isEqualTo(DROP);
+    rebaser.pause(2050000);
+    assertThat(rebaser.rebase(2100000, true)).isEqualTo(DROP);
+    rebaser.resume();
+    assertThat(rebaser.rebase(4000000, true)).isEqualTo(1000000 + FRAME_US);
+  }
+
+  @Test public void pauseBeforeFirstSample() {
+    rebaser.pause(1000000);
+    assertThat(rebaser.rebase(1100000, true)).isEqualTo(DROP);
+    rebaser.resume();
+    assertThat(rebaser.rebase(3000000, true)).isEqualTo(1000000);
+  }
+
+  @Test public void redundantCallsIgnored() {
+    rebaser.rebase(1000000, true);
+    rebaser.resume();
+    assertThat(rebaser.rebase(1100000, false)).isEqualTo(1100000);
+    rebaser.pause(1150000);
+    rebaser.pause(1500000);
+    assertThat(rebaser.rebase(1200000, false)).isEqualTo(DROP);
+  }
+
+  @Test public void invalidFrameRate() {
+    try {
+      new TimestampRebaser(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}